@@ -0,0 +1,143 @@
+package com.vpnsimulation.benchmark;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vpnsimulation.common.encryption.AESEncryption;
+import com.vpnsimulation.common.encryption.CipherSuite;
+
+/**
+ * Compares the cipher suites in MB/s across payload sizes, sealing (encrypt)
+ * and opening (decrypt) records on one thread the way a session does.
+ *
+ * The table is printed twice: for this JVM, and for a JVM started with the
+ * AES and GHASH intrinsics turned off, as on hosts without hardware AES. The
+ * last line of each shows the order the server's startup measurement picks.
+ *
+ * Usage: CipherSuiteBenchmark [secondsPerCase]
+ */
+public class CipherSuiteBenchmark {
+
+    private static final int[] PAYLOAD_SIZES = { 64, 256, 1024, 4096, 16384, 65536 };
+    private static final String CHILD = "child";
+    private static final String[] NO_AES_INTRINSICS = { "-XX:+UnlockDiagnosticVMOptions", "-XX:-UseAES",
+            "-XX:-UseAESIntrinsics", "-XX:-UseAESCTRIntrinsics", "-XX:-UseGHASHIntrinsics" };
+
+    public static void main(String[] args) throws Exception {
+        boolean child = args.length > 0 && args[0].equals(CHILD);
+        double seconds = args.length > (child ? 1 : 0) ? Double.parseDouble(args[child ? 1 : 0]) : 0.5;
+        if (child) {
+            table(seconds);
+            return;
+        }
+
+        System.out.println("This JVM");
+        table(seconds);
+        System.out.printf("%nWithout AES intrinsics%n");
+        launchWithoutIntrinsics(seconds);
+    }
+
+    private static void table(double seconds) throws Exception {
+        StringBuilder header = new StringBuilder(String.format("%-20s %-5s", "suite", "op"));
+        for (int size : PAYLOAD_SIZES) {
+            header.append(String.format(" %9s", size + " B"));
+        }
+        System.out.println(header);
+
+        for (CipherSuite suite : CipherSuite.values()) {
+            if (!suite.isAvailable()) {
+                System.out.printf("%-20s not available%n", suite);
+                continue;
+            }
+            // The first payload size would otherwise also pay for compiling the cipher
+            measure(suite, PAYLOAD_SIZES[PAYLOAD_SIZES.length / 2], seconds);
+            StringBuilder seal = new StringBuilder(String.format("%-20s %-5s", suite, "seal"));
+            StringBuilder open = new StringBuilder(String.format("%-20s %-5s", suite, "open"));
+            for (int size : PAYLOAD_SIZES) {
+                double[] rates = measure(suite, size, seconds);
+                seal.append(String.format(" %9.0f", rates[0] / 1e6));
+                open.append(String.format(" %9.0f", rates[1] / 1e6));
+            }
+            System.out.println(seal);
+            System.out.println(open);
+        }
+        System.out.println("server preference: " + CipherSuite.rank(CipherSuite.probe()));
+    }
+
+    /**
+     * Seals records of one size for the given time, then opens the last two
+     * in turn for the same time, after a warm-up of each. ChaCha20 refuses to
+     * be initialized twice in a row with the same nonce, even to decrypt.
+     * @return Bytes per second for sealing and opening
+     */
+    private static double[] measure(CipherSuite suite, int size, double seconds) throws Exception {
+        AESEncryption sender = new AESEncryption();
+        AESEncryption receiver = new AESEncryption();
+        byte[] secret = new byte[32];
+        sender.initFromSharedSecret(secret, AESEncryption.Role.CLIENT, suite);
+        receiver.initFromSharedSecret(secret, AESEncryption.Role.SERVER, suite);
+
+        ByteBuffer plaintext = ByteBuffer.allocate(size);
+        ByteBuffer[] records = { ByteBuffer.allocate(size + AESEncryption.RECORD_OVERHEAD),
+                ByteBuffer.allocate(size + AESEncryption.RECORD_OVERHEAD) };
+        ByteBuffer opened = ByteBuffer.allocate(size);
+        double[] rates = new double[2];
+        for (int round = 0; round < 2; round++) {
+            long bytes = 0;
+            long start = System.nanoTime();
+            long deadline = start + (long) (seconds * 1e9);
+            int count = 0;
+            while (System.nanoTime() < deadline || count < records.length) {
+                ByteBuffer record = records[count++ % records.length];
+                plaintext.clear();
+                record.clear();
+                sender.encrypt(plaintext, record);
+                bytes += size;
+            }
+            rates[0] = bytes * 1e9 / (System.nanoTime() - start);
+
+            for (ByteBuffer record : records) {
+                record.flip();
+            }
+            bytes = 0;
+            count = 0;
+            start = System.nanoTime();
+            deadline = start + (long) (seconds * 1e9);
+            while (System.nanoTime() < deadline) {
+                ByteBuffer record = records[count++ % records.length];
+                record.rewind();
+                opened.clear();
+                receiver.decrypt(record, opened);
+                bytes += size;
+            }
+            rates[1] = bytes * 1e9 / (System.nanoTime() - start);
+        }
+        return rates;
+    }
+
+    private static void launchWithoutIntrinsics(double seconds) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(List.of(NO_AES_INTRINSICS));
+        command.add("-cp");
+        command.add(StartupBenchmark.classPath());
+        command.add(CipherSuiteBenchmark.class.getName());
+        command.add(CHILD);
+        command.add(String.valueOf(seconds));
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                System.out.println(line);
+            }
+        }
+        process.waitFor();
+    }
+}
@@ -0,0 +1,140 @@
+package com.vpnsimulation.benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vpnsimulation.client.VPNClient;
+import com.vpnsimulation.common.util.Metrics;
+import com.vpnsimulation.common.util.RecordBatch;
+import com.vpnsimulation.server.VPNServer;
+
+/**
+ * Measures what coalescing short messages into shared records saves.
+ *
+ * One client sends short messages to another through an in-process NIO
+ * server, as fast as it can with a bounded number in flight, once with every
+ * message in its own record and once coalesced. The table shows the
+ * messages delivered per second, the records and the bytes the server wrote
+ * to the receiver per message, and the per-message overhead on top of the
+ * text: envelope, IV, tag, length prefix and frame, shared by all messages
+ * of a record. The last column is the median latency of messages sent one
+ * at a time, which is where the linger time shows.
+ *
+ * Usage: CoalescingBenchmark [messagesPerCase] [lingerMicros]
+ */
+public class CoalescingBenchmark {
+
+    private static final int PORT = 18509;
+    private static final int[] MESSAGE_SIZES = { 32, 128, 512 };
+    private static final int MAX_IN_FLIGHT = 10_000;
+    private static final int SPARSE_MESSAGES = 200;
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        long lingerMicros = args.length > 1 ? Long.parseLong(args[1]) : RecordBatch.DEFAULT_LINGER_MICROS;
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+
+        console.printf("%d messages per case, records of up to %d bytes, %d us linger (NIO server)%n", messages,
+                RecordBatch.DEFAULT_RECORD_SIZE, lingerMicros);
+        console.printf("%-6s %-10s %12s %12s %12s %14s %14s%n", "bytes", "records", "msgs/s", "records/msg",
+                "wire B/msg", "overhead B/msg", "sparse p50 us");
+        // Warm-up, not reported
+        run(null, 128, true, messages / 4, lingerMicros, 0);
+        run(null, 128, false, messages / 4, lingerMicros, 1);
+        int portOffset = 2;
+        for (int size : MESSAGE_SIZES) {
+            double single = run(console, size, false, messages, lingerMicros, portOffset++);
+            double coalesced = run(console, size, true, messages, lingerMicros, portOffset++);
+            console.printf("%-6s %-10s %11.1fx%n", "", "gain", coalesced / single);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * @return The messages delivered per second
+     */
+    private static double run(PrintStream console, int size, boolean coalescing, int messages, long lingerMicros,
+            int portOffset) throws Exception {
+        int port = PORT + portOffset;
+        VPNServer server = new VPNServer(port, VPNServer.TransportMode.NIO);
+        server.initialize();
+        server.start();
+        VPNClient sender = new VPNClient("localhost", port);
+        VPNClient receiver = new VPNClient("localhost", port);
+        sender.setCoalescing(coalescing);
+        sender.setCoalescingLimits(RecordBatch.DEFAULT_RECORD_SIZE, lingerMicros);
+        sender.initialize();
+        receiver.initialize();
+
+        AtomicLong received = new AtomicLong();
+        ConcurrentLinkedQueue<Double> sparseMicros = new ConcurrentLinkedQueue<>();
+        receiver.setMessageHandler(message -> {
+            received.incrementAndGet();
+            try {
+                String content = receiver.decryptContent(message);
+                if (content.startsWith("t")) {
+                    long sent = Long.parseLong(content.substring(1, content.indexOf(' ')));
+                    sparseMicros.add((System.nanoTime() - sent) / 1e3);
+                }
+            } catch (Exception e) {
+                // Counted as received all the same
+            }
+        });
+        sender.connect();
+        receiver.connect();
+        // The server makes a session routable just after its handshake response
+        Thread.sleep(100);
+
+        Metrics metrics = server.getMetrics();
+        Metrics.Distribution bytesWritten = metrics.distribution("outbound.batch.bytes");
+        Metrics.Distribution framesWritten = metrics.distribution("outbound.batch.frames");
+        long bytesBefore = bytesWritten.getSum();
+        long framesBefore = framesWritten.getSum();
+
+        String text = "x".repeat(size);
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            while (i - received.get() >= MAX_IN_FLIGHT) {
+                Thread.onSpinWait();
+            }
+            sender.sendMessage(text, receiver.getClientId());
+        }
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (received.get() < messages && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long delivered = received.get();
+        long bytes = bytesWritten.getSum() - bytesBefore;
+        long frames = framesWritten.getSum() - framesBefore;
+
+        // One at a time: each message waits out the linger time alone
+        String padding = "x".repeat(Math.max(0, size - 21));
+        for (int i = 0; i < SPARSE_MESSAGES; i++) {
+            sender.sendMessage("t" + System.nanoTime() + " " + padding, receiver.getClientId());
+            Thread.sleep(5);
+        }
+        Thread.sleep(100);
+
+        sender.shutdown();
+        receiver.shutdown();
+        server.stop();
+
+        double rate = delivered / elapsed;
+        if (console != null) {
+            double[] sparse = sparseMicros.stream().mapToDouble(Double::doubleValue).toArray();
+            Arrays.sort(sparse);
+            double wirePerMessage = (double) bytes / delivered;
+            console.printf("%-6d %-10s %12.0f %12.3f %12.1f %14.1f %14.0f%n", size,
+                    coalescing ? "coalesced" : "single", rate, (double) frames / delivered, wirePerMessage,
+                    wirePerMessage - size, sparse.length == 0 ? Double.NaN : sparse[sparse.length / 2]);
+        }
+        return rate;
+    }
+}
@@ -0,0 +1,113 @@
+package com.vpnsimulation.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Random;
+import java.util.UUID;
+
+import com.vpnsimulation.common.util.Message;
+import com.vpnsimulation.common.util.MessageCodec;
+import com.vpnsimulation.common.util.MessageFraming;
+
+/**
+ * Compares bytes on the wire and encode+decode throughput of the message
+ * encodings for DATA messages of different sizes.
+ *
+ * Usage: CodecBenchmark [secondsPerCase]
+ */
+public class CodecBenchmark {
+
+    private static final int[] PLAINTEXT_SIZES = {64, 1024, 16 * 1024};
+    private static final int AEAD_OVERHEAD = 12 + 16; // IV + GCM tag
+
+    /**
+     * One way of putting a message on the wire
+     */
+    private interface Encoding {
+        /** Encodes and decodes a batch of messages, returning the bytes produced */
+        long roundTrip(Message message, int count) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1.0;
+        Random random = new Random(42);
+        String sender = UUID.randomUUID().toString();
+        String destination = UUID.randomUUID().toString();
+
+        System.out.printf("%-28s %10s %14s %14s%n", "encoding", "plaintext", "bytes/msg", "msgs/sec");
+        for (int size : PLAINTEXT_SIZES) {
+            byte[] ciphertext = new byte[size + AEAD_OVERHEAD];
+            random.nextBytes(ciphertext);
+
+            Message base64Message = new Message(Message.MessageType.DATA, sender,
+                    Base64.getEncoder().encodeToString(ciphertext), destination);
+            Message rawMessage = new Message(Message.MessageType.DATA, sender, null, destination);
+            rawMessage.setPayload(ciphertext);
+
+            run("object stream (pre-framing)", size, base64Message, seconds, CodecBenchmark::objectStream);
+            run("SERIALIZED frame", size, base64Message, seconds, framed(MessageCodec.SERIALIZED));
+            run("BINARY frame, Base64", size, base64Message, seconds, framed(MessageCodec.BINARY));
+            run("BINARY frame, raw payload", size, rawMessage, seconds, framed(MessageCodec.BINARY));
+        }
+    }
+
+    private static void run(String name, int size, Message message, double seconds, Encoding encoding)
+            throws IOException {
+        // Warm up, then measure batches until the time is used up
+        encoding.roundTrip(message, 2_000);
+
+        long bytes = 0;
+        long messages = 0;
+        long start = System.nanoTime();
+        long deadline = start + (long) (seconds * 1e9);
+        while (System.nanoTime() < deadline) {
+            bytes += encoding.roundTrip(message, 1_000);
+            messages += 1_000;
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%-28s %10d %14d %14.0f%n", name, size, bytes / messages, messages / elapsed);
+    }
+
+    private static Encoding framed(MessageCodec codec) {
+        return (message, count) -> {
+            long bytes = 0;
+            for (int i = 0; i < count; i++) {
+                ByteBuffer frame = codec.encodeFrame(message);
+                bytes += frame.remaining();
+                MessageFraming.decode(frame, codec);
+            }
+            return bytes;
+        };
+    }
+
+    /**
+     * The original transport: one ObjectOutputStream per connection
+     */
+    private static long objectStream(Message message, int count) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(baos)) {
+            for (int i = 0; i < count; i++) {
+                // A new Message with new strings per send, as the client creates them per
+                // call; reusing the same instances would be sent as back-references
+                Message copy = new Message(message.getType(), new String(message.getSender()),
+                        new String(message.getContent()), new String(message.getDestinationAddress()));
+                out.writeObject(copy);
+            }
+        }
+
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            for (int i = 0; i < count; i++) {
+                in.readObject();
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        return baos.size();
+    }
+}
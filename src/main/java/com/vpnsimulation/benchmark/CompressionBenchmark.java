@@ -0,0 +1,210 @@
+package com.vpnsimulation.benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.vpnsimulation.client.VPNClient;
+import com.vpnsimulation.common.encryption.AESEncryption;
+import com.vpnsimulation.common.util.PayloadCompressor;
+import com.vpnsimulation.server.VPNServer;
+
+/**
+ * Measures what payload compression saves and costs on a tunnel.
+ *
+ * The first table runs the record path in-process, one payload at a time:
+ * seal and open without compression, and compress, seal, open and inflate
+ * with it. It shows the time per payload and the share of the payload bytes
+ * that would go on the wire, without the network or the database in the way.
+ *
+ * In the second table one client streams messages to another through an
+ * in-process NIO server, with a window of messages in flight. It shows the
+ * throughput, the share of the payload bytes that went on the wire, and the
+ * time the sender spent deflating and the receiver inflating per message.
+ *
+ * The payloads are chat-like sentences, log lines, random printable text
+ * (which barely compresses) and short chat lines below the threshold. Over
+ * loopback the network is free, so this shows the CPU side of the trade; on
+ * a real link the wire ratio is what scales the bandwidth.
+ *
+ * Usage: CompressionBenchmark [secondsPerCase] [window]
+ */
+public class CompressionBenchmark {
+
+    private static final int PORT = 18459;
+    private static final String[] WORDS = { "the", "meeting", "is", "moved", "to", "tomorrow", "at", "ten",
+            "can", "you", "send", "me", "report", "please", "thanks", "sure", "I", "will", "check", "later",
+            "deploy", "finished", "build", "failed", "again", "on", "staging", "looks", "good", "lunch" };
+    private static final String[] LEVELS = { "INFO ", "INFO ", "INFO ", "DEBUG", "WARN " };
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 3.0;
+        int window = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+        String[][] cases = {
+                { "chat 1 KB", chat(1024) },
+                { "logs 4 KB", logs(4096) },
+                { "logs 16 KB", logs(16384) },
+                { "random 4 KB", random(4096) },
+                { "chat 100 B", chat(100) },
+        };
+
+        System.out.printf("Records only (threshold %d bytes)%n", PayloadCompressor.DEFAULT_THRESHOLD);
+        System.out.printf("%-12s %-12s %14s %10s %10s%n", "payload", "compression", "us/payload", "MB/s", "on wire");
+        // Warm-up, not reported
+        records(null, cases[1][0], cases[1][1], true, seconds);
+        for (String[] payloadCase : cases) {
+            for (boolean compression : new boolean[] { false, true }) {
+                records(System.out, payloadCase[0], payloadCase[1], compression, seconds);
+            }
+        }
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        console.printf("%nTunnel, %d in flight, %.0f s per case (NIO server, threshold %d bytes)%n", window, seconds,
+                PayloadCompressor.DEFAULT_THRESHOLD);
+        console.printf("%-12s %-12s %10s %10s %10s %14s %14s%n", "payload", "compression", "msgs/sec", "MB/s",
+                "on wire", "deflate us", "inflate us");
+        // Warm-up, not reported
+        run(null, cases[1][0], cases[1][1], true, window, seconds, 0);
+        int portOffset = 1;
+        for (String[] payloadCase : cases) {
+            for (boolean compression : new boolean[] { false, true }) {
+                run(console, payloadCase[0], payloadCase[1], compression, window, seconds, portOffset++);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static String chat(int length) {
+        Random random = new Random(1);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(8) == 0 ? ". " : " ");
+        }
+        return text.substring(0, length);
+    }
+
+    private static String logs(int length) {
+        Random random = new Random(2);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            text.append(String.format("2026-10-17T09:%02d:%02d.%03d %s [worker-%d] c.v.s.RequestHandler - "
+                    + "request %d completed in %d ms status=%d%n", random.nextInt(60), random.nextInt(60),
+                    random.nextInt(1000), LEVELS[random.nextInt(LEVELS.length)], random.nextInt(8),
+                    random.nextInt(1_000_000), random.nextInt(200), random.nextInt(10) == 0 ? 500 : 200));
+        }
+        return text.substring(0, length);
+    }
+
+    private static String random(int length) {
+        Random random = new Random(3);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append((char) (' ' + random.nextInt(95)));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Passes payloads through the record path of a session for the given time
+     */
+    private static void records(PrintStream console, String name, String payload, boolean compression,
+            double seconds) throws Exception {
+        byte[] secret = new byte[32];
+        AESEncryption sender = new AESEncryption();
+        AESEncryption receiver = new AESEncryption();
+        sender.initFromSharedSecret(secret, AESEncryption.Role.CLIENT);
+        receiver.initFromSharedSecret(secret, AESEncryption.Role.SERVER);
+        PayloadCompressor deflating = new PayloadCompressor();
+        PayloadCompressor inflating = new PayloadCompressor();
+
+        byte[] plaintext = payload.getBytes(StandardCharsets.UTF_8);
+        long wireBytes = 0;
+        long count = 0;
+        long start = System.nanoTime();
+        long deadline = start + (long) (seconds * 1e9);
+        while (System.nanoTime() < deadline) {
+            byte[] compressed = compression ? deflating.compress(plaintext) : null;
+            byte[] record = sender.encrypt(compressed != null ? compressed : plaintext);
+            byte[] opened = receiver.decrypt(record);
+            if (compressed != null) {
+                opened = inflating.decompress(opened, plaintext.length);
+            }
+            wireBytes += record.length - AESEncryption.RECORD_OVERHEAD;
+            count++;
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        if (console != null) {
+            console.printf("%-12s %-12s %14.2f %10.1f %9.0f%%%n", name, compression ? "on" : "off",
+                    elapsed * 1e6 / count, count * (double) plaintext.length / elapsed / 1e6,
+                    100.0 * wireBytes / count / plaintext.length);
+        }
+    }
+
+    private static void run(PrintStream console, String name, String payload, boolean compression, int window,
+            double seconds, int portOffset) throws Exception {
+        int port = PORT + portOffset;
+        VPNServer server = new VPNServer(port, VPNServer.TransportMode.NIO);
+        server.initialize();
+        server.start();
+
+        VPNClient sender = new VPNClient("localhost", port);
+        VPNClient receiver = new VPNClient("localhost", port);
+        sender.setCompression(compression);
+        receiver.setCompression(compression);
+        sender.initialize();
+        receiver.initialize();
+
+        Semaphore inFlight = new Semaphore(window);
+        receiver.setMessageHandler(message -> {
+            try {
+                receiver.decryptContent(message);
+            } catch (Exception e) {
+                System.err.println("Benchmark message not readable: " + e.getMessage());
+            }
+            inFlight.release();
+        });
+        sender.connect();
+        receiver.connect();
+
+        long count = 0;
+        long start = System.nanoTime();
+        long deadline = start + (long) (seconds * 1e9);
+        while (System.nanoTime() < deadline) {
+            if (!inFlight.tryAcquire(5, TimeUnit.SECONDS)) {
+                break;
+            }
+            sender.sendMessage(payload, receiver.getClientId());
+            count++;
+        }
+        inFlight.tryAcquire(window, 5, TimeUnit.SECONDS);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        PayloadCompressor sent = sender.getCompressor();
+        PayloadCompressor received = receiver.getCompressor();
+        double onWire = 1.0;
+        double deflateMicros = 0;
+        double inflateMicros = 0;
+        if (sent != null && received != null) {
+            onWire = 1.0 - (double) sent.getSentBytesSaved() / sent.getSentBytes();
+            deflateMicros = sent.getDeflateNanos() / 1e3 / sent.getPayloadsSent();
+            inflateMicros = received.getInflateNanos() / 1e3 / Math.max(1, received.getPayloadsReceived());
+        }
+
+        sender.shutdown();
+        receiver.shutdown();
+        server.stop();
+
+        if (console != null) {
+            console.printf("%-12s %-12s %10.0f %10.1f %9.0f%% %14.2f %14.2f%n", name, compression ? "on" : "off",
+                    count / elapsed, count * (double) payload.length() / elapsed / 1e6, onWire * 100,
+                    deflateMicros, inflateMicros);
+        }
+    }
+}
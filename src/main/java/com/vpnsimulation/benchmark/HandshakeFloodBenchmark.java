@@ -0,0 +1,187 @@
+package com.vpnsimulation.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.vpnsimulation.client.VPNClient;
+import com.vpnsimulation.common.encryption.KeyExchange;
+import com.vpnsimulation.common.encryption.KeyExchangeAlgorithm;
+import com.vpnsimulation.common.util.CertificateManager;
+import com.vpnsimulation.common.util.HandshakeMode;
+import com.vpnsimulation.common.util.Message;
+import com.vpnsimulation.common.util.MessageCodec;
+import com.vpnsimulation.server.VPNServer;
+
+/**
+ * Measures how an established tunnel fares while the server is flooded with
+ * handshake attempts, with and without the cookie challenge.
+ *
+ * Each attacker opens connections as fast as it can, sends a valid
+ * one-round-trip HANDSHAKE_INIT (certificate and key share) and never reads
+ * the answer, keeping a window of such connections open. Meanwhile one
+ * client sends messages to another, one at a time, and the delivery latency
+ * is recorded. The table also shows how many connections reached the
+ * database and how many handshakes were admitted.
+ *
+ * Usage: HandshakeFloodBenchmark [secondsPerCase] [attackers] [openConnectionsPerAttacker]
+ */
+public class HandshakeFloodBenchmark {
+
+    private static final int PORT = 18448;
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 5.0;
+        int attackers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int window = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        byte[] floodFrame = floodFrame();
+
+        console.printf("%d attackers, %d open connections each, %.0f s per case (NIO server)%n",
+                attackers, window, seconds);
+        console.printf("%-12s %10s %10s %10s %12s %12s %12s%n", "case", "msgs/sec", "mean ms", "p99 ms",
+                "attempts", "db inserts", "challenged");
+        run(console, "no flood", Integer.MAX_VALUE, 0, window, seconds, floodFrame, 0);
+        run(console, "no cookies", Integer.MAX_VALUE, attackers, window, seconds, floodFrame, 1);
+        run(console, "cookies", VPNServer.DEFAULT_COOKIE_THRESHOLD, attackers, window, seconds, floodFrame, 2);
+        System.exit(0);
+    }
+
+    private static void run(PrintStream console, String name, int cookieThreshold, int attackers, int window,
+            double seconds, byte[] floodFrame, int portOffset) throws Exception {
+        int port = PORT + portOffset;
+        VPNServer server = new VPNServer(port, VPNServer.TransportMode.NIO);
+        server.setCookieThreshold(cookieThreshold);
+        server.initialize();
+        server.start();
+
+        VPNClient sender = new VPNClient("localhost", port);
+        VPNClient receiver = new VPNClient("localhost", port);
+        sender.initialize();
+        receiver.initialize();
+        BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+        receiver.setMessageHandler(received::add);
+        sender.connect();
+        receiver.connect();
+
+        Attacker[] flood = new Attacker[attackers];
+        for (int i = 0; i < attackers; i++) {
+            flood[i] = new Attacker(port, window, floodFrame);
+            flood[i].start();
+        }
+
+        double[] millis = new double[1 << 20];
+        int count = 0;
+        long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        long start = System.nanoTime();
+        while (System.nanoTime() < deadline && count < millis.length) {
+            long sent = System.nanoTime();
+            sender.sendMessage("ping", receiver.getClientId()).get();
+            if (received.poll(5, TimeUnit.SECONDS) == null) {
+                break;
+            }
+            millis[count++] = (System.nanoTime() - sent) / 1e6;
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        long attempts = 0;
+        for (Attacker attacker : flood) {
+            attacker.stop();
+            attempts += attacker.attempts;
+        }
+        sender.shutdown();
+        receiver.shutdown();
+        server.stop();
+
+        double[] measured = Arrays.copyOf(millis, count);
+        Arrays.sort(measured);
+        double mean = Arrays.stream(measured).average().orElse(0);
+        double p99 = count == 0 ? 0 : measured[Math.min(count - 1, (int) Math.ceil(0.99 * count) - 1)];
+        console.printf("%-12s %10.0f %10.2f %10.2f %12d %12d %12d%n", name, count / elapsed, mean, p99, attempts,
+                server.getMetrics().getCount("connections.logged"),
+                server.getMetrics().getCount("cookies.challenged"));
+    }
+
+    /**
+     * Builds a one-round-trip HANDSHAKE_INIT with a real certificate and X25519
+     * key share, so every admitted attempt costs the server full handshake work
+     */
+    private static byte[] floodFrame() throws Exception {
+        CertificateManager certificateManager = new CertificateManager();
+        certificateManager.generateSelfSignedCertificate("Flood");
+        KeyExchange keyExchange = KeyExchangeAlgorithm.X25519.create();
+        keyExchange.init();
+
+        Message init = new Message(Message.MessageType.HANDSHAKE_INIT, null, "Hello Server");
+        init.setAttribute(HandshakeMode.CERTIFICATE_ATTRIBUTE, certificateManager.getEncodedCertificate());
+        init.setAttribute(HandshakeMode.KEY_SHARE_ATTRIBUTE, keyExchange.getPublicKeyEncoded());
+        init.setAttribute(KeyExchangeAlgorithm.SELECTED_ATTRIBUTE, KeyExchangeAlgorithm.X25519.name());
+        ByteBuffer frame = MessageCodec.SERIALIZED.encodeFrame(init);
+        return Arrays.copyOfRange(frame.array(), frame.arrayOffset() + frame.position(),
+                frame.arrayOffset() + frame.limit());
+    }
+
+    /**
+     * Opens connections that send HANDSHAKE_INIT and never read, keeping the newest ones open
+     */
+    private static class Attacker implements Runnable {
+
+        private final int port;
+        private final int window;
+        private final byte[] frame;
+        private final Thread thread;
+        private volatile boolean running = true;
+        private long attempts;
+
+        Attacker(int port, int window, byte[] frame) {
+            this.port = port;
+            this.window = window;
+            this.frame = frame;
+            this.thread = new Thread(this, "benchmark-attacker");
+            this.thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        void stop() throws InterruptedException {
+            running = false;
+            thread.join();
+        }
+
+        @Override
+        public void run() {
+            ArrayDeque<Socket> open = new ArrayDeque<>();
+            while (running) {
+                try {
+                    Socket socket = new Socket("localhost", port);
+                    socket.getOutputStream().write(frame);
+                    open.add(socket);
+                    attempts++;
+                    if (open.size() > window) {
+                        open.poll().close();
+                    }
+                } catch (IOException e) {
+                    // Server refused or dropped the connection, keep going
+                }
+            }
+            for (Socket socket : open) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+}
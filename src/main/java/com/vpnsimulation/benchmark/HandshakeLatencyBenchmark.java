@@ -0,0 +1,219 @@
+package com.vpnsimulation.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.vpnsimulation.client.VPNClient;
+import com.vpnsimulation.common.util.HandshakeMode;
+import com.vpnsimulation.server.VPNServer;
+
+/**
+ * Compares connect latency of the full and the one-round-trip handshake, and
+ * of reconnecting with a session ticket.
+ * Clients connect through a local relay that delays every chunk by half the
+ * simulated round-trip time in each direction, so the number of round trips
+ * shows up as it would on a real network. Run with an RTT of 0 to see the
+ * share of key generation and logging.
+ *
+ * Usage: HandshakeLatencyBenchmark [BLOCKING|NIO] [connectionsPerMode] [rttMillis]
+ */
+public class HandshakeLatencyBenchmark {
+
+    private static final int SERVER_PORT = 18444;
+    private static final int RELAY_PORT = 18445;
+
+    public static void main(String[] args) throws Exception {
+        VPNServer.TransportMode transportMode = args.length > 0
+                ? VPNServer.TransportMode.valueOf(args[0]) : VPNServer.TransportMode.NIO;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        long rttMillis = args.length > 2 ? Long.parseLong(args[2]) : 20;
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        VPNServer server = new VPNServer(SERVER_PORT, transportMode);
+        server.initialize();
+        server.start();
+        DelayRelay relay = new DelayRelay(RELAY_PORT, SERVER_PORT, rttMillis / 2);
+        relay.start();
+
+        try {
+            console.printf("Transport: %s, simulated RTT: %d ms, %d connections per mode%n",
+                    transportMode, rttMillis, connections);
+            console.printf("%-10s %10s %10s %10s%n", "handshake", "mean ms", "p50 ms", "p99 ms");
+            for (HandshakeMode mode : HandshakeMode.values()) {
+                // One warm-up connection per mode, then the measured ones
+                connect(mode, 1);
+                double[] millis = connect(mode, connections);
+                print(console, mode.name(), millis);
+            }
+            resume(1);
+            print(console, "RESUMED", resume(connections));
+        } finally {
+            relay.stop();
+            server.stop();
+            System.setOut(console);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Connects fresh clients one after another and returns the time each connect took
+     */
+    private static double[] connect(HandshakeMode mode, int count) throws Exception {
+        List<VPNClient> clients = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            VPNClient client = new VPNClient("localhost", RELAY_PORT);
+            client.initialize();
+            client.setHandshakeMode(mode);
+            clients.add(client);
+        }
+
+        double[] millis = new double[count];
+        for (int i = 0; i < count; i++) {
+            long start = System.nanoTime();
+            clients.get(i).connect();
+            millis[i] = (System.nanoTime() - start) / 1e6;
+        }
+
+        for (VPNClient client : clients) {
+            client.shutdown();
+        }
+        return millis;
+    }
+
+    /**
+     * Connects fresh clients, then measures how long each takes to reconnect with its ticket
+     */
+    private static double[] resume(int count) throws Exception {
+        List<VPNClient> clients = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            VPNClient client = new VPNClient("localhost", RELAY_PORT);
+            client.initialize();
+            client.connect();
+            clients.add(client);
+        }
+
+        double[] millis = new double[count];
+        for (int i = 0; i < count; i++) {
+            VPNClient client = clients.get(i);
+            while (!client.hasSessionTicket()) {
+                Thread.sleep(1);
+            }
+            client.disconnect();
+            long start = System.nanoTime();
+            client.connect();
+            millis[i] = (System.nanoTime() - start) / 1e6;
+        }
+
+        for (VPNClient client : clients) {
+            client.shutdown();
+        }
+        return millis;
+    }
+
+    private static void print(PrintStream console, String name, double[] millis) {
+        Arrays.sort(millis);
+        double mean = Arrays.stream(millis).average().orElse(0);
+        console.printf("%-10s %10.1f %10.1f %10.1f%n", name, mean,
+                percentile(millis, 0.50), percentile(millis, 0.99));
+    }
+
+    private static double percentile(double[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    /**
+     * TCP relay that delivers every chunk a fixed delay after it was read
+     */
+    private static class DelayRelay {
+
+        private final int port;
+        private final int targetPort;
+        private final long delayNanos;
+        private ServerSocket serverSocket;
+
+        DelayRelay(int port, int targetPort, long delayMillis) {
+            this.port = port;
+            this.targetPort = targetPort;
+            this.delayNanos = delayMillis * 1_000_000;
+        }
+
+        void start() throws IOException {
+            serverSocket = new ServerSocket(port);
+            daemon(() -> {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        Socket client = serverSocket.accept();
+                        Socket target = new Socket("localhost", targetPort);
+                        client.setTcpNoDelay(true);
+                        target.setTcpNoDelay(true);
+                        pipe(client, target);
+                        pipe(target, client);
+                    } catch (IOException e) {
+                        // Relay closed
+                    }
+                }
+            });
+        }
+
+        /**
+         * Copies one direction of a connection with the configured delay
+         */
+        private void pipe(Socket from, Socket to) {
+            BlockingQueue<Chunk> chunks = new LinkedBlockingQueue<>();
+            daemon(() -> {
+                byte[] buffer = new byte[16 * 1024];
+                try (InputStream in = from.getInputStream()) {
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        chunks.add(new Chunk(System.nanoTime() + delayNanos, Arrays.copyOf(buffer, read)));
+                    }
+                } catch (IOException e) {
+                    // Connection closed
+                }
+                chunks.add(new Chunk(System.nanoTime() + delayNanos, null));
+            });
+            daemon(() -> {
+                try (OutputStream out = to.getOutputStream()) {
+                    while (true) {
+                        Chunk chunk = chunks.take();
+                        long wait = chunk.deliverAt - System.nanoTime();
+                        if (wait > 0) {
+                            Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                        }
+                        if (chunk.data == null) {
+                            break;
+                        }
+                        out.write(chunk.data);
+                        out.flush();
+                    }
+                } catch (IOException | InterruptedException e) {
+                    // Connection closed
+                }
+            });
+        }
+
+        void stop() throws IOException {
+            serverSocket.close();
+        }
+
+        private static void daemon(Runnable task) {
+            Thread thread = new Thread(task, "benchmark-relay");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private record Chunk(long deliverAt, byte[] data) {
+        }
+    }
+}
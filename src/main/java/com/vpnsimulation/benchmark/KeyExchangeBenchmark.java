@@ -0,0 +1,198 @@
+package com.vpnsimulation.benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.vpnsimulation.client.VPNClient;
+import com.vpnsimulation.common.encryption.EphemeralKeyPool;
+import com.vpnsimulation.common.encryption.KeyExchange;
+import com.vpnsimulation.common.encryption.KeyExchangeAlgorithm;
+import com.vpnsimulation.server.VPNServer;
+
+/**
+ * Compares the key exchange algorithms in handshakes per second.
+ *
+ * The first table runs only the key agreement of both sides on every core,
+ * without pre-generated key pairs. The second shows the server's critical
+ * path per handshake (key pair plus agreement) at a steady connection rate,
+ * with the ephemeral key pool off and on. The third simulates a reconnect
+ * storm: a batch of clients connects to an in-process server at once, and
+ * the process CPU time per handshake shows what such a storm costs.
+ *
+ * Usage: KeyExchangeBenchmark [secondsPerAlgorithm] [stormClients] [handshakesPerSecond]
+ */
+public class KeyExchangeBenchmark {
+
+    private static final int PORT = 18446;
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 3.0;
+        int stormClients = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int handshakesPerSecond = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (KeyExchangeAlgorithm algorithm : KeyExchangeAlgorithm.values()) {
+            algorithm.getKeyPool().setMaxSize(0);
+        }
+        System.out.printf("Key agreement only, %d threads%n", threads);
+        System.out.printf("%-10s %16s %20s%n", "algorithm", "handshakes/sec", "public key bytes");
+        for (KeyExchangeAlgorithm algorithm : KeyExchangeAlgorithm.values()) {
+            // Warm up as long as the measurement, X25519 in particular needs it to be compiled
+            keyAgreement(algorithm, seconds, threads);
+            double rate = keyAgreement(algorithm, seconds, threads);
+            KeyExchange sample = algorithm.create();
+            sample.init();
+            System.out.printf("%-10s %16.0f %20d%n", algorithm, rate, sample.getPublicKeyEncoded().length());
+        }
+
+        System.out.printf("%nServer critical path at %d handshakes/sec%n", handshakesPerSecond);
+        System.out.printf("%-10s %-6s %16s %20s%n", "algorithm", "pool", "mean ms", "pool hits");
+        for (KeyExchangeAlgorithm algorithm : KeyExchangeAlgorithm.values()) {
+            for (int maxSize : new int[] { 0, EphemeralKeyPool.DEFAULT_MAX_SIZE }) {
+                algorithm.getKeyPool().setMaxSize(maxSize);
+                criticalPath(algorithm, handshakesPerSecond, seconds);
+            }
+        }
+
+        System.out.printf("%nReconnect storm, %d clients connecting at once (NIO server)%n", stormClients);
+        System.out.printf("%-10s %16s %20s%n", "algorithm", "handshakes/sec", "CPU ms/handshake");
+        for (KeyExchangeAlgorithm algorithm : KeyExchangeAlgorithm.values()) {
+            reconnectStorm(algorithm, stormClients, threads);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Runs complete key agreements (both sides) on all threads for the given time
+     * @return Agreements per second
+     */
+    private static double keyAgreement(KeyExchangeAlgorithm algorithm, double seconds, int threads)
+            throws Exception {
+        LongAdder completed = new LongAdder();
+        long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            workers.add(executor.submit(() -> {
+                while (System.nanoTime() < deadline) {
+                    KeyExchange server = algorithm.create();
+                    KeyExchange client = algorithm.create();
+                    server.init();
+                    client.init();
+                    client.generateSharedSecret(server.getPublicKeyEncoded());
+                    server.generateSharedSecret(client.getPublicKeyEncoded());
+                    completed.increment();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        executor.shutdown();
+        return completed.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Runs the server side of paced handshakes and reports the time spent on the
+     * handshake thread, which is what a waiting client sees
+     */
+    private static void criticalPath(KeyExchangeAlgorithm algorithm, int handshakesPerSecond, double seconds)
+            throws Exception {
+        KeyExchange client = algorithm.create();
+        client.init();
+        String clientKey = client.getPublicKeyEncoded();
+        EphemeralKeyPool pool = algorithm.getKeyPool();
+
+        long interval = 1_000_000_000L / handshakesPerSecond;
+        int count = (int) (seconds * handshakesPerSecond);
+        // The first second lets the pool adapt to the rate
+        int warmup = handshakesPerSecond;
+        long hitsBefore = 0;
+        long totalNanos = 0;
+        long next = System.nanoTime();
+        for (int i = 0; i < warmup + count; i++) {
+            if (i == warmup) {
+                hitsBefore = pool.getHits();
+            }
+            long start = System.nanoTime();
+            KeyExchange server = algorithm.create();
+            server.init();
+            server.generateSharedSecret(clientKey);
+            if (i >= warmup) {
+                totalNanos += System.nanoTime() - start;
+            }
+
+            next += interval;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            }
+        }
+        System.out.printf("%-10s %-6s %16.2f %19.0f%%%n", algorithm, pool.getTargetSize() == 0 ? "off" : "on",
+                totalNanos / 1e6 / count, 100.0 * (pool.getHits() - hitsBefore) / count);
+    }
+
+    /**
+     * Connects a batch of clients concurrently and reports the handshake rate
+     */
+    private static void reconnectStorm(KeyExchangeAlgorithm algorithm, int clientCount, int threads)
+            throws Exception {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        VPNServer server = new VPNServer(PORT + algorithm.ordinal(), VPNServer.TransportMode.NIO);
+        List<VPNClient> clients = new ArrayList<>();
+        double elapsed;
+        long cpuNanos;
+        try {
+            server.initialize();
+            server.start();
+
+            // Client certificates are generated up front, they are not part of the handshake
+            for (int i = 0; i < clientCount; i++) {
+                VPNClient client = new VPNClient("localhost", PORT + algorithm.ordinal());
+                client.initialize();
+                client.setPreferredKeyExchange(algorithm);
+                clients.add(client);
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<Boolean>> connects = new ArrayList<>();
+            long cpuStart = processCpuNanos();
+            long start = System.nanoTime();
+            for (VPNClient client : clients) {
+                connects.add(executor.submit(client::connect));
+            }
+            for (Future<Boolean> connect : connects) {
+                connect.get();
+            }
+            elapsed = (System.nanoTime() - start) / 1e9;
+            cpuNanos = processCpuNanos() - cpuStart;
+            executor.shutdown();
+        } finally {
+            for (VPNClient client : clients) {
+                client.shutdown();
+            }
+            server.stop();
+            System.setOut(console);
+        }
+
+        // Client and server run in this process, so the CPU time covers both sides
+        System.out.printf("%-10s %16.0f %20.2f%n", algorithm, clientCount / elapsed,
+                cpuNanos / 1e6 / clientCount);
+    }
+
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+}
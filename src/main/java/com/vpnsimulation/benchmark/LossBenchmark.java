@@ -0,0 +1,404 @@
+package com.vpnsimulation.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vpnsimulation.client.VPNClient;
+import com.vpnsimulation.common.util.DatagramLink;
+import com.vpnsimulation.server.VPNServer;
+
+/**
+ * Compares the TCP and UDP transports on a lossy path.
+ *
+ * Every client reaches the server through its own relay on loopback, which
+ * delays everything by a fixed time in each direction and loses a share of
+ * it. The UDP relay drops datagrams. Loopback TCP cannot lose anything, so
+ * the TCP relay models what loss does to a TCP connection: the data is cut
+ * into segments of {@value #SEGMENT_SIZE} bytes, and a lost segment arrives
+ * one round trip late if at least three segments follow it (fast
+ * retransmit), otherwise after the minimum retransmission timeout of
+ * {@value #TCP_MIN_RTO_MILLIS} ms. Everything behind it waits, as TCP
+ * delivers in order. Congestion control is not modelled.
+ *
+ * For each transport and loss rate the table shows the delivery latency and
+ * the share delivered of short messages sent every few milliseconds from one
+ * client to another, and the throughput of a stream between them.
+ *
+ * Usage: LossBenchmark [secondsPerCase] [oneWayDelayMillis]
+ */
+public class LossBenchmark {
+
+    private static final int PORT = 18499;
+    private static final double[] LOSS_RATES = { 0, 0.01, 0.05 };
+    private static final VPNServer.TransportMode[] TRANSPORTS = { VPNServer.TransportMode.NIO,
+            VPNServer.TransportMode.UDP };
+    private static final int SEGMENT_SIZE = 1200;
+    private static final long TCP_MIN_RTO_MILLIS = 200;
+    private static final long MESSAGE_INTERVAL_MILLIS = 10;
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 5.0;
+        long delayMillis = args.length > 1 ? Long.parseLong(args[1]) : 10;
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+
+        console.printf("%d ms each way through every relay, one message every %d ms, %.0f s per case%n",
+                delayMillis, MESSAGE_INTERVAL_MILLIS, seconds);
+        console.printf("%-10s %6s %12s %12s %12s %10s%n", "transport", "loss", "p50 ms", "p99 ms", "delivered",
+                "MB/s");
+        // Warm-up, not reported
+        run(null, VPNServer.TransportMode.UDP, 0, delayMillis, 1.0, 0);
+        int portOffset = 1;
+        for (double loss : LOSS_RATES) {
+            for (VPNServer.TransportMode transport : TRANSPORTS) {
+                run(console, transport, loss, delayMillis, seconds, portOffset++);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(PrintStream console, VPNServer.TransportMode transport, double loss,
+            long delayMillis, double seconds, int portOffset) throws Exception {
+        int port = PORT + portOffset;
+        boolean udp = transport == VPNServer.TransportMode.UDP;
+        VPNServer server = new VPNServer(port, transport);
+        server.initialize();
+        server.start();
+        Relay senderRelay = udp ? new UdpRelay(port, loss, delayMillis) : new TcpRelay(port, loss, delayMillis);
+        Relay receiverRelay = udp ? new UdpRelay(port, loss, delayMillis) : new TcpRelay(port, loss, delayMillis);
+        VPNClient sender = new VPNClient("localhost", senderRelay.getPort());
+        VPNClient receiver = new VPNClient("localhost", receiverRelay.getPort());
+        sender.setDatagramTransport(udp);
+        receiver.setDatagramTransport(udp);
+        sender.initialize();
+        receiver.initialize();
+
+        ConcurrentLinkedQueue<Double> millis = new ConcurrentLinkedQueue<>();
+        receiver.setMessageHandler(message -> {
+            try {
+                long sent = Long.parseLong(receiver.decryptContent(message));
+                millis.add((System.nanoTime() - sent) / 1e6);
+            } catch (Exception e) {
+                // Not a benchmark message
+            }
+        });
+        AtomicLong received = new AtomicLong();
+        receiver.setStreamHandler((streamSender, streamId) -> new CountingChannel(received));
+        sender.connect();
+        receiver.connect();
+        // The server makes a session routable just after its handshake response
+        Thread.sleep(200 + 4 * delayMillis);
+
+        // Messages alone, so the stream does not queue ahead of them
+        long deadline = System.nanoTime() + (long) (seconds * 1e9 / 2);
+        int sent = 0;
+        while (System.nanoTime() < deadline) {
+            sender.sendMessage(String.valueOf(System.nanoTime()), receiver.getClientId());
+            sent++;
+            Thread.sleep(MESSAGE_INTERVAL_MILLIS);
+        }
+        // Let the last messages arrive
+        Thread.sleep(TCP_MIN_RTO_MILLIS * 4);
+
+        long start = System.nanoTime();
+        try {
+            sender.sendStream(new ZeroInputStream(start + (long) (seconds * 1e9 / 2)), receiver.getClientId());
+        } catch (IOException e) {
+            // Reported as what arrived
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        sender.shutdown();
+        receiver.shutdown();
+        senderRelay.close();
+        receiverRelay.close();
+        server.stop();
+
+        if (console != null) {
+            double[] sorted = millis.stream().mapToDouble(Double::doubleValue).toArray();
+            Arrays.sort(sorted);
+            console.printf("%-10s %5.0f%% %12.1f %12.1f %11.1f%% %10.2f%n", udp ? "UDP" : "TCP", loss * 100,
+                    percentile(sorted, 0.50), percentile(sorted, 0.99), 100.0 * sorted.length / sent,
+                    received.get() / elapsed / 1e6);
+        }
+    }
+
+    private static double percentile(double[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    private static boolean lost(double loss) {
+        return ThreadLocalRandom.current().nextDouble() < loss;
+    }
+
+    /**
+     * A lossy path between one client and the server
+     */
+    private interface Relay {
+        /** Returns the local port the client connects to */
+        int getPort();
+
+        void close() throws IOException;
+    }
+
+    /**
+     * Forwards datagrams between one client and the server, dropping some
+     */
+    private static class UdpRelay implements Relay {
+        private final DatagramChannel clientSide;
+        private final DatagramChannel serverSide;
+        private final ScheduledExecutorService delayer = Executors.newSingleThreadScheduledExecutor();
+        private final double loss;
+        private final long delayMillis;
+        private volatile SocketAddress client;
+
+        UdpRelay(int serverPort, double loss, long delayMillis) throws IOException {
+            this.loss = loss;
+            this.delayMillis = delayMillis;
+            clientSide = DatagramChannel.open().bind(new InetSocketAddress("localhost", 0));
+            serverSide = DatagramChannel.open().connect(new InetSocketAddress("localhost", serverPort));
+            start(() -> {
+                ByteBuffer datagram = ByteBuffer.allocate(DatagramLink.MAX_DATAGRAM_SIZE);
+                client = clientSide.receive(datagram);
+                return datagram.flip();
+            }, datagram -> serverSide.write(datagram));
+            start(() -> {
+                ByteBuffer datagram = ByteBuffer.allocate(DatagramLink.MAX_DATAGRAM_SIZE);
+                serverSide.read(datagram);
+                return datagram.flip();
+            }, datagram -> clientSide.send(datagram, client));
+        }
+
+        private interface Source {
+            ByteBuffer receive() throws IOException;
+        }
+
+        private interface Sink {
+            void send(ByteBuffer datagram) throws IOException;
+        }
+
+        private void start(Source source, Sink sink) {
+            Thread thread = new Thread(() -> {
+                try {
+                    while (true) {
+                        ByteBuffer datagram = source.receive();
+                        if (!lost(loss)) {
+                            delayer.schedule(() -> {
+                                try {
+                                    sink.send(datagram);
+                                } catch (IOException e) {
+                                    // Closed
+                                }
+                            }, delayMillis, TimeUnit.MILLISECONDS);
+                        }
+                    }
+                } catch (IOException e) {
+                    // Closed
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public int getPort() {
+            return ((InetSocketAddress) clientSide.socket().getLocalSocketAddress()).getPort();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delayer.shutdownNow();
+            clientSide.close();
+            serverSide.close();
+        }
+    }
+
+    /**
+     * Forwards one client's TCP connection, delaying segments as if some were lost
+     */
+    private static class TcpRelay implements Relay {
+        private final ServerSocket listener;
+        private final double loss;
+        private final long delayMillis;
+        private Socket clientSocket;
+        private Socket serverSocket;
+
+        TcpRelay(int serverPort, double loss, long delayMillis) throws IOException {
+            this.loss = loss;
+            this.delayMillis = delayMillis;
+            listener = new ServerSocket(0);
+            Thread acceptor = new Thread(() -> {
+                try {
+                    clientSocket = listener.accept();
+                    serverSocket = new Socket("localhost", serverPort);
+                    clientSocket.setTcpNoDelay(true);
+                    serverSocket.setTcpNoDelay(true);
+                    pump(clientSocket.getInputStream(), serverSocket.getOutputStream());
+                    pump(serverSocket.getInputStream(), clientSocket.getOutputStream());
+                } catch (IOException e) {
+                    // Closed
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        /**
+         * A segment and when it arrives
+         */
+        private static class Segment {
+            final byte[] bytes;
+            final long deliverAt;
+
+            Segment(byte[] bytes, long deliverAt) {
+                this.bytes = bytes;
+                this.deliverAt = deliverAt;
+            }
+        }
+
+        private void pump(InputStream input, OutputStream output) {
+            BlockingQueue<Segment> segments = new LinkedBlockingQueue<>();
+            Thread reader = new Thread(() -> {
+                byte[] buffer = new byte[64 * 1024];
+                long lastDelivery = 0;
+                try {
+                    int length;
+                    while ((length = input.read(buffer)) > 0) {
+                        long now = System.nanoTime();
+                        for (int offset = 0; offset < length; offset += SEGMENT_SIZE) {
+                            int segmentLength = Math.min(SEGMENT_SIZE, length - offset);
+                            long deliverAt = now + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+                            if (lost(loss)) {
+                                // Three segments behind it trigger a fast retransmit, otherwise the timer resends
+                                boolean fastRetransmit = length - offset - segmentLength >= 3 * SEGMENT_SIZE;
+                                deliverAt += TimeUnit.MILLISECONDS.toNanos(
+                                        fastRetransmit ? 2 * delayMillis : Math.max(TCP_MIN_RTO_MILLIS, 2 * delayMillis));
+                            }
+                            // In order: nothing overtakes a late segment
+                            lastDelivery = Math.max(lastDelivery, deliverAt);
+                            segments.add(new Segment(Arrays.copyOfRange(buffer, offset, offset + segmentLength),
+                                    lastDelivery));
+                        }
+                    }
+                } catch (IOException e) {
+                    // Closed
+                }
+            });
+            Thread writer = new Thread(() -> {
+                try {
+                    while (true) {
+                        Segment segment = segments.take();
+                        long wait = segment.deliverAt - System.nanoTime();
+                        if (wait > 0) {
+                            TimeUnit.NANOSECONDS.sleep(wait);
+                        }
+                        output.write(segment.bytes);
+                        if (segments.isEmpty()) {
+                            output.flush();
+                        }
+                    }
+                } catch (IOException | InterruptedException e) {
+                    // Closed
+                }
+            });
+            reader.setDaemon(true);
+            writer.setDaemon(true);
+            reader.start();
+            writer.start();
+        }
+
+        @Override
+        public int getPort() {
+            return listener.getLocalPort();
+        }
+
+        @Override
+        public void close() throws IOException {
+            listener.close();
+            if (clientSocket != null) {
+                clientSocket.close();
+            }
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes of a received stream and drops them
+     */
+    private static class CountingChannel implements WritableByteChannel {
+        private final AtomicLong received;
+        private boolean open = true;
+
+        CountingChannel(AtomicLong received) {
+            this.received = received;
+        }
+
+        @Override
+        public int write(ByteBuffer source) {
+            int length = source.remaining();
+            source.position(source.limit());
+            received.addAndGet(length);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+
+    /**
+     * Produces zero bytes until the deadline passes
+     */
+    private static class ZeroInputStream extends InputStream {
+        private final long deadline;
+
+        ZeroInputStream(long deadline) {
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int read() {
+            return System.nanoTime() < deadline ? 0 : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (System.nanoTime() >= deadline) {
+                return -1;
+            }
+            Arrays.fill(buffer, offset, offset + length, (byte) 0);
+            return length;
+        }
+    }
+}
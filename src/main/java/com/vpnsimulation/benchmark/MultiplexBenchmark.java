@@ -0,0 +1,220 @@
+package com.vpnsimulation.benchmark;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vpnsimulation.client.VPNClient;
+import com.vpnsimulation.common.util.StreamChunks;
+import com.vpnsimulation.server.VPNServer;
+
+/**
+ * Measures how bulk streams and interactive messages share one tunnel.
+ *
+ * Client A sends a number of streams to client B as fast as they go, each on
+ * its own thread, while it also sends a short message every few
+ * milliseconds, alternately to B and to a third client C. The table shows
+ * the throughput of the streams together and the delivery latency of the
+ * messages to each destination: to C they only share A's connection with the
+ * streams, to B also B's connection. Every stream case runs with the
+ * default budget of stream bytes in flight and with a smaller one.
+ *
+ * Usage: MultiplexBenchmark [secondsPerCase] [messageIntervalMillis]
+ */
+public class MultiplexBenchmark {
+
+    private static final int PORT = 18489;
+    private static final int[] STREAM_COUNTS = { 1, 4 };
+    private static final int[] BUDGETS = { StreamChunks.INITIAL_CREDIT, 64 * 1024 };
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 5.0;
+        long intervalMillis = args.length > 1 ? Long.parseLong(args[1]) : 10;
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+
+        console.printf("One message every %d ms next to the streams, %.0f s per case (NIO server)%n",
+                intervalMillis, seconds);
+        console.printf("%-8s %10s %10s %10s %12s %12s %12s %12s%n", "streams", "budget KB", "MB/s", "failed",
+                "other p50 ms", "other p99 ms", "same p50 ms", "same p99 ms");
+        // Warm-up, not reported
+        run(null, 1, BUDGETS[0], intervalMillis, 1.0, 0);
+        run(console, 0, BUDGETS[0], intervalMillis, seconds, 1);
+        int portOffset = 2;
+        for (int streams : STREAM_COUNTS) {
+            for (int budget : BUDGETS) {
+                run(console, streams, budget, intervalMillis, seconds, portOffset++);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(PrintStream console, int streams, int budget, long intervalMillis, double seconds,
+            int portOffset) throws Exception {
+        int port = PORT + portOffset;
+        VPNServer server = new VPNServer(port, VPNServer.TransportMode.NIO);
+        server.initialize();
+        server.start();
+        VPNClient sender = new VPNClient("localhost", port);
+        VPNClient bulkReceiver = new VPNClient("localhost", port);
+        VPNClient otherReceiver = new VPNClient("localhost", port);
+        sender.setStreamBytesInFlight(budget);
+        sender.initialize();
+        bulkReceiver.initialize();
+        otherReceiver.initialize();
+
+        AtomicLong received = new AtomicLong();
+        CountDownLatch closed = new CountDownLatch(streams);
+        bulkReceiver.setStreamHandler((streamSender, streamId) -> new CountingChannel(received, closed));
+        ConcurrentLinkedQueue<Double> sameMillis = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<Double> otherMillis = new ConcurrentLinkedQueue<>();
+        recordLatency(bulkReceiver, sameMillis);
+        recordLatency(otherReceiver, otherMillis);
+        sender.connect();
+        bulkReceiver.connect();
+        otherReceiver.connect();
+        // The server makes a session routable just after its handshake response
+        Thread.sleep(100);
+
+        long start = System.nanoTime();
+        long deadline = start + (long) (seconds * 1e9);
+        AtomicLong failed = new AtomicLong();
+        List<Thread> streamThreads = new ArrayList<>();
+        for (int i = 0; i < streams; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    sender.sendStream(new ZeroInputStream(deadline), bulkReceiver.getClientId());
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    closed.countDown();
+                }
+            });
+            thread.start();
+            streamThreads.add(thread);
+        }
+
+        boolean toBulkReceiver = false;
+        while (System.nanoTime() < deadline) {
+            VPNClient destination = toBulkReceiver ? bulkReceiver : otherReceiver;
+            sender.sendMessage(String.valueOf(System.nanoTime()), destination.getClientId());
+            toBulkReceiver = !toBulkReceiver;
+            Thread.sleep(intervalMillis);
+        }
+        for (Thread thread : streamThreads) {
+            thread.join();
+        }
+        closed.await(30, TimeUnit.SECONDS);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        // Let the last messages arrive
+        Thread.sleep(500);
+
+        sender.shutdown();
+        bulkReceiver.shutdown();
+        otherReceiver.shutdown();
+        server.stop();
+
+        if (console != null) {
+            double[] other = sorted(otherMillis);
+            double[] same = sorted(sameMillis);
+            console.printf("%-8d %10d %10.1f %10d %12.2f %12.2f %12.2f %12.2f%n", streams, budget / 1024,
+                    received.get() / elapsed / 1e6, failed.get(), percentile(other, 0.50), percentile(other, 0.99),
+                    percentile(same, 0.50), percentile(same, 0.99));
+        }
+    }
+
+    /**
+     * Records the delay of every message that carries the time it was sent
+     */
+    private static void recordLatency(VPNClient client, ConcurrentLinkedQueue<Double> millis) {
+        client.setMessageHandler(message -> {
+            try {
+                long sent = Long.parseLong(client.decryptContent(message));
+                millis.add((System.nanoTime() - sent) / 1e6);
+            } catch (Exception e) {
+                // Not a benchmark message
+            }
+        });
+    }
+
+    private static double[] sorted(ConcurrentLinkedQueue<Double> millis) {
+        double[] values = millis.stream().mapToDouble(Double::doubleValue).toArray();
+        Arrays.sort(values);
+        return values;
+    }
+
+    private static double percentile(double[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    /**
+     * Counts the bytes of a received stream and drops them
+     */
+    private static class CountingChannel implements WritableByteChannel {
+        private final AtomicLong received;
+        private final CountDownLatch closed;
+        private boolean open = true;
+
+        CountingChannel(AtomicLong received, CountDownLatch closed) {
+            this.received = received;
+            this.closed = closed;
+        }
+
+        @Override
+        public int write(ByteBuffer source) {
+            int length = source.remaining();
+            source.position(source.limit());
+            received.addAndGet(length);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+            closed.countDown();
+        }
+    }
+
+    /**
+     * Produces zero bytes until the deadline passes
+     */
+    private static class ZeroInputStream extends InputStream {
+        private final long deadline;
+
+        ZeroInputStream(long deadline) {
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int read() {
+            return System.nanoTime() < deadline ? 0 : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (System.nanoTime() >= deadline) {
+                return -1;
+            }
+            Arrays.fill(buffer, offset, offset + length, (byte) 0);
+            return length;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.vpnsimulation.benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.vpnsimulation.client.VPNClient;
+import com.vpnsimulation.common.encryption.AESEncryption;
+import com.vpnsimulation.common.encryption.CipherSuite;
+import com.vpnsimulation.server.VPNServer;
+
+/**
+ * Measures what in-band key rotation costs a busy tunnel.
+ *
+ * The first table seals and opens records in-process, one at a time, so the
+ * cost of a rotation is not hidden by the network or the database: it shows
+ * the record rate and the 99.9th percentile of a seal-and-open. With a
+ * rotation every 1000 records, a stalling rotation would show up there.
+ *
+ * In the second table one client streams messages to another through an in-process NIO server,
+ * with a window of messages in flight. Every case runs the same stream with a
+ * different rekey interval, applied to both clients and the server, so a
+ * message may cross up to four rotations on its way. The table shows the
+ * throughput, the longest gap between two deliveries (a rotation that stalled
+ * the stream would show up here) and the key epochs the sender and the server
+ * reached.
+ *
+ * Usage: RekeyBenchmark [secondsPerCase] [payloadBytes] [window]
+ */
+public class RekeyBenchmark {
+
+    private static final int PORT = 18449;
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 5.0;
+        int payloadBytes = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        int window = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+        long[] intervals = { AESEncryption.DEFAULT_REKEY_RECORDS, 10_000, 1_000, 100 };
+        System.out.printf("Records only, %d-byte payloads%n", payloadBytes);
+        System.out.printf("%-20s %-16s %12s %12s %14s %10s%n", "suite", "rekey every", "records/sec", "mean us",
+                "p99.9 us", "epoch");
+        for (CipherSuite suite : CipherSuite.values()) {
+            // Warm-up, not reported
+            records(null, suite, AESEncryption.DEFAULT_REKEY_RECORDS, payloadBytes, seconds);
+            for (long interval : intervals) {
+                records(System.out, suite, interval, payloadBytes, seconds);
+            }
+        }
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        console.printf("%nTunnel, %d-byte messages, %d in flight, %.0f s per case (NIO server)%n", payloadBytes, window, seconds);
+        console.printf("%-16s %10s %10s %12s %12s %12s%n", "rekey every", "msgs/sec", "MB/s", "max gap ms",
+                "sent epoch", "server epoch");
+        // Warm-up, not reported
+        run(null, "never", AESEncryption.DEFAULT_REKEY_RECORDS, payloadBytes, window, seconds, 0);
+        for (int i = 0; i < intervals.length; i++) {
+            run(console, describe(intervals[i]), intervals[i], payloadBytes, window, seconds, i + 1);
+        }
+        System.exit(0);
+    }
+
+    private static String describe(long rekeyRecords) {
+        return rekeyRecords == AESEncryption.DEFAULT_REKEY_RECORDS ? "default" : rekeyRecords + " records";
+    }
+
+    /**
+     * Seals records on one side and opens them on the other for the given time
+     */
+    private static void records(PrintStream console, CipherSuite suite, long rekeyRecords, int payloadBytes,
+            double seconds) throws Exception {
+        byte[] secret = new byte[32];
+        AESEncryption sender = new AESEncryption();
+        AESEncryption receiver = new AESEncryption();
+        sender.initFromSharedSecret(secret, AESEncryption.Role.CLIENT, suite);
+        receiver.initFromSharedSecret(secret, AESEncryption.Role.SERVER, suite);
+        sender.setRekeyLimits(AESEncryption.DEFAULT_REKEY_BYTES, rekeyRecords);
+
+        ByteBuffer plaintext = ByteBuffer.allocate(payloadBytes);
+        ByteBuffer record = ByteBuffer.allocate(payloadBytes + AESEncryption.RECORD_OVERHEAD);
+        ByteBuffer opened = ByteBuffer.allocate(payloadBytes);
+        long[] nanos = new long[1 << 23];
+        int count = 0;
+        long start = System.nanoTime();
+        long deadline = start + (long) (seconds * 1e9);
+        long now = start;
+        while (now < deadline && count < nanos.length) {
+            plaintext.clear();
+            record.clear();
+            opened.clear();
+            sender.encrypt(plaintext, record);
+            record.flip();
+            receiver.decrypt(record, opened);
+            long done = System.nanoTime();
+            nanos[count++] = done - now;
+            now = done;
+        }
+
+        if (console != null) {
+            long[] sorted = Arrays.copyOf(nanos, count);
+            Arrays.sort(sorted);
+            double elapsed = (now - start) / 1e9;
+            console.printf("%-20s %-16s %12.0f %12.2f %14.2f %10d%n", suite, describe(rekeyRecords),
+                    count / elapsed, elapsed * 1e6 / count, sorted[(int) (count * 0.999)] / 1e3,
+                    receiver.getDecryptEpoch());
+        }
+    }
+
+    private static void run(PrintStream console, String name, long rekeyRecords, int payloadBytes, int window,
+            double seconds, int portOffset) throws Exception {
+        int port = PORT + portOffset;
+        VPNServer server = new VPNServer(port, VPNServer.TransportMode.NIO);
+        server.setRekeyLimits(AESEncryption.DEFAULT_REKEY_BYTES, rekeyRecords);
+        server.initialize();
+        server.start();
+
+        VPNClient sender = new VPNClient("localhost", port);
+        VPNClient receiver = new VPNClient("localhost", port);
+        sender.setRekeyLimits(AESEncryption.DEFAULT_REKEY_BYTES, rekeyRecords);
+        receiver.setRekeyLimits(AESEncryption.DEFAULT_REKEY_BYTES, rekeyRecords);
+        sender.initialize();
+        receiver.initialize();
+
+        Semaphore inFlight = new Semaphore(window);
+        long[] arrivals = new long[1 << 22];
+        int[] received = new int[1];
+        receiver.setMessageHandler(message -> {
+            synchronized (received) {
+                if (received[0] < arrivals.length) {
+                    arrivals[received[0]++] = System.nanoTime();
+                }
+            }
+            inFlight.release();
+        });
+        sender.connect();
+        receiver.connect();
+
+        String payload = "x".repeat(payloadBytes);
+        long start = System.nanoTime();
+        long deadline = start + (long) (seconds * 1e9);
+        while (System.nanoTime() < deadline) {
+            if (!inFlight.tryAcquire(5, TimeUnit.SECONDS)) {
+                break;
+            }
+            sender.sendMessage(payload, receiver.getClientId());
+        }
+        inFlight.tryAcquire(window, 5, TimeUnit.SECONDS);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        int count;
+        synchronized (received) {
+            count = received[0];
+        }
+        long maxGap = 0;
+        long[] sorted = Arrays.copyOf(arrivals, count);
+        for (int i = 1; i < count; i++) {
+            maxGap = Math.max(maxGap, sorted[i] - sorted[i - 1]);
+        }
+        long serverEpoch = server.getMetrics().getGauge("keys.epoch.sent.max");
+        int sentEpoch = sender.getAesEncryption().getEncryptEpoch();
+
+        sender.shutdown();
+        receiver.shutdown();
+        server.stop();
+
+        if (console != null) {
+            console.printf("%-16s %10.0f %10.1f %12.2f %12d %12d%n", name, count / elapsed,
+                    count * (double) payloadBytes / elapsed / 1e6, maxGap / 1e6, sentEpoch, serverEpoch);
+        }
+    }
+}
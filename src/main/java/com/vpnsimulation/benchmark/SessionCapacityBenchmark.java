@@ -0,0 +1,135 @@
+package com.vpnsimulation.benchmark;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.vpnsimulation.common.util.ExecutionMode;
+import com.vpnsimulation.server.VPNServer;
+
+/**
+ * Measures how many idle connected sessions a server holds and what each
+ * session costs in threads and memory.
+ *
+ * Usage: SessionCapacityBenchmark [BLOCKING|NIO] [PLATFORM|VIRTUAL] [maxSessions] [step]
+ *
+ * Run each configuration in its own JVM so the memory numbers do not mix.
+ * Every connection uses two file descriptors in this process, so raise the
+ * open file limit (ulimit -n) for large session counts.
+ */
+public class SessionCapacityBenchmark {
+
+    private static final int PORT = 18443;
+    private static final long CONNECT_TIMEOUT_MS = 60_000;
+
+    public static void main(String[] args) throws Exception {
+        VPNServer.TransportMode transportMode = args.length > 0
+                ? VPNServer.TransportMode.valueOf(args[0]) : VPNServer.TransportMode.BLOCKING;
+        ExecutionMode executionMode = args.length > 1
+                ? ExecutionMode.valueOf(args[1]) : ExecutionMode.PLATFORM;
+        int maxSessions = args.length > 2 ? Integer.parseInt(args[2]) : 5_000;
+        int step = args.length > 3 ? Integer.parseInt(args[3]) : 1_000;
+
+        VPNServer server = new VPNServer(PORT, transportMode, executionMode);
+        // The sessions never handshake; keep them, each with its handshake deadline on the timer wheel
+        server.setHandshakeTimeoutMillis(TimeUnit.HOURS.toMillis(1));
+        server.initialize();
+        server.start();
+
+        Snapshot baseline = Snapshot.take();
+        System.out.printf("%nTransport: %s, execution: %s%n", transportMode, executionMode);
+        System.out.printf("%10s %10s %12s %12s %16s %16s%n",
+                "sessions", "threads", "heap MB", "rss MB", "heap B/session", "rss B/session");
+
+        List<SocketChannel> clients = new ArrayList<>();
+        try {
+            while (clients.size() < maxSessions) {
+                int target = Math.min(clients.size() + step, maxSessions);
+                try {
+                    while (clients.size() < target) {
+                        clients.add(SocketChannel.open(new InetSocketAddress("localhost", PORT)));
+                    }
+                } catch (IOException e) {
+                    System.out.println("Connect failed after " + clients.size() + " sessions: " + e.getMessage());
+                    break;
+                }
+
+                if (!awaitClientCount(server, clients.size())) {
+                    System.out.println("Server stopped keeping up at " + server.getClientCount() + " sessions");
+                    break;
+                }
+
+                Snapshot snapshot = Snapshot.take();
+                int sessions = clients.size();
+                System.out.printf("%10d %10d %12.1f %12.1f %16d %16d%n",
+                        sessions,
+                        snapshot.threads,
+                        snapshot.heapBytes / 1048576.0,
+                        snapshot.rssBytes / 1048576.0,
+                        (snapshot.heapBytes - baseline.heapBytes) / sessions,
+                        (snapshot.rssBytes - baseline.rssBytes) / sessions);
+            }
+            System.out.println("Max concurrent sessions: " + server.getClientCount());
+        } finally {
+            for (SocketChannel client : clients) {
+                client.close();
+            }
+            server.stop();
+        }
+        System.exit(0);
+    }
+
+    private static boolean awaitClientCount(VPNServer server, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+        while (server.getClientCount() < expected) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * Process-wide resource usage at one point in time
+     */
+    private static class Snapshot {
+        long heapBytes;
+        long rssBytes;
+        int threads;
+
+        static Snapshot take() throws InterruptedException {
+            System.gc();
+            Thread.sleep(100);
+
+            Snapshot snapshot = new Snapshot();
+            snapshot.heapBytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            snapshot.threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            snapshot.rssBytes = readResidentSetSize();
+            return snapshot;
+        }
+
+        /**
+         * Reads the resident set size on Linux, which includes thread stacks; 0 elsewhere
+         */
+        private static long readResidentSetSize() {
+            try {
+                for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                    if (line.startsWith("VmRSS:")) {
+                        String kilobytes = line.substring(6).trim().split("\\s+")[0];
+                        return Long.parseLong(kilobytes) * 1024;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // Not available on this platform
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.vpnsimulation.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.vpnsimulation.common.util.TimingWheel;
+
+/**
+ * Compares the cost of keeping one timer per session on the server's timing
+ * wheel with a scheduled task per session on a ScheduledThreadPoolExecutor.
+ *
+ * For each count of sessions, every session gets a timer 10 to 60 seconds
+ * ahead, the way handshake deadlines and idle checks are spread out; then
+ * each timer is cancelled and armed again once, as when a session moves
+ * from its handshake deadline to its idle check; then all are cancelled.
+ * The table shows the time per operation and the heap per armed timer.
+ *
+ * Usage: SessionTimerBenchmark [maxSessions]
+ */
+public class SessionTimerBenchmark {
+
+    private static final long MIN_DELAY_MILLIS = 10_000;
+    private static final long MAX_DELAY_MILLIS = 60_000;
+    private static final Runnable NOTHING = () -> { };
+
+    public static void main(String[] args) throws Exception {
+        int maxSessions = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        System.out.printf("%-10s %10s %14s %14s %14s %14s%n", "timers", "sessions", "schedule ns",
+                "rearm ns", "cancel ns", "heap B/timer");
+        // Warm-up, not reported
+        runWheel(null, 100_000);
+        runExecutor(null, 100_000);
+        for (int sessions = 10_000; sessions <= maxSessions; sessions *= 10) {
+            runWheel("wheel", sessions);
+            runExecutor("executor", sessions);
+        }
+    }
+
+    private static void runWheel(String label, int sessions) {
+        TimingWheel wheel = new TimingWheel("benchmark-wheel", 100, 512);
+        wheel.start();
+        long[] delays = delays(sessions);
+        TimingWheel.Timeout[] timers = new TimingWheel.Timeout[sessions];
+        long heapBefore = usedHeap();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < sessions; i++) {
+            timers[i] = wheel.schedule(NOTHING, delays[i]);
+        }
+        long scheduled = System.nanoTime();
+        long heap = usedHeap() - heapBefore;
+        for (int i = 0; i < sessions; i++) {
+            timers[i].cancel();
+            timers[i] = wheel.schedule(NOTHING, delays[sessions - 1 - i]);
+        }
+        long rearmed = System.nanoTime();
+        for (int i = 0; i < sessions; i++) {
+            timers[i].cancel();
+        }
+        long cancelled = System.nanoTime();
+        wheel.stop();
+
+        report(label, sessions, scheduled - start, rearmed - scheduled, cancelled - rearmed, heap);
+    }
+
+    private static void runExecutor(String label, int sessions) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+        long[] delays = delays(sessions);
+        ScheduledFuture<?>[] timers = new ScheduledFuture<?>[sessions];
+        long heapBefore = usedHeap();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < sessions; i++) {
+            timers[i] = executor.schedule(NOTHING, delays[i], TimeUnit.MILLISECONDS);
+        }
+        long scheduled = System.nanoTime();
+        long heap = usedHeap() - heapBefore;
+        for (int i = 0; i < sessions; i++) {
+            timers[i].cancel(false);
+            timers[i] = executor.schedule(NOTHING, delays[sessions - 1 - i], TimeUnit.MILLISECONDS);
+        }
+        long rearmed = System.nanoTime();
+        for (int i = 0; i < sessions; i++) {
+            timers[i].cancel(false);
+        }
+        long cancelled = System.nanoTime();
+        executor.shutdownNow();
+
+        report(label, sessions, scheduled - start, rearmed - scheduled, cancelled - rearmed, heap);
+    }
+
+    private static long[] delays(int sessions) {
+        Random random = new Random(42);
+        long[] delays = new long[sessions];
+        for (int i = 0; i < sessions; i++) {
+            delays[i] = MIN_DELAY_MILLIS + (long) (random.nextDouble() * (MAX_DELAY_MILLIS - MIN_DELAY_MILLIS));
+        }
+        return delays;
+    }
+
+    private static void report(String label, int sessions, long scheduleNanos, long rearmNanos, long cancelNanos,
+            long heapBytes) {
+        if (label == null) {
+            return;
+        }
+        System.out.printf("%-10s %10d %14.0f %14.0f %14.0f %14.0f%n", label, sessions,
+                (double) scheduleNanos / sessions, (double) rearmNanos / sessions,
+                (double) cancelNanos / sessions, (double) heapBytes / sessions);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
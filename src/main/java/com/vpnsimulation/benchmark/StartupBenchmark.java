@@ -0,0 +1,155 @@
+package com.vpnsimulation.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.vpnsimulation.client.VPNClient;
+import com.vpnsimulation.server.VPNServer;
+
+/**
+ * Measures cold start of the server and the client with a freshly generated
+ * certificate and with the certificate loaded from a keystore.
+ *
+ * Every start runs in a new JVM, so class loading and JIT warm-up count as
+ * they do when an application is launched. The table shows the time spent in
+ * initialize() and the time from launching the JVM until it exited right
+ * after initialize() returned. The first start with a keystore creates it
+ * and is not measured.
+ *
+ * Usage: StartupBenchmark [startsPerCase]
+ */
+public class StartupBenchmark {
+
+    private static final int PORT = 18447;
+    private static final char[] PASSWORD = "benchmark".toCharArray();
+    private static final String PROBE = "probe";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals(PROBE)) {
+            probe(args[1], args.length > 2 ? Path.of(args[2]) : null);
+            return;
+        }
+
+        int starts = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        Path workDirectory = Files.createTempDirectory("vpn-startup");
+
+        System.out.printf("%d starts per case, each in a new JVM%n", starts);
+        System.out.printf("%-8s %-10s %16s %16s%n", "app", "identity", "initialize ms", "launch ms");
+        try {
+            for (String app : new String[] { "server", "client" }) {
+                Path keyStore = workDirectory.resolve(app + ".p12");
+                run(workDirectory, app, "generated", null, starts);
+                launch(workDirectory, app, keyStore);
+                run(workDirectory, app, "keystore", keyStore, starts);
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(workDirectory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(workDirectory);
+        }
+    }
+
+    private static void run(Path workDirectory, String app, String identity, Path keyStore, int starts)
+            throws Exception {
+        double initializeMillis = 0;
+        double launchMillis = 0;
+        for (int i = 0; i < starts; i++) {
+            long start = System.nanoTime();
+            initializeMillis += launch(workDirectory, app, keyStore);
+            launchMillis += (System.nanoTime() - start) / 1e6;
+        }
+        System.out.printf("%-8s %-10s %16.1f %16.1f%n", app, identity,
+                initializeMillis / starts, launchMillis / starts);
+    }
+
+    /**
+     * Starts a JVM that initializes one application and reports how long that took
+     * @return Milliseconds spent in initialize()
+     */
+    private static double launch(Path workDirectory, String app, Path keyStore) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(classPath());
+        command.add(StartupBenchmark.class.getName());
+        command.add(PROBE);
+        command.add(app);
+        if (keyStore != null) {
+            command.add(keyStore.toString());
+        }
+
+        // The server creates its log database in the working directory
+        Process process = new ProcessBuilder(command)
+                .directory(workDirectory.toFile())
+                .redirectErrorStream(true)
+                .start();
+        String result = null;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                result = line;
+            }
+        }
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException(app + " failed to start: " + result);
+        }
+        return Double.parseDouble(result);
+    }
+
+    /**
+     * Runs in the launched JVM: initializes the application and prints the elapsed time last
+     */
+    private static void probe(String app, Path keyStore) throws Exception {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        long start = System.nanoTime();
+        if (app.equals("server")) {
+            VPNServer server = new VPNServer(PORT);
+            server.setKeyStore(keyStore, PASSWORD);
+            server.initialize();
+        } else {
+            VPNClient client = new VPNClient("localhost", PORT);
+            client.setKeyStore(keyStore, PASSWORD);
+            client.initialize();
+        }
+        double millis = (System.nanoTime() - start) / 1e6;
+
+        console.println(millis);
+        console.flush();
+        System.exit(0);
+    }
+
+    /**
+     * Returns the class path of this class, also when it runs inside Maven
+     */
+    static String classPath() {
+        if (StartupBenchmark.class.getClassLoader() instanceof URLClassLoader loader) {
+            List<String> entries = new ArrayList<>();
+            for (URL url : loader.getURLs()) {
+                if (url.getProtocol().equals("file")) {
+                    entries.add(new File(url.getPath()).getPath());
+                }
+            }
+            if (!entries.isEmpty()) {
+                return String.join(File.pathSeparator, entries);
+            }
+        }
+        return System.getProperty("java.class.path");
+    }
+}
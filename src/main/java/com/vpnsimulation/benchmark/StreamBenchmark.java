@@ -0,0 +1,241 @@
+package com.vpnsimulation.benchmark;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vpnsimulation.client.VPNClient;
+import com.vpnsimulation.server.VPNServer;
+
+/**
+ * Measures large transfers between two clients through an in-process NIO
+ * server: as single messages, and as streams with different chunk sizes.
+ *
+ * The cases run in a child JVM with a small heap, which holds both clients
+ * and the server. A single message needs the whole payload several times over
+ * on every hop, so it stops fitting long before the frame size limit; a
+ * stream only ever holds a few chunks, whatever its size. The table shows the
+ * throughput, or why the transfer did not complete.
+ *
+ * Usage: StreamBenchmark [streamMegabytes] [heapMegabytes]
+ */
+public class StreamBenchmark {
+
+    private static final int PORT = 18479;
+    private static final String CHILD = "child";
+    private static final int[] MESSAGE_MEGABYTES = { 1, 4, 12 };
+    private static final int[] CHUNK_SIZES = { 16 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024 };
+
+    public static void main(String[] args) throws Exception {
+        boolean child = args.length > 0 && args[0].equals(CHILD);
+        int argument = child ? 1 : 0;
+        int streamMegabytes = args.length > argument ? Integer.parseInt(args[argument]) : 256;
+        int heapMegabytes = args.length > argument + 1 ? Integer.parseInt(args[argument + 1]) : 128;
+        if (!child) {
+            launchWithHeap(streamMegabytes, heapMegabytes);
+            return;
+        }
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+
+        console.printf("%d MB heap for both clients and the server (NIO)%n", heapMegabytes);
+        console.printf("%-24s %10s %10s  %s%n", "transfer", "MB", "MB/s", "result");
+        // Warm-up, not reported
+        stream(null, 16, CHUNK_SIZES[1], 0);
+        int portOffset = 1;
+        for (int megabytes : MESSAGE_MEGABYTES) {
+            message(console, megabytes, portOffset++);
+        }
+        for (int chunkSize : CHUNK_SIZES) {
+            stream(console, streamMegabytes, chunkSize, portOffset++);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Sends the payload as one String message, the way sendMessage() works
+     */
+    private static void message(PrintStream console, int megabytes, int portOffset) throws Exception {
+        Tunnel tunnel = new Tunnel(portOffset);
+        CountDownLatch delivered = new CountDownLatch(1);
+        AtomicLong received = new AtomicLong();
+        tunnel.receiver.setMessageHandler(message -> {
+            try {
+                received.set(tunnel.receiver.decryptContent(message).length());
+            } catch (Throwable e) {
+                // Reported as incomplete below
+            }
+            delivered.countDown();
+        });
+        tunnel.connect();
+
+        String result = "ok";
+        long start = System.nanoTime();
+        try {
+            tunnel.sender.sendMessage("x".repeat(megabytes * 1024 * 1024), tunnel.receiver.getClientId())
+                    .get(60, TimeUnit.SECONDS);
+            delivered.await(20, TimeUnit.SECONDS);
+        } catch (Throwable e) {
+            result = describe(e);
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        if (result.equals("ok") && received.get() != megabytes * 1024 * 1024) {
+            result = "not delivered";
+        }
+        tunnel.close();
+
+        report(console, "single message", megabytes, result.equals("ok") ? megabytes / elapsed : 0, result);
+    }
+
+    private static void stream(PrintStream console, int megabytes, int chunkSize, int portOffset) throws Exception {
+        Tunnel tunnel = new Tunnel(portOffset);
+        CountDownLatch delivered = new CountDownLatch(1);
+        AtomicLong received = new AtomicLong();
+        tunnel.receiver.setStreamHandler((sender, streamId) -> new WritableByteChannel() {
+            private boolean open = true;
+
+            @Override
+            public int write(ByteBuffer source) {
+                int length = source.remaining();
+                source.position(source.limit());
+                received.addAndGet(length);
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return open;
+            }
+
+            @Override
+            public void close() {
+                open = false;
+                delivered.countDown();
+            }
+        });
+        tunnel.sender.setStreamChunkSize(chunkSize);
+        tunnel.connect();
+
+        String result = "ok";
+        long length = (long) megabytes * 1024 * 1024;
+        long start = System.nanoTime();
+        try {
+            tunnel.sender.sendStream(new ZeroInputStream(length), tunnel.receiver.getClientId());
+            delivered.await(300, TimeUnit.SECONDS);
+        } catch (Throwable e) {
+            result = describe(e);
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        if (result.equals("ok") && received.get() != length) {
+            result = "not delivered";
+        }
+        tunnel.close();
+
+        if (console != null) {
+            report(console, "stream, " + chunkSize / 1024 + " KB chunks", megabytes,
+                    result.equals("ok") ? megabytes / elapsed : 0, result);
+        }
+    }
+
+    private static void report(PrintStream console, String name, int megabytes, double rate, String result) {
+        console.printf("%-24s %10d %10.1f  %s%n", name, megabytes, rate, result);
+    }
+
+    private static String describe(Throwable e) {
+        while (e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e.getClass().getSimpleName();
+    }
+
+    private static void launchWithHeap(int streamMegabytes, int heapMegabytes) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Xmx" + heapMegabytes + "m");
+        command.add("-cp");
+        command.add(StartupBenchmark.classPath());
+        command.add(StreamBenchmark.class.getName());
+        command.add(CHILD);
+        command.add(String.valueOf(streamMegabytes));
+        command.add(String.valueOf(heapMegabytes));
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).inheritIO().start();
+        process.waitFor();
+    }
+
+    /**
+     * A server and two connected clients
+     */
+    private static class Tunnel {
+        final VPNServer server;
+        final VPNClient sender;
+        final VPNClient receiver;
+
+        Tunnel(int portOffset) throws Exception {
+            int port = PORT + portOffset;
+            server = new VPNServer(port, VPNServer.TransportMode.NIO);
+            server.initialize();
+            server.start();
+            sender = new VPNClient("localhost", port);
+            receiver = new VPNClient("localhost", port);
+            sender.initialize();
+            receiver.initialize();
+        }
+
+        void connect() throws Exception {
+            sender.connect();
+            receiver.connect();
+            // The server makes a session routable just after its handshake response
+            Thread.sleep(100);
+        }
+
+        void close() {
+            // Server first: a server that ran out of memory would leave the clients blocked in writes
+            server.stop();
+            sender.shutdown();
+            receiver.shutdown();
+        }
+    }
+
+    /**
+     * Produces the given number of zero bytes without holding them
+     */
+    private static class ZeroInputStream extends InputStream {
+        private long remaining;
+
+        ZeroInputStream(long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() {
+            if (remaining == 0) {
+                return -1;
+            }
+            remaining--;
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (remaining == 0) {
+                return -1;
+            }
+            int count = (int) Math.min(length, remaining);
+            Arrays.fill(buffer, offset, offset + count, (byte) 0);
+            remaining -= count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.vpnsimulation.client;
+
+import java.io.IOException;
+
+import com.vpnsimulation.common.util.Message;
+import com.vpnsimulation.common.util.MessageCodec;
+
+/**
+ * The connection from a VPNClient to the server. Implemented once per
+ * transport so that the client does not care how frames reach the server.
+ */
+interface ClientTransport {
+
+    /**
+     * Blocks until the next message from the server arrives
+     */
+    Message read(MessageCodec codec) throws IOException;
+
+    /**
+     * Sends a message to the server. Callers serialize their writes.
+     */
+    void write(Message message, MessageCodec codec) throws IOException;
+
+    /**
+     * Returns whether a message has arrived that {@link #read} has not returned yet
+     */
+    boolean hasPendingInput() throws IOException;
+
+    /**
+     * Closes the connection. Must be safe to call more than once.
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,144 @@
+package com.vpnsimulation.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.vpnsimulation.common.util.DatagramLink;
+import com.vpnsimulation.common.util.Message;
+import com.vpnsimulation.common.util.MessageCodec;
+import com.vpnsimulation.common.util.MessageFraming;
+
+/**
+ * Frames over UDP through a {@link DatagramLink}. A receiver thread passes
+ * every datagram from the server to the link and queues the frames it
+ * completes for {@link #read}; a timer thread drives retransmissions.
+ */
+class DatagramClientTransport implements ClientTransport {
+
+    // Tells a reader that no more frames will come
+    private static final ByteBuffer CLOSED = ByteBuffer.allocate(0);
+    // How long closing waits for the server to acknowledge the last messages, e.g. DISCONNECT
+    private static final long CLOSE_FLUSH_MILLIS = 1000;
+
+    private final DatagramChannel channel;
+    private final DatagramLink link;
+    private final BlockingQueue<ByteBuffer> frames = new LinkedBlockingQueue<>();
+    private final ScheduledExecutorService timer;
+    private volatile IOException failure;
+    private volatile boolean closed;
+
+    DatagramClientTransport(String serverAddress, int serverPort) throws IOException {
+        this.channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, DatagramLink.SOCKET_RECEIVE_BUFFER);
+        channel.connect(new InetSocketAddress(serverAddress, serverPort));
+        this.link = new DatagramLink(channel::write);
+
+        Thread receiver = new Thread(this::receiveLoop, "vpn-datagram-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+        this.timer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "vpn-datagram-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(this::tick, DatagramLink.TICK_MILLIS, DatagramLink.TICK_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private void receiveLoop() {
+        ByteBuffer datagram = ByteBuffer.allocate(DatagramLink.MAX_DATAGRAM_SIZE);
+        try {
+            while (!closed) {
+                datagram.clear();
+                channel.read(datagram);
+                datagram.flip();
+                try {
+                    frames.addAll(link.receive(datagram));
+                } catch (IOException e) {
+                    System.err.println("Dropped invalid datagram from server: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            // Also how a close() ends a blocked read
+            fail(e);
+        }
+    }
+
+    private void tick() {
+        try {
+            link.tick();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(IOException e) {
+        if (!closed && failure == null) {
+            failure = e;
+        }
+        frames.add(CLOSED);
+    }
+
+    @Override
+    public Message read(MessageCodec codec) throws IOException {
+        ByteBuffer frame;
+        try {
+            frame = frames.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the server");
+        }
+        if (frame == CLOSED) {
+            // For any other reader
+            frames.add(CLOSED);
+            throw failure != null ? failure : new IOException("Connection closed");
+        }
+
+        Message message = MessageFraming.decode(frame, codec);
+        if (message == null) {
+            throw new IOException("Incomplete frame from server");
+        }
+        return message;
+    }
+
+    @Override
+    public void write(Message message, MessageCodec codec) throws IOException {
+        IOException linkFailure = failure;
+        if (linkFailure != null) {
+            throw linkFailure;
+        }
+        link.send(codec.encodeFrame(message), DatagramLink.isReliable(message.getType()));
+    }
+
+    @Override
+    public boolean hasPendingInput() {
+        return !frames.isEmpty();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (failure == null) {
+                link.flush(CLOSE_FLUSH_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closed = true;
+        link.close();
+        timer.shutdownNow();
+        frames.add(CLOSED);
+        channel.close();
+    }
+}
@@ -0,0 +1,229 @@
+package com.vpnsimulation.client;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.vpnsimulation.common.util.RecordBatch;
+
+/**
+ * Holds the short messages a client sends to each destination until they
+ * fill a record or the linger time of the first one passes, then has them
+ * sealed and written together, see {@link RecordBatch}.
+ *
+ * The linger time bounds the delay coalescing adds to a message; a batch
+ * that fills is handed to the coalescer's thread at once, so the thread that
+ * sent the message never waits for the socket. Batches are written in the
+ * order they were closed, whichever thread writes them.
+ */
+class MessageCoalescer {
+
+    /**
+     * Seals and writes the messages of a batch to a destination, as one record
+     */
+    interface BatchWriter {
+        void write(String destination, List<byte[]> messages) throws IOException;
+    }
+
+    /**
+     * Messages waiting for one destination
+     */
+    private static class Batch {
+        final String destination;
+        final List<byte[]> messages = new ArrayList<>();
+        final List<CompletableFuture<Void>> sent = new ArrayList<>();
+        int length;
+        ScheduledFuture<?> lingerTimer;
+
+        Batch(String destination) {
+            this.destination = destination;
+        }
+    }
+
+    private final int recordSize;
+    private final long lingerMicros;
+    private final BatchWriter writer;
+    private final ScheduledThreadPoolExecutor timer;
+    private final Map<String, Batch> pending = new HashMap<>();
+    // Batches that are closed to new messages, in the order they are written
+    private final ArrayDeque<Batch> ready = new ArrayDeque<>();
+    // Held while writing from the ready queue, so batches to a destination stay in order
+    private final Object flushLock = new Object();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder records = new LongAdder();
+    private boolean closed;
+
+    MessageCoalescer(int recordSize, long lingerMicros, BatchWriter writer) {
+        this.recordSize = recordSize;
+        this.lingerMicros = lingerMicros;
+        this.writer = writer;
+        this.timer = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "vpn-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Returns whether a message is short enough to share a record
+     */
+    boolean fits(int length) {
+        return RecordBatch.LENGTH_PREFIX + length <= recordSize;
+    }
+
+    /**
+     * Adds a message to the batch for its destination. If the message fills
+     * the batch, the coalescer's thread writes it.
+     * @return Completes once the batch the message went into is written
+     */
+    CompletableFuture<Void> add(String destination, byte[] message) {
+        CompletableFuture<Void> sent = new CompletableFuture<>();
+        int length = RecordBatch.LENGTH_PREFIX + message.length;
+        boolean filled = false;
+        synchronized (this) {
+            if (closed) {
+                sent.completeExceptionally(new IOException("Not connected to server"));
+                return sent;
+            }
+            Batch batch = pending.get(destination);
+            if (batch != null && batch.length + length > recordSize) {
+                // Full before this message
+                close(batch);
+                filled = true;
+                batch = null;
+            }
+            if (batch == null) {
+                batch = new Batch(destination);
+                pending.put(destination, batch);
+                Batch lingering = batch;
+                batch.lingerTimer = timer.schedule(() -> flush(lingering), lingerMicros, TimeUnit.MICROSECONDS);
+            }
+            batch.messages.add(message);
+            batch.sent.add(sent);
+            batch.length += length;
+            if (batch.length + RecordBatch.LENGTH_PREFIX >= recordSize) {
+                close(batch);
+                filled = true;
+            }
+        }
+        if (filled) {
+            try {
+                timer.execute(this::writeReady);
+            } catch (RejectedExecutionException e) {
+                // Closed meanwhile, which failed the batch
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Writes whatever waits for a destination, e.g. ahead of a message too long to join it
+     */
+    void flush(String destination) {
+        synchronized (this) {
+            Batch batch = pending.get(destination);
+            if (batch != null) {
+                close(batch);
+            }
+        }
+        writeReady();
+    }
+
+    /**
+     * Writes everything waiting, e.g. before a disconnect
+     */
+    void flushAll() {
+        synchronized (this) {
+            for (Batch batch : new ArrayList<>(pending.values())) {
+                close(batch);
+            }
+        }
+        writeReady();
+    }
+
+    /**
+     * Writes a batch whose linger time passed, unless it was closed already
+     */
+    private void flush(Batch batch) {
+        synchronized (this) {
+            if (pending.get(batch.destination) == batch) {
+                close(batch);
+            }
+        }
+        writeReady();
+    }
+
+    /**
+     * Takes a batch out of the pending ones and queues it for writing. Called holding this.
+     */
+    private void close(Batch batch) {
+        pending.remove(batch.destination);
+        batch.lingerTimer.cancel(false);
+        ready.add(batch);
+    }
+
+    /**
+     * Writes the closed batches in the order they were closed
+     */
+    private void writeReady() {
+        synchronized (flushLock) {
+            while (true) {
+                Batch batch;
+                synchronized (this) {
+                    batch = ready.poll();
+                }
+                if (batch == null) {
+                    return;
+                }
+                try {
+                    writer.write(batch.destination, batch.messages);
+                    messages.add(batch.messages.size());
+                    records.increment();
+                    batch.sent.forEach(sent -> sent.complete(null));
+                } catch (IOException e) {
+                    System.err.println("Error sending messages to " + batch.destination + ": " + e.getMessage());
+                    batch.sent.forEach(sent -> sent.completeExceptionally(e));
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops whatever still waits; sending fails from now on
+     */
+    void close() {
+        List<Batch> dropped;
+        synchronized (this) {
+            closed = true;
+            dropped = new ArrayList<>(ready);
+            dropped.addAll(pending.values());
+            ready.clear();
+            pending.clear();
+        }
+        timer.shutdownNow();
+        IOException failure = new IOException("Connection closed");
+        for (Batch batch : dropped) {
+            batch.sent.forEach(sent -> sent.completeExceptionally(failure));
+        }
+    }
+
+    /**
+     * Returns how many messages went out in how many records
+     */
+    String report() {
+        long messageCount = messages.sum();
+        long recordCount = records.sum();
+        return String.format("%d messages in %d records (%.1f per record)", messageCount, recordCount,
+                recordCount == 0 ? 0.0 : (double) messageCount / recordCount);
+    }
+}
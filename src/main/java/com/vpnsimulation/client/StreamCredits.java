@@ -0,0 +1,122 @@
+package com.vpnsimulation.client;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.vpnsimulation.common.util.StreamChunks;
+
+/**
+ * Flow control of the streams one client sends.
+ *
+ * Each stream may run {@value StreamChunks#INITIAL_CREDIT} bytes ahead of
+ * what its receiver has written, plus whatever credit the receiver returned.
+ * On top of that all streams together share a budget of bytes in flight, the
+ * bytes sent that no receiver has returned credit for yet. Those bytes sit in
+ * socket buffers and server queues ahead of any message sent after them, so
+ * the budget is what keeps messages quick while streams run, however many
+ * there are. Both limits may be overshot by one chunk.
+ */
+class StreamCredits {
+
+    private final Map<Long, Stream> streams = new HashMap<>();
+    private long budget = StreamChunks.INITIAL_CREDIT;
+    private long inFlight;
+
+    /**
+     * A stream being sent, and the credit its receiver granted so far
+     */
+    private static class Stream {
+        final String destination;
+        long granted = StreamChunks.INITIAL_CREDIT;
+        long sent;
+        String failure;
+
+        Stream(String destination) {
+            this.destination = destination;
+        }
+
+        long inFlight() {
+            return sent - (granted - StreamChunks.INITIAL_CREDIT);
+        }
+    }
+
+    synchronized void setBudget(long budget) {
+        this.budget = budget;
+        notifyAll();
+    }
+
+    synchronized void open(long streamId, String destination) {
+        streams.put(streamId, new Stream(destination));
+    }
+
+    /**
+     * Forgets a stream that ended; its bytes still in flight no longer count
+     */
+    synchronized void close(long streamId) {
+        Stream stream = streams.remove(streamId);
+        if (stream != null) {
+            inFlight -= Math.max(0, stream.inFlight());
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until both the stream and the budget have room, then counts the chunk as sent
+     * @throws IOException If the receiver refused the stream, the connection
+     *                     closed, or no credit came for {@value StreamChunks#CREDIT_TIMEOUT_MILLIS} ms
+     */
+    synchronized void acquire(long streamId, int length) throws IOException {
+        Stream stream = streams.get(streamId);
+        long deadline = System.currentTimeMillis() + StreamChunks.CREDIT_TIMEOUT_MILLIS;
+        while (stream.failure == null && (stream.sent >= stream.granted || inFlight >= budget)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new IOException("No stream credit from " + stream.destination + " for "
+                        + StreamChunks.CREDIT_TIMEOUT_MILLIS / 1000 + " s");
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for stream credit");
+            }
+        }
+        if (stream.failure != null) {
+            throw new IOException(stream.failure);
+        }
+        stream.sent += length;
+        inFlight += length;
+    }
+
+    /**
+     * Adds credit a receiver returned for bytes it has written
+     */
+    synchronized void grant(long streamId, String sender, long credit) {
+        Stream stream = streams.get(streamId);
+        // The stream may have ended in the meantime
+        if (stream != null && stream.destination.equals(sender)) {
+            stream.granted += credit;
+            inFlight -= credit;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Makes the next {@link #acquire} of a stream fail, e.g. when its receiver refused it
+     */
+    synchronized void fail(long streamId, String sender, String failure) {
+        Stream stream = streams.get(streamId);
+        if (stream != null && stream.destination.equals(sender)) {
+            stream.failure = failure;
+            notifyAll();
+        }
+    }
+
+    synchronized void failAll(String failure) {
+        for (Stream stream : streams.values()) {
+            stream.failure = failure;
+        }
+        notifyAll();
+    }
+}
@@ -0,0 +1,27 @@
+package com.vpnsimulation.client;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Receives the streams other clients send with {@link VPNClient#sendStream}.
+ * Chunks are written to the channel on the client's listener thread as they
+ * arrive, so a slow channel slows the sender down instead of filling memory.
+ */
+@FunctionalInterface
+public interface StreamHandler {
+
+    /**
+     * Called on the first chunk of a stream. The channel is closed after the
+     * last chunk, also when the stream fails.
+     * @return Where to write the stream, or null to discard it
+     */
+    WritableByteChannel openStream(String senderAddress, long streamId) throws IOException;
+
+    /**
+     * Called after the channel of a stream was closed because the sender could
+     * not finish it or its chunks could not be written
+     */
+    default void streamFailed(String senderAddress, long streamId, String reason) {
+    }
+}
@@ -0,0 +1,54 @@
+package com.vpnsimulation.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+import com.vpnsimulation.common.util.Message;
+import com.vpnsimulation.common.util.MessageCodec;
+import com.vpnsimulation.common.util.MessageFraming;
+
+/**
+ * Frames over a TCP socket
+ */
+class TcpClientTransport implements ClientTransport {
+
+    private final Socket socket;
+    private final DataInputStream inputStream;
+    private final DataOutputStream outputStream;
+
+    TcpClientTransport(String serverAddress, int serverPort) throws IOException {
+        this.socket = new Socket(serverAddress, serverPort);
+        this.outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    }
+
+    @Override
+    public Message read(MessageCodec codec) throws IOException {
+        return MessageFraming.readFrame(inputStream, codec);
+    }
+
+    @Override
+    public void write(Message message, MessageCodec codec) throws IOException {
+        MessageFraming.writeFrame(outputStream, message, codec);
+        outputStream.flush();
+    }
+
+    @Override
+    public boolean hasPendingInput() throws IOException {
+        return inputStream.available() > 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            inputStream.close();
+            outputStream.close();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -1,19 +1,42 @@
 package com.vpnsimulation.client;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 
 import com.vpnsimulation.common.encryption.AESEncryption;
-import com.vpnsimulation.common.encryption.DiffieHellmanKeyExchange;
+import com.vpnsimulation.common.encryption.CipherSuite;
+import com.vpnsimulation.common.encryption.KeyExchange;
+import com.vpnsimulation.common.encryption.KeyExchangeAlgorithm;
+import com.vpnsimulation.common.encryption.SessionResumption;
 import com.vpnsimulation.common.util.CertificateManager;
+import com.vpnsimulation.common.util.ExecutionMode;
+import com.vpnsimulation.common.util.HandshakeMode;
 import com.vpnsimulation.common.util.Message;
+import com.vpnsimulation.common.util.MessageCodec;
+import com.vpnsimulation.common.util.PayloadCompressor;
+import com.vpnsimulation.common.util.RecordBatch;
+import com.vpnsimulation.common.util.StreamChunks;
 
 /**
  * VPN client that connects to the VPN server, encrypts traffic, and handles communication
@@ -23,42 +46,110 @@ public class VPNClient {
     private final String serverAddress;
     private final int serverPort;
     private final String clientId;
-    private Socket socket;
-    private ObjectInputStream inputStream;
-    private ObjectOutputStream outputStream;
-    private boolean connected;
+    private ClientTransport transport;
+    private boolean datagramTransport;
+    private final Object writeLock = new Object();
+    private volatile boolean connected;
     private final AESEncryption aesEncryption;
-    private final DiffieHellmanKeyExchange keyExchange;
+    private KeyExchange keyExchange;
     private final CertificateManager certificateManager;
+    private Path keyStorePath;
+    private char[] keyStorePassword;
     private final ExecutorService executorService;
+    private MessageCodec preferredCodec = MessageCodec.BINARY;
+    private volatile MessageCodec codec = MessageCodec.SERIALIZED;
+    private HandshakeMode handshakeMode = HandshakeMode.FULL;
+    private KeyExchangeAlgorithm preferredKeyExchange = KeyExchangeAlgorithm.X25519;
+    // Suites offered to the server, which picks one of them
+    private String cipherSuiteOffer = CipherSuite.offer();
+    private CipherSuite cipherSuite = CipherSuite.AES_256_GCM;
+    private boolean compressionOffered;
+    private int compressionThreshold = PayloadCompressor.DEFAULT_THRESHOLD;
+    // Set if the current session negotiated payload compression
+    private volatile PayloadCompressor compressor;
+    private boolean coalescing;
+    private int coalescingRecordSize = RecordBatch.DEFAULT_RECORD_SIZE;
+    private long lingerMicros = RecordBatch.DEFAULT_LINGER_MICROS;
+    // Set while connected if short messages are coalesced
+    private volatile MessageCoalescer coalescer;
+    
+    private boolean resumptionEnabled = true;
+    // Resumption secret of the current session, paired with the ticket the server sends for it
+    private byte[] resumptionSecret;
+    private volatile String sessionTicket;
+    private volatile byte[] ticketResumptionSecret;
+    private volatile long ticketExpiresAt;
+    // Set while a HANDSHAKE_INIT offering a ticket waits for its response
+    private byte[] resumingSecret;
+    private byte[] resumingNonce;
     
     private Consumer<Message> messageHandler;
     
+    // Streams being received, by sender and stream ID, added by the listener thread
+    private static final WritableByteChannel DISCARDED_STREAM = Channels.newChannel(OutputStream.nullOutputStream());
+    private final Map<String, ReceivingStream> receivingStreams = new ConcurrentHashMap<>();
+    private final StreamCredits streamCredits = new StreamCredits();
+    private final AtomicLong nextStreamId = new AtomicLong();
+    // Chunk writers take turns in arrival order, and step back while a message waits for the socket
+    private final ReentrantLock chunkTurn = new ReentrantLock(true);
+    private final AtomicInteger waitingMessages = new AtomicInteger();
+    // Notified when the last waiting message was written
+    private final Object messagesWritten = new Object();
+    private int streamChunkSize = StreamChunks.DEFAULT_CHUNK_SIZE;
+    private volatile StreamHandler streamHandler;
+    
     /**
      * Creates a new VPN client instance
      * @param serverAddress The server address to connect to
      * @param serverPort The server port to connect to
      */
     public VPNClient(String serverAddress, int serverPort) {
+        this(serverAddress, serverPort, ExecutionMode.PLATFORM);
+    }
+    
+    /**
+     * Creates a new VPN client instance
+     * @param serverAddress The server address to connect to
+     * @param serverPort The server port to connect to
+     * @param executionMode Which threads run the message listener and sends
+     */
+    public VPNClient(String serverAddress, int serverPort, ExecutionMode executionMode) {
         this.serverAddress = serverAddress;
         this.serverPort = serverPort;
         this.clientId = UUID.randomUUID().toString();
         this.aesEncryption = new AESEncryption();
-        this.keyExchange = new DiffieHellmanKeyExchange();
         this.certificateManager = new CertificateManager();
-        this.executorService = Executors.newFixedThreadPool(2);
+        this.executorService = executionMode.newFixedExecutor(2);
     }
     
     /**
      * Initializes the client
      */
     public void initialize() throws Exception {
-        // Generate client certificate
-        certificateManager.generateSelfSignedCertificate("VPN Client " + clientId);
+        if (keyStorePath == null) {
+            // Generate client certificate
+            certificateManager.generateSelfSignedCertificate("VPN Client " + clientId);
+        } else if (certificateManager.loadOrGenerateCertificate(keyStorePath, keyStorePassword, "VPN Client " + clientId)) {
+            System.out.println("Client certificate loaded from " + keyStorePath);
+        } else {
+            System.out.println("Client certificate generated and stored in " + keyStorePath);
+        }
         
         System.out.println("VPN Client initialized. Client ID: " + clientId);
     }
     
+    /**
+     * Keeps the client key pair and certificate in a PKCS12 keystore, so they
+     * are generated only on the first start or after the certificate expired.
+     * Must be called before initialize().
+     * @param keyStorePath The keystore file, or null to generate a new certificate on every start
+     * @param password Protects the keystore and the private key in it
+     */
+    public void setKeyStore(Path keyStorePath, char[] password) {
+        this.keyStorePath = keyStorePath;
+        this.keyStorePassword = password;
+    }
+    
     /**
      * Connects to the VPN server
      */
@@ -69,15 +160,21 @@ public class VPNClient {
         
         try {
             // Connect to server
-            socket = new Socket(serverAddress, serverPort);
-            outputStream = new ObjectOutputStream(socket.getOutputStream());
-            inputStream = new ObjectInputStream(socket.getInputStream());
+            transport = datagramTransport
+                    ? new DatagramClientTransport(serverAddress, serverPort)
+                    : new TcpClientTransport(serverAddress, serverPort);
+            codec = MessageCodec.SERIALIZED;
             
             // Perform handshake
-            boolean handshakeSuccess = performHandshake();
+            boolean handshakeSuccess = handshakeMode == HandshakeMode.ONE_RTT
+                    ? performOneRoundTripHandshake()
+                    : performHandshake();
             
             if (handshakeSuccess) {
                 connected = true;
+                coalescer = coalescing
+                        ? new MessageCoalescer(coalescingRecordSize, lingerMicros, this::writeBatch)
+                        : null;
                 
                 // Start message listener
                 startMessageListener();
@@ -106,16 +203,26 @@ public class VPNClient {
                     Message.MessageType.HANDSHAKE_INIT,
                     clientId,
                     "Hello Server");
-            outputStream.writeObject(handshakeInit);
-            outputStream.flush();
-            System.out.println("Sent handshake init");
-            
+            handshakeInit.setAttribute(MessageCodec.OFFER_ATTRIBUTE, MessageCodec.offer(preferredCodec));
+            handshakeInit.setAttribute(KeyExchangeAlgorithm.OFFER_ATTRIBUTE,
+                    KeyExchangeAlgorithm.offer(preferredKeyExchange));
+            handshakeInit.setAttribute(CipherSuite.OFFER_ATTRIBUTE, cipherSuiteOffer);
+            offerCompression(handshakeInit);
+            offerResumption(handshakeInit);
             // Step 2: Receive handshake response with server certificate
-            Message handshakeResponse = (Message) inputStream.readObject();
-            if (handshakeResponse.getType() != Message.MessageType.HANDSHAKE_RESPONSE) {
-                throw new Exception("Expected HANDSHAKE_RESPONSE, but received " + handshakeResponse.getType());
+            Message handshakeResponse = sendHandshakeInit(handshakeInit);
+            codec = MessageCodec.select(handshakeResponse.getAttribute(MessageCodec.SELECTED_ATTRIBUTE));
+            cipherSuite = CipherSuite.selected(handshakeResponse.getAttribute(CipherSuite.SELECTED_ATTRIBUTE));
+            selectCompression(handshakeResponse);
+            if (completeResumption(handshakeResponse)) {
+                return true;
             }
-            System.out.println("Received handshake response");
+            verifyServerCertificate(handshakeResponse.getContent());
+            KeyExchangeAlgorithm keyExchangeAlgorithm = KeyExchangeAlgorithm.select(
+                    handshakeResponse.getAttribute(KeyExchangeAlgorithm.SELECTED_ATTRIBUTE));
+            keyExchange = keyExchangeAlgorithm.create();
+            System.out.println("Received handshake response (" + codec + " codec, " +
+                    keyExchangeAlgorithm + " key exchange, " + cipherSuite + ")");
             
             // Step 3: Send client certificate
             String encodedCertificate = certificateManager.getEncodedCertificate();
@@ -123,35 +230,33 @@ public class VPNClient {
                     Message.MessageType.CERTIFICATE_EXCHANGE,
                     clientId,
                     encodedCertificate);
-            outputStream.writeObject(certificateExchange);
-            outputStream.flush();
+            writeMessage(certificateExchange);
             System.out.println("Sent client certificate");
             
-            // Step 4: Receive server's Diffie-Hellman public key
-            Message serverKeyExchange = (Message) inputStream.readObject();
+            // Step 4: Receive server's key exchange public key
+            Message serverKeyExchange = transport.read(codec);
             if (serverKeyExchange.getType() != Message.MessageType.KEY_EXCHANGE) {
                 throw new Exception("Expected KEY_EXCHANGE, but received " + serverKeyExchange.getType());
             }
             System.out.println("Received server key exchange");
             
-            // Step 5: Initialize Diffie-Hellman key exchange
+            // Step 5: Initialize the key exchange
             keyExchange.init();
             String publicKeyEncoded = keyExchange.getPublicKeyEncoded();
             
-            // Send client's Diffie-Hellman public key
+            // Send client's key exchange public key
             Message keyExchangeMessage = new Message(
                     Message.MessageType.KEY_EXCHANGE,
                     clientId,
                     publicKeyEncoded);
-            outputStream.writeObject(keyExchangeMessage);
-            outputStream.flush();
+            writeMessage(keyExchangeMessage);
             System.out.println("Sent client key exchange");
             
             // Generate shared secret
             byte[] sharedSecret = keyExchange.generateSharedSecret(serverKeyExchange.getContent());
             
             // Initialize AES encryption with shared secret
-            aesEncryption.initFromSharedSecret(sharedSecret);
+            startSession(sharedSecret);
             
             System.out.println("Handshake completed successfully");
             return true;
@@ -162,6 +267,175 @@ public class VPNClient {
         }
     }
     
+    /**
+     * Performs the handshake in a single round trip: the client certificate and
+     * key share travel with the init, and the server answers with its own
+     */
+    private boolean performOneRoundTripHandshake() throws Exception {
+        try {
+            // The key share can only use one algorithm, so it is the preferred one
+            keyExchange = preferredKeyExchange.create();
+            keyExchange.init();
+            
+            // Send init, certificate and key share in one flight
+            Message handshakeInit = new Message(
+                    Message.MessageType.HANDSHAKE_INIT,
+                    clientId,
+                    "Hello Server");
+            handshakeInit.setAttribute(MessageCodec.OFFER_ATTRIBUTE, MessageCodec.offer(preferredCodec));
+            handshakeInit.setAttribute(HandshakeMode.CERTIFICATE_ATTRIBUTE, certificateManager.getEncodedCertificate());
+            handshakeInit.setAttribute(HandshakeMode.KEY_SHARE_ATTRIBUTE, keyExchange.getPublicKeyEncoded());
+            handshakeInit.setAttribute(KeyExchangeAlgorithm.SELECTED_ATTRIBUTE, preferredKeyExchange.name());
+            handshakeInit.setAttribute(CipherSuite.OFFER_ATTRIBUTE, cipherSuiteOffer);
+            offerCompression(handshakeInit);
+            offerResumption(handshakeInit);
+            // Receive the server certificate and key share
+            Message handshakeResponse = sendHandshakeInit(handshakeInit);
+            codec = MessageCodec.select(handshakeResponse.getAttribute(MessageCodec.SELECTED_ATTRIBUTE));
+            cipherSuite = CipherSuite.selected(handshakeResponse.getAttribute(CipherSuite.SELECTED_ATTRIBUTE));
+            selectCompression(handshakeResponse);
+            if (completeResumption(handshakeResponse)) {
+                return true;
+            }
+            String serverKeyShare = handshakeResponse.getAttribute(HandshakeMode.KEY_SHARE_ATTRIBUTE);
+            if (serverKeyShare == null) {
+                throw new Exception("Server does not support the one-round-trip handshake");
+            }
+            verifyServerCertificate(handshakeResponse.getContent());
+            if (KeyExchangeAlgorithm.select(handshakeResponse.getAttribute(KeyExchangeAlgorithm.SELECTED_ATTRIBUTE))
+                    != preferredKeyExchange) {
+                throw new Exception("Server does not support the " + preferredKeyExchange + " key exchange");
+            }
+            System.out.println("Received handshake response with key exchange (" + codec + " codec, " +
+                    cipherSuite + ")");
+            
+            startSession(keyExchange.generateSharedSecret(serverKeyShare));
+            
+            System.out.println("Handshake completed successfully");
+            return true;
+            
+        } catch (Exception e) {
+            System.err.println("Handshake failed: " + e.getMessage());
+            throw e;
+        }
+    }
+    
+    /**
+     * Sends HANDSHAKE_INIT and returns the server's HANDSHAKE_RESPONSE. A busy
+     * server first answers with a cookie challenge; the init is then sent again
+     * with the cookie echoed.
+     */
+    private Message sendHandshakeInit(Message handshakeInit) throws Exception {
+        writeMessage(handshakeInit);
+        System.out.println("Sent handshake init");
+        
+        Message response = transport.read(codec);
+        if (response.getType() == Message.MessageType.COOKIE_CHALLENGE) {
+            handshakeInit.setAttribute(HandshakeMode.COOKIE_ATTRIBUTE, response.getContent());
+            writeMessage(handshakeInit);
+            System.out.println("Sent handshake init again with the server's cookie");
+            response = transport.read(codec);
+        }
+        if (response.getType() != Message.MessageType.HANDSHAKE_RESPONSE) {
+            throw new Exception("Expected HANDSHAKE_RESPONSE, but received " + response.getType());
+        }
+        return response;
+    }
+    
+    /**
+     * Ends the handshake if the server certificate does not verify. On
+     * reconnects the certificate is usually found in the verified cache.
+     */
+    private void verifyServerCertificate(String encodedCertificate) throws Exception {
+        if (encodedCertificate == null || !certificateManager.verifyCertificate(encodedCertificate)) {
+            throw new Exception("Server certificate could not be verified");
+        }
+    }
+    
+    /**
+     * Adds the stored session ticket to a HANDSHAKE_INIT. Tickets are single-use,
+     * so it is forgotten whether or not the server accepts it.
+     */
+    private void offerResumption(Message handshakeInit) throws GeneralSecurityException {
+        resumingSecret = null;
+        resumingNonce = null;
+        String ticket = sessionTicket;
+        byte[] secret = ticketResumptionSecret;
+        sessionTicket = null;
+        ticketResumptionSecret = null;
+        if (!resumptionEnabled || ticket == null || secret == null || System.currentTimeMillis() >= ticketExpiresAt) {
+            return;
+        }
+        
+        resumingSecret = secret;
+        resumingNonce = SessionResumption.newNonce();
+        handshakeInit.setAttribute(SessionResumption.TICKET_ATTRIBUTE, ticket);
+        handshakeInit.setAttribute(SessionResumption.NONCE_ATTRIBUTE, Base64.getEncoder().encodeToString(resumingNonce));
+        handshakeInit.setAttribute(SessionResumption.BINDER_ATTRIBUTE, Base64.getEncoder().encodeToString(
+                SessionResumption.computeBinder(secret, ticket, resumingNonce)));
+    }
+    
+    /**
+     * Finishes the handshake if the server accepted the offered ticket
+     * @return false if the server continues with a regular handshake
+     */
+    private boolean completeResumption(Message handshakeResponse) throws GeneralSecurityException {
+        String serverNonce = handshakeResponse.getAttribute(SessionResumption.NONCE_ATTRIBUTE);
+        if (serverNonce == null || resumingSecret == null) {
+            return false;
+        }
+        
+        startSession(SessionResumption.deriveSessionKey(resumingSecret, resumingNonce,
+                Base64.getDecoder().decode(serverNonce)));
+        resumingSecret = null;
+        resumingNonce = null;
+        System.out.println("Resumed session from ticket (" + codec + " codec)");
+        return true;
+    }
+
+    /**
+     * Remembers the ticket sealed in a SESSION_TICKET to resume this session after a reconnect
+     */
+    private void receiveSessionTicket(Message message) {
+        try {
+            String ticket = new String(aesEncryption.decrypt(message.getPayload(), message.getAssociatedData()),
+                    StandardCharsets.US_ASCII);
+            long lifetimeSeconds = Long.parseLong(message.getAttribute(SessionResumption.LIFETIME_ATTRIBUTE));
+            ticketResumptionSecret = resumptionSecret;
+            ticketExpiresAt = System.currentTimeMillis() + lifetimeSeconds * 1000;
+            sessionTicket = ticket;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            // Without a ticket the next connect is just a full handshake
+            System.err.println("Error reading session ticket: " + e.getMessage());
+        }
+    }
+
+    private void offerCompression(Message handshakeInit) {
+        if (compressionOffered) {
+            handshakeInit.setAttribute(PayloadCompressor.OFFER_ATTRIBUTE, PayloadCompressor.DEFLATE);
+        }
+    }
+    
+    /**
+     * Starts a new compressor for the session if the server accepted compression
+     */
+    private void selectCompression(Message handshakeResponse) {
+        PayloadCompressor sessionCompressor = null;
+        if (PayloadCompressor.DEFLATE.equals(handshakeResponse.getAttribute(PayloadCompressor.SELECTED_ATTRIBUTE))) {
+            sessionCompressor = new PayloadCompressor();
+            sessionCompressor.setThreshold(compressionThreshold);
+        }
+        compressor = sessionCompressor;
+    }
+    
+    /**
+     * Initializes the session key and prepares resumption of this session
+     */
+    private void startSession(byte[] sharedSecret) throws GeneralSecurityException {
+        aesEncryption.initFromSharedSecret(sharedSecret, AESEncryption.Role.CLIENT, cipherSuite);
+        resumptionSecret = SessionResumption.deriveResumptionSecret(sharedSecret);
+    }
+    
     /**
      * Starts the message listener thread
      */
@@ -169,7 +443,7 @@ public class VPNClient {
         executorService.submit(() -> {
             while (connected) {
                 try {
-                    Message encryptedMessage = (Message) inputStream.readObject();
+                    Message encryptedMessage = transport.read(codec);
                     System.out.println("Received message of type: " + encryptedMessage.getType() + 
                                      " from: " + encryptedMessage.getSender());
                     
@@ -184,7 +458,7 @@ public class VPNClient {
                         case ERROR -> {
                             // Handle error messages
                             try {
-                                String errorMessage = aesEncryption.decrypt(encryptedMessage.getContent());
+                                String errorMessage = decryptContent(encryptedMessage);
                                 System.err.println("Received error from server: " + errorMessage);
                                 if (messageHandler != null) {
                                     messageHandler.accept(encryptedMessage);
@@ -193,10 +467,19 @@ public class VPNClient {
                                 System.err.println("Error decrypting error message: " + ex.getMessage());
                             }
                         }
+                        case BATCH -> receiveBatch(encryptedMessage);
+                        case STREAM_CHUNK -> receiveChunk(encryptedMessage);
+                        case STREAM_CREDIT -> receiveCredit(encryptedMessage);
+                        case PING -> writeMessage(new Message(Message.MessageType.PONG, clientId, null));
+                        case SESSION_TICKET -> receiveSessionTicket(encryptedMessage);
                         default -> {
                             System.out.println("Received message of type: " + encryptedMessage.getType());
                         }
                     }
+                    if (!transport.hasPendingInput()) {
+                        // Caught up; the senders may be waiting for the credit held back
+                        returnCredit();
+                    }
                     
                 } catch (IOException e) {
                     // Server disconnected
@@ -205,8 +488,6 @@ public class VPNClient {
                         disconnect();
                     }
                     break;
-                } catch (ClassNotFoundException e) {
-                    System.err.println("Error reading message (invalid class): " + e.getMessage());
                 } catch (Exception e) {
                     System.err.println("Unexpected error processing message: " + e.getMessage());
                 }
@@ -224,21 +505,30 @@ public class VPNClient {
             return future;
         }
         
+        byte[] plaintext = message.getBytes(StandardCharsets.UTF_8);
+        MessageCoalescer batcher = coalescer;
+        if (batcher != null) {
+            if (batcher.fits(plaintext.length)) {
+                return batcher.add(destinationAddress, plaintext);
+            }
+        }
+        
         return CompletableFuture.runAsync(() -> {
             try {
-                // Encrypt the message
-                String encryptedContent = aesEncryption.encrypt(message);
-                
-                // Create and send the message
+                if (batcher != null) {
+                    // Too long to share a record; what waits for the destination goes first
+                    batcher.flush(destinationAddress);
+                }
+                // Create the message with the encrypted content as raw payload
                 Message dataMessage = new Message(
                         Message.MessageType.DATA,
                         clientId,
-                        encryptedContent,
+                        null,
                         destinationAddress);
+                seal(dataMessage, plaintext);
                         
                 System.out.println("Sending message to " + destinationAddress);
-                outputStream.writeObject(dataMessage);
-                outputStream.flush();
+                writeMessage(dataMessage);
                 
             } catch (Exception e) {
                 System.err.println("Error sending message: " + e.getMessage());
@@ -247,6 +537,523 @@ public class VPNClient {
         }, executorService);
     }
     
+    /**
+     * Sends everything an input stream holds to another client and returns
+     * once the last chunk is written, see {@link #sendStream(ReadableByteChannel, String)}
+     * @return The number of bytes sent
+     */
+    public long sendStream(InputStream input, String destinationAddress) throws IOException {
+        return sendStream(Channels.newChannel(input), destinationAddress);
+    }
+    
+    /**
+     * Sends everything a blocking channel holds to another client as a stream
+     * of encrypted chunks, and returns once the last chunk is written. Only one
+     * chunk is in memory at a time, and the call waits for credit from the
+     * receiver whenever the stream is {@value StreamChunks#INITIAL_CREDIT}
+     * bytes ahead of it, or all streams together are over the budget set with
+     * {@link #setStreamBytesInFlight}. The destination gets the stream through
+     * its {@link StreamHandler}. Messages sent meanwhile go out before the next
+     * chunk, and streams sent from several threads take turns chunk by chunk.
+     * @return The number of bytes sent
+     * @throws IOException If reading the input fails, the connection fails, or
+     *                     the receiver refused the stream or stopped returning credit
+     */
+    public long sendStream(ReadableByteChannel input, String destinationAddress) throws IOException {
+        if (!connected) {
+            throw new IOException("Not connected to server");
+        }
+        
+        long streamId = nextStreamId.incrementAndGet();
+        streamCredits.open(streamId, destinationAddress);
+        byte[] chunk = new byte[streamChunkSize];
+        long sent = 0;
+        boolean end = false;
+        try {
+            while (!end) {
+                ByteBuffer buffer = ByteBuffer.wrap(chunk);
+                // Fill the whole chunk unless the input ends first
+                while (buffer.hasRemaining() && !end) {
+                    end = input.read(buffer) < 0;
+                }
+                byte[] plaintext = buffer.hasRemaining() ? Arrays.copyOf(chunk, buffer.position()) : chunk;
+                if (plaintext.length > 0) {
+                    streamCredits.acquire(streamId, plaintext.length);
+                }
+                writeChunk(streamId, destinationAddress, sent, plaintext, end, null);
+                sent += plaintext.length;
+            }
+        } catch (IOException e) {
+            if (connected) {
+                // Let the receiver close its side instead of waiting for the end
+                try {
+                    writeChunk(streamId, destinationAddress, sent, new byte[0], true,
+                            String.valueOf(e.getMessage()));
+                } catch (IOException ignored) {
+                    // The connection failed as well
+                }
+            }
+            throw e;
+        } finally {
+            streamCredits.close(streamId);
+        }
+        return sent;
+    }
+    
+    private void writeChunk(long streamId, String destinationAddress, long offset, byte[] plaintext, boolean end,
+            String error) throws IOException {
+        Message chunkMessage = new Message(Message.MessageType.STREAM_CHUNK, clientId, null, destinationAddress);
+        chunkMessage.setAttribute(StreamChunks.STREAM_ATTRIBUTE, String.valueOf(streamId));
+        chunkMessage.setAttribute(StreamChunks.OFFSET_ATTRIBUTE, String.valueOf(offset));
+        if (end) {
+            chunkMessage.setAttribute(StreamChunks.END_ATTRIBUTE, "true");
+        }
+        if (error != null) {
+            chunkMessage.setAttribute(StreamChunks.ERROR_ATTRIBUTE, error);
+        }
+        try {
+            seal(chunkMessage, plaintext);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Error encrypting stream chunk: " + e.getMessage(), e);
+        }
+        
+        chunkTurn.lock();
+        try {
+            awaitWaitingMessages();
+            writeFrame(chunkMessage);
+        } finally {
+            chunkTurn.unlock();
+        }
+    }
+    
+    /**
+     * Blocks the chunk writer whose turn it is until no message waits for the socket
+     */
+    private void awaitWaitingMessages() throws IOException {
+        synchronized (messagesWritten) {
+            try {
+                while (waitingMessages.get() > 0) {
+                    messagesWritten.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to send a stream chunk");
+            }
+        }
+    }
+    
+    /**
+     * Adds the credit a receiver returned to the stream it belongs to
+     */
+    private void receiveCredit(Message message) throws Exception {
+        // Opened first: the stream ID, credit and error are in the header, which the record authenticates
+        open(message);
+        long streamId = Long.parseLong(message.getAttribute(StreamChunks.STREAM_ATTRIBUTE));
+        String error = message.getAttribute(StreamChunks.ERROR_ATTRIBUTE);
+        if (error != null) {
+            streamCredits.fail(streamId, message.getSender(),
+                    "Stream refused by " + message.getSender() + ": " + error);
+        } else {
+            streamCredits.grant(streamId, message.getSender(),
+                    Long.parseLong(message.getAttribute(StreamChunks.CREDIT_ATTRIBUTE)));
+        }
+    }
+    
+    /**
+     * Returns credit for a received stream to its sender, or tells the sender
+     * to stop if the error is set
+     */
+    private void sendCredit(String sender, long streamId, long credit, String error) {
+        try {
+            Message creditMessage = new Message(Message.MessageType.STREAM_CREDIT, clientId, null, sender);
+            creditMessage.setAttribute(StreamChunks.STREAM_ATTRIBUTE, String.valueOf(streamId));
+            if (error != null) {
+                creditMessage.setAttribute(StreamChunks.ERROR_ATTRIBUTE, error);
+            } else {
+                creditMessage.setAttribute(StreamChunks.CREDIT_ATTRIBUTE, String.valueOf(credit));
+            }
+            creditMessage.setPayload(aesEncryption.encrypt(new byte[0], creditMessage.getAssociatedData()));
+            writeMessage(creditMessage);
+        } catch (Exception e) {
+            System.err.println("Error returning stream credit: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Writes a received chunk to its stream, opening the stream on its first
+     * chunk and closing it on the last. A chunk that does not start where the
+     * previous one ended means the server dropped one in between, which fails
+     * the stream rather than delivering it with a hole.
+     */
+    private void receiveChunk(Message message) {
+        if (!connected) {
+            // Read just before the connection closed, and its stream already failed
+            return;
+        }
+        // Opened before anything in the header is believed, which authenticates the stream ID,
+        // offset, end and error along with the data. Opened even for a discarded stream, to
+        // keep the replay window and key epochs in step.
+        ByteBuffer data;
+        long streamId;
+        try {
+            data = ByteBuffer.wrap(open(message));
+            streamId = Long.parseLong(message.getAttribute(StreamChunks.STREAM_ATTRIBUTE));
+        } catch (Exception e) {
+            // A chunk that does not open leaves the streams alone
+            System.err.println("Dropped stream chunk from " + message.getSender() + ": " + e.getMessage());
+            return;
+        }
+        String sender = message.getSender();
+        String key = sender + "/" + streamId;
+        ReceivingStream stream = receivingStreams.get(key);
+        String failure = message.getAttribute(StreamChunks.ERROR_ATTRIBUTE);
+        try {
+            if (stream == null) {
+                StreamHandler handler = streamHandler;
+                WritableByteChannel channel = handler != null ? handler.openStream(sender, streamId) : null;
+                stream = new ReceivingStream(sender, streamId, channel != null ? channel : DISCARDED_STREAM);
+                receivingStreams.put(key, stream);
+            }
+            long offset = Long.parseLong(message.getAttribute(StreamChunks.OFFSET_ATTRIBUTE));
+            if (offset != stream.received && stream.channel != DISCARDED_STREAM) {
+                throw new IOException("chunk missing at byte " + stream.received + ", next one starts at " + offset);
+            }
+            int length = data.remaining();
+            stream.received += length;
+            while (data.hasRemaining()) {
+                stream.channel.write(data);
+            }
+            if (stream.channel == DISCARDED_STREAM) {
+                if (!stream.refused) {
+                    stream.refused = true;
+                    sendCredit(sender, streamId, 0, "no receiver for the stream");
+                }
+            } else if (failure == null && message.getAttribute(StreamChunks.END_ATTRIBUTE) == null) {
+                // Written, so the sender may send as much again. Returned in batches
+                // while more is waiting to be read, and by the listener once nothing is.
+                stream.ungranted += length;
+                if (stream.ungranted >= StreamChunks.INITIAL_CREDIT / 2) {
+                    sendCredit(sender, streamId, stream.ungranted, null);
+                    stream.ungranted = 0;
+                }
+            }
+        } catch (Exception e) {
+            failure = "Error receiving stream: " + e.getMessage();
+        }
+        
+        WritableByteChannel channel = stream != null ? stream.channel : null;
+        boolean end = message.getAttribute(StreamChunks.END_ATTRIBUTE) != null;
+        if (failure != null || end) {
+            closeStream(channel);
+            if (end) {
+                receivingStreams.remove(key);
+            } else {
+                // Drop the rest of the stream and stop the sender
+                ReceivingStream discarded = new ReceivingStream(sender, streamId, DISCARDED_STREAM);
+                discarded.refused = true;
+                receivingStreams.put(key, discarded);
+                sendCredit(sender, streamId, 0, failure);
+            }
+            if (failure != null && channel != null && channel != DISCARDED_STREAM) {
+                System.err.println("Stream " + streamId + " from " + sender + " failed: " + failure);
+                StreamHandler handler = streamHandler;
+                if (handler != null) {
+                    handler.streamFailed(sender, streamId, failure);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns the credit held back for all streams being received
+     */
+    private void returnCredit() {
+        for (ReceivingStream stream : receivingStreams.values()) {
+            if (stream.ungranted > 0) {
+                sendCredit(stream.sender, stream.streamId, stream.ungranted, null);
+                stream.ungranted = 0;
+            }
+        }
+    }
+    
+    private static void closeStream(WritableByteChannel channel) {
+        if (channel == null || channel == DISCARDED_STREAM) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing received stream: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Compresses a payload if the session negotiated compression and it pays
+     * off, then encrypts it into the message, bound to the message's header.
+     * The header must be complete before.
+     */
+    private void seal(Message message, byte[] plaintext) throws GeneralSecurityException {
+        PayloadCompressor sessionCompressor = compressor;
+        byte[] compressed = sessionCompressor != null ? sessionCompressor.compress(plaintext) : null;
+        if (compressed != null) {
+            message.setAttribute(PayloadCompressor.LENGTH_ATTRIBUTE, String.valueOf(plaintext.length));
+            plaintext = compressed;
+        }
+        message.setPayload(aesEncryption.encrypt(plaintext, message.getAssociatedData()));
+    }
+    
+    /**
+     * Seals short messages to one destination in a single BATCH record, or
+     * as a plain DATA record if only one came along within the linger time
+     */
+    private void writeBatch(String destinationAddress, List<byte[]> messages) throws IOException {
+        boolean single = messages.size() == 1;
+        Message record = new Message(
+                single ? Message.MessageType.DATA : Message.MessageType.BATCH,
+                clientId,
+                null,
+                destinationAddress);
+        try {
+            seal(record, single ? messages.get(0) : RecordBatch.pack(messages));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Error encrypting messages", e);
+        }
+        writeMessage(record);
+    }
+    
+    /**
+     * Hands each message of a received BATCH record to the message handler
+     */
+    private void receiveBatch(Message batch) throws Exception {
+        for (byte[] plaintext : RecordBatch.unpack(open(batch))) {
+            Message message = new UnpackedMessage(
+                    batch.getSender(),
+                    new String(plaintext, StandardCharsets.UTF_8),
+                    batch.getDestinationAddress());
+            if (messageHandler != null) {
+                messageHandler.accept(message);
+            }
+        }
+    }
+    
+    /**
+     * Writes a single message to the server ahead of any stream chunk waiting for its turn
+     */
+    private void writeMessage(Message message) throws IOException {
+        waitingMessages.incrementAndGet();
+        try {
+            writeFrame(message);
+        } finally {
+            if (waitingMessages.decrementAndGet() == 0) {
+                synchronized (messagesWritten) {
+                    messagesWritten.notifyAll();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Writes a single message to the server. Writers are serialized so frames never interleave.
+     */
+    private void writeFrame(Message message) throws IOException {
+        synchronized (writeLock) {
+            transport.write(message, codec);
+        }
+    }
+    
+    /**
+     * Sets the codec offered first to the server. Takes effect on the next connect.
+     */
+    public void setPreferredCodec(MessageCodec preferredCodec) {
+        this.preferredCodec = preferredCodec;
+    }
+    
+    /**
+     * Selects the handshake used by the next {@link #connect()}
+     */
+    public void setHandshakeMode(HandshakeMode handshakeMode) {
+        this.handshakeMode = handshakeMode;
+    }
+    
+    public HandshakeMode getHandshakeMode() {
+        return handshakeMode;
+    }
+    
+    /**
+     * Enables or disables resuming sessions from tickets on reconnect
+     */
+    public void setResumptionEnabled(boolean resumptionEnabled) {
+        this.resumptionEnabled = resumptionEnabled;
+    }
+    
+    /**
+     * Returns true if the client holds a ticket for resuming its last session
+     */
+    public boolean hasSessionTicket() {
+        return sessionTicket != null && System.currentTimeMillis() < ticketExpiresAt;
+    }
+    
+    /**
+     * Sets the key exchange offered first to the server. Takes effect on the next connect.
+     */
+    public void setPreferredKeyExchange(KeyExchangeAlgorithm preferredKeyExchange) {
+        this.preferredKeyExchange = preferredKeyExchange;
+    }
+    
+    /**
+     * Sets after how many bytes or records the client rotates the key of what
+     * it sends. The server follows without any message being exchanged.
+     */
+    public void setRekeyLimits(long rekeyBytes, long rekeyRecords) {
+        aesEncryption.setRekeyLimits(rekeyBytes, rekeyRecords);
+    }
+    
+    /**
+     * Restricts the cipher suites offered to the server, which selects one of
+     * them by its own preference. Takes effect on the next connect.
+     */
+    public void setCipherSuites(CipherSuite... cipherSuites) {
+        StringBuilder offer = new StringBuilder();
+        for (CipherSuite suite : cipherSuites) {
+            offer.append(offer.length() == 0 ? "" : ",").append(suite.name());
+        }
+        this.cipherSuiteOffer = offer.toString();
+    }
+    
+    /**
+     * Returns the cipher suite negotiated for the current connection
+     */
+    public CipherSuite getCipherSuite() {
+        return cipherSuite;
+    }
+    
+    /**
+     * Offers payload compression to the server, which may decline it. Takes
+     * effect on the next connect.
+     */
+    public void setCompression(boolean compressionOffered) {
+        this.compressionOffered = compressionOffered;
+    }
+    
+    /**
+     * Coalesces short messages to the same destination into shared records.
+     * Takes effect on the next connect.
+     */
+    public void setCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+    }
+    
+    /**
+     * Sets the record plaintext that coalesced messages fill before they are
+     * sent without waiting, and how long a message may wait for others to
+     * join it. Takes effect on the next connect.
+     */
+    public void setCoalescingLimits(int recordSize, long lingerMicros) {
+        if (recordSize < RecordBatch.LENGTH_PREFIX + 1 || recordSize > RecordBatch.MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("Record size must be between " + (RecordBatch.LENGTH_PREFIX + 1)
+                    + " and " + RecordBatch.MAX_RECORD_SIZE);
+        }
+        this.coalescingRecordSize = recordSize;
+        this.lingerMicros = lingerMicros;
+    }
+    
+    /**
+     * Connects over UDP instead of TCP. The server must run in UDP mode.
+     * Takes effect on the next connect.
+     */
+    public void setDatagramTransport(boolean datagramTransport) {
+        this.datagramTransport = datagramTransport;
+    }
+    
+    /**
+     * Sets the length below which payloads are sent uncompressed. Takes
+     * effect on the next connect.
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+    
+    /**
+     * Returns the compressor of the current session with its ratio and time
+     * spent, or null if the session does not use compression
+     */
+    public PayloadCompressor getCompressor() {
+        return compressor;
+    }
+    
+    /**
+     * Returns the codec negotiated for the current connection
+     */
+    public MessageCodec getCodec() {
+        return codec;
+    }
+    
+    /**
+     * Decrypts the content of a received message, whether it arrived as raw
+     * payload or as Base64 content
+     */
+    public String decryptContent(Message message) throws Exception {
+        if (message instanceof UnpackedMessage) {
+            // Opened with the rest of its batch
+            return message.getContent();
+        }
+        if (message.getPayload() != null) {
+            return new String(open(message), StandardCharsets.UTF_8);
+        }
+        return aesEncryption.decrypt(message.getContent());
+    }
+    
+    /**
+     * Decrypts the payload of a message and inflates it if it was sent compressed.
+     * The message's header is authenticated along with the payload.
+     */
+    private byte[] open(Message message) throws Exception {
+        byte[] plaintext = aesEncryption.decrypt(message.getPayload(), message.getAssociatedData());
+        int inflatedLength = PayloadCompressor.inflatedLength(message);
+        PayloadCompressor sessionCompressor = compressor;
+        if (inflatedLength >= 0) {
+            if (sessionCompressor == null) {
+                throw new Exception("Compressed payload on a session without compression");
+            }
+            return sessionCompressor.decompress(plaintext, inflatedLength);
+        }
+        if (sessionCompressor != null) {
+            sessionCompressor.received(plaintext.length, -1);
+        }
+        return plaintext;
+    }
+    
+    /**
+     * Sets a handler for streams sent by other clients. Without one, received
+     * streams are discarded.
+     */
+    public void setStreamHandler(StreamHandler streamHandler) {
+        this.streamHandler = streamHandler;
+    }
+    
+    /**
+     * Sets the size of the chunks {@link #sendStream} cuts streams into
+     */
+    public void setStreamChunkSize(int streamChunkSize) {
+        if (streamChunkSize <= 0 || streamChunkSize > StreamChunks.MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Stream chunk size must be between 1 and " + StreamChunks.MAX_CHUNK_SIZE);
+        }
+        this.streamChunkSize = streamChunkSize;
+    }
+    
+    /**
+     * Limits the bytes of all streams this client sends that are on the way
+     * and not yet written by their receivers. Messages sent while streams run
+     * queue up behind this much at most, so a smaller budget keeps them faster
+     * and a larger one lets streams fill a link with a long round trip.
+     */
+    public void setStreamBytesInFlight(int streamBytesInFlight) {
+        if (streamBytesInFlight <= 0) {
+            throw new IllegalArgumentException("Stream bytes in flight must be positive");
+        }
+        streamCredits.setBudget(streamBytesInFlight);
+    }
+    
     /**
      * Sets a handler for incoming messages
      */
@@ -264,23 +1071,35 @@ public class VPNClient {
         
         connected = false;
         
+        MessageCoalescer batcher = coalescer;
+        if (batcher != null) {
+            // Messages still lingering go out before the disconnect
+            batcher.flushAll();
+        }
+        
         try {
             // Send disconnect message
-            if (outputStream != null) {
+            if (transport != null) {
                 Message disconnectMessage = new Message(
                         Message.MessageType.DISCONNECT,
                         clientId,
-                        "Disconnecting");
-                String encryptedContent = aesEncryption.encrypt(disconnectMessage.getContent());
-                disconnectMessage.setContent(encryptedContent);
-                outputStream.writeObject(disconnectMessage);
-                outputStream.flush();
+                        null);
+                disconnectMessage.setPayload(aesEncryption.encrypt("Disconnecting".getBytes(StandardCharsets.UTF_8),
+                        disconnectMessage.getAssociatedData()));
+                writeMessage(disconnectMessage);
             }
         } catch (Exception e) {
             // Ignore, we're disconnecting anyway
         }
         
         close();
+        PayloadCompressor sessionCompressor = compressor;
+        if (sessionCompressor != null) {
+            System.out.println("Compression: " + sessionCompressor.report());
+        }
+        if (batcher != null) {
+            System.out.println("Coalescing: " + batcher.report());
+        }
     }
     
     /**
@@ -288,14 +1107,29 @@ public class VPNClient {
      */
     private void close() {
         try {
-            if (inputStream != null) inputStream.close();
-            if (outputStream != null) outputStream.close();
-            if (socket != null) socket.close();
+            if (transport != null) transport.close();
         } catch (IOException e) {
             System.err.println("Error closing connection: " + e.getMessage());
         }
         
         connected = false;
+        
+        MessageCoalescer batcher = coalescer;
+        if (batcher != null) {
+            batcher.close();
+        }
+        
+        // The rest of any stream being received will not arrive
+        StreamHandler handler = streamHandler;
+        for (ReceivingStream stream : receivingStreams.values()) {
+            closeStream(stream.channel);
+            if (stream.channel != DISCARDED_STREAM && handler != null) {
+                handler.streamFailed(stream.sender, stream.streamId, "Connection closed");
+            }
+        }
+        receivingStreams.clear();
+        
+        streamCredits.failAll("Connection closed");
     }
     
     /**
@@ -326,4 +1160,35 @@ public class VPNClient {
     public AESEncryption getAesEncryption() {
         return aesEncryption;
     }
+    
+    /**
+     * A DATA message unpacked from a received batch, whose content is already
+     * plaintext. Only made here, so no message from the wire can claim to be one.
+     */
+    private static class UnpackedMessage extends Message {
+        private static final long serialVersionUID = 1L;
+        
+        UnpackedMessage(String sender, String content, String destinationAddress) {
+            super(MessageType.DATA, sender, content, destinationAddress);
+        }
+    }
+    
+    /**
+     * A stream being received, how many bytes of it arrived so far and how
+     * many of those were not returned as credit yet
+     */
+    private static class ReceivingStream {
+        final String sender;
+        final long streamId;
+        final WritableByteChannel channel;
+        long received;
+        long ungranted;
+        boolean refused;
+        
+        ReceivingStream(String sender, long streamId, WritableByteChannel channel) {
+            this.sender = sender;
+            this.streamId = streamId;
+            this.channel = channel;
+        }
+    }
 }
@@ -1,8 +1,14 @@
 package com.vpnsimulation.client;
 
+import java.nio.file.Path;
 import java.util.concurrent.CompletableFuture;
 
+import com.vpnsimulation.common.encryption.AESEncryption;
+import com.vpnsimulation.common.util.ExecutionMode;
+import com.vpnsimulation.common.util.HandshakeMode;
 import com.vpnsimulation.common.util.Message;
+import com.vpnsimulation.common.util.PayloadCompressor;
+import com.vpnsimulation.common.util.RecordBatch;
 
 import javafx.application.Application;
 import javafx.application.Platform;
@@ -25,6 +31,29 @@ public class VPNClientApp extends Application {
     
     private static final String DEFAULT_SERVER_ADDRESS = "localhost";
     private static final int DEFAULT_SERVER_PORT = 8443;
+    // Run the client on virtual threads with -Dvpn.execution=VIRTUAL (Java 21+)
+    private static final String EXECUTION_PROPERTY = "vpn.execution";
+    // Connect in a single round trip with -Dvpn.client.handshake=ONE_RTT
+    private static final String HANDSHAKE_PROPERTY = "vpn.client.handshake";
+    // Keystore holding the client certificate; an empty value generates a new one on every connect
+    private static final String KEYSTORE_PROPERTY = "vpn.client.keystore";
+    private static final String DEFAULT_KEYSTORE = "vpn-client.p12";
+    private static final String KEYSTORE_PASSWORD_PROPERTY = "vpn.keystore.password";
+    private static final String DEFAULT_KEYSTORE_PASSWORD = "vpn-simulation";
+    // Rotate the key of what the client sends after -Dvpn.rekey.bytes or -Dvpn.rekey.records
+    private static final String REKEY_BYTES_PROPERTY = "vpn.rekey.bytes";
+    private static final String REKEY_RECORDS_PROPERTY = "vpn.rekey.records";
+    // Offer payload compression with -Dvpn.client.compression=true, for payloads of at
+    // least -Dvpn.client.compressionThreshold bytes
+    private static final String COMPRESSION_PROPERTY = "vpn.client.compression";
+    private static final String COMPRESSION_THRESHOLD_PROPERTY = "vpn.client.compressionThreshold";
+    // Coalesce short messages with -Dvpn.client.coalescing=true into records of up to
+    // -Dvpn.client.coalescingRecordSize bytes, holding each for up to -Dvpn.client.lingerMicros
+    private static final String COALESCING_PROPERTY = "vpn.client.coalescing";
+    private static final String COALESCING_RECORD_SIZE_PROPERTY = "vpn.client.coalescingRecordSize";
+    private static final String LINGER_MICROS_PROPERTY = "vpn.client.lingerMicros";
+    // Connect over UDP with -Dvpn.client.transport=UDP, to a server started with -Dvpn.server.transport=UDP
+    private static final String TRANSPORT_PROPERTY = "vpn.client.transport";
     
     private VPNClient vpnClient;
     private boolean connected = false;
@@ -161,8 +190,28 @@ public class VPNClientApp extends Application {
                 int port = Integer.parseInt(portField.getText());
                 
                 // Create and initialize client
-                vpnClient = new VPNClient(serverAddress, port);
+                ExecutionMode executionMode = ExecutionMode.valueOf(
+                        System.getProperty(EXECUTION_PROPERTY, ExecutionMode.PLATFORM.name()));
+                vpnClient = new VPNClient(serverAddress, port, executionMode);
+                String keyStore = System.getProperty(KEYSTORE_PROPERTY, DEFAULT_KEYSTORE);
+                if (!keyStore.isEmpty()) {
+                    vpnClient.setKeyStore(Path.of(keyStore), System.getProperty(
+                            KEYSTORE_PASSWORD_PROPERTY, DEFAULT_KEYSTORE_PASSWORD).toCharArray());
+                }
                 vpnClient.initialize();
+                vpnClient.setHandshakeMode(HandshakeMode.valueOf(
+                        System.getProperty(HANDSHAKE_PROPERTY, HandshakeMode.FULL.name())));
+                vpnClient.setRekeyLimits(
+                        Long.getLong(REKEY_BYTES_PROPERTY, AESEncryption.DEFAULT_REKEY_BYTES),
+                        Long.getLong(REKEY_RECORDS_PROPERTY, AESEncryption.DEFAULT_REKEY_RECORDS));
+                vpnClient.setCompression(Boolean.getBoolean(COMPRESSION_PROPERTY));
+                vpnClient.setCompressionThreshold(
+                        Integer.getInteger(COMPRESSION_THRESHOLD_PROPERTY, PayloadCompressor.DEFAULT_THRESHOLD));
+                vpnClient.setCoalescing(Boolean.getBoolean(COALESCING_PROPERTY));
+                vpnClient.setCoalescingLimits(
+                        Integer.getInteger(COALESCING_RECORD_SIZE_PROPERTY, RecordBatch.DEFAULT_RECORD_SIZE),
+                        Long.getLong(LINGER_MICROS_PROPERTY, RecordBatch.DEFAULT_LINGER_MICROS));
+                vpnClient.setDatagramTransport("UDP".equalsIgnoreCase(System.getProperty(TRANSPORT_PROPERTY)));
                 
                 // Set message handler
                 vpnClient.setMessageHandler(this::handleIncomingMessage);
@@ -250,7 +299,7 @@ public class VPNClientApp extends Application {
                     case DATA -> {
                         try {
                             // Decrypt the message content
-                            String decryptedContent = vpnClient.getAesEncryption().decrypt(message.getContent());
+                            String decryptedContent = vpnClient.decryptContent(message);
                             
                             // Format the message with sender and timestamp
                             String formattedMessage = String.format("[%s] From: %s\nMessage: %s\n",
@@ -270,7 +319,7 @@ public class VPNClientApp extends Application {
                     case ERROR -> {
                         try {
                             // Handle error messages
-                            String errorMessage = vpnClient.getAesEncryption().decrypt(message.getContent());
+                            String errorMessage = vpnClient.decryptContent(message);
                             logMessage("Error from server: " + errorMessage);
                         } catch (Exception ex) {
                             logMessage("Error decrypting error message: " + ex.getMessage());
@@ -1,133 +1,586 @@
 package com.vpnsimulation.common.encryption;
 
 import javax.crypto.Cipher;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import java.security.SecureRandom;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.util.Base64;
 
 /**
- * Handles AES encryption and decryption of data
+ * Handles encryption and decryption of data with the session's cipher suite,
+ * AES-GCM unless the handshake negotiated another {@link CipherSuite}.
+ *
+ * An encrypted record is the 12-byte nonce followed by the ciphertext and the
+ * 16-byte authentication tag. Nonces are not random: a byte that identifies
+ * the sending side, the 3-byte key epoch and a 64-bit message counter. Each
+ * direction has its own key, derived from the shared secret with the sending
+ * side's label, and a record whose nonce does not name the peer as its sender
+ * is rejected, so a record can't be reflected back to the side that sealed
+ * it. One Cipher per direction is created at initialization and reused for
+ * every record.
+ *
+ * Keys are rotated in band. After a number of bytes or records the sender
+ * derives the next key from its current one and seals under it, with the new
+ * epoch in the nonce. The receiver derives the same key when the first record
+ * of the new epoch authenticates, and keeps the previous key for a while for
+ * records that were sealed before the rotation but arrive after it. Nothing
+ * is exchanged and no record waits for the rotation.
+ *
+ * The message counter doubles as the record's sequence number. It is part of
+ * the nonce, so the AEAD already authenticates it, and the receiver keeps a
+ * {@link ReplayWindow} over it: a record that was opened before, or that is
+ * too old to tell, is rejected with a {@link ReplayedRecordException} before
+ * any decryption work. Records may still arrive out of order within the window.
+ *
+ * A record can be bound to associated data, such as the header of the message
+ * that carries it. The data is authenticated but not encrypted, and the record
+ * only opens with the same data.
  */
 public class AESEncryption {
-    
-    private static final String ALGORITHM = "AES/GCM/NoPadding";
-    private static final int GCM_TAG_LENGTH = 128;
-    private static final int GCM_IV_LENGTH = 12; // 96 bits
-    
-    private SecretKey secretKey;
-    
+
+    /**
+     * Which side of the session this instance encrypts for
+     */
+    public enum Role {
+        CLIENT((byte) 'C'),
+        SERVER((byte) 'S');
+
+        private final byte noncePrefix;
+
+        Role(byte noncePrefix) {
+            this.noncePrefix = noncePrefix;
+        }
+
+        /**
+         * Returns the role of the other side of the session
+         */
+        public Role peer() {
+            return this == CLIENT ? SERVER : CLIENT;
+        }
+    }
+
+    /** Bytes sealed under one key before the sender rotates to the next (16 GiB) */
+    public static final long DEFAULT_REKEY_BYTES = 1L << 34;
+    /** Records sealed under one key before the sender rotates to the next, below the AES-GCM limit of TLS 1.3 */
+    public static final long DEFAULT_REKEY_RECORDS = 1L << 24;
+    /** Records of a new epoch during which records under the previous key are still accepted */
+    public static final int DEFAULT_REKEY_OVERLAP_RECORDS = 1024;
+
+    private static final int NONCE_LENGTH = CipherSuite.NONCE_LENGTH; // 96 bits
+    private static final int NONCE_PREFIX_LENGTH = 4;
+    private static final int MAX_EPOCH = (1 << 24) - 1;
+    // How many epochs a record may be ahead of the receiver, when records of a whole epoch were reordered
+    private static final int MAX_EPOCHS_AHEAD = 16;
+    private static final String REKEY_MAC_ALGORITHM = "HmacSHA256";
+    private static final byte[] REKEY_LABEL = "vpn rekey".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DIRECTION_LABEL = "vpn key".getBytes(StandardCharsets.US_ASCII);
+
+    /** Bytes an encrypted record adds to the plaintext (nonce and tag) */
+    public static final int RECORD_OVERHEAD = NONCE_LENGTH + CipherSuite.TAG_LENGTH;
+
+    private CipherSuite cipherSuite = CipherSuite.AES_256_GCM;
+    private Cipher encryptCipher;
+    private Cipher decryptCipher;
+    private final byte[] encryptNonce = new byte[NONCE_LENGTH];
+    private final byte[] decryptNonce = new byte[NONCE_LENGTH];
+    private long nonceCounter;
+    private final Object encryptLock = new Object();
+    private final Object decryptLock = new Object();
+    // Sender byte that records from the peer carry in their nonce
+    private byte peerNoncePrefix;
+
+    private long rekeyBytes = DEFAULT_REKEY_BYTES;
+    private long rekeyRecords = DEFAULT_REKEY_RECORDS;
+    private int rekeyOverlapRecords = DEFAULT_REKEY_OVERLAP_RECORDS;
+
+    // Sending side, guarded by encryptLock
+    private byte[] encryptKeyBytes;
+    private SecretKey encryptKey;
+    private volatile int encryptEpoch;
+    private long epochBytes;
+    private long epochRecords;
+
+    // Receiving side, guarded by decryptLock
+    private byte[] decryptKeyBytes;
+    private SecretKey decryptKey;
+    private volatile int decryptEpoch;
+    private SecretKey previousDecryptKey;
+    private int overlapRemaining;
+    // Key of a later epoch, derived for a record that has not authenticated yet
+    private byte[] pendingKeyBytes;
+    private SecretKey pendingKey;
+    private int pendingEpoch = -1;
+    private volatile long previousKeyRecords;
+    private final ReplayWindow replayWindow = new ReplayWindow();
+    private boolean replayProtection = true;
+    private volatile long replayedRecords;
+
+    /**
+     * Initialize AES-GCM encryption with a shared secret from Diffie-Hellman exchange
+     * @param role The side of the session this instance encrypts for
+     */
+    public void initFromSharedSecret(byte[] sharedSecret, Role role) {
+        initFromSharedSecret(sharedSecret, role, CipherSuite.AES_256_GCM);
+    }
+
+    /**
+     * Initialize encryption with a shared secret and the cipher suite negotiated for the session
+     * @param role The side of the session this instance encrypts for
+     */
+    public void initFromSharedSecret(byte[] sharedSecret, Role role, CipherSuite cipherSuite) {
+        init(sharedSecret, role, cipherSuite);
+    }
+
+    private void init(byte[] sharedSecret, Role role, CipherSuite suite) {
+        // The first 32 bytes (256 bits) of the shared secret key the derivation of both directions' epoch 0
+        byte[] secret = new byte[32];
+        System.arraycopy(sharedSecret, 0, secret, 0, Math.min(sharedSecret.length, secret.length));
+        byte[] sendKeyBytes;
+        byte[] receiveKeyBytes;
+        try {
+            sendKeyBytes = directionKey(secret, role);
+            receiveKeyBytes = directionKey(secret, role.peer());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(REKEY_MAC_ALGORITHM + " is not available", e);
+        }
+
+        synchronized (encryptLock) {
+            synchronized (decryptLock) {
+                cipherSuite = suite;
+                try {
+                    encryptCipher = suite.newCipher();
+                    decryptCipher = suite.newCipher();
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(suite + " is not available", e);
+                }
+                encryptKeyBytes = sendKeyBytes;
+                encryptKey = new SecretKeySpec(sendKeyBytes, suite.getKeyAlgorithm());
+                encryptEpoch = 0;
+                epochBytes = 0;
+                epochRecords = 0;
+                encryptNonce[0] = role.noncePrefix;
+                writeEpoch(0);
+                nonceCounter = 0;
+
+                peerNoncePrefix = role.peer().noncePrefix;
+                decryptKeyBytes = receiveKeyBytes;
+                decryptKey = new SecretKeySpec(receiveKeyBytes, suite.getKeyAlgorithm());
+                decryptEpoch = 0;
+                previousDecryptKey = null;
+                pendingKey = null;
+                pendingKeyBytes = null;
+                pendingEpoch = -1;
+                previousKeyRecords = 0;
+                replayWindow.reset();
+                replayedRecords = 0;
+            }
+        }
+    }
+
+    /**
+     * Sets after how many bytes or records the sending side rotates to the next
+     * key, whichever comes first. Each side rotates the keys of what it sends,
+     * so the two sides don't have to agree on the limits.
+     */
+    public void setRekeyLimits(long rekeyBytes, long rekeyRecords) {
+        if (rekeyBytes <= 0 || rekeyRecords <= 0) {
+            throw new IllegalArgumentException("Rekey limits must be positive");
+        }
+        synchronized (encryptLock) {
+            this.rekeyBytes = rekeyBytes;
+            this.rekeyRecords = rekeyRecords;
+        }
+    }
+
+    /**
+     * Sets for how many records of a new epoch the previous key is still accepted
+     */
+    public void setRekeyOverlapRecords(int rekeyOverlapRecords) {
+        synchronized (decryptLock) {
+            this.rekeyOverlapRecords = rekeyOverlapRecords;
+        }
+    }
+
+    /**
+     * Turns the replay window on or off. Without it any record that
+     * authenticates is accepted, however often and in whatever order it arrives.
+     */
+    public void setReplayProtection(boolean replayProtection) {
+        synchronized (decryptLock) {
+            this.replayProtection = replayProtection;
+            replayWindow.reset();
+        }
+    }
+
+    /**
+     * Encrypts the remaining bytes of src into dst as one record (nonce, ciphertext, tag).
+     * dst needs {@link #RECORD_OVERHEAD} bytes more room than src has remaining.
+     * @return The number of bytes written to dst
+     */
+    public int encrypt(ByteBuffer src, ByteBuffer dst) throws GeneralSecurityException {
+        return encrypt(src, dst, null);
+    }
+
+    /**
+     * Encrypts the remaining bytes of src into dst as one record bound to the associated data
+     * @param associatedData Authenticated along with the record, or null for none
+     * @return The number of bytes written to dst
+     */
+    public int encrypt(ByteBuffer src, ByteBuffer dst, byte[] associatedData) throws GeneralSecurityException {
+        synchronized (encryptLock) {
+            nextNonce(src.remaining());
+            encryptCipher.init(Cipher.ENCRYPT_MODE, encryptKey, cipherSuite.parameters(encryptNonce, 0));
+            if (associatedData != null) {
+                encryptCipher.updateAAD(associatedData);
+            }
+            dst.put(encryptNonce);
+            return NONCE_LENGTH + encryptCipher.doFinal(src, dst);
+        }
+    }
+
+    /**
+     * Decrypts one record (the remaining bytes of src) into dst.
+     * src and dst may share the same backing array, so a record can be opened in place.
+     * @return The number of plaintext bytes written to dst
+     */
+    public int decrypt(ByteBuffer src, ByteBuffer dst) throws GeneralSecurityException {
+        return decrypt(src, dst, null);
+    }
+
+    /**
+     * Decrypts one record that was bound to the associated data
+     * @param associatedData What the record was sealed with, or null for none
+     * @return The number of plaintext bytes written to dst
+     */
+    public int decrypt(ByteBuffer src, ByteBuffer dst, byte[] associatedData) throws GeneralSecurityException {
+        synchronized (decryptLock) {
+            src.get(decryptNonce);
+            checkSender(decryptNonce, 0);
+            long sequence = checkSequence(decryptNonce, 0);
+            int epoch = readEpoch(decryptNonce, 0);
+            SecretKey key = decryptKeyFor(epoch);
+            decryptCipher.init(Cipher.DECRYPT_MODE, key, cipherSuite.parameters(decryptNonce, 0));
+            if (associatedData != null) {
+                decryptCipher.updateAAD(associatedData);
+            }
+            int length = decryptCipher.doFinal(src, dst);
+            opened(epoch, sequence);
+            return length;
+        }
+    }
+
+    /**
+     * Encrypts binary data into a single newly allocated record
+     * @param data Data to encrypt
+     * @return Nonce, ciphertext and tag
+     */
+    public byte[] encrypt(byte[] data) throws GeneralSecurityException {
+        return encrypt(data, 0, data.length, null);
+    }
+
+    /**
+     * Encrypts binary data into a single newly allocated record bound to the associated data
+     */
+    public byte[] encrypt(byte[] data, byte[] associatedData) throws GeneralSecurityException {
+        return encrypt(data, 0, data.length, associatedData);
+    }
+
     /**
-     * Initialize encryption with a shared secret from Diffie-Hellman exchange
+     * Encrypts part of an array into a single newly allocated record
      */
-    public void initFromSharedSecret(byte[] sharedSecret) {
-        // Use first 32 bytes (256 bits) of the shared secret as AES key
-        byte[] keyBytes = new byte[32];
-        System.arraycopy(sharedSecret, 0, keyBytes, 0, Math.min(sharedSecret.length, keyBytes.length));
-        secretKey = new SecretKeySpec(keyBytes, "AES");
+    public byte[] encrypt(byte[] data, int offset, int length) throws GeneralSecurityException {
+        return encrypt(data, offset, length, null);
     }
-    
+
     /**
-     * Encrypts plaintext data using AES-GCM
+     * Encrypts part of an array into a single newly allocated record bound to the associated data
+     * @param associatedData Authenticated along with the record, or null for none
+     */
+    public byte[] encrypt(byte[] data, int offset, int length, byte[] associatedData) throws GeneralSecurityException {
+        byte[] record = new byte[length + RECORD_OVERHEAD];
+        synchronized (encryptLock) {
+            nextNonce(length);
+            encryptCipher.init(Cipher.ENCRYPT_MODE, encryptKey, cipherSuite.parameters(encryptNonce, 0));
+            if (associatedData != null) {
+                encryptCipher.updateAAD(associatedData);
+            }
+            System.arraycopy(encryptNonce, 0, record, 0, NONCE_LENGTH);
+            encryptCipher.doFinal(data, offset, length, record, NONCE_LENGTH);
+        }
+        return record;
+    }
+
+    /**
+     * Decrypts a record produced by {@link #encrypt(byte[])}
+     * @return Decrypted binary data
+     */
+    public byte[] decrypt(byte[] record) throws GeneralSecurityException {
+        return decrypt(record, null);
+    }
+
+    /**
+     * Decrypts a record produced by {@link #encrypt(byte[], byte[])}
+     * @param associatedData What the record was sealed with, or null for none
+     * @return Decrypted binary data
+     */
+    public byte[] decrypt(byte[] record, byte[] associatedData) throws GeneralSecurityException {
+        if (record.length < RECORD_OVERHEAD) {
+            throw new GeneralSecurityException("Encrypted record too short: " + record.length + " bytes");
+        }
+        byte[] plaintext = new byte[record.length - RECORD_OVERHEAD];
+        synchronized (decryptLock) {
+            checkSender(record, 0);
+            long sequence = checkSequence(record, 0);
+            int epoch = readEpoch(record, 0);
+            SecretKey key = decryptKeyFor(epoch);
+            decryptCipher.init(Cipher.DECRYPT_MODE, key, cipherSuite.parameters(record, 0));
+            if (associatedData != null) {
+                decryptCipher.updateAAD(associatedData);
+            }
+            decryptCipher.doFinal(record, NONCE_LENGTH, record.length - NONCE_LENGTH, plaintext, 0);
+            opened(epoch, sequence);
+        }
+        return plaintext;
+    }
+
+    /**
+     * Opens a record encrypted under this instance's key and re-seals it under
+     * the target's key, in place in the same array. The record keeps its size,
+     * also when the two sessions use different cipher suites, so forwarding
+     * between them needs no extra buffer.
+     * @return The length of the plaintext that was forwarded
+     */
+    public int reencrypt(byte[] record, AESEncryption target) throws GeneralSecurityException {
+        return reencrypt(record, null, target, null);
+    }
+
+    /**
+     * Opens a record bound to associated data and re-seals it in place under
+     * the target's key, bound to the target's associated data
+     * @return The length of the plaintext that was forwarded
+     */
+    public int reencrypt(byte[] record, byte[] associatedData, AESEncryption target, byte[] targetAssociatedData)
+            throws GeneralSecurityException {
+        if (record.length < RECORD_OVERHEAD) {
+            throw new GeneralSecurityException("Encrypted record too short: " + record.length + " bytes");
+        }
+
+        // Plaintext lands where the ciphertext was, right after the nonce
+        ByteBuffer plaintext = ByteBuffer.wrap(record);
+        plaintext.position(NONCE_LENGTH);
+        int length = decrypt(ByteBuffer.wrap(record), plaintext, associatedData);
+
+        target.encrypt(ByteBuffer.wrap(record, NONCE_LENGTH, length), ByteBuffer.wrap(record), targetAssociatedData);
+        return length;
+    }
+
+    /**
+     * Rotates the sending key if the current one has sealed enough, then
+     * writes the next counter value into the low 8 bytes of the nonce.
+     * The counter keeps counting across epochs.
+     */
+    private void nextNonce(int plaintextLength) throws GeneralSecurityException {
+        if (epochRecords > 0 && (epochRecords >= rekeyRecords || epochBytes + plaintextLength > rekeyBytes)) {
+            if (encryptEpoch == MAX_EPOCH) {
+                throw new GeneralSecurityException("All key epochs used, the session must be established again");
+            }
+            encryptKeyBytes = nextKey(encryptKeyBytes, encryptEpoch + 1);
+            encryptKey = new SecretKeySpec(encryptKeyBytes, cipherSuite.getKeyAlgorithm());
+            encryptEpoch++;
+            writeEpoch(encryptEpoch);
+            epochBytes = 0;
+            epochRecords = 0;
+        }
+        epochRecords++;
+        epochBytes += plaintextLength;
+
+        long counter = nonceCounter++;
+        for (int i = NONCE_LENGTH - 1; i >= NONCE_PREFIX_LENGTH; i--) {
+            encryptNonce[i] = (byte) counter;
+            counter >>>= 8;
+        }
+    }
+
+    private void writeEpoch(int epoch) {
+        encryptNonce[1] = (byte) (epoch >>> 16);
+        encryptNonce[2] = (byte) (epoch >>> 8);
+        encryptNonce[3] = (byte) epoch;
+    }
+
+    private static int readEpoch(byte[] nonce, int offset) {
+        return (nonce[offset + 1] & 0xff) << 16 | (nonce[offset + 2] & 0xff) << 8 | (nonce[offset + 3] & 0xff);
+    }
+
+    /**
+     * Returns the key to open a record of the given epoch with. A key of a later
+     * epoch is derived but only taken into use by {@link #opened(int, long)}, once a
+     * record under it authenticated, so a forged epoch can't move the receiver on.
+     */
+    private SecretKey decryptKeyFor(int epoch) throws GeneralSecurityException {
+        if (epoch == decryptEpoch) {
+            return decryptKey;
+        }
+        if (epoch == decryptEpoch - 1 && previousDecryptKey != null) {
+            return previousDecryptKey;
+        }
+        if (epoch > decryptEpoch && epoch - decryptEpoch <= MAX_EPOCHS_AHEAD) {
+            if (pendingEpoch != epoch) {
+                byte[] keyBytes = decryptKeyBytes;
+                for (int next = decryptEpoch + 1; next <= epoch; next++) {
+                    keyBytes = nextKey(keyBytes, next);
+                }
+                pendingKeyBytes = keyBytes;
+                pendingKey = new SecretKeySpec(keyBytes, cipherSuite.getKeyAlgorithm());
+                pendingEpoch = epoch;
+            }
+            return pendingKey;
+        }
+        throw new GeneralSecurityException("Record of key epoch " + epoch + " while at epoch " + decryptEpoch);
+    }
+
+    /**
+     * Rejects a record that the peer did not seal, such as one of our own reflected back
+     */
+    private void checkSender(byte[] nonce, int offset) throws GeneralSecurityException {
+        if (nonce[offset] != peerNoncePrefix) {
+            throw new GeneralSecurityException("Record not sealed by the peer");
+        }
+    }
+
+    /**
+     * Reads the sequence number of a received record and rejects it if it was seen before
+     */
+    private long checkSequence(byte[] nonce, int offset) throws ReplayedRecordException {
+        long sequence = 0;
+        for (int i = offset + NONCE_PREFIX_LENGTH; i < offset + NONCE_LENGTH; i++) {
+            sequence = sequence << 8 | (nonce[i] & 0xff);
+        }
+        if (replayProtection && !replayWindow.check(sequence)) {
+            replayedRecords++;
+            throw new ReplayedRecordException("Record " + sequence + " was replayed or is outside the replay window");
+        }
+        return sequence;
+    }
+
+    /**
+     * Updates the replay window and the receiving keys after a record authenticated
+     */
+    private void opened(int epoch, long sequence) {
+        if (replayProtection) {
+            replayWindow.update(sequence);
+        }
+        if (epoch == decryptEpoch) {
+            if (previousDecryptKey != null && --overlapRemaining <= 0) {
+                previousDecryptKey = null;
+            }
+        } else if (epoch < decryptEpoch) {
+            previousKeyRecords++;
+        } else {
+            // Only the epoch right before the new one stays usable
+            previousDecryptKey = epoch == decryptEpoch + 1 ? decryptKey : null;
+            overlapRemaining = rekeyOverlapRecords;
+            decryptKeyBytes = pendingKeyBytes;
+            decryptKey = pendingKey;
+            decryptEpoch = epoch;
+            pendingKeyBytes = null;
+            pendingKey = null;
+            pendingEpoch = -1;
+        }
+    }
+
+    /**
+     * Derives the epoch 0 key of the records a side sends
+     */
+    private static byte[] directionKey(byte[] secret, Role sender) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(REKEY_MAC_ALGORITHM);
+        mac.init(new SecretKeySpec(secret, REKEY_MAC_ALGORITHM));
+        mac.update(DIRECTION_LABEL);
+        mac.update(sender.noncePrefix);
+        return mac.doFinal();
+    }
+
+    /**
+     * Derives the key of an epoch from the key of the epoch before
+     */
+    private static byte[] nextKey(byte[] keyBytes, int epoch) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(REKEY_MAC_ALGORITHM);
+        mac.init(new SecretKeySpec(keyBytes, REKEY_MAC_ALGORITHM));
+        mac.update(REKEY_LABEL);
+        mac.update(ByteBuffer.allocate(Integer.BYTES).putInt(epoch).array());
+        return mac.doFinal();
+    }
+
+    /**
+     * Returns the epoch of the key records are currently sealed with
+     */
+    public int getEncryptEpoch() {
+        return encryptEpoch;
+    }
+
+    /**
+     * Returns the latest key epoch of the peer that a record was opened with
+     */
+    public int getDecryptEpoch() {
+        return decryptEpoch;
+    }
+
+    /**
+     * Returns how many records were opened with the previous key after the peer had rotated
+     */
+    public long getPreviousKeyRecords() {
+        return previousKeyRecords;
+    }
+
+    /**
+     * Returns how many received records were rejected as replays
+     */
+    public long getReplayedRecords() {
+        return replayedRecords;
+    }
+
+    /**
+     * Returns the cipher suite records are protected with
+     */
+    public CipherSuite getCipherSuite() {
+        return cipherSuite;
+    }
+
+    /**
+     * Encrypts plaintext data
      * @param plaintext Data to encrypt
      * @return Base64 encoded string containing IV and ciphertext
      */
     public String encrypt(String plaintext) throws Exception {
-        // Generate random IV
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        new SecureRandom().nextBytes(iv);
-        
-        // Initialize cipher for encryption
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-        cipher.init(Cipher.ENCRYPT_MODE, secretKey, parameterSpec);
-        
-        // Encrypt the data
-        byte[] ciphertext = cipher.doFinal(plaintext.getBytes());
-        
-        // Combine IV and ciphertext and return Base64 encoded
-        byte[] encryptedData = new byte[iv.length + ciphertext.length];
-        System.arraycopy(iv, 0, encryptedData, 0, iv.length);
-        System.arraycopy(ciphertext, 0, encryptedData, iv.length, ciphertext.length);
-        
-        return Base64.getEncoder().encodeToString(encryptedData);
-    }
-    
-    /**
-     * Decrypts AES-GCM encrypted data
+        return encryptBytes(plaintext.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decrypts encrypted data
      * @param encryptedData Base64 encoded string containing IV and ciphertext
      * @return Decrypted plaintext
      */
     public String decrypt(String encryptedData) throws Exception {
-        // Decode from Base64
-        byte[] decodedData = Base64.getDecoder().decode(encryptedData);
-        
-        // Extract IV and ciphertext
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        byte[] ciphertext = new byte[decodedData.length - GCM_IV_LENGTH];
-        
-        System.arraycopy(decodedData, 0, iv, 0, iv.length);
-        System.arraycopy(decodedData, iv.length, ciphertext, 0, ciphertext.length);
-        
-        // Initialize cipher for decryption
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-        cipher.init(Cipher.DECRYPT_MODE, secretKey, parameterSpec);
-        
-        // Decrypt and return as string
-        byte[] decryptedData = cipher.doFinal(ciphertext);
-        return new String(decryptedData);
-    }
-    
-    /**
-     * Encrypts binary data using AES-GCM
+        return new String(decryptToBytes(encryptedData), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encrypts binary data
      * @param data Data to encrypt
      * @return Base64 encoded string containing IV and ciphertext
      */
     public String encryptBytes(byte[] data) throws Exception {
-        // Generate random IV
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        new SecureRandom().nextBytes(iv);
-        
-        // Initialize cipher for encryption
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-        cipher.init(Cipher.ENCRYPT_MODE, secretKey, parameterSpec);
-        
-        // Encrypt the data
-        byte[] ciphertext = cipher.doFinal(data);
-        
-        // Combine IV and ciphertext and return Base64 encoded
-        byte[] encryptedData = new byte[iv.length + ciphertext.length];
-        System.arraycopy(iv, 0, encryptedData, 0, iv.length);
-        System.arraycopy(ciphertext, 0, encryptedData, iv.length, ciphertext.length);
-        
-        return Base64.getEncoder().encodeToString(encryptedData);
-    }
-    
-    /**
-     * Decrypts AES-GCM encrypted binary data
+        return Base64.getEncoder().encodeToString(encrypt(data));
+    }
+
+    /**
+     * Decrypts encrypted binary data
      * @param encryptedData Base64 encoded string containing IV and ciphertext
      * @return Decrypted binary data
      */
     public byte[] decryptToBytes(String encryptedData) throws Exception {
-        // Decode from Base64
-        byte[] decodedData = Base64.getDecoder().decode(encryptedData);
-        
-        // Extract IV and ciphertext
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        byte[] ciphertext = new byte[decodedData.length - GCM_IV_LENGTH];
-        
-        System.arraycopy(decodedData, 0, iv, 0, iv.length);
-        System.arraycopy(decodedData, iv.length, ciphertext, 0, ciphertext.length);
-        
-        // Initialize cipher for decryption
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-        cipher.init(Cipher.DECRYPT_MODE, secretKey, parameterSpec);
-        
-        // Decrypt and return as bytes
-        return cipher.doFinal(ciphertext);
+        return decrypt(Base64.getDecoder().decode(encryptedData));
     }
 }
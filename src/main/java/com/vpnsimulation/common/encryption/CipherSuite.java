@@ -0,0 +1,199 @@
+package com.vpnsimulation.common.encryption;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * AEAD ciphers that protect the records of a session. Both take a 256-bit
+ * key and a 12-byte nonce and add a 16-byte tag, so records have the same
+ * layout and size whichever suite a session uses.
+ *
+ * The client offers the suites it supports in HANDSHAKE_INIT. Unlike the
+ * codec and the key exchange, the server picks by its own preference, which
+ * is normally the suite that measured fastest on its host at startup.
+ */
+public enum CipherSuite {
+
+    /** AES-256 in Galois/Counter Mode, fastest where the JVM has AES intrinsics */
+    AES_256_GCM("AES/GCM/NoPadding", "AES") {
+        @Override
+        AlgorithmParameterSpec parameters(byte[] nonce, int offset) {
+            return new GCMParameterSpec(TAG_LENGTH * 8, nonce, offset, NONCE_LENGTH);
+        }
+    },
+
+    /** ChaCha20 stream cipher with a Poly1305 authenticator, fast without hardware AES support */
+    CHACHA20_POLY1305("ChaCha20-Poly1305", "ChaCha20") {
+        @Override
+        AlgorithmParameterSpec parameters(byte[] nonce, int offset) {
+            return new IvParameterSpec(nonce, offset, NONCE_LENGTH);
+        }
+    };
+
+    /** HANDSHAKE_INIT attribute listing the cipher suites the client supports */
+    public static final String OFFER_ATTRIBUTE = "cipher";
+
+    /** HANDSHAKE_RESPONSE attribute naming the cipher suite the server selected */
+    public static final String SELECTED_ATTRIBUTE = "cipherSelected";
+
+    static final int NONCE_LENGTH = 12;
+    static final int TAG_LENGTH = 16;
+
+    // Startup measurement: record size, total duration and length of one round per suite
+    private static final int PROBE_RECORD_SIZE = 4096;
+    private static final long PROBE_MILLIS = 3000;
+    private static final long PROBE_ROUND_MILLIS = 50;
+
+    private final String transformation;
+    private final String keyAlgorithm;
+
+    CipherSuite(String transformation, String keyAlgorithm) {
+        this.transformation = transformation;
+        this.keyAlgorithm = keyAlgorithm;
+    }
+
+    /**
+     * Returns the parameters for one record, taking the nonce from the given offset
+     */
+    abstract AlgorithmParameterSpec parameters(byte[] nonce, int offset);
+
+    Cipher newCipher() throws GeneralSecurityException {
+        return Cipher.getInstance(transformation);
+    }
+
+    String getKeyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    /**
+     * Returns true if this JVM provides the cipher
+     */
+    public boolean isAvailable() {
+        try {
+            newCipher();
+            return true;
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Builds the offer for HANDSHAKE_INIT from the suites available locally
+     */
+    public static String offer() {
+        StringBuilder offer = new StringBuilder();
+        for (CipherSuite suite : values()) {
+            if (suite.isAvailable()) {
+                if (offer.length() > 0) {
+                    offer.append(',');
+                }
+                offer.append(suite.name());
+            }
+        }
+        return offer.toString();
+    }
+
+    /**
+     * Picks the first suite of a preference list that the client offered
+     * @param offer Comma separated suite names, or null for a client that offers none
+     * @param preference The server's suites, most preferred first
+     */
+    public static CipherSuite select(String offer, List<CipherSuite> preference) {
+        if (offer != null) {
+            List<String> offered = new ArrayList<>();
+            for (String name : offer.split(",")) {
+                offered.add(name.trim());
+            }
+            for (CipherSuite suite : preference) {
+                if (offered.contains(suite.name())) {
+                    return suite;
+                }
+            }
+        }
+        return AES_256_GCM;
+    }
+
+    /**
+     * Reads the suite named in HANDSHAKE_RESPONSE
+     * @param selected The suite name, or null for a server that predates negotiation
+     */
+    public static CipherSuite selected(String selected) {
+        for (CipherSuite suite : values()) {
+            if (suite.name().equals(selected)) {
+                return suite;
+            }
+        }
+        return AES_256_GCM;
+    }
+
+    /**
+     * Measures how many bytes per second each available suite encrypts on this
+     * host, the way the server does at startup
+     */
+    public static Map<CipherSuite, Double> probe() throws GeneralSecurityException {
+        return measureThroughput(PROBE_RECORD_SIZE, PROBE_MILLIS);
+    }
+
+    /**
+     * Measures how many bytes per second each available suite encrypts in
+     * records of the given size. The suites take turns in short rounds and the
+     * best round of each counts: a cold JVM only switches to the AES
+     * instructions after a second or two, and until then AES-GCM looks slower
+     * than ChaCha20 even on hosts where it is many times faster.
+     * @param totalMillis How long to measure all suites together
+     */
+    public static Map<CipherSuite, Double> measureThroughput(int recordSize, long totalMillis)
+            throws GeneralSecurityException {
+        byte[] secret = new byte[32];
+        ByteBuffer plaintext = ByteBuffer.allocate(recordSize);
+        ByteBuffer record = ByteBuffer.allocate(recordSize + AESEncryption.RECORD_OVERHEAD);
+
+        Map<CipherSuite, AESEncryption> encryptions = new EnumMap<>(CipherSuite.class);
+        for (CipherSuite suite : values()) {
+            if (suite.isAvailable()) {
+                AESEncryption encryption = new AESEncryption();
+                encryption.initFromSharedSecret(secret, AESEncryption.Role.SERVER, suite);
+                encryptions.put(suite, encryption);
+            }
+        }
+
+        Map<CipherSuite, Double> throughput = new EnumMap<>(CipherSuite.class);
+        long end = System.nanoTime() + totalMillis * 1_000_000;
+        do {
+            for (Map.Entry<CipherSuite, AESEncryption> entry : encryptions.entrySet()) {
+                long bytes = 0;
+                long start = System.nanoTime();
+                long deadline = start + PROBE_ROUND_MILLIS * 1_000_000;
+                long now;
+                do {
+                    plaintext.clear();
+                    record.clear();
+                    entry.getValue().encrypt(plaintext, record);
+                    bytes += recordSize;
+                    now = System.nanoTime();
+                } while (now < deadline);
+                throughput.merge(entry.getKey(), bytes * 1e9 / (now - start), Math::max);
+            }
+        } while (System.nanoTime() < end);
+        return throughput;
+    }
+
+    /**
+     * Orders suites fastest first by measured throughput
+     */
+    public static List<CipherSuite> rank(Map<CipherSuite, Double> throughput) {
+        List<CipherSuite> ranking = new ArrayList<>(throughput.keySet());
+        ranking.sort(Comparator.comparing(throughput::get).reversed());
+        return ranking;
+    }
+}
@@ -8,20 +8,35 @@ import java.util.Base64;
 /**
  * Implements Diffie-Hellman key exchange protocol for secure key sharing between client and server.
  */
-public class DiffieHellmanKeyExchange {
+public class DiffieHellmanKeyExchange implements KeyExchange {
+    
+    private static final int KEY_SIZE = 2048;
+    private static final EphemeralKeyPool KEY_POOL =
+            new EphemeralKeyPool("DH", DiffieHellmanKeyExchange::generateKeyPair);
     
     private KeyPair keyPair;
     private KeyAgreement keyAgreement;
-    private final int KEY_SIZE = 2048;
     
     /**
-     * Initializes the Diffie-Hellman key exchange by generating key pairs
+     * Returns the pool of pre-generated Diffie-Hellman key pairs
      */
-    public void init() throws NoSuchAlgorithmException, InvalidKeyException {
-        // Generate a key pair
+    public static EphemeralKeyPool getKeyPool() {
+        return KEY_POOL;
+    }
+    
+    private static KeyPair generateKeyPair() throws NoSuchAlgorithmException {
         KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("DH");
         keyPairGenerator.initialize(KEY_SIZE);
-        keyPair = keyPairGenerator.generateKeyPair();
+        return keyPairGenerator.generateKeyPair();
+    }
+    
+    /**
+     * Initializes the Diffie-Hellman key exchange with a fresh key pair,
+     * usually one pre-generated by the key pool
+     */
+    @Override
+    public void init() throws GeneralSecurityException {
+        keyPair = KEY_POOL.take();
         
         // Initialize the key agreement with private key
         keyAgreement = KeyAgreement.getInstance("DH");
@@ -31,6 +46,7 @@ public class DiffieHellmanKeyExchange {
     /**
      * Returns the public key encoded as a Base64 string
      */
+    @Override
     public String getPublicKeyEncoded() {
         return Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded());
     }
@@ -38,6 +54,7 @@ public class DiffieHellmanKeyExchange {
     /**
      * Process the remote party's public key and generate the shared secret
      */
+    @Override
     public byte[] generateSharedSecret(String remotePublicKeyEncoded) 
             throws Exception {
         // Decode the remote public key
@@ -0,0 +1,167 @@
+package com.vpnsimulation.common.encryption;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ephemeral key pairs generated ahead of time by a background thread, so a
+ * handshake only has to do the agreement step.
+ *
+ * The pool is sized to what is taken within a couple of seconds at the
+ * recently observed rate, between a small minimum and a hard maximum. The
+ * refill thread only generates up to that target and otherwise sleeps, so it
+ * works about as fast as keys are used and stays idle when nobody connects.
+ * Pooled key pairs are used once and discarded after a minute, and a take from
+ * an empty pool generates the key pair on the caller's thread.
+ */
+public class EphemeralKeyPool {
+
+    /**
+     * Generates one key pair
+     */
+    @FunctionalInterface
+    public interface Generator {
+        KeyPair generate() throws GeneralSecurityException;
+    }
+
+    public static final int DEFAULT_MAX_SIZE = 64;
+
+    private static final int MIN_SIZE = 2;
+    // Keep enough key pairs for this long at the observed rate
+    private static final double HORIZON_SECONDS = 2.0;
+    private static final double RATE_SMOOTHING = 0.3;
+    private static final long SAMPLE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_AGE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private record PooledKeyPair(KeyPair keyPair, long createdAt) {
+    }
+
+    private final String name;
+    private final Generator generator;
+    // Oldest first
+    private final ConcurrentLinkedDeque<PooledKeyPair> keyPairs = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder takesSinceSample = new LongAdder();
+    private volatile int maxSize = DEFAULT_MAX_SIZE;
+    private volatile int targetSize = MIN_SIZE;
+    private Thread refiller;
+
+    public EphemeralKeyPool(String name, Generator generator) {
+        this.name = name;
+        this.generator = generator;
+    }
+
+    /**
+     * Takes a pre-generated key pair, or generates one if the pool is empty
+     */
+    public KeyPair take() throws GeneralSecurityException {
+        Thread refillThread = ensureStarted();
+        takesSinceSample.increment();
+
+        long now = System.nanoTime();
+        PooledKeyPair pooled;
+        while ((pooled = keyPairs.pollFirst()) != null) {
+            size.decrementAndGet();
+            if (now - pooled.createdAt() < MAX_AGE_NANOS) {
+                hits.increment();
+                LockSupport.unpark(refillThread);
+                return pooled.keyPair();
+            }
+        }
+
+        misses.increment();
+        LockSupport.unpark(refillThread);
+        return generator.generate();
+    }
+
+    private synchronized Thread ensureStarted() {
+        if (refiller == null) {
+            refiller = new Thread(this::refill, "key-pool-" + name);
+            refiller.setDaemon(true);
+            refiller.setPriority(Thread.MIN_PRIORITY);
+            refiller.start();
+        }
+        return refiller;
+    }
+
+    /**
+     * Background loop: samples the take rate once a second and keeps the pool at its target size
+     */
+    private void refill() {
+        double rate = 0;
+        long lastSample = System.nanoTime();
+        while (true) {
+            long now = System.nanoTime();
+            if (now - lastSample >= SAMPLE_INTERVAL_NANOS) {
+                double observed = takesSinceSample.sumThenReset() * 1e9 / (now - lastSample);
+                rate += RATE_SMOOTHING * (observed - rate);
+                targetSize = Math.min(maxSize, Math.max(MIN_SIZE, (int) Math.ceil(rate * HORIZON_SECONDS)));
+                lastSample = now;
+            }
+
+            if (size.get() < targetSize) {
+                try {
+                    keyPairs.addLast(new PooledKeyPair(generator.generate(), System.nanoTime()));
+                    size.incrementAndGet();
+                } catch (GeneralSecurityException e) {
+                    System.err.println("Could not pre-generate " + name + " key pair: " + e.getMessage());
+                    LockSupport.parkNanos(SAMPLE_INTERVAL_NANOS);
+                }
+                continue;
+            }
+
+            // Full: drop key pairs that are too old or above a lowered target, then wait for takes
+            PooledKeyPair oldest;
+            while ((oldest = keyPairs.peekFirst()) != null
+                    && (size.get() > targetSize || now - oldest.createdAt() >= MAX_AGE_NANOS)) {
+                if (keyPairs.remove(oldest)) {
+                    size.decrementAndGet();
+                }
+            }
+            LockSupport.parkNanos(this, SAMPLE_INTERVAL_NANOS - (System.nanoTime() - lastSample));
+        }
+    }
+
+    /**
+     * Sets the most key pairs kept in advance. 0 turns pre-generation off.
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        this.targetSize = Math.min(targetSize, maxSize);
+    }
+
+    /**
+     * Returns how many takes got a pre-generated key pair
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns how many takes had to generate the key pair themselves
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of key pairs ready to be taken
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Returns the number of key pairs the pool currently aims to keep
+     */
+    public int getTargetSize() {
+        return targetSize;
+    }
+}
@@ -0,0 +1,24 @@
+package com.vpnsimulation.common.encryption;
+
+/**
+ * One side of a key agreement. Each side creates an instance per session,
+ * sends its public key to the peer and derives the shared secret from the
+ * peer's public key.
+ */
+public interface KeyExchange {
+
+    /**
+     * Generates a fresh key pair for this session
+     */
+    void init() throws Exception;
+
+    /**
+     * Returns the public key encoded as a Base64 string
+     */
+    String getPublicKeyEncoded();
+
+    /**
+     * Process the remote party's public key and generate the shared secret
+     */
+    byte[] generateSharedSecret(String remotePublicKeyEncoded) throws Exception;
+}
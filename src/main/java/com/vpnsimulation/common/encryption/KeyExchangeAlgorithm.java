@@ -0,0 +1,84 @@
+package com.vpnsimulation.common.encryption;
+
+/**
+ * Key agreements a session can use. The client offers the algorithms it
+ * supports in HANDSHAKE_INIT and the server names its choice in
+ * HANDSHAKE_RESPONSE, the same way the message codec is negotiated.
+ */
+public enum KeyExchangeAlgorithm {
+
+    /** Elliptic-curve Diffie-Hellman over Curve25519 */
+    X25519 {
+        @Override
+        public KeyExchange create() {
+            return new X25519KeyExchange();
+        }
+
+        @Override
+        public EphemeralKeyPool getKeyPool() {
+            return X25519KeyExchange.getKeyPool();
+        }
+    },
+
+    /** 2048-bit finite-field Diffie-Hellman */
+    DH {
+        @Override
+        public KeyExchange create() {
+            return new DiffieHellmanKeyExchange();
+        }
+
+        @Override
+        public EphemeralKeyPool getKeyPool() {
+            return DiffieHellmanKeyExchange.getKeyPool();
+        }
+    };
+
+    /** HANDSHAKE_INIT attribute listing the key exchanges the client supports, most preferred first */
+    public static final String OFFER_ATTRIBUTE = "kex";
+
+    /**
+     * HANDSHAKE_RESPONSE attribute naming the key exchange the server selected.
+     * In a one-round-trip handshake it also names the algorithm of the client's key share.
+     */
+    public static final String SELECTED_ATTRIBUTE = "kexSelected";
+
+    /**
+     * Creates the local side of a key exchange with this algorithm
+     */
+    public abstract KeyExchange create();
+
+    /**
+     * Returns the pool that pre-generates key pairs for this algorithm
+     */
+    public abstract EphemeralKeyPool getKeyPool();
+
+    /**
+     * Builds the offer for HANDSHAKE_INIT, with the preferred algorithm first
+     */
+    public static String offer(KeyExchangeAlgorithm preferred) {
+        StringBuilder offer = new StringBuilder(preferred.name());
+        for (KeyExchangeAlgorithm algorithm : values()) {
+            if (algorithm != preferred) {
+                offer.append(',').append(algorithm.name());
+            }
+        }
+        return offer.toString();
+    }
+
+    /**
+     * Picks the first algorithm of an offer that is known locally
+     * @param offer Comma separated algorithm names, or null for a client that offers none
+     */
+    public static KeyExchangeAlgorithm select(String offer) {
+        if (offer != null) {
+            for (String name : offer.split(",")) {
+                for (KeyExchangeAlgorithm algorithm : values()) {
+                    if (algorithm.name().equals(name.trim())) {
+                        return algorithm;
+                    }
+                }
+            }
+        }
+        return DH;
+    }
+}
@@ -0,0 +1,76 @@
+package com.vpnsimulation.common.encryption;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window over the sequence numbers of received records, as IPsec
+ * uses against replays (RFC 6479).
+ *
+ * The window is a ring of 64-bit words with one bit per sequence number. A
+ * record is accepted if its number is above the window or inside it and not
+ * yet seen; anything below the window is rejected. Moving the window ahead
+ * clears whole words, so both operations take constant time and nothing is
+ * allocated per record. One word is kept as slack so the window can advance
+ * by clearing a word without losing recently seen numbers.
+ *
+ * Not thread-safe; the owner checks and updates under its receive lock.
+ */
+final class ReplayWindow {
+
+    private static final int WORDS = 16;
+    private static final int WORD_SHIFT = 6;
+    private static final int WORD_MASK = WORDS - 1;
+    private static final int BIT_MASK = Long.SIZE - 1;
+
+    /** Sequence numbers this far below the highest one seen are still accepted once */
+    static final int SIZE = (WORDS - 1) * Long.SIZE;
+
+    private final long[] bitmap = new long[WORDS];
+    // Highest sequence number accepted so far, -1 before the first
+    private long highest = -1;
+
+    /**
+     * Returns true if a record with this sequence number may be opened. The
+     * window is only moved by {@link #update(long)}, once the record has
+     * authenticated.
+     */
+    boolean check(long sequence) {
+        if (sequence < 0) {
+            return false;
+        }
+        if (sequence > highest) {
+            return true;
+        }
+        if (highest - sequence >= SIZE) {
+            return false;
+        }
+        int word = (int) (sequence >>> WORD_SHIFT) & WORD_MASK;
+        return (bitmap[word] & (1L << (sequence & BIT_MASK))) == 0;
+    }
+
+    /**
+     * Marks a sequence number as seen, moving the window ahead if it is the new highest
+     */
+    void update(long sequence) {
+        if (sequence > highest) {
+            long currentWord = highest < 0 ? -1 : highest >>> WORD_SHIFT;
+            long newWord = sequence >>> WORD_SHIFT;
+            // Clear the words the window moves over, at most all of them
+            long clear = Math.min(newWord - currentWord, WORDS);
+            for (long i = 1; i <= clear; i++) {
+                bitmap[(int) (currentWord + i) & WORD_MASK] = 0;
+            }
+            highest = sequence;
+        }
+        int word = (int) (sequence >>> WORD_SHIFT) & WORD_MASK;
+        bitmap[word] |= 1L << (sequence & BIT_MASK);
+    }
+
+    /**
+     * Forgets all sequence numbers, for a new key
+     */
+    void reset() {
+        Arrays.fill(bitmap, 0);
+        highest = -1;
+    }
+}
@@ -0,0 +1,16 @@
+package com.vpnsimulation.common.encryption;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * Thrown for a record whose sequence number was already received or has
+ * fallen behind the replay window
+ */
+public class ReplayedRecordException extends GeneralSecurityException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ReplayedRecordException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,97 @@
+package com.vpnsimulation.common.encryption;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * Key derivation for resuming a session from a ticket.
+ *
+ * When a session is established both sides derive a resumption secret from
+ * its shared secret, and the server hands out a SESSION_TICKET, sealed under
+ * the session key, that refers to it. A reconnecting client sends the ticket,
+ * a fresh nonce and a binder with its HANDSHAKE_INIT. The binder is a MAC over
+ * the ticket and the nonce keyed with the resumption secret, so presenting a
+ * ticket proves holding its secret; a ticket seen on the wire is of no use
+ * without it. The server answers with its own nonce, and both derive the new
+ * session key from the resumption secret and the two nonces, without any
+ * public-key operation.
+ */
+public final class SessionResumption {
+
+    /** HANDSHAKE_INIT attribute carrying the ticket the client wants to resume */
+    public static final String TICKET_ATTRIBUTE = "ticket";
+
+    /** HANDSHAKE_INIT and HANDSHAKE_RESPONSE attribute carrying each side's nonce */
+    public static final String NONCE_ATTRIBUTE = "resumeNonce";
+
+    /** HANDSHAKE_INIT attribute carrying the proof that the client holds the ticket's resumption secret */
+    public static final String BINDER_ATTRIBUTE = "binder";
+
+    /** SESSION_TICKET attribute with the ticket lifetime in seconds */
+    public static final String LIFETIME_ATTRIBUTE = "lifetime";
+
+    public static final int NONCE_LENGTH = 32;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private SessionResumption() {
+    }
+
+    /**
+     * Derives the secret a later resumption of this session is keyed with
+     */
+    public static byte[] deriveResumptionSecret(byte[] sharedSecret) throws GeneralSecurityException {
+        return hmac(sharedSecret, "vpn resumption".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Derives the key of a resumed session
+     */
+    public static byte[] deriveSessionKey(byte[] resumptionSecret, byte[] clientNonce, byte[] serverNonce)
+            throws GeneralSecurityException {
+        byte[] label = "vpn resumed session".getBytes(StandardCharsets.US_ASCII);
+        byte[] input = new byte[label.length + clientNonce.length + serverNonce.length];
+        System.arraycopy(label, 0, input, 0, label.length);
+        System.arraycopy(clientNonce, 0, input, label.length, clientNonce.length);
+        System.arraycopy(serverNonce, 0, input, label.length + clientNonce.length, serverNonce.length);
+        return hmac(resumptionSecret, input);
+    }
+
+    /**
+     * Computes the binder of a HANDSHAKE_INIT that offers a ticket
+     */
+    public static byte[] computeBinder(byte[] resumptionSecret, String ticket, byte[] clientNonce)
+            throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(MAC_ALGORITHM);
+        mac.init(new SecretKeySpec(resumptionSecret, MAC_ALGORITHM));
+        mac.update("vpn resumption binder".getBytes(StandardCharsets.US_ASCII));
+        mac.update(ticket.getBytes(StandardCharsets.US_ASCII));
+        mac.update(clientNonce);
+        return mac.doFinal();
+    }
+
+    /**
+     * Checks the binder of a HANDSHAKE_INIT in constant time
+     */
+    public static boolean verifyBinder(byte[] resumptionSecret, String ticket, byte[] clientNonce, byte[] binder)
+            throws GeneralSecurityException {
+        return MessageDigest.isEqual(computeBinder(resumptionSecret, ticket, clientNonce), binder);
+    }
+
+    public static byte[] newNonce() {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        return nonce;
+    }
+
+    private static byte[] hmac(byte[] key, byte[] data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(MAC_ALGORITHM);
+        mac.init(new SecretKeySpec(key, MAC_ALGORITHM));
+        return mac.doFinal(data);
+    }
+}
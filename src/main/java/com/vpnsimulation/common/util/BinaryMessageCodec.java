@@ -0,0 +1,202 @@
+package com.vpnsimulation.common.util;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of a message body.
+ *
+ * Layout (big-endian):
+ * <pre>
+ * byte   version
+ * byte   message type
+ * byte   flags (which optional fields follow)
+ * long   timestamp
+ * [short length + UTF-8]            sender
+ * [short length + UTF-8]            destination address
+ * [short count + (key, value)...]   attributes, each as short length + UTF-8
+ * [int length + UTF-8]              content
+ * [int length + bytes]              raw payload
+ * </pre>
+ * Message types are written by ordinal, so new types must only be appended.
+ */
+public final class BinaryMessageCodec {
+
+    public static final byte VERSION = 1;
+
+    private static final int FLAG_SENDER = 1;
+    private static final int FLAG_DESTINATION = 1 << 1;
+    private static final int FLAG_ATTRIBUTES = 1 << 2;
+    private static final int FLAG_CONTENT = 1 << 3;
+    private static final int FLAG_PAYLOAD = 1 << 4;
+
+    private static final int HEADER_SIZE = 3 + Long.BYTES;
+    private static final int MAX_SHORT_STRING = 0xFFFF;
+    private static final Message.MessageType[] TYPES = Message.MessageType.values();
+
+    private BinaryMessageCodec() {
+    }
+
+    /**
+     * Encodes a message as a complete length-prefixed frame in read mode.
+     * Every string is encoded once, and the length prefix and field lengths
+     * are taken from the bytes that are written, so they agree for any
+     * string, including ones with unpaired surrogates.
+     */
+    public static ByteBuffer encodeFrame(Message message) throws IOException {
+        byte[] sender = encodeShortString(message.getSender());
+        byte[] destination = encodeShortString(message.getDestinationAddress());
+        byte[][] attributes = null;
+        byte[] content = message.getContent() == null ? null : message.getContent().getBytes(StandardCharsets.UTF_8);
+        byte[] payload = message.getPayload();
+
+        int size = HEADER_SIZE;
+        int flags = 0;
+        if (sender != null) {
+            flags |= FLAG_SENDER;
+            size += Short.BYTES + sender.length;
+        }
+        if (destination != null) {
+            flags |= FLAG_DESTINATION;
+            size += Short.BYTES + destination.length;
+        }
+        if (message.getAttributes() != null) {
+            flags |= FLAG_ATTRIBUTES;
+            size += Short.BYTES;
+            attributes = new byte[2 * message.getAttributes().size()][];
+            int i = 0;
+            for (Map.Entry<String, String> attribute : message.getAttributes().entrySet()) {
+                attributes[i] = encodeShortString(attribute.getKey());
+                attributes[i + 1] = encodeShortString(attribute.getValue());
+                size += 2 * Short.BYTES + attributes[i].length + attributes[i + 1].length;
+                i += 2;
+            }
+        }
+        if (content != null) {
+            flags |= FLAG_CONTENT;
+            size += Integer.BYTES + content.length;
+        }
+        if (payload != null) {
+            flags |= FLAG_PAYLOAD;
+            size += Integer.BYTES + payload.length;
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(MessageFraming.LENGTH_PREFIX_SIZE + size);
+        frame.putInt(size);
+        frame.put(VERSION);
+        frame.put((byte) message.getType().ordinal());
+        frame.put((byte) flags);
+        frame.putLong(message.getTimestamp());
+        if (sender != null) {
+            putShortString(frame, sender);
+        }
+        if (destination != null) {
+            putShortString(frame, destination);
+        }
+        if (attributes != null) {
+            frame.putShort((short) (attributes.length / 2));
+            for (byte[] field : attributes) {
+                putShortString(frame, field);
+            }
+        }
+        if (content != null) {
+            frame.putInt(content.length);
+            frame.put(content);
+        }
+        if (payload != null) {
+            frame.putInt(payload.length);
+            frame.put(payload);
+        }
+        return frame.flip();
+    }
+
+    /**
+     * Reads a message from the remaining bytes of the buffer
+     */
+    public static Message decode(ByteBuffer buffer) throws IOException {
+        try {
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary message version: " + version);
+            }
+
+            int typeIndex = buffer.get() & 0xFF;
+            if (typeIndex >= TYPES.length) {
+                throw new IOException("Unknown message type: " + typeIndex);
+            }
+            int flags = buffer.get();
+            long timestamp = buffer.getLong();
+
+            String sender = (flags & FLAG_SENDER) != 0 ? getString(buffer, buffer.getShort() & 0xFFFF) : null;
+            Message message = new Message(TYPES[typeIndex], sender, null);
+            message.setTimestamp(timestamp);
+
+            if ((flags & FLAG_DESTINATION) != 0) {
+                message.setDestinationAddress(getString(buffer, buffer.getShort() & 0xFFFF));
+            }
+            if ((flags & FLAG_ATTRIBUTES) != 0) {
+                int count = buffer.getShort() & 0xFFFF;
+                for (int i = 0; i < count; i++) {
+                    String name = getString(buffer, buffer.getShort() & 0xFFFF);
+                    message.setAttribute(name, getString(buffer, buffer.getShort() & 0xFFFF));
+                }
+            }
+            if ((flags & FLAG_CONTENT) != 0) {
+                message.setContent(getString(buffer, checkedLength(buffer, buffer.getInt())));
+            }
+            if ((flags & FLAG_PAYLOAD) != 0) {
+                byte[] payload = new byte[checkedLength(buffer, buffer.getInt())];
+                buffer.get(payload);
+                message.setPayload(payload);
+            }
+            return message;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated binary message", e);
+        }
+    }
+
+    /**
+     * Returns the UTF-8 bytes of a string field, or null for a missing one
+     */
+    private static byte[] encodeShortString(String value) throws IOException {
+        if (value == null) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_SHORT_STRING) {
+            throw new IOException("String field too long: " + bytes.length + " bytes");
+        }
+        return bytes;
+    }
+
+    private static void putShortString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer, int length) {
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    private static int checkedLength(ByteBuffer buffer, int length) throws IOException {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Invalid field length: " + length);
+        }
+        return length;
+    }
+}
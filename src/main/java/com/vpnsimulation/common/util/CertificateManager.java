@@ -10,29 +10,59 @@ import org.bouncycastle.operator.ContentSigner;
 import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.security.*;
 import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.Base64;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Manages X.509 certificates for client and server authentication
  */
 public class CertificateManager {
 
-    static {
-        // Add Bouncy Castle as a security provider
-        Security.addProvider(new BouncyCastleProvider());
+    /**
+     * Creating the Bouncy Castle provider takes the better part of a second, so
+     * it is only added once a certificate has to be generated, not when the
+     * key material is loaded from a keystore
+     */
+    private static final class BouncyCastle {
+        static final Provider PROVIDER = new BouncyCastleProvider();
+
+        static {
+            // Add Bouncy Castle as a security provider
+            Security.addProvider(PROVIDER);
+        }
     }
 
     private static final long VALIDITY_PERIOD = 365 * 24 * 60 * 60 * 1000L; // 1 year in milliseconds
+    private static final long RENEWAL_MARGIN = 24 * 60 * 60 * 1000L; // Renew a day before expiry
+    private static final String KEYSTORE_TYPE = "PKCS12";
+    private static final String KEY_ALIAS = "vpn";
+    
+    public static final int DEFAULT_VERIFIED_CACHE_CAPACITY = 1024;
     
     private KeyPair keyPair;
     private X509Certificate certificate;
+    private String encodedCertificate;
+    // Verified peer certificates by SHA-256 fingerprint, least recently used first
+    private final LinkedHashMap<String, X509Certificate> verifiedCertificates = new LinkedHashMap<>(16, 0.75f, true);
+    private int verifiedCacheCapacity = DEFAULT_VERIFIED_CACHE_CAPACITY;
+    private final LongAdder verifiedCacheHits = new LongAdder();
+    private final LongAdder verifiedCacheMisses = new LongAdder();
     
     /**
      * Generates a self-signed X.509 certificate
@@ -56,26 +86,81 @@ public class CertificateManager {
         
         // Sign the certificate
         ContentSigner contentSigner = new JcaContentSignerBuilder("SHA256withRSA")
-                .setProvider("BC")
+                .setProvider(BouncyCastle.PROVIDER)
                 .build(keyPair.getPrivate());
         
         X509CertificateHolder certHolder = certBuilder.build(contentSigner);
-        certificate = new JcaX509CertificateConverter()
-                .setProvider("BC")
-                .getCertificate(certHolder);
+        setCertificate(new JcaX509CertificateConverter()
+                .setProvider(BouncyCastle.PROVIDER)
+                .getCertificate(certHolder));
     }
     
+    /**
+     * Loads the key pair and certificate from a PKCS12 keystore. If the keystore
+     * does not exist, holds no key entry, or its certificate expires within a
+     * day, a new self-signed certificate is generated and written to it.
+     * @param keyStorePath The keystore file
+     * @param password Protects the keystore and the private key in it
+     * @param cn The common name used when a certificate has to be generated
+     * @return true if the key material was loaded, false if it was generated
+     */
+    public boolean loadOrGenerateCertificate(Path keyStorePath, char[] password, String cn) throws Exception {
+        if (Files.exists(keyStorePath)) {
+            KeyStore keyStore = KeyStore.getInstance(KEYSTORE_TYPE);
+            try (InputStream in = Files.newInputStream(keyStorePath)) {
+                keyStore.load(in, password);
+            }
+
+            if (keyStore.isKeyEntry(KEY_ALIAS)
+                    && keyStore.getCertificate(KEY_ALIAS) instanceof X509Certificate stored
+                    && stored.getNotAfter().getTime() - System.currentTimeMillis() > RENEWAL_MARGIN) {
+                PrivateKey privateKey = (PrivateKey) keyStore.getKey(KEY_ALIAS, password);
+                keyPair = new KeyPair(stored.getPublicKey(), privateKey);
+                setCertificate(stored);
+                return true;
+            }
+        }
+
+        generateSelfSignedCertificate(cn);
+        storeCertificate(keyStorePath, password);
+        return false;
+    }
+
+    /**
+     * Writes the key pair and certificate to a PKCS12 keystore, replacing the
+     * file in one step so a concurrent reader never sees a partial keystore
+     */
+    private void storeCertificate(Path keyStorePath, char[] password) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE_TYPE);
+        keyStore.load(null, null);
+        keyStore.setKeyEntry(KEY_ALIAS, keyPair.getPrivate(), password, new Certificate[] { certificate });
+
+        Path directory = keyStorePath.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, keyStorePath.getFileName().toString(), ".tmp");
+        try {
+            try {
+                Files.setPosixFilePermissions(temporary, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException e) {
+                // Not a POSIX file system, keep the default permissions
+            }
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                keyStore.store(out, password);
+            }
+            Files.move(temporary, keyStorePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
     /**
      * Returns the encoded certificate
      */
-    public String getEncodedCertificate() throws Exception {
-        if (certificate == null) {
+    public String getEncodedCertificate() {
+        if (encodedCertificate == null) {
             throw new IllegalStateException("Certificate not generated yet");
         }
-        
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        baos.write(certificate.getEncoded());
-        return Base64.getEncoder().encodeToString(baos.toByteArray());
+        return encodedCertificate;
     }
     
     /**
@@ -99,19 +184,12 @@ public class CertificateManager {
     }
     
     /**
-     * Verifies a certificate received from a remote party
+     * Verifies a certificate received from a remote party. Certificates that
+     * passed before are recognized by their fingerprint and not parsed again.
      */
     public boolean verifyCertificate(String encodedCertificate) {
         try {
-            // Decode certificate
-            byte[] certBytes = Base64.getDecoder().decode(encodedCertificate);
-            CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
-            Certificate cert = certFactory.generateCertificate(new ByteArrayInputStream(certBytes));
-            
-            // Verify certificate (in a real-world app, you would verify against a trusted CA)
-            // For this simulation, we just check that it's a valid certificate format
-            cert.verify(cert.getPublicKey());
-            return true;
+            return verified(encodedCertificate) != null;
         } catch (Exception e) {
             return false;
         }
@@ -121,9 +199,89 @@ public class CertificateManager {
      * Extracts the public key from a certificate
      */
     public PublicKey extractPublicKey(String encodedCertificate) throws Exception {
+        X509Certificate cert = verified(encodedCertificate);
+        if (cert == null) {
+            cert = parse(Base64.getDecoder().decode(encodedCertificate));
+        }
+        return cert.getPublicKey();
+    }
+    
+    /**
+     * Sets how many verified peer certificates are remembered
+     */
+    public void setVerifiedCacheCapacity(int capacity) {
+        synchronized (verifiedCertificates) {
+            verifiedCacheCapacity = capacity;
+            trimVerifiedCache();
+        }
+    }
+    
+    /**
+     * Returns how many verifications were answered from the cache
+     */
+    public long getVerifiedCacheHits() {
+        return verifiedCacheHits.sum();
+    }
+    
+    /**
+     * Returns how many verifications had to parse and check a certificate
+     */
+    public long getVerifiedCacheMisses() {
+        return verifiedCacheMisses.sum();
+    }
+    
+    /**
+     * Looks up a certificate in the cache of verified certificates, or parses
+     * and verifies it and adds it to the cache
+     * @return The certificate, or null if its signature does not verify
+     */
+    private X509Certificate verified(String encodedCertificate) throws Exception {
         byte[] certBytes = Base64.getDecoder().decode(encodedCertificate);
+        String fingerprint = Base64.getEncoder().encodeToString(
+                MessageDigest.getInstance("SHA-256").digest(certBytes));
+        synchronized (verifiedCertificates) {
+            X509Certificate cached = verifiedCertificates.get(fingerprint);
+            if (cached != null) {
+                verifiedCacheHits.increment();
+                return cached;
+            }
+        }
+        verifiedCacheMisses.increment();
+        
+        // Verify certificate (in a real-world app, you would verify against a trusted CA)
+        // For this simulation, we just check that it's a valid self-signed certificate
+        X509Certificate cert = parse(certBytes);
+        try {
+            cert.verify(cert.getPublicKey());
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+        
+        synchronized (verifiedCertificates) {
+            verifiedCertificates.put(fingerprint, cert);
+            trimVerifiedCache();
+        }
+        return cert;
+    }
+    
+    private void trimVerifiedCache() {
+        Iterator<String> eldest = verifiedCertificates.keySet().iterator();
+        while (verifiedCertificates.size() > verifiedCacheCapacity) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+    
+    private static X509Certificate parse(byte[] certBytes) throws CertificateException {
         CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
-        Certificate cert = certFactory.generateCertificate(new ByteArrayInputStream(certBytes));
-        return cert.getPublicKey();
+        return (X509Certificate) certFactory.generateCertificate(new ByteArrayInputStream(certBytes));
+    }
+    
+    /**
+     * Makes a certificate the own one and encodes it once for all handshakes
+     */
+    private void setCertificate(X509Certificate certificate) throws CertificateEncodingException {
+        this.certificate = certificate;
+        this.encodedCertificate = Base64.getEncoder().encodeToString(certificate.getEncoded());
     }
 }
@@ -0,0 +1,652 @@
+package com.vpnsimulation.common.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Carries frames between two ends over UDP datagrams, reliably only where
+ * the message type needs it.
+ *
+ * Frames are cut into datagrams of at most {@value #MAX_FRAGMENT_SIZE}
+ * bytes. Reliable fragments are numbered; the receiver delivers them in
+ * order and answers every one with an ACK holding the next number it expects
+ * and a bitmap of the {@value #WINDOW} numbers after it that it already has
+ * (selective ACK). The sender keeps up to {@value #WINDOW} fragments
+ * unacknowledged and resends one when three fragments sent after it were
+ * acknowledged, or when the retransmission timeout, derived from the
+ * measured round trip as in RFC 6298, passes. Frames that do not fit the
+ * window wait in a backlog.
+ *
+ * DATA messages and BATCH records of them are sent unreliably: a lost
+ * fragment loses its frame and nothing is resent, so TCP carried inside the
+ * tunnel recovers on its own instead of fighting a second retransmission
+ * layer underneath. Every other type, including handshakes and stream
+ * chunks, is sent reliably.
+ *
+ * Each end numbers its reliable fragments from a random initial number,
+ * which its first fragment carries with a flag, so a host that cannot see
+ * the traffic cannot guess numbers to acknowledge. An ACK for numbers that
+ * were never sent is ignored. Until the owner knows the peer receives at its
+ * address, it can restrict the link to buffering only a few KB for it, see
+ * {@link #setRestricted}.
+ *
+ * The owner passes received datagrams to {@link #receive} from one thread,
+ * and calls {@link #tick} every few milliseconds to drive retransmissions.
+ * Sending is thread-safe.
+ */
+public class DatagramLink {
+
+    /** Frame bytes in one datagram */
+    public static final int MAX_FRAGMENT_SIZE = 1200;
+
+    /** Reliable fragments that may be unacknowledged at a time, a power of two */
+    public static final int WINDOW = 256;
+
+    /** Largest datagram a link sends: an ACK is below this too */
+    public static final int MAX_DATAGRAM_SIZE = MAX_FRAGMENT_SIZE + 16;
+
+    /**
+     * Receive buffer the owner should ask for on its channel. Datagrams that
+     * arrive while the buffer is full are dropped and have to be resent, and
+     * the server buffers the windows of all its clients in one.
+     */
+    public static final int SOCKET_RECEIVE_BUFFER = 1024 * 1024;
+
+    /** How often the owner should call {@link #tick} */
+    public static final long TICK_MILLIS = 5;
+
+    private static final byte RELIABLE = 1;
+    private static final byte UNRELIABLE = 2;
+    private static final byte ACK = 3;
+    private static final byte LAST_FRAGMENT = 1;
+    private static final byte FIRST_SEQUENCE = 1 << 1;
+    private static final int RELIABLE_HEADER = 6;
+    private static final int UNRELIABLE_HEADER = 9;
+    private static final int SACK_WORDS = WINDOW / Long.SIZE;
+
+    private static final int MAX_BACKLOG = 64 * 1024;
+    private static final int REORDER_THRESHOLD = 3;
+    private static final int MAX_PARTIAL_FRAMES = 64;
+    // A delivered frame carries its length prefix
+    private static final int MAX_FRAME_LENGTH = MessageFraming.LENGTH_PREFIX_SIZE + MessageFraming.MAX_FRAME_SIZE;
+    private static final int MAX_FRAGMENTS = fragmentCount(MAX_FRAME_LENGTH);
+    // What a restricted link buffers: one frame of a few fragments, such as a handshake init
+    private static final int RESTRICTED_FRAME_LENGTH = 4 * 1024;
+    private static final int RESTRICTED_WINDOW = fragmentCount(RESTRICTED_FRAME_LENGTH);
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final long INITIAL_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long MIN_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long MAX_RTO_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * Puts a datagram on the wire
+     */
+    @FunctionalInterface
+    public interface DatagramSender {
+        void send(ByteBuffer datagram) throws IOException;
+    }
+
+    /**
+     * A reliable fragment, from the moment it is numbered until it is acknowledged
+     */
+    private static class Packet {
+        final int sequence;
+        final byte[] datagram;
+        long sentAt;
+        int transmissions;
+        boolean fastRetransmitted;
+
+        Packet(int sequence, byte[] datagram) {
+            this.sequence = sequence;
+            this.datagram = datagram;
+        }
+    }
+
+    /**
+     * The fragments of an unreliable frame received so far
+     */
+    private static class PartialFrame {
+        final byte[][] fragments;
+        int received;
+        int length;
+
+        PartialFrame(int count) {
+            this.fragments = new byte[count][];
+        }
+    }
+
+    private final DatagramSender sender;
+
+    // Send state, guarded by this
+    private final Packet[] inFlight = new Packet[WINDOW];
+    private final ArrayDeque<Packet> backlog = new ArrayDeque<>();
+    private final int initialSequence = RANDOM.nextInt();
+    private int sendBase = initialSequence;
+    private int nextSequence = initialSequence;
+    private int highestAcknowledged = initialSequence - 1;
+    private long smoothedRtt = -1;
+    private long rttVariance;
+    private long retransmissionTimeout = INITIAL_RTO_NANOS;
+    private long lastProgress = System.nanoTime();
+    private volatile boolean closed;
+    private final AtomicInteger nextFrameId = new AtomicInteger();
+
+    // Receive state, only used by the receiving thread
+    private final byte[][] outOfOrder = new byte[WINDOW][];
+    // Set by the peer's first fragment, which carries its initial number
+    private boolean receiveSynchronized;
+    // Fragments that overtook the first one, at most a restricted window of them
+    private final Map<Integer, byte[]> earlyFragments = new LinkedHashMap<>();
+    private int receiveNext;
+    private boolean restricted;
+    private final List<byte[]> reassembly = new ArrayList<>();
+    private int reassemblyLength;
+    private boolean discarding;
+    private final Map<Integer, PartialFrame> partialFrames = new LinkedHashMap<>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, PartialFrame> eldest) {
+            if (size() > MAX_PARTIAL_FRAMES) {
+                framesLost.increment();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private final LongAdder datagramsSent = new LongAdder();
+    private final LongAdder retransmissions = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder framesLost = new LongAdder();
+    private final LongAdder invalidAcks = new LongAdder();
+
+    public DatagramLink(DatagramSender sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * Returns whether messages of a type must arrive, and so are resent until they do
+     */
+    public static boolean isReliable(Message.MessageType type) {
+        return type != Message.MessageType.DATA && type != Message.MessageType.BATCH;
+    }
+
+    /**
+     * Returns whether a datagram is the first one a link sends, and so may open a session
+     */
+    public static boolean opensLink(ByteBuffer datagram) {
+        return datagram.remaining() >= RELIABLE_HEADER && datagram.get(datagram.position()) == RELIABLE
+                && (datagram.get(datagram.position() + 5) & FIRST_SEQUENCE) != 0;
+    }
+
+    /**
+     * Restricts or frees what the link buffers for the peer. A restricted link
+     * reassembles frames of at most {@value #RESTRICTED_FRAME_LENGTH} bytes,
+     * keeps only the few fragments such a frame needs, and drops unreliable
+     * frames, so a peer with a forged address can't make it hold much memory.
+     * Called on the receiving thread.
+     */
+    public void setRestricted(boolean restricted) {
+        this.restricted = restricted;
+    }
+
+    /**
+     * Sends a frame, reliably or not
+     * @throws IOException If the link is closed, or too many reliable frames wait for the window
+     */
+    public void send(ByteBuffer frame, boolean reliable) throws IOException {
+        if (!reliable) {
+            sendUnreliable(frame);
+            return;
+        }
+
+        int count = fragmentCount(frame.remaining());
+        List<Packet> due;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Connection closed");
+            }
+            if (backlog.size() + count > MAX_BACKLOG) {
+                throw new IOException("Datagram backlog full, frame dropped");
+            }
+            for (int i = 0; i < count; i++) {
+                int length = Math.min(MAX_FRAGMENT_SIZE, frame.remaining());
+                ByteBuffer datagram = ByteBuffer.allocate(RELIABLE_HEADER + length);
+                byte flags = i == count - 1 ? LAST_FRAGMENT : 0;
+                if (nextSequence == initialSequence) {
+                    flags |= FIRST_SEQUENCE;
+                }
+                datagram.put(RELIABLE).putInt(nextSequence).put(flags);
+                datagram.put(frame.slice(frame.position(), length));
+                frame.position(frame.position() + length);
+                backlog.add(new Packet(nextSequence++, datagram.array()));
+            }
+            due = fillWindow(System.nanoTime());
+        }
+        transmit(due);
+    }
+
+    private void sendUnreliable(ByteBuffer frame) throws IOException {
+        if (closed) {
+            throw new IOException("Connection closed");
+        }
+        int count = fragmentCount(frame.remaining());
+        if (count > MAX_FRAGMENTS) {
+            throw new IOException("Frame too long for a datagram link: " + frame.remaining());
+        }
+        int frameId = nextFrameId.getAndIncrement();
+        for (int i = 0; i < count; i++) {
+            int length = Math.min(MAX_FRAGMENT_SIZE, frame.remaining());
+            ByteBuffer datagram = ByteBuffer.allocate(UNRELIABLE_HEADER + length);
+            datagram.put(UNRELIABLE).putInt(frameId).putShort((short) i).putShort((short) count);
+            datagram.put(frame.slice(frame.position(), length));
+            frame.position(frame.position() + length);
+            sender.send(datagram.flip());
+            datagramsSent.increment();
+        }
+    }
+
+    private static int fragmentCount(int frameLength) {
+        return Math.max(1, (frameLength + MAX_FRAGMENT_SIZE - 1) / MAX_FRAGMENT_SIZE);
+    }
+
+    /**
+     * Moves fragments from the backlog into the window while it has room
+     * @return The fragments to send now
+     */
+    private List<Packet> fillWindow(long now) {
+        List<Packet> due = new ArrayList<>();
+        while (!backlog.isEmpty() && backlog.peek().sequence - sendBase < WINDOW) {
+            Packet packet = backlog.poll();
+            if (packet.sequence == sendBase) {
+                // Nothing was outstanding, so the silence so far was not the peer's fault
+                lastProgress = now;
+            }
+            inFlight[packet.sequence & (WINDOW - 1)] = packet;
+            packet.sentAt = now;
+            packet.transmissions++;
+            due.add(packet);
+        }
+        return due;
+    }
+
+    private int inFlightCount() {
+        int next = backlog.isEmpty() ? nextSequence : backlog.peek().sequence;
+        return next - sendBase;
+    }
+
+    private void transmit(List<Packet> packets) throws IOException {
+        for (Packet packet : packets) {
+            sender.send(ByteBuffer.wrap(packet.datagram));
+            datagramsSent.increment();
+        }
+    }
+
+    /**
+     * Takes in a datagram from the peer
+     * @return The frames it completed, in the order they were sent, each with its length prefix
+     */
+    public List<ByteBuffer> receive(ByteBuffer datagram) throws IOException {
+        if (datagram.remaining() < 1) {
+            return List.of();
+        }
+        byte kind = datagram.get();
+        switch (kind) {
+            case ACK -> {
+                onAck(datagram);
+                return List.of();
+            }
+            case RELIABLE -> {
+                return receiveReliable(datagram);
+            }
+            case UNRELIABLE -> {
+                return receiveUnreliable(datagram);
+            }
+            default -> throw new IOException("Unknown datagram kind: " + kind);
+        }
+    }
+
+    private List<ByteBuffer> receiveReliable(ByteBuffer datagram) throws IOException {
+        if (datagram.remaining() < RELIABLE_HEADER - 1) {
+            throw new IOException("Truncated datagram");
+        }
+        int sequence = datagram.getInt();
+        // The flags byte stays in front of the fragment until it is delivered
+        byte[] fragment = copy(datagram);
+        int window = restricted ? RESTRICTED_WINDOW : WINDOW;
+        if (!receiveSynchronized) {
+            if ((fragment[0] & FIRST_SEQUENCE) == 0) {
+                // Numbers mean nothing before the peer's first fragment arrived
+                if (earlyFragments.size() < RESTRICTED_WINDOW) {
+                    earlyFragments.putIfAbsent(sequence, fragment);
+                }
+                return List.of();
+            }
+            receiveNext = sequence;
+            receiveSynchronized = true;
+            for (Map.Entry<Integer, byte[]> early : earlyFragments.entrySet()) {
+                int offset = early.getKey() - receiveNext;
+                if (offset > 0 && offset < window) {
+                    outOfOrder[early.getKey() & (WINDOW - 1)] = early.getValue();
+                }
+            }
+            earlyFragments.clear();
+        }
+
+        List<ByteBuffer> frames = List.of();
+        int offset = sequence - receiveNext;
+        if (offset < 0 || offset >= window || outOfOrder[sequence & (WINDOW - 1)] != null) {
+            duplicates.increment();
+        } else if (offset > 0) {
+            outOfOrder[sequence & (WINDOW - 1)] = fragment;
+        } else {
+            frames = new ArrayList<>();
+            deliver(fragment, frames);
+            receiveNext++;
+            byte[] next;
+            while ((next = outOfOrder[receiveNext & (WINDOW - 1)]) != null) {
+                outOfOrder[receiveNext & (WINDOW - 1)] = null;
+                deliver(next, frames);
+                receiveNext++;
+            }
+        }
+        sendAck();
+        return frames;
+    }
+
+    /**
+     * Adds an in-order fragment to the frame being reassembled, and completes the frame on its last fragment.
+     * A frame that grows longer than the framing allows is dropped up to its last fragment.
+     */
+    private void deliver(byte[] fragment, List<ByteBuffer> frames) {
+        boolean last = (fragment[0] & LAST_FRAGMENT) != 0;
+        int maxLength = restricted ? RESTRICTED_FRAME_LENGTH : MAX_FRAME_LENGTH;
+        if (!discarding && reassemblyLength + fragment.length - 1 > maxLength) {
+            reassembly.clear();
+            reassemblyLength = 0;
+            discarding = true;
+            framesLost.increment();
+        }
+        if (discarding) {
+            discarding = !last;
+            return;
+        }
+        reassembly.add(fragment);
+        reassemblyLength += fragment.length - 1;
+        if (!last) {
+            return;
+        }
+        ByteBuffer frame = ByteBuffer.allocate(reassemblyLength);
+        for (byte[] part : reassembly) {
+            frame.put(part, 1, part.length - 1);
+        }
+        frames.add(frame.flip());
+        reassembly.clear();
+        reassemblyLength = 0;
+    }
+
+    private List<ByteBuffer> receiveUnreliable(ByteBuffer datagram) throws IOException {
+        if (datagram.remaining() < UNRELIABLE_HEADER - 1) {
+            throw new IOException("Truncated datagram");
+        }
+        if (restricted) {
+            framesLost.increment();
+            return List.of();
+        }
+        int frameId = datagram.getInt();
+        int index = Short.toUnsignedInt(datagram.getShort());
+        int count = Short.toUnsignedInt(datagram.getShort());
+        if (count == 1) {
+            return List.of(ByteBuffer.wrap(copy(datagram)));
+        }
+        if (index >= count || count > MAX_FRAGMENTS) {
+            throw new IOException("Invalid fragment " + index + " of " + count);
+        }
+
+        PartialFrame partial = partialFrames.computeIfAbsent(frameId, id -> new PartialFrame(count));
+        if (partial.fragments.length != count || partial.fragments[index] != null) {
+            duplicates.increment();
+            return List.of();
+        }
+        partial.fragments[index] = copy(datagram);
+        partial.received++;
+        partial.length += partial.fragments[index].length;
+        if (partial.received < count) {
+            return List.of();
+        }
+        partialFrames.remove(frameId);
+        ByteBuffer frame = ByteBuffer.allocate(partial.length);
+        for (byte[] fragment : partial.fragments) {
+            frame.put(fragment);
+        }
+        return List.of(frame.flip());
+    }
+
+    private static byte[] copy(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Acknowledges everything received so far: the next number expected, and
+     * a bitmap of the numbers after it that arrived out of order
+     */
+    private void sendAck() throws IOException {
+        ByteBuffer ack = ByteBuffer.allocate(5 + SACK_WORDS * Long.BYTES);
+        ack.put(ACK).putInt(receiveNext);
+        for (int word = 0; word < SACK_WORDS; word++) {
+            long bits = 0;
+            for (int bit = 0; bit < Long.SIZE; bit++) {
+                int offset = 1 + word * Long.SIZE + bit;
+                if (offset < WINDOW && outOfOrder[(receiveNext + offset) & (WINDOW - 1)] != null) {
+                    bits |= 1L << bit;
+                }
+            }
+            ack.putLong(bits);
+        }
+        sender.send(ack.flip());
+    }
+
+    private void onAck(ByteBuffer ack) throws IOException {
+        if (ack.remaining() < 4 + SACK_WORDS * Long.BYTES) {
+            throw new IOException("Truncated ACK");
+        }
+        int cumulative = ack.getInt();
+        long[] selective = new long[SACK_WORDS];
+        for (int word = 0; word < SACK_WORDS; word++) {
+            selective[word] = ack.getLong();
+        }
+
+        List<Packet> due;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (cumulative - sendBase > inFlightCount() || sendBase - cumulative > WINDOW) {
+                // Acknowledges fragments never sent, or is forged; the link stays up
+                invalidAcks.increment();
+                return;
+            }
+            boolean progress = false;
+            while (sendBase - cumulative < 0) {
+                progress |= acknowledge(sendBase, now);
+                sendBase++;
+            }
+            for (int word = 0; word < SACK_WORDS; word++) {
+                long bits = selective[word];
+                while (bits != 0) {
+                    int bit = Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    int sequence = cumulative + 1 + word * Long.SIZE + bit;
+                    if (sequence - sendBase < inFlightCount()) {
+                        progress |= acknowledge(sequence, now);
+                    }
+                }
+            }
+            if (progress) {
+                lastProgress = now;
+            }
+
+            due = new ArrayList<>();
+            // A fragment is lost once enough fragments sent after it arrived
+            for (int sequence = sendBase; highestAcknowledged - sequence >= REORDER_THRESHOLD; sequence++) {
+                Packet packet = inFlight[sequence & (WINDOW - 1)];
+                if (packet != null && !packet.fastRetransmitted) {
+                    packet.fastRetransmitted = true;
+                    resend(packet, now, due);
+                }
+            }
+            due.addAll(fillWindow(now));
+        }
+        transmit(due);
+    }
+
+    /**
+     * Removes an acknowledged fragment from the window and takes a round-trip sample from it
+     * @return true if the fragment was still unacknowledged
+     */
+    private boolean acknowledge(int sequence, long now) {
+        Packet packet = inFlight[sequence & (WINDOW - 1)];
+        if (packet == null || packet.sequence != sequence) {
+            return false;
+        }
+        inFlight[sequence & (WINDOW - 1)] = null;
+        if (sequence - highestAcknowledged > 0) {
+            highestAcknowledged = sequence;
+        }
+        // A resent fragment's ACK may answer either transmission (Karn's algorithm)
+        if (packet.transmissions == 1) {
+            updateRtt(now - packet.sentAt);
+        }
+        return true;
+    }
+
+    private void updateRtt(long sample) {
+        if (smoothedRtt < 0) {
+            smoothedRtt = sample;
+            rttVariance = sample / 2;
+        } else {
+            rttVariance = (3 * rttVariance + Math.abs(smoothedRtt - sample)) / 4;
+            smoothedRtt = (7 * smoothedRtt + sample) / 8;
+        }
+        retransmissionTimeout = Math.min(MAX_RTO_NANOS, Math.max(MIN_RTO_NANOS, smoothedRtt + 4 * rttVariance));
+    }
+
+    private void resend(Packet packet, long now, List<Packet> due) {
+        packet.sentAt = now;
+        packet.transmissions++;
+        retransmissions.increment();
+        due.add(packet);
+    }
+
+    /**
+     * Resends the fragments whose retransmission timeout passed. Called by
+     * the owner every {@value #TICK_MILLIS} ms.
+     * @throws IOException If the peer acknowledged nothing for 10 seconds
+     *                     while fragments were waiting for it
+     */
+    public void tick() throws IOException {
+        List<Packet> due = new ArrayList<>();
+        synchronized (this) {
+            if (closed || inFlightCount() == 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (now - lastProgress > TIMEOUT_NANOS) {
+                throw new IOException("No acknowledgement from the peer for "
+                        + TimeUnit.NANOSECONDS.toSeconds(TIMEOUT_NANOS) + " s");
+            }
+            int end = sendBase + inFlightCount();
+            for (int sequence = sendBase; sequence != end; sequence++) {
+                Packet packet = inFlight[sequence & (WINDOW - 1)];
+                if (packet != null && now - packet.sentAt >= retransmissionTimeout) {
+                    resend(packet, now, due);
+                }
+            }
+            if (!due.isEmpty()) {
+                // Back off until an ACK brings a new sample
+                retransmissionTimeout = Math.min(MAX_RTO_NANOS, retransmissionTimeout * 2);
+            }
+        }
+        transmit(due);
+    }
+
+    /**
+     * Waits until every reliable fragment sent so far is acknowledged
+     * @return false if that did not happen within the timeout
+     */
+    public boolean flush(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            synchronized (this) {
+                if (inFlightCount() == 0 && backlog.isEmpty()) {
+                    return true;
+                }
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(TICK_MILLIS);
+        }
+    }
+
+    /**
+     * Drops everything not yet acknowledged; sending fails from now on
+     */
+    public synchronized void close() {
+        closed = true;
+        backlog.clear();
+        Arrays.fill(inFlight, null);
+        sendBase = nextSequence;
+    }
+
+    /**
+     * Returns the number of reliable fragments sent or waiting to be sent that are not acknowledged yet
+     */
+    public synchronized int getUnacknowledged() {
+        return inFlightCount() + backlog.size();
+    }
+
+    public long getDatagramsSent() {
+        return datagramsSent.sum();
+    }
+
+    public long getRetransmissions() {
+        return retransmissions.sum();
+    }
+
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    /**
+     * Returns the number of frames dropped because fragments of an unreliable
+     * one never arrived, or because one was longer than a frame may be
+     */
+    public long getFramesLost() {
+        return framesLost.sum();
+    }
+
+    /**
+     * Returns the number of ACKs ignored because they acknowledged fragments never sent
+     */
+    public long getInvalidAcks() {
+        return invalidAcks.sum();
+    }
+
+    /**
+     * Returns the smoothed round-trip time in microseconds, or -1 before the first sample
+     */
+    public synchronized long getSmoothedRttMicros() {
+        return smoothedRtt < 0 ? -1 : smoothedRtt / 1000;
+    }
+}
@@ -0,0 +1,65 @@
+package com.vpnsimulation.common.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Selects which kind of threads run blocking client and server work
+ */
+public enum ExecutionMode {
+
+    /** Regular platform threads from a thread pool */
+    PLATFORM,
+
+    /** One virtual thread per task (requires a Java 21 runtime) */
+    VIRTUAL;
+
+    // Looked up reflectively so the project still compiles for Java 17
+    private static final MethodHandle VIRTUAL_EXECUTOR_FACTORY = findVirtualExecutorFactory();
+
+    /**
+     * Returns true if the running JVM supports virtual threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VIRTUAL_EXECUTOR_FACTORY != null;
+    }
+
+    /**
+     * Creates an executor that grows with the number of tasks, as used for
+     * one task per connected client
+     */
+    public ExecutorService newUnboundedExecutor() {
+        return this == VIRTUAL ? newVirtualThreadPerTaskExecutor() : Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Creates an executor for a fixed number of concurrent tasks
+     */
+    public ExecutorService newFixedExecutor(int threads) {
+        return this == VIRTUAL ? newVirtualThreadPerTaskExecutor() : Executors.newFixedThreadPool(threads);
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (VIRTUAL_EXECUTOR_FACTORY == null) {
+            throw new UnsupportedOperationException(
+                    "Virtual threads require Java 21 or later (running " + Runtime.version() + ")");
+        }
+        try {
+            return (ExecutorService) VIRTUAL_EXECUTOR_FACTORY.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not create virtual thread executor", e);
+        }
+    }
+
+    private static MethodHandle findVirtualExecutorFactory() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Executors.class,
+                    "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+}
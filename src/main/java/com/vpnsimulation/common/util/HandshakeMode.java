@@ -0,0 +1,30 @@
+package com.vpnsimulation.common.util;
+
+/**
+ * How the client sets up a session. The server supports both flows and
+ * tells them apart by the attributes of HANDSHAKE_INIT.
+ */
+public enum HandshakeMode {
+
+    /**
+     * Five messages: HANDSHAKE_INIT, HANDSHAKE_RESPONSE, CERTIFICATE_EXCHANGE,
+     * then a KEY_EXCHANGE from each side. The client waits for the server twice.
+     */
+    FULL,
+
+    /**
+     * The client sends its certificate and key share with HANDSHAKE_INIT and
+     * the server answers with its certificate and key share in
+     * HANDSHAKE_RESPONSE, so the session is ready after one round trip
+     */
+    ONE_RTT;
+
+    /** Attribute carrying the sender's encoded certificate in a one-round-trip handshake */
+    public static final String CERTIFICATE_ATTRIBUTE = "certificate";
+
+    /** Attribute carrying the sender's encoded key exchange public key in a one-round-trip handshake */
+    public static final String KEY_SHARE_ATTRIBUTE = "keyShare";
+
+    /** Attribute echoing the cookie of a COOKIE_CHALLENGE when HANDSHAKE_INIT is sent again */
+    public static final String COOKIE_ATTRIBUTE = "cookie";
+}
@@ -1,6 +1,11 @@
 package com.vpnsimulation.common.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Represents a message exchanged between VPN client and server
@@ -16,7 +21,14 @@ public class Message implements Serializable {
         KEY_EXCHANGE,
         DATA,
         DISCONNECT,
-        ERROR
+        ERROR,
+        SESSION_TICKET,
+        COOKIE_CHALLENGE,
+        STREAM_CHUNK,
+        STREAM_CREDIT,
+        BATCH,
+        PING,
+        PONG
     }
     
     private MessageType type;
@@ -24,6 +36,8 @@ public class Message implements Serializable {
     private String content;
     private String destinationAddress; // For routing purposes
     private long timestamp;
+    private byte[] payload; // Raw binary content, used instead of content when set
+    private Map<String, String> attributes; // Protocol options, e.g. negotiated during the handshake
     
     public Message(MessageType type, String sender, String content) {
         this.type = type;
@@ -74,6 +88,73 @@ public class Message implements Serializable {
         return timestamp;
     }
     
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+    
+    public byte[] getPayload() {
+        return payload;
+    }
+    
+    public void setPayload(byte[] payload) {
+        this.payload = payload;
+    }
+    
+    public String getAttribute(String name) {
+        return attributes == null ? null : attributes.get(name);
+    }
+    
+    public void setAttribute(String name, String value) {
+        if (attributes == null) {
+            attributes = new LinkedHashMap<>();
+        }
+        attributes.put(name, value);
+    }
+    
+    /**
+     * Returns all attributes, or null if none are set
+     */
+    public Map<String, String> getAttributes() {
+        return attributes;
+    }
+    
+    /**
+     * Returns the header a sealed payload is bound to: type, sender,
+     * destination and attributes, in a fixed order. A payload sealed with it
+     * as associated data only opens while none of these was changed, although
+     * they travel in the clear. The timestamp is not covered.
+     */
+    public byte[] getAssociatedData() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(type.ordinal());
+        writeField(out, sender);
+        writeField(out, destinationAddress);
+        Map<String, String> sorted = attributes == null ? Map.of() : new TreeMap<>(attributes);
+        writeLength(out, sorted.size());
+        for (Map.Entry<String, String> attribute : sorted.entrySet()) {
+            writeField(out, attribute.getKey());
+            writeField(out, attribute.getValue());
+        }
+        return out.toByteArray();
+    }
+    
+    private static void writeField(ByteArrayOutputStream out, String value) {
+        if (value == null) {
+            writeLength(out, -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeLength(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+    
+    private static void writeLength(ByteArrayOutputStream out, int length) {
+        out.write(length >>> 24);
+        out.write(length >>> 16);
+        out.write(length >>> 8);
+        out.write(length);
+    }
+    
     @Override
     public String toString() {
         return "Message{" +
@@ -0,0 +1,111 @@
+package com.vpnsimulation.common.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodings for the body of a frame. Every connection starts with
+ * SERIALIZED; the client offers other codecs in HANDSHAKE_INIT and both sides
+ * switch once the server names its choice in HANDSHAKE_RESPONSE.
+ */
+public enum MessageCodec {
+
+    /** Java serialization of the Message object */
+    SERIALIZED {
+        @Override
+        public ByteBuffer encodeFrame(Message message) throws IOException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectStream = new ObjectOutputStream(baos)) {
+                objectStream.writeObject(message);
+            }
+            byte[] body = baos.toByteArray();
+
+            ByteBuffer frame = ByteBuffer.allocate(MessageFraming.LENGTH_PREFIX_SIZE + body.length);
+            frame.putInt(body.length);
+            frame.put(body);
+            frame.flip();
+            return frame;
+        }
+
+        @Override
+        public Message decode(ByteBuffer body) throws IOException {
+            ByteArrayInputStream bytes = body.hasArray()
+                    ? new ByteArrayInputStream(body.array(), body.arrayOffset() + body.position(), body.remaining())
+                    : new ByteArrayInputStream(copyRemaining(body));
+            try (ObjectInputStream objectStream = new ObjectInputStream(bytes)) {
+                return (Message) objectStream.readObject();
+            } catch (ClassNotFoundException | ClassCastException e) {
+                throw new IOException("Invalid message frame: " + e.getMessage(), e);
+            }
+        }
+    },
+
+    /** Compact binary layout, see {@link BinaryMessageCodec} */
+    BINARY {
+        @Override
+        public ByteBuffer encodeFrame(Message message) throws IOException {
+            return BinaryMessageCodec.encodeFrame(message);
+        }
+
+        @Override
+        public Message decode(ByteBuffer body) throws IOException {
+            return BinaryMessageCodec.decode(body);
+        }
+    };
+
+    /** HANDSHAKE_INIT attribute listing the codecs the client supports, most preferred first */
+    public static final String OFFER_ATTRIBUTE = "codecs";
+
+    /** HANDSHAKE_RESPONSE attribute naming the codec the server selected */
+    public static final String SELECTED_ATTRIBUTE = "codec";
+
+    /**
+     * Encodes a message as a complete length-prefixed frame in read mode
+     */
+    public abstract ByteBuffer encodeFrame(Message message) throws IOException;
+
+    /**
+     * Decodes a frame body (without the length prefix)
+     */
+    public abstract Message decode(ByteBuffer body) throws IOException;
+
+    /**
+     * Builds the offer for HANDSHAKE_INIT, with the preferred codec first
+     */
+    public static String offer(MessageCodec preferred) {
+        StringBuilder offer = new StringBuilder(preferred.name());
+        for (MessageCodec codec : values()) {
+            if (codec != preferred) {
+                offer.append(',').append(codec.name());
+            }
+        }
+        return offer.toString();
+    }
+
+    /**
+     * Picks the first codec of an offer that is known locally
+     * @param offer Comma separated codec names, or null for a client that offers none
+     */
+    public static MessageCodec select(String offer) {
+        if (offer != null) {
+            for (String name : offer.split(",")) {
+                for (MessageCodec codec : values()) {
+                    if (codec.name().equals(name.trim())) {
+                        return codec;
+                    }
+                }
+            }
+        }
+        return SERIALIZED;
+    }
+
+    private static byte[] copyRemaining(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,79 @@
+package com.vpnsimulation.common.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Length-prefixed framing for messages on the wire.
+ *
+ * Every message is sent as a 4-byte big-endian length followed by that many
+ * bytes of body, encoded with the connection's {@link MessageCodec}. Unlike a
+ * continuous object stream, a frame can be cut out of a partially filled
+ * buffer, which is what the non-blocking server needs.
+ */
+public final class MessageFraming {
+
+    public static final int LENGTH_PREFIX_SIZE = 4;
+    public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024; // 16 MB
+
+    private MessageFraming() {
+    }
+
+    /**
+     * Writes a single framed message to a blocking stream (without flushing)
+     */
+    public static void writeFrame(DataOutputStream outputStream, Message message, MessageCodec codec)
+            throws IOException {
+        ByteBuffer frame = codec.encodeFrame(message);
+        outputStream.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+    }
+
+    /**
+     * Reads a single framed message from a blocking stream
+     */
+    public static Message readFrame(DataInputStream inputStream, MessageCodec codec) throws IOException {
+        int length = inputStream.readInt();
+        checkLength(length);
+
+        byte[] body = new byte[length];
+        inputStream.readFully(body);
+        return codec.decode(ByteBuffer.wrap(body));
+    }
+
+    /**
+     * Tries to decode one frame from the buffer (in read mode).
+     * @return The decoded message, or null if the buffer does not yet hold a complete frame.
+     *         The buffer position is only advanced when a frame is returned.
+     */
+    public static Message decode(ByteBuffer buffer, MessageCodec codec) throws IOException {
+        int frameSize = peekFrameSize(buffer);
+        if (frameSize < 0 || buffer.remaining() < frameSize) {
+            return null;
+        }
+
+        ByteBuffer body = buffer.slice(buffer.position() + LENGTH_PREFIX_SIZE, frameSize - LENGTH_PREFIX_SIZE);
+        buffer.position(buffer.position() + frameSize);
+        return codec.decode(body);
+    }
+
+    /**
+     * Returns the total size of the frame at the buffer position, or -1 if the
+     * length prefix has not been received yet
+     */
+    public static int peekFrameSize(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < LENGTH_PREFIX_SIZE) {
+            return -1;
+        }
+        int length = buffer.getInt(buffer.position());
+        checkLength(length);
+        return LENGTH_PREFIX_SIZE + length;
+    }
+
+    private static void checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+    }
+}
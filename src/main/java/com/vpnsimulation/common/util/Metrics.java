@@ -0,0 +1,109 @@
+package com.vpnsimulation.common.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Lightweight named counters, gauges and value distributions.
+ *
+ * Hot paths should look a metric up once and keep the returned object, as
+ * the name lookup is a map access.
+ */
+public class Metrics {
+
+    /**
+     * Count, sum and maximum of recorded values
+     */
+    public static class Distribution {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        public void record(long value) {
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.1f max=%d", getCount(), getMean(), getMax());
+        }
+    }
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Distribution> distributions = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the counter with the given name, creating it if needed
+     */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * Returns the distribution with the given name, creating it if needed
+     */
+    public Distribution distribution(String name) {
+        return distributions.computeIfAbsent(name, key -> new Distribution());
+    }
+
+    /**
+     * Registers a value that is read whenever the metrics are reported
+     */
+    public void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /**
+     * Returns the current value of a counter, or 0 if it does not exist
+     */
+    public long getCount(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * Reads a gauge now, or returns 0 if it does not exist
+     */
+    public long getGauge(String name) {
+        LongSupplier gauge = gauges.get(name);
+        return gauge == null ? 0 : gauge.getAsLong();
+    }
+
+    /**
+     * Returns all metrics as sorted name/value lines
+     */
+    public String report() {
+        Map<String, String> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, String.valueOf(counter.sum())));
+        gauges.forEach((name, gauge) -> values.put(name, String.valueOf(gauge.getAsLong())));
+        distributions.forEach((name, distribution) -> values.put(name, distribution.toString()));
+
+        StringBuilder report = new StringBuilder();
+        values.forEach((name, value) -> report.append(name).append(": ").append(value).append('\n'));
+        return report.toString();
+    }
+}
@@ -0,0 +1,250 @@
+package com.vpnsimulation.common.util;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Optional DEFLATE stage for DATA payloads, applied before a payload is
+ * encrypted and undone after it is decrypted. The client offers it in
+ * HANDSHAKE_INIT and the server names it in HANDSHAKE_RESPONSE if it agrees,
+ * so each session decides on its own.
+ *
+ * A payload is only sent compressed if it is at least the threshold long and
+ * shrinks by a quarter or more; its uncompressed length then travels in the
+ * {@link #LENGTH_ATTRIBUTE} of the message, which the record is bound to
+ * (see {@link Message#getAssociatedData()}), so it can't be changed on the
+ * way. After a payload that did not
+ * shrink enough the next ones are sent as they are without trying, for twice
+ * as many payloads each time up to {@value #MAX_BACKOFF}, so a stream of
+ * incompressible data costs almost no CPU. One payload that compresses well
+ * ends the back-off.
+ *
+ * The compressor also counts bytes in and out and the time spent deflating
+ * and inflating, for tuning the threshold per session.
+ */
+public class PayloadCompressor {
+
+    /** HANDSHAKE_INIT attribute offering compression */
+    public static final String OFFER_ATTRIBUTE = "compression";
+
+    /** HANDSHAKE_RESPONSE attribute confirming compression for the session */
+    public static final String SELECTED_ATTRIBUTE = "compressionSelected";
+
+    /** DATA attribute holding the uncompressed length of a compressed payload */
+    public static final String LENGTH_ATTRIBUTE = "inflatedLength";
+
+    /** The only algorithm so far */
+    public static final String DEFLATE = "DEFLATE";
+
+    /** Payloads shorter than this are not worth compressing */
+    public static final int DEFAULT_THRESHOLD = 256;
+
+    private static final int MAX_BACKOFF = 64;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private byte[] deflateBuffer = new byte[0];
+    private int threshold = DEFAULT_THRESHOLD;
+    private int backoff;
+    private int skipRemaining;
+
+    // Sent payloads; guarded by deflater
+    private volatile long payloadsSent;
+    private volatile long payloadsCompressed;
+    private volatile long sentBytes;
+    private volatile long sentBytesSaved;
+    private volatile long deflateNanos;
+
+    // Received payloads; guarded by inflater
+    private volatile long payloadsReceived;
+    private volatile long payloadsReceivedCompressed;
+    private volatile long payloadsInflated;
+    private volatile long receivedBytes;
+    private volatile long receivedBytesSaved;
+    private volatile long inflateNanos;
+
+    /**
+     * Sets the length below which payloads are sent as they are
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Compresses a payload about to be sent
+     * @return The compressed payload, or null if it should be sent as it is
+     */
+    public byte[] compress(byte[] payload) {
+        synchronized (deflater) {
+            payloadsSent++;
+            sentBytes += payload.length;
+            if (payload.length < threshold) {
+                return null;
+            }
+            if (skipRemaining > 0) {
+                skipRemaining--;
+                return null;
+            }
+
+            long start = System.nanoTime();
+            // Saving less is not worth the CPU on both ends; deflating also stops once this fills up
+            int limit = payload.length - payload.length / 4;
+            if (deflateBuffer.length < limit) {
+                deflateBuffer = new byte[limit];
+            }
+            deflater.reset();
+            deflater.setInput(payload);
+            deflater.finish();
+            int length = deflater.deflate(deflateBuffer, 0, limit);
+            boolean shrunk = deflater.finished() && length < limit;
+            deflateNanos += System.nanoTime() - start;
+
+            if (!shrunk) {
+                backoff = backoff == 0 ? 1 : Math.min(backoff * 2, MAX_BACKOFF);
+                skipRemaining = backoff;
+                return null;
+            }
+            backoff = 0;
+            payloadsCompressed++;
+            sentBytesSaved += payload.length - length;
+            return Arrays.copyOf(deflateBuffer, length);
+        }
+    }
+
+    /**
+     * Restores a received payload that was sent compressed
+     * @param inflatedLength The length from the {@link #LENGTH_ATTRIBUTE} of the message
+     */
+    public byte[] decompress(byte[] payload, int inflatedLength) throws DataFormatException {
+        if (inflatedLength < 0 || inflatedLength > MessageFraming.MAX_FRAME_SIZE) {
+            throw new DataFormatException("Invalid inflated length: " + inflatedLength);
+        }
+        synchronized (inflater) {
+            long start = System.nanoTime();
+            byte[] inflated = new byte[inflatedLength];
+            inflater.reset();
+            inflater.setInput(payload);
+            int length = 0;
+            while (length < inflatedLength && !inflater.finished()) {
+                int n = inflater.inflate(inflated, length, inflatedLength - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != inflatedLength || !inflater.finished()) {
+                throw new DataFormatException("Compressed payload does not match its length " + inflatedLength);
+            }
+            inflateNanos += System.nanoTime() - start;
+            payloadsInflated++;
+            countReceived(payload.length, inflatedLength, true);
+            return inflated;
+        }
+    }
+
+    /**
+     * Counts a received payload without inflating it, e.g. one that is
+     * forwarded to a session which inflates it itself
+     * @param inflatedLength The uncompressed length, or -1 if the payload was not compressed
+     */
+    public void received(int payloadLength, int inflatedLength) {
+        synchronized (inflater) {
+            countReceived(payloadLength, inflatedLength < 0 ? payloadLength : inflatedLength, inflatedLength >= 0);
+        }
+    }
+
+    private void countReceived(int payloadLength, int inflatedLength, boolean compressed) {
+        payloadsReceived++;
+        if (compressed) {
+            payloadsReceivedCompressed++;
+        }
+        receivedBytes += inflatedLength;
+        receivedBytesSaved += inflatedLength - payloadLength;
+    }
+
+    /**
+     * Reads the uncompressed length of a DATA message
+     * @return The length, or -1 if the payload was sent as it is
+     */
+    public static int inflatedLength(Message message) {
+        String length = message.getAttribute(LENGTH_ATTRIBUTE);
+        return length == null ? -1 : Integer.parseInt(length);
+    }
+
+    public long getPayloadsSent() {
+        return payloadsSent;
+    }
+
+    public long getPayloadsCompressed() {
+        return payloadsCompressed;
+    }
+
+    /**
+     * Returns the uncompressed length of all payloads sent
+     */
+    public long getSentBytes() {
+        return sentBytes;
+    }
+
+    /**
+     * Returns how many bytes compression took off the payloads sent
+     */
+    public long getSentBytesSaved() {
+        return sentBytesSaved;
+    }
+
+    public long getDeflateNanos() {
+        return deflateNanos;
+    }
+
+    public long getPayloadsReceived() {
+        return payloadsReceived;
+    }
+
+    public long getPayloadsReceivedCompressed() {
+        return payloadsReceivedCompressed;
+    }
+
+    public long getPayloadsInflated() {
+        return payloadsInflated;
+    }
+
+    /**
+     * Returns the uncompressed length of all payloads received
+     */
+    public long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    /**
+     * Returns how many bytes compression took off the payloads received
+     */
+    public long getReceivedBytesSaved() {
+        return receivedBytesSaved;
+    }
+
+    public long getInflateNanos() {
+        return inflateNanos;
+    }
+
+    /**
+     * Summarizes the ratio and the time spent in both directions
+     */
+    public String report() {
+        return String.format("sent %d of %d payloads compressed, %s in %.1f ms; "
+                + "received %d of %d compressed, %s, %.1f ms inflating",
+                payloadsCompressed, payloadsSent, ratio(sentBytes, sentBytesSaved), deflateNanos / 1e6,
+                payloadsReceivedCompressed, payloadsReceived, ratio(receivedBytes, receivedBytesSaved), inflateNanos / 1e6);
+    }
+
+    private static String ratio(long bytes, long saved) {
+        return String.format("%d -> %d bytes (%.0f%%)", bytes, bytes - saved,
+                bytes == 0 ? 100.0 : 100.0 * (bytes - saved) / bytes);
+    }
+}
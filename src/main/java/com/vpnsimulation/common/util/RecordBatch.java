@@ -0,0 +1,75 @@
+package com.vpnsimulation.common.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Layout of BATCH records, which carry several short messages from one
+ * client to another in a single encrypted record.
+ *
+ * A sender that coalesces holds its short messages to a destination for up
+ * to a linger time, or until they fill a record, and then seals them
+ * together: one envelope, one IV and tag, one frame and one write for all of
+ * them. The plaintext is the messages one after the other, each preceded by
+ * its length in two bytes. The server forwards a BATCH like a DATA record,
+ * re-sealing it once for the destination, which opens it once and hands each
+ * message to its handler on its own.
+ */
+public final class RecordBatch {
+
+    /** Record plaintext a sender fills before it sends the batch without waiting */
+    public static final int DEFAULT_RECORD_SIZE = 1024;
+
+    /** How long a sender holds a message for others to join it */
+    public static final long DEFAULT_LINGER_MICROS = 200;
+
+    /** Largest record plaintext, as in TLS */
+    public static final int MAX_RECORD_SIZE = 16 * 1024;
+
+    /** Bytes in front of every message in a batch */
+    public static final int LENGTH_PREFIX = 2;
+
+    private RecordBatch() {
+    }
+
+    /**
+     * Lays out messages as the plaintext of one record
+     */
+    public static byte[] pack(List<byte[]> messages) {
+        int length = 0;
+        for (byte[] message : messages) {
+            length += LENGTH_PREFIX + message.length;
+        }
+        ByteBuffer record = ByteBuffer.allocate(length);
+        for (byte[] message : messages) {
+            record.putShort((short) message.length);
+            record.put(message);
+        }
+        return record.array();
+    }
+
+    /**
+     * Splits the plaintext of a record into its messages
+     * @throws IOException If a length runs past the end of the record
+     */
+    public static List<byte[]> unpack(byte[] record) throws IOException {
+        List<byte[]> messages = new ArrayList<>();
+        int offset = 0;
+        while (offset < record.length) {
+            if (record.length - offset < LENGTH_PREFIX) {
+                throw new IOException("Truncated batch record");
+            }
+            int length = ((record[offset] & 0xFF) << 8) | (record[offset + 1] & 0xFF);
+            offset += LENGTH_PREFIX;
+            if (length > record.length - offset) {
+                throw new IOException("Truncated batch record");
+            }
+            messages.add(Arrays.copyOfRange(record, offset, offset + length));
+            offset += length;
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,63 @@
+package com.vpnsimulation.common.util;
+
+/**
+ * Attributes of STREAM_CHUNK messages, which carry a byte stream from one
+ * client to another in encrypted chunks of a fixed size.
+ *
+ * Every chunk names its stream and where in the stream it starts; the
+ * receiver opens the stream on the first chunk it sees, fails it if a chunk
+ * went missing, and closes it on the one marked as the end, which may be
+ * empty. The server forwards chunks one by one like DATA records. The
+ * attributes are part of the header each chunk's record is bound to, so the
+ * receiver only acts on them once the chunk has opened.
+ *
+ * Streams are flow controlled by credit. A sender may have
+ * {@value #INITIAL_CREDIT} bytes of a stream that the receiver has not
+ * written yet; the receiver returns credit in STREAM_CREDIT messages as it
+ * writes, so a stream never has more than that plus one chunk queued on the
+ * way, and a slow receiver slows down only the streams it receives. A
+ * STREAM_CREDIT with an error tells the sender to give up on the stream.
+ */
+public final class StreamChunks {
+
+    /** Attribute with the stream ID, unique among the streams of one sender */
+    public static final String STREAM_ATTRIBUTE = "stream";
+
+    /** Attribute with the number of bytes of the stream sent before this chunk */
+    public static final String OFFSET_ATTRIBUTE = "streamOffset";
+
+    /** Attribute marking the last chunk of a stream */
+    public static final String END_ATTRIBUTE = "streamEnd";
+
+    /** Attribute on the last chunk of a stream the sender could not finish, with the reason */
+    public static final String ERROR_ATTRIBUTE = "streamError";
+
+    /** STREAM_CREDIT attribute with the number of bytes the sender may send on top of what it was granted */
+    public static final String CREDIT_ATTRIBUTE = "streamCredit";
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /** Bytes a stream may send before the receiver returns any credit */
+    public static final int INITIAL_CREDIT = 256 * 1024;
+
+    /** How long a sender waits for credit before it gives up on the stream */
+    public static final long CREDIT_TIMEOUT_MILLIS = 30_000;
+
+    /** Leaves room in a frame for the record overhead and the attributes */
+    public static final int MAX_CHUNK_SIZE = MessageFraming.MAX_FRAME_SIZE / 2;
+
+    private StreamChunks() {
+    }
+
+    /**
+     * Copies the stream attributes of a chunk or credit to the message that forwards it
+     */
+    public static void copyAttributes(Message message, Message forwardMessage) {
+        for (String attribute : new String[] { STREAM_ATTRIBUTE, OFFSET_ATTRIBUTE, END_ATTRIBUTE, ERROR_ATTRIBUTE,
+                CREDIT_ATTRIBUTE }) {
+            if (message.getAttribute(attribute) != null) {
+                forwardMessage.setAttribute(attribute, message.getAttribute(attribute));
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.vpnsimulation.common.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timing wheel: one thread and a ring of buckets for any number of
+ * timeouts, as in Varghese and Lauck's scheme 6.
+ *
+ * A timeout goes into the bucket its deadline tick hashes to, with the
+ * number of full turns of the wheel still to wait. Every tick the thread
+ * walks one bucket, runs what is due and counts down the rest. Scheduling
+ * and cancelling are constant time, and there is no task or heap entry per
+ * timeout in a scheduler. Deadlines are rounded up to the next tick, and a
+ * timeout fires up to a tick late.
+ *
+ * Tasks run on the wheel's thread and must be short; anything that may block
+ * belongs on another executor.
+ */
+public final class TimingWheel {
+
+    /**
+     * A scheduled task, which can be cancelled until it runs
+     */
+    public static final class Timeout {
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private long remainingRounds;
+        private int bucket;
+        // Neighbours in the bucket; only linked while scheduled
+        private Timeout previous;
+        private Timeout next;
+        private boolean scheduled;
+
+        private Timeout(TimingWheel wheel, Runnable task) {
+            this.wheel = wheel;
+            this.task = task;
+        }
+
+        /**
+         * Keeps the task from running
+         * @return false if it already ran or was cancelled
+         */
+        public boolean cancel() {
+            synchronized (wheel) {
+                if (!scheduled) {
+                    return false;
+                }
+                wheel.unlink(this);
+                return true;
+            }
+        }
+    }
+
+    private final String threadName;
+    private final long tickNanos;
+    private final int mask;
+    private final Timeout[] buckets;
+    private long startNanos;
+    // Index of the next tick to process
+    private long tick;
+    private int size;
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * @param tickMillis Resolution of the timeouts
+     * @param wheelSize  Number of buckets, a power of two. Timeouts up to
+     *                   tickMillis * wheelSize ahead take a single turn.
+     */
+    public TimingWheel(String threadName, long tickMillis, int wheelSize) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("Tick must be positive");
+        }
+        if (wheelSize <= 0 || Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Wheel size must be a power of two");
+        }
+        this.threadName = threadName;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.mask = wheelSize - 1;
+        this.buckets = new Timeout[wheelSize];
+    }
+
+    /**
+     * Starts the wheel's thread
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        startNanos = System.nanoTime();
+        tick = 0;
+        running = true;
+        thread = new Thread(this::run, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the thread; timeouts still scheduled never run
+     */
+    public void stop() {
+        running = false;
+        Thread wheelThread;
+        synchronized (this) {
+            wheelThread = thread;
+            thread = null;
+        }
+        if (wheelThread != null) {
+            wheelThread.interrupt();
+        }
+    }
+
+    /**
+     * Runs a task once the delay has passed
+     */
+    public synchronized Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(this, task);
+        long elapsed = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        long deadlineTick = Math.max(tick, (elapsed + tickNanos - 1) / tickNanos);
+        timeout.remainingRounds = (deadlineTick - tick) / buckets.length;
+        timeout.bucket = (int) (deadlineTick & mask);
+        timeout.next = buckets[timeout.bucket];
+        if (timeout.next != null) {
+            timeout.next.previous = timeout;
+        }
+        buckets[timeout.bucket] = timeout;
+        timeout.scheduled = true;
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Returns the number of scheduled timeouts
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.scheduled = false;
+        size--;
+    }
+
+    private void run() {
+        List<Timeout> due = new ArrayList<>();
+        while (running) {
+            long wait;
+            synchronized (this) {
+                wait = startNanos + tick * tickNanos - System.nanoTime();
+            }
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+            }
+
+            synchronized (this) {
+                Timeout timeout = buckets[(int) (tick & mask)];
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    if (timeout.remainingRounds == 0) {
+                        unlink(timeout);
+                        due.add(timeout);
+                    } else {
+                        timeout.remainingRounds--;
+                    }
+                    timeout = next;
+                }
+                tick++;
+            }
+            for (Timeout timeout : due) {
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Error in timer task: " + e.getMessage());
+                }
+            }
+            due.clear();
+        }
+    }
+}
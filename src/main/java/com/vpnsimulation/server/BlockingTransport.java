@@ -0,0 +1,141 @@
+package com.vpnsimulation.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.vpnsimulation.common.util.Message;
+import com.vpnsimulation.common.util.MessageCodec;
+import com.vpnsimulation.common.util.MessageFraming;
+
+/**
+ * Thread-per-client transport: one task blocks reading frames from the socket
+ * and hands every message to the ClientHandler.
+ *
+ * Outgoing frames go through an {@link OutboundQueue}. A writer task is only
+ * scheduled while frames are pending, and it writes everything queued so far
+ * with a single flush.
+ */
+class BlockingTransport implements SessionTransport, Runnable {
+
+    private final Socket socket;
+    private final DataInputStream inputStream;
+    private final DataOutputStream outputStream;
+    private final Executor writerExecutor;
+    private final OutboundQueue outboundQueue;
+    private final List<ByteBuffer> writeBatch;
+    private ClientHandler handler;
+    private volatile MessageCodec codec = MessageCodec.SERIALIZED;
+    // Only used by the thread reading from the client
+    private MessageCodec receiveCodec = MessageCodec.SERIALIZED;
+
+    BlockingTransport(Socket socket, Executor writerExecutor, OutboundQueue outboundQueue) throws IOException {
+        this.socket = socket;
+        this.inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.writerExecutor = writerExecutor;
+        this.outboundQueue = outboundQueue;
+        this.writeBatch = new ArrayList<>();
+    }
+
+    void setHandler(ClientHandler handler) {
+        this.handler = handler;
+        outboundQueue.setOverflowListener(handler::onSlowConsumer);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (handler.isConnected()) {
+                Message message = MessageFraming.readFrame(inputStream, receiveCodec);
+                handler.onMessage(message);
+            }
+        } catch (IOException e) {
+            // Client disconnected
+        } catch (Exception e) {
+            System.err.println("Error in client handler: " + e.getMessage());
+        } finally {
+            handler.disconnect();
+        }
+    }
+
+    @Override
+    public void send(Message message) throws IOException {
+        if (socket.isClosed()) {
+            throw new IOException("Connection closed");
+        }
+
+        ByteBuffer frame = codec.encodeFrame(message);
+        // Reader threads may wait for a slow destination, see VPNServer.SlowConsumerPolicy
+        if (outboundQueue.offer(frame, OutboundQueue.isDroppable(message), true)) {
+            try {
+                writerExecutor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                throw new IOException("Server is shutting down", e);
+            }
+        }
+    }
+
+    /**
+     * Writes all queued frames with one flush per batch, until the queue is empty
+     */
+    private void drain() {
+        try {
+            do {
+                outboundQueue.drainTo(writeBatch);
+                long bytes = 0;
+                for (ByteBuffer frame : writeBatch) {
+                    outputStream.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+                    bytes += frame.remaining();
+                }
+                outputStream.flush();
+                outboundQueue.release(writeBatch.size());
+                outboundQueue.recordBatch(writeBatch.size(), bytes);
+                writeBatch.clear();
+            } while (outboundQueue.finishDrain());
+        } catch (IOException e) {
+            // The drain is never finished, so no further writer is scheduled for the dead socket
+            writeBatch.clear();
+            outboundQueue.close();
+            handler.disconnect();
+        }
+    }
+
+    @Override
+    public void setCodec(MessageCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public void setReceiveCodec(MessageCodec codec) {
+        this.receiveCodec = codec;
+    }
+
+    @Override
+    public void close() {
+        outboundQueue.close();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing client connection: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return socket.getInetAddress().getHostAddress();
+    }
+
+    @Override
+    public int getQueuedFrames() {
+        return outboundQueue.size();
+    }
+}
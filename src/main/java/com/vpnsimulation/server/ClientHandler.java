@@ -0,0 +1,977 @@
+package com.vpnsimulation.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.vpnsimulation.common.encryption.AESEncryption;
+import com.vpnsimulation.common.encryption.CipherSuite;
+import com.vpnsimulation.common.encryption.KeyExchange;
+import com.vpnsimulation.common.encryption.KeyExchangeAlgorithm;
+import com.vpnsimulation.common.encryption.ReplayedRecordException;
+import com.vpnsimulation.common.encryption.SessionResumption;
+import com.vpnsimulation.common.util.HandshakeMode;
+import com.vpnsimulation.common.util.Message;
+import com.vpnsimulation.common.util.MessageCodec;
+import com.vpnsimulation.common.util.PayloadCompressor;
+import com.vpnsimulation.common.util.StreamChunks;
+import com.vpnsimulation.common.util.TimingWheel;
+
+/**
+ * Server side of a client session. Drives the handshake and processes
+ * messages as they arrive from the transport, so the same handler works for
+ * the blocking and the non-blocking transport.
+ *
+ * A new connection costs no more than this object until its HANDSHAKE_INIT
+ * is admitted. While many handshakes are pending, the client first has to
+ * echo a cookie from a COOKIE_CHALLENGE; only then is the connection logged
+ * to the database and does any key work start.
+ *
+ * Until the session is established its messages are handed to the server's
+ * handshake pool, so public-key work never runs on the threads that carry
+ * the data of established sessions. Once the handshake is done and nothing
+ * is left in the handshake backlog, messages are processed directly on the
+ * transport's thread.
+ *
+ * Each session has one entry on the server's timing wheel: first the
+ * deadline of its handshake, then the next point at which it has been
+ * silent for a keepalive interval or the idle timeout. Receiving a message
+ * only records the time, and the timer works out when it fires whether to
+ * ping, evict or wait longer, so a busy session never touches the wheel.
+ */
+class ClientHandler {
+
+    /**
+     * Handshake progress of the session
+     */
+    private enum State {
+        AWAIT_HANDSHAKE_INIT,
+        AWAIT_CERTIFICATE,
+        AWAIT_KEY_EXCHANGE,
+        ESTABLISHED
+    }
+
+    private final VPNServer server;
+    private final String clientId;
+    private String routingAddress;
+    private final SessionTransport transport;
+    // Assigned when the handshake is admitted, -1 until the connection is logged
+    private volatile int connectionId = -1;
+    private volatile boolean connected;
+    private State state;
+    private final AESEncryption aesEncryption;
+    private CipherSuite cipherSuite = CipherSuite.AES_256_GCM;
+    // Set if the session negotiated payload compression
+    private PayloadCompressor compressor;
+    private KeyExchange keyExchange;
+    // Last destination this session sent to, so a stream of messages skips the route lookup.
+    // Only used by the thread delivering this session's messages.
+    private String cachedRouteAddress;
+    private ClientHandler cachedRoute;
+    // Messages waiting for the handshake pool, in arrival order
+    private final ArrayDeque<Message> handshakeBacklog = new ArrayDeque<>();
+    private boolean handshakeTaskQueued;
+    private long handshakeStartNanos;
+    // Set once the handshake pool hands the established session to the transport's threads
+    private volatile boolean dataPlane;
+    // Admission state, only used by the transport's thread
+    private boolean admitted;
+    private boolean challenged;
+    // Whether this session counts as a pending handshake on the server
+    private boolean handshakePending;
+    // When anything last arrived from the client, for keepalives and the idle timeout
+    private volatile long lastReceivedNanos = System.nanoTime();
+    // The session's entry on the server's timing wheel
+    private volatile TimingWheel.Timeout sessionTimer;
+    // Metrics updated per record, looked up once
+    private final LongAdder compressionBytesSaved;
+    private final LongAdder replayedRecords;
+
+    ClientHandler(VPNServer server, String clientId, SessionTransport transport) {
+        this.server = server;
+        this.clientId = clientId;
+        this.transport = transport;
+        this.connected = true;
+        this.state = State.AWAIT_HANDSHAKE_INIT;
+        this.aesEncryption = new AESEncryption();
+        this.aesEncryption.setRekeyLimits(server.getRekeyBytes(), server.getRekeyRecords());
+        this.compressionBytesSaved = server.getMetrics().counter("compression.bytes.saved");
+        this.replayedRecords = server.getMetrics().counter("records.replayed");
+    }
+
+    /**
+     * Handles a message received from the client. Messages of one session are
+     * always delivered by a single thread at a time.
+     */
+    void onMessage(Message message) {
+        if (!connected) {
+            return;
+        }
+        lastReceivedNanos = System.nanoTime();
+
+        if (!dataPlane) {
+            if (!admitted && !admit(message)) {
+                return;
+            }
+            if (queueHandshakeMessage(message)) {
+                return;
+            }
+        }
+        processEstablished(message);
+    }
+
+    /**
+     * Decides on the transport's thread whether a HANDSHAKE_INIT may start the
+     * handshake. While the server has many pending handshakes it answers with a
+     * cookie challenge first, which costs one HMAC and keeps no state.
+     * @return false if the message was answered with a challenge or the client was dropped
+     */
+    private boolean admit(Message message) {
+        if (message.getType() != Message.MessageType.HANDSHAKE_INIT) {
+            System.err.println("Client " + clientId + " sent " + message.getType() + " before HANDSHAKE_INIT");
+            disconnect();
+            return false;
+        }
+
+        HandshakeCookies cookies = server.getHandshakeCookies();
+        String cookie = message.getAttribute(HandshakeMode.COOKIE_ATTRIBUTE);
+        if (cookie != null) {
+            if (!cookies.verify(cookie, transport.getRemoteAddress())) {
+                server.getMetrics().counter("cookies.rejected").increment();
+                System.err.println("Client " + clientId + " sent an invalid or expired cookie");
+                disconnect();
+                return false;
+            }
+            server.getMetrics().counter("cookies.accepted").increment();
+            transport.addressValidated();
+        } else if (transport.requiresAddressValidation() || server.isCookieRequired()) {
+            if (challenged) {
+                // A client that ignores the challenge gets no second one
+                disconnect();
+                return false;
+            }
+            challenged = true;
+            try {
+                transport.send(new Message(Message.MessageType.COOKIE_CHALLENGE, "server",
+                        cookies.issue(transport.getRemoteAddress())));
+                server.getMetrics().counter("cookies.challenged").increment();
+            } catch (IOException e) {
+                disconnect();
+            }
+            return false;
+        }
+
+        synchronized (this) {
+            if (!connected) {
+                return false;
+            }
+            handshakePending = true;
+        }
+        server.handshakeStarted();
+        admitted = true;
+        return true;
+    }
+
+    /**
+     * Stops counting this session as a pending handshake, once
+     */
+    private void endPendingHandshake() {
+        synchronized (this) {
+            if (!handshakePending) {
+                return;
+            }
+            handshakePending = false;
+        }
+        server.handshakeEnded();
+    }
+
+    /**
+     * Adds a message to the handshake backlog and makes sure a handshake task
+     * will handle it. Disconnects the client if the handshake pool is full.
+     * @return false if the handshake pool handed the session over to the
+     *         transport's thread meanwhile, and the caller must process the
+     *         message itself. The backlog is empty then, and no handshake task
+     *         runs, so the order of the session's messages is kept.
+     */
+    private boolean queueHandshakeMessage(Message message) {
+        if (message.getType() == Message.MessageType.HANDSHAKE_INIT) {
+            // The client sends in the selected codec as soon as it has the response
+            transport.setReceiveCodec(MessageCodec.select(message.getAttribute(MessageCodec.OFFER_ATTRIBUTE)));
+        }
+        synchronized (handshakeBacklog) {
+            // Checked under the lock the handshake task switches over with
+            if (dataPlane) {
+                return false;
+            }
+            if (handshakeStartNanos == 0) {
+                handshakeStartNanos = System.nanoTime();
+            }
+            handshakeBacklog.add(message);
+            if (handshakeTaskQueued) {
+                return true;
+            }
+            handshakeTaskQueued = true;
+        }
+
+        if (!server.submitHandshakeTask(this::runHandshakeTask)) {
+            System.err.println("Handshake queue full, rejecting client " + clientId);
+            disconnect();
+        }
+        return true;
+    }
+
+    /**
+     * Runs on the handshake pool and handles the backlog in order. Messages that
+     * arrive after the handshake completed but before the backlog ran empty are
+     * processed here as well, so the order of a session's messages is kept. The
+     * switch to the transport's thread happens under the backlog lock, only once
+     * the backlog is drained.
+     */
+    private void runHandshakeTask() {
+        while (true) {
+            Message message;
+            synchronized (handshakeBacklog) {
+                message = handshakeBacklog.poll();
+                if (message == null) {
+                    handshakeTaskQueued = false;
+                    dataPlane = state == State.ESTABLISHED;
+                }
+            }
+            if (message == null) {
+                if (dataPlane) {
+                    startIdleTimer();
+                }
+                return;
+            }
+            if (!connected) {
+                continue;
+            }
+
+            if (state != State.ESTABLISHED) {
+                try {
+                    handleHandshakeMessage(message);
+                } catch (Exception e) {
+                    System.err.println("Handshake failed with client " + clientId + ": " + e.getMessage());
+                    disconnect();
+                }
+            } else {
+                processEstablished(message);
+            }
+        }
+    }
+
+    /**
+     * Handles a message of an established session
+     */
+    private void processEstablished(Message message) {
+        if (message.getType() == Message.MessageType.PONG) {
+            // Only tells that the client is there, which onMessage already noted
+            return;
+        }
+        try {
+            if (isClientRecord(message.getType()) && message.getPayload() != null && hasDestination(message)) {
+                // Client-to-client traffic never becomes a String on the server
+                forwardRecord(message);
+                return;
+            }
+
+            // Decrypt the message content
+            message.setContent(decryptContent(message));
+            message.setPayload(null);
+
+            // Process the message
+            processMessage(message);
+        } catch (ReplayedRecordException e) {
+            recordReplayed(e);
+        } catch (Exception e) {
+            System.err.println("Error processing message from client " + clientId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Drops a record the client already sent and logs it as a security event.
+     * The session stays up: a replayed record is as likely a duplicate from
+     * the network as an attack, and either way it was never opened.
+     */
+    private void recordReplayed(ReplayedRecordException e) {
+        replayedRecords.increment();
+        System.err.println("Dropped replayed record from client " + clientId + ": " + e.getMessage());
+        server.getDatabaseLogger().logSecurityEvent(connectionId, "REPLAY",
+                "Client " + routingAddress + ": " + e.getMessage(), "WARNING");
+    }
+
+    /**
+     * Performs the next step of the handshake with the client
+     */
+    private void handleHandshakeMessage(Message message) throws Exception {
+        switch (state) {
+            case AWAIT_HANDSHAKE_INIT -> {
+                // Step 1: Receive handshake init from client
+                expectType(message, Message.MessageType.HANDSHAKE_INIT);
+                System.out.println("Received handshake init from client " + clientId);
+                logConnection();
+
+                // Other clients address this one by the ID it announces
+                routingAddress = message.getSender() != null ? message.getSender() : clientId;
+
+                MessageCodec codec = MessageCodec.select(message.getAttribute(MessageCodec.OFFER_ATTRIBUTE));
+                cipherSuite = server.selectCipherSuite(message.getAttribute(CipherSuite.OFFER_ATTRIBUTE));
+                if (server.isCompressionEnabled()
+                        && PayloadCompressor.DEFLATE.equals(message.getAttribute(PayloadCompressor.OFFER_ATTRIBUTE))) {
+                    compressor = new PayloadCompressor();
+                }
+                if (message.getAttribute(SessionResumption.TICKET_ATTRIBUTE) != null && resume(message, codec)) {
+                    return;
+                }
+                if (message.getAttribute(HandshakeMode.KEY_SHARE_ATTRIBUTE) != null) {
+                    completeOneRoundTripHandshake(message, codec);
+                    return;
+                }
+                KeyExchangeAlgorithm keyExchangeAlgorithm = KeyExchangeAlgorithm.select(
+                        message.getAttribute(KeyExchangeAlgorithm.OFFER_ATTRIBUTE));
+                keyExchange = keyExchangeAlgorithm.create();
+
+                // Step 2: Send handshake response with server certificate, the selected codec, key exchange and cipher
+                String encodedCertificate = server.getCertificateManager().getEncodedCertificate();
+                Message handshakeResponse = new Message(
+                        Message.MessageType.HANDSHAKE_RESPONSE,
+                        "server",
+                        encodedCertificate);
+                handshakeResponse.setAttribute(MessageCodec.SELECTED_ATTRIBUTE, codec.name());
+                handshakeResponse.setAttribute(KeyExchangeAlgorithm.SELECTED_ATTRIBUTE, keyExchangeAlgorithm.name());
+                handshakeResponse.setAttribute(CipherSuite.SELECTED_ATTRIBUTE, cipherSuite.name());
+                selectCompression(handshakeResponse);
+                transport.send(handshakeResponse);
+                transport.setCodec(codec);
+                System.out.println("Sent handshake response to client " + clientId + " (" + codec + " codec, " +
+                        keyExchangeAlgorithm + " key exchange, " + cipherSuite + ")");
+                state = State.AWAIT_CERTIFICATE;
+            }
+            case AWAIT_CERTIFICATE -> {
+                // Step 3: Receive client certificate
+                expectType(message, Message.MessageType.CERTIFICATE_EXCHANGE);
+                verifyClientCertificate(message.getContent());
+                System.out.println("Received client certificate from " + clientId);
+
+                // Step 4: Initialize the key exchange
+                keyExchange.init();
+                transport.send(new Message(
+                        Message.MessageType.KEY_EXCHANGE,
+                        "server",
+                        keyExchange.getPublicKeyEncoded()));
+                System.out.println("Sent server key exchange to client " + clientId);
+                state = State.AWAIT_KEY_EXCHANGE;
+            }
+            case AWAIT_KEY_EXCHANGE -> {
+                // Step 5: Receive client's key exchange public key
+                expectType(message, Message.MessageType.KEY_EXCHANGE);
+                System.out.println("Received client key exchange from " + clientId);
+
+                // Generate shared secret and initialize AES encryption with it
+                establish(keyExchange.generateSharedSecret(message.getContent()));
+            }
+            default -> throw new IllegalStateException("Unexpected handshake state " + state);
+        }
+    }
+
+    /**
+     * Answers a HANDSHAKE_INIT that already carries the client certificate and
+     * key share with a single response holding the server's, see {@link HandshakeMode#ONE_RTT}
+     */
+    private void completeOneRoundTripHandshake(Message message, MessageCodec codec) throws Exception {
+        if (message.getAttribute(HandshakeMode.CERTIFICATE_ATTRIBUTE) == null) {
+            throw new Exception("One-round-trip handshake without client certificate");
+        }
+        verifyClientCertificate(message.getAttribute(HandshakeMode.CERTIFICATE_ATTRIBUTE));
+        System.out.println("Received client certificate and key exchange from " + clientId);
+
+        // The client already picked the algorithm of its key share; clients that don't say used DH
+        KeyExchangeAlgorithm keyExchangeAlgorithm = KeyExchangeAlgorithm.select(
+                message.getAttribute(KeyExchangeAlgorithm.SELECTED_ATTRIBUTE));
+        keyExchange = keyExchangeAlgorithm.create();
+        keyExchange.init();
+        byte[] sharedSecret = keyExchange.generateSharedSecret(message.getAttribute(HandshakeMode.KEY_SHARE_ATTRIBUTE));
+
+        Message handshakeResponse = new Message(
+                Message.MessageType.HANDSHAKE_RESPONSE,
+                "server",
+                server.getCertificateManager().getEncodedCertificate());
+        handshakeResponse.setAttribute(MessageCodec.SELECTED_ATTRIBUTE, codec.name());
+        handshakeResponse.setAttribute(HandshakeMode.KEY_SHARE_ATTRIBUTE, keyExchange.getPublicKeyEncoded());
+        handshakeResponse.setAttribute(KeyExchangeAlgorithm.SELECTED_ATTRIBUTE, keyExchangeAlgorithm.name());
+        handshakeResponse.setAttribute(CipherSuite.SELECTED_ATTRIBUTE, cipherSuite.name());
+        selectCompression(handshakeResponse);
+        transport.send(handshakeResponse);
+        transport.setCodec(codec);
+        System.out.println("Sent one-round-trip handshake response to client " + clientId + " (" + codec + " codec, " +
+                cipherSuite + ")");
+
+        // Only become routable after the response is queued, so it reaches the client first
+        establish(sharedSecret);
+    }
+
+    /**
+     * Logs the connection to the database once its handshake has been admitted
+     */
+    private void logConnection() throws SQLException {
+        connectionId = server.getDatabaseManager().logConnection(clientId, transport.getRemoteAddress());
+        server.getMetrics().counter("connections.logged").increment();
+        if (!connected) {
+            // Disconnected while the row was written, disconnect() could not log it
+            server.getDatabaseLogger().logDisconnection(connectionId);
+        }
+    }
+
+    /**
+     * Ends the handshake if the client certificate does not verify. Certificates
+     * of returning clients are found in the cache of the certificate manager.
+     */
+    private void verifyClientCertificate(String encodedCertificate) throws Exception {
+        if (server.getCertificateManager().verifyCertificate(encodedCertificate)) {
+            return;
+        }
+
+        String description = "Client " + routingAddress + " presented a certificate that could not be verified";
+        server.getMetrics().counter("certificates.rejected").increment();
+        server.getDatabaseLogger().logSecurityEvent(connectionId, "INVALID_CERTIFICATE", description, "WARNING");
+        throw new Exception(description);
+    }
+
+    /**
+     * Resumes a session from the ticket in HANDSHAKE_INIT. The session key comes
+     * from the resumption secret and a nonce from each side.
+     * @return false if the ticket can't be used and the handshake continues normally
+     */
+    private boolean resume(Message message, MessageCodec codec) throws Exception {
+        byte[] clientNonce = decodeAttribute(message, SessionResumption.NONCE_ATTRIBUTE);
+        byte[] binder = decodeAttribute(message, SessionResumption.BINDER_ATTRIBUTE);
+        SessionTicketCache.Entry entry = clientNonce == null || binder == null ? null
+                : server.getSessionTicketCache().redeem(message.getAttribute(SessionResumption.TICKET_ATTRIBUTE),
+                        clientNonce, binder);
+        if (entry == null || !entry.getRoutingAddress().equals(routingAddress)) {
+            server.getMetrics().counter("tickets.rejected").increment();
+            System.out.println("Session ticket of client " + clientId + " rejected, continuing with full handshake");
+            return false;
+        }
+
+        byte[] serverNonce = SessionResumption.newNonce();
+        byte[] sessionKey = SessionResumption.deriveSessionKey(entry.getResumptionSecret(), clientNonce, serverNonce);
+
+        Message handshakeResponse = new Message(Message.MessageType.HANDSHAKE_RESPONSE, "server", null);
+        handshakeResponse.setAttribute(MessageCodec.SELECTED_ATTRIBUTE, codec.name());
+        handshakeResponse.setAttribute(SessionResumption.NONCE_ATTRIBUTE, Base64.getEncoder().encodeToString(serverNonce));
+        handshakeResponse.setAttribute(CipherSuite.SELECTED_ATTRIBUTE, cipherSuite.name());
+        selectCompression(handshakeResponse);
+        transport.send(handshakeResponse);
+        transport.setCodec(codec);
+        server.getMetrics().counter("tickets.resumed").increment();
+        System.out.println("Resumed session of client " + clientId + " from ticket (" + codec + " codec)");
+
+        // After a network flap the old connection may not have timed out yet. The binder
+        // proves this is the same client, so the new connection replaces it.
+        ClientHandler staleSession = server.findRoute(routingAddress);
+        if (staleSession != null) {
+            staleSession.disconnect();
+            // The old session may already be disconnecting on another thread and not have dropped its route yet
+            server.removeRoute(routingAddress, staleSession);
+        }
+        establish(sessionKey);
+        return true;
+    }
+
+    /**
+     * Returns the bytes of a Base64 attribute, or null if it is missing or malformed
+     */
+    private static byte[] decodeAttribute(Message message, String name) {
+        String value = message.getAttribute(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Base64.getDecoder().decode(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Confirms payload compression in the handshake response if the session uses it
+     */
+    private void selectCompression(Message handshakeResponse) {
+        if (compressor != null) {
+            handshakeResponse.setAttribute(PayloadCompressor.SELECTED_ATTRIBUTE, PayloadCompressor.DEFLATE);
+        }
+    }
+
+    /**
+     * Initializes the session key and makes the session reachable for routing
+     */
+    private void establish(byte[] sharedSecret) throws Exception {
+        aesEncryption.initFromSharedSecret(sharedSecret, AESEncryption.Role.SERVER, cipherSuite);
+        if (!server.addRoute(routingAddress, this)) {
+            throw new Exception("Client ID " + routingAddress + " is already connected");
+        }
+        state = State.ESTABLISHED;
+        endPendingHandshake();
+        server.getHandshakeDuration().record((System.nanoTime() - handshakeStartNanos) / 1000);
+        server.getMetrics().counter("cipher." + cipherSuite.name().toLowerCase() + ".sessions").increment();
+        if (compressor != null) {
+            server.getMetrics().counter("compression.sessions").increment();
+        }
+
+        System.out.println("Handshake completed with client " + clientId);
+        issueSessionTicket(sharedSecret);
+    }
+
+    /**
+     * Sends the client a ticket to resume this session with after a reconnect
+     */
+    private void issueSessionTicket(byte[] sharedSecret) {
+        try {
+            SessionTicketCache ticketCache = server.getSessionTicketCache();
+            String ticket = ticketCache.issue(routingAddress, SessionResumption.deriveResumptionSecret(sharedSecret));
+            // Sealed, so only the client holding the session key learns the ticket
+            Message ticketMessage = new Message(Message.MessageType.SESSION_TICKET, "server", null);
+            ticketMessage.setAttribute(SessionResumption.LIFETIME_ATTRIBUTE,
+                    String.valueOf(ticketCache.getLifetimeMillis() / 1000));
+            ticketMessage.setPayload(aesEncryption.encrypt(ticket.getBytes(StandardCharsets.US_ASCII),
+                    ticketMessage.getAssociatedData()));
+            transport.send(ticketMessage);
+            server.getMetrics().counter("tickets.issued").increment();
+        } catch (GeneralSecurityException | IOException e) {
+            // The session works without a ticket, the next connect is just a full handshake
+            System.err.println("Error issuing session ticket to client " + clientId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decrypts the content of a message, whether it arrived as raw payload or
+     * as Base64 content from an older client
+     */
+    private String decryptContent(Message message) throws Exception {
+        if (message.getPayload() != null) {
+            return new String(open(message), StandardCharsets.UTF_8);
+        }
+        return aesEncryption.decrypt(message.getContent());
+    }
+
+    /**
+     * Decrypts the payload of a message and inflates it if it was sent compressed.
+     * The message's header is authenticated along with the payload.
+     */
+    private byte[] open(Message message) throws Exception {
+        byte[] plaintext = aesEncryption.decrypt(message.getPayload(), message.getAssociatedData());
+        int inflatedLength = PayloadCompressor.inflatedLength(message);
+        if (inflatedLength >= 0) {
+            return inflate(plaintext, inflatedLength);
+        }
+        if (compressor != null) {
+            compressor.received(plaintext.length, -1);
+        }
+        return plaintext;
+    }
+
+    private byte[] inflate(byte[] payload, int inflatedLength) throws Exception {
+        if (compressor == null) {
+            throw new Exception("Compressed payload on a session without compression");
+        }
+        compressionBytesSaved.add(inflatedLength - payload.length);
+        return compressor.decompress(payload, inflatedLength);
+    }
+
+    private static void expectType(Message message, Message.MessageType expected) throws Exception {
+        if (message.getType() != expected) {
+            throw new Exception("Expected " + expected + ", but received " + message.getType());
+        }
+    }
+
+    /**
+     * Processes an incoming message from the client
+     */
+    private void processMessage(Message message) throws Exception {
+        System.out.println("Processing message from " + message.getSender() +
+                         " to " + message.getDestinationAddress());
+
+        switch (message.getType()) {
+            case DATA -> {
+                // Check if this is a message to be routed to another client
+                if (hasDestination(message)) {
+                    // Route the message to another client
+                    routeMessage(message);
+                } else {
+                    // Message is for the server
+                    System.out.println("Received data message for server: " + message.getContent());
+                }
+            }
+            case DISCONNECT -> {
+                System.out.println("Client " + clientId + " requested disconnect");
+                disconnect();
+            }
+            default -> {
+                System.out.println("Received message of type " + message.getType() +
+                                 " from client " + clientId);
+            }
+        }
+    }
+
+    private static boolean hasDestination(Message message) {
+        return message.getDestinationAddress() != null && !message.getDestinationAddress().isEmpty();
+    }
+
+    /**
+     * Returns whether messages of a type are records one client sends to another
+     */
+    private static boolean isClientRecord(Message.MessageType type) {
+        return type == Message.MessageType.DATA || type == Message.MessageType.BATCH
+                || type == Message.MessageType.STREAM_CHUNK || type == Message.MessageType.STREAM_CREDIT;
+    }
+
+    /**
+     * Forwards an encrypted DATA or BATCH record, stream chunk or stream credit to its destination.
+     * The record is opened under this session's key and re-sealed under the
+     * destination's key in the same array, without Base64 or String
+     * conversion. A compressed
+     * payload stays compressed unless the destination did not negotiate
+     * compression; then it is inflated and sealed in a new record. The record
+     * is bound to the header of the message it came in and re-bound to the
+     * header of the forwarded message, so that header is complete before.
+     */
+    private void forwardRecord(Message message) throws Exception {
+        String destinationClientId = message.getDestinationAddress();
+        ClientHandler destinationHandler = resolveRoute(destinationClientId);
+        if (destinationHandler == null) {
+            sendRoutingError(destinationClientId);
+            return;
+        }
+
+        Message forwardMessage = new Message(
+                message.getType(),
+                routingAddress,
+                null,
+                destinationClientId);
+        if (message.getType() != Message.MessageType.DATA) {
+            StreamChunks.copyAttributes(message, forwardMessage);
+        }
+        int plaintextLength;
+        int inflatedLength = PayloadCompressor.inflatedLength(message);
+        if (inflatedLength >= 0 && compressor == null) {
+            throw new Exception("Compressed payload on a session without compression");
+        }
+        if (inflatedLength >= 0 && destinationHandler.compressor == null) {
+            // The destination did not negotiate compression and gets the payload inflated
+            byte[] plaintext = inflate(aesEncryption.decrypt(message.getPayload(), message.getAssociatedData()),
+                    inflatedLength);
+            forwardMessage.setPayload(destinationHandler.aesEncryption.encrypt(plaintext,
+                    forwardMessage.getAssociatedData()));
+            plaintextLength = plaintext.length;
+        } else {
+            if (inflatedLength >= 0) {
+                // Passed on compressed; the destination inflates it
+                forwardMessage.setAttribute(PayloadCompressor.LENGTH_ATTRIBUTE, String.valueOf(inflatedLength));
+            }
+            byte[] record = message.getPayload();
+            plaintextLength = aesEncryption.reencrypt(record, message.getAssociatedData(),
+                    destinationHandler.aesEncryption, forwardMessage.getAssociatedData());
+            forwardMessage.setPayload(record);
+            if (compressor != null) {
+                compressor.received(plaintextLength, inflatedLength);
+            }
+            if (inflatedLength >= 0) {
+                compressionBytesSaved.add(inflatedLength - plaintextLength);
+                plaintextLength = inflatedLength;
+            }
+        }
+
+        try {
+            destinationHandler.send(forwardMessage);
+        } catch (IOException e) {
+            System.err.println("Error sending message to " + destinationClientId + ": " + e.getMessage());
+            return;
+        }
+
+        if (message.getType() == Message.MessageType.STREAM_CREDIT) {
+            // Flow control, not traffic
+            return;
+        }
+        server.getDatabaseLogger().logDataTransfer(
+                connectionId,
+                transport.getRemoteAddress(),
+                destinationHandler.getRemoteAddress(),
+                plaintextLength,
+                true,
+                message.getType().toString());
+    }
+
+    /**
+     * Routes a message whose content has already been decrypted to its destination
+     */
+    private void routeMessage(Message message) throws Exception {
+        String destinationClientId = message.getDestinationAddress();
+        ClientHandler destinationHandler = resolveRoute(destinationClientId);
+
+        System.out.println("Attempting to route message from " + message.getSender() +
+                         " to " + destinationClientId);
+
+        if (destinationHandler != null) {
+            try {
+                // Forward the content re-encrypted for the destination client
+                Message forwardMessage = new Message(
+                        Message.MessageType.DATA,
+                        routingAddress,
+                        destinationHandler.aesEncryption.encrypt(message.getContent()),
+                        destinationClientId);
+
+                // Send the message
+                destinationHandler.send(forwardMessage);
+
+                // Log the successful transfer
+                System.out.println("Message successfully routed from " + message.getSender() +
+                                 " to " + destinationClientId);
+
+                // Log the data transfer
+                server.getDatabaseLogger().logDataTransfer(
+                        connectionId,
+                        transport.getRemoteAddress(),
+                        destinationHandler.getRemoteAddress(),
+                        message.getContent().length(),
+                        true,
+                        Message.MessageType.DATA.toString());
+
+            } catch (IOException e) {
+                System.err.println("Error sending message to " + destinationClientId + ": " + e.getMessage());
+            }
+        } else {
+            sendRoutingError(destinationClientId);
+        }
+    }
+
+    /**
+     * Finds the session a destination address belongs to, reusing the previous
+     * result while the destination stays connected
+     */
+    private ClientHandler resolveRoute(String destinationClientId) {
+        ClientHandler route = cachedRoute;
+        if (route != null && route.isConnected() && destinationClientId.equals(cachedRouteAddress)) {
+            return route;
+        }
+
+        route = server.findRoute(destinationClientId);
+        cachedRouteAddress = destinationClientId;
+        cachedRoute = route;
+        return route;
+    }
+
+    /**
+     * Sends an error message back to the sender if the destination is not found
+     */
+    private void sendRoutingError(String destinationClientId) {
+        try {
+            String errorMessage = "Destination client " + destinationClientId + " not found";
+            Message errorResponse = new Message(
+                    Message.MessageType.ERROR,
+                    "server",
+                    null);
+            errorResponse.setPayload(aesEncryption.encrypt(errorMessage.getBytes(StandardCharsets.UTF_8),
+                    errorResponse.getAssociatedData()));
+            send(errorResponse);
+
+            // Log the error
+            System.err.println(errorMessage);
+            server.getDatabaseLogger().logSecurityEvent(connectionId, "ROUTING_ERROR",
+                    errorMessage, "WARNING");
+        } catch (Exception e) {
+            System.err.println("Error sending error message: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Called by the outbound queue when this client stops keeping up with the
+     * traffic sent to it. Runs on the thread of the sender that hit the limit.
+     */
+    void onSlowConsumer(VPNServer.SlowConsumerPolicy policy, int queuedFrames) {
+        String description = "Client " + routingAddress + " is not reading fast enough, " +
+                queuedFrames + " frames queued (policy " + policy + ")";
+        System.err.println(description);
+        server.getMetrics().counter("sessions.slow.consumers").increment();
+        server.getDatabaseLogger().logSecurityEvent(connectionId, "SLOW_CONSUMER", description, "WARNING");
+
+        if (policy == VPNServer.SlowConsumerPolicy.DISCONNECT) {
+            disconnect();
+        }
+    }
+
+    /**
+     * Gives the client the server's handshake timeout to become established.
+     * Called once, when the connection is accepted.
+     */
+    void startHandshakeTimer() {
+        long timeoutMillis = server.getHandshakeTimeoutMillis();
+        if (timeoutMillis > 0) {
+            sessionTimer = server.getSessionTimers().schedule(this::checkHandshake, timeoutMillis);
+        }
+    }
+
+    /**
+     * Runs on the wheel's thread at the handshake deadline
+     */
+    private void checkHandshake() {
+        if (connected && !dataPlane) {
+            server.runSessionTimeout(() -> evict("HANDSHAKE_TIMEOUT", "Client " + clientId +
+                    " did not complete its handshake within " + server.getHandshakeTimeoutMillis() + " ms"));
+        }
+    }
+
+    /**
+     * Replaces the handshake deadline with the keepalive and idle timer once
+     * the session is established
+     */
+    private void startIdleTimer() {
+        TimingWheel.Timeout handshakeTimer = sessionTimer;
+        if (handshakeTimer != null) {
+            handshakeTimer.cancel();
+        }
+        scheduleIdleCheck(0);
+    }
+
+    /**
+     * Arms the timer for the next point at which the client will have been
+     * silent for a multiple of the keepalive interval or for the idle timeout
+     * @param silentMillis How long the client has been silent now
+     */
+    private void scheduleIdleCheck(long silentMillis) {
+        long keepaliveMillis = server.getKeepaliveIntervalMillis();
+        long idleMillis = server.getIdleTimeoutMillis();
+        long delay = Long.MAX_VALUE;
+        if (keepaliveMillis > 0) {
+            delay = keepaliveMillis - silentMillis % keepaliveMillis;
+        }
+        if (idleMillis > 0) {
+            delay = Math.min(delay, Math.max(0, idleMillis - silentMillis));
+        }
+        if (delay != Long.MAX_VALUE && connected) {
+            sessionTimer = server.getSessionTimers().schedule(this::checkIdle, delay);
+        }
+    }
+
+    /**
+     * Runs on the wheel's thread: evicts the session if the client has been
+     * silent for the idle timeout, pings it if it has been silent for the
+     * keepalive interval, and arms the timer again
+     */
+    private void checkIdle() {
+        if (!connected) {
+            return;
+        }
+        long silentMillis = (System.nanoTime() - lastReceivedNanos) / 1_000_000;
+        long idleMillis = server.getIdleTimeoutMillis();
+        if (idleMillis > 0 && silentMillis >= idleMillis) {
+            server.runSessionTimeout(() -> evict("IDLE_TIMEOUT", "Client " + routingAddress +
+                    " sent nothing for " + silentMillis + " ms"));
+            return;
+        }
+        long keepaliveMillis = server.getKeepaliveIntervalMillis();
+        if (keepaliveMillis > 0 && silentMillis >= keepaliveMillis) {
+            server.runSessionTimeout(this::ping);
+        }
+        scheduleIdleCheck(silentMillis);
+    }
+
+    /**
+     * Asks the client for a sign of life. Over UDP the ping is resent until it
+     * is acknowledged, so a client that vanished fails its link as well.
+     */
+    private void ping() {
+        try {
+            transport.send(new Message(Message.MessageType.PING, "server", null));
+            server.getMetrics().counter("keepalive.pings").increment();
+        } catch (IOException e) {
+            System.err.println("Error pinging client " + clientId + ": " + e.getMessage());
+            disconnect();
+        }
+    }
+
+    /**
+     * Drops a session whose client stopped responding, through disconnect() so
+     * the connection log is closed like on any other disconnect
+     */
+    private void evict(String eventType, String description) {
+        if (!connected) {
+            return;
+        }
+        System.err.println(description + ", disconnecting");
+        server.getMetrics().counter("sessions.evicted." + eventType.toLowerCase()).increment();
+        if (connectionId >= 0) {
+            server.getDatabaseLogger().logSecurityEvent(connectionId, eventType, description, "WARNING");
+        }
+        disconnect();
+    }
+
+    /**
+     * Sends a message to this client
+     */
+    void send(Message message) throws IOException {
+        transport.send(message);
+    }
+
+    /**
+     * Disconnects the client
+     */
+    public void disconnect() {
+        synchronized (this) {
+            if (!connected) {
+                return;
+            }
+            connected = false;
+        }
+
+        endPendingHandshake();
+        TimingWheel.Timeout timer = sessionTimer;
+        if (timer != null) {
+            timer.cancel();
+        }
+
+        // Log disconnection, unless the connection never got as far as being logged
+        int loggedConnectionId = connectionId;
+        if (loggedConnectionId >= 0) {
+            server.getDatabaseLogger().logDisconnection(loggedConnectionId);
+        }
+
+        // Close the connection
+        transport.close();
+
+        // Remove from connected clients
+        server.removeClient(this);
+        if (routingAddress != null) {
+            server.removeRoute(routingAddress, this);
+        }
+
+        System.out.println("Client disconnected: " + clientId + " (key epochs: sent " +
+                aesEncryption.getEncryptEpoch() + ", received " + aesEncryption.getDecryptEpoch() + ")");
+        if (compressor != null) {
+            System.out.println("Compression of client " + clientId + ": " + compressor.report());
+        }
+    }
+
+    boolean isConnected() {
+        return connected;
+    }
+
+    String getClientId() {
+        return clientId;
+    }
+
+    String getRemoteAddress() {
+        return transport.getRemoteAddress();
+    }
+
+    /**
+     * Returns the session's record encryption, for its key epochs
+     */
+    AESEncryption getAesEncryption() {
+        return aesEncryption;
+    }
+}
@@ -0,0 +1,101 @@
+package com.vpnsimulation.server;
+
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.vpnsimulation.common.database.DatabaseManager;
+import com.vpnsimulation.common.util.Metrics;
+
+/**
+ * Writes the log rows of established sessions on a thread of its own.
+ *
+ * Forwarding a record logs a data transfer, and on the NIO and UDP
+ * transports that happens on a thread shared by many sessions; one slow
+ * disk write there would stall all of them. Callers only queue the row.
+ * Rows are written in the order they were queued, so a disconnection never
+ * lands before the transfers of its connection. When the queue is full the
+ * row is dropped and counted rather than making the caller wait.
+ *
+ * The connection row itself is still written by the caller, on the
+ * handshake pool, since its generated id is needed right away.
+ */
+class DatabaseLogger {
+
+    static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    /**
+     * A write against the database, run on the logger's thread
+     */
+    @FunctionalInterface
+    interface Write {
+        void run(DatabaseManager databaseManager) throws SQLException;
+    }
+
+    private final DatabaseManager databaseManager;
+    private final ThreadPoolExecutor writer;
+    private final LongAdder droppedRows;
+
+    DatabaseLogger(DatabaseManager databaseManager, Metrics metrics, int capacity) {
+        this.databaseManager = databaseManager;
+        this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(capacity),
+                task -> {
+                    Thread thread = new Thread(task, "vpn-database-logger");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.droppedRows = metrics.counter("database.rows.dropped");
+        metrics.gauge("database.rows.queued", () -> writer.getQueue().size());
+    }
+
+    void logDataTransfer(int connectionId, String sourceIp, String destinationIp, int dataSize,
+                         boolean isEncrypted, String packetType) {
+        submit("data transfer", database -> database.logDataTransfer(connectionId, sourceIp, destinationIp,
+                dataSize, isEncrypted, packetType));
+    }
+
+    void logSecurityEvent(int connectionId, String eventType, String description, String severity) {
+        submit(eventType.toLowerCase() + " event", database -> database.logSecurityEvent(connectionId, eventType,
+                description, severity));
+    }
+
+    void logDisconnection(int connectionId) {
+        submit("disconnection", database -> database.logDisconnection(connectionId));
+    }
+
+    /**
+     * Queues a write, or drops it if the queue is full or the logger was shut down
+     */
+    void submit(String description, Write write) {
+        try {
+            writer.execute(() -> {
+                try {
+                    write.run(databaseManager);
+                } catch (SQLException e) {
+                    System.err.println("Error logging " + description + ": " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            droppedRows.increment();
+        }
+    }
+
+    /**
+     * Returns the number of rows waiting to be written
+     */
+    int getQueuedRows() {
+        return writer.getQueue().size();
+    }
+
+    /**
+     * Stops taking rows and waits for the queued ones to be written
+     * @return false if they were not all written within the timeout
+     */
+    boolean shutdown(long timeoutMillis) throws InterruptedException {
+        writer.shutdown();
+        return writer.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+}
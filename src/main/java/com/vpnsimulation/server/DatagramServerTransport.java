@@ -0,0 +1,164 @@
+package com.vpnsimulation.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.vpnsimulation.common.util.DatagramLink;
+
+/**
+ * Serves clients over a single bound DatagramChannel. There is no accept: a
+ * session starts when the first datagram of a link arrives from an address
+ * that has none, and every later datagram from that address goes to it. One
+ * thread receives for all sessions and delivers their messages, the way an
+ * event loop does; a timer drives the retransmissions of all of them.
+ *
+ * A session is pending until its client echoed a handshake cookie, which
+ * proves it receives at its address. At most {@value #MAX_PENDING_SESSIONS}
+ * sessions are pending at a time; first datagrams from new addresses beyond
+ * that are dropped, so forged source addresses can't pin an unbounded number
+ * of sessions. The handshake timeout ends the pending ones that never answer.
+ */
+class DatagramServerTransport {
+
+    static final int MAX_PENDING_SESSIONS = 1024;
+
+    private final VPNServer server;
+    private final int port;
+    private final Map<SocketAddress, DatagramSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingSessions = new AtomicInteger();
+    private DatagramChannel channel;
+    private Thread receiveThread;
+    private ScheduledExecutorService timer;
+    private volatile boolean running;
+
+    DatagramServerTransport(VPNServer server, int port) {
+        this.server = server;
+        this.port = port;
+    }
+
+    /**
+     * Binds the channel and starts the receive thread and the timer
+     */
+    void start() throws IOException {
+        channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, DatagramLink.SOCKET_RECEIVE_BUFFER);
+        channel.bind(new InetSocketAddress(port));
+
+        running = true;
+        receiveThread = new Thread(this::receiveLoop, "vpn-datagram-receiver");
+        receiveThread.start();
+        timer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "vpn-datagram-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(this::tick, DatagramLink.TICK_MILLIS, DatagramLink.TICK_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private void receiveLoop() {
+        ByteBuffer datagram = ByteBuffer.allocate(DatagramLink.MAX_DATAGRAM_SIZE);
+        while (running) {
+            SocketAddress address;
+            try {
+                datagram.clear();
+                address = channel.receive(datagram);
+                datagram.flip();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Error receiving datagram: " + e.getMessage());
+                }
+                continue;
+            }
+
+            DatagramSession session = sessions.get(address);
+            if (session == null) {
+                if (!DatagramLink.opensLink(datagram)) {
+                    // Left over from a session that ended
+                    continue;
+                }
+                if (pendingSessions.get() >= MAX_PENDING_SESSIONS) {
+                    server.getMetrics().counter("datagram.sessions.refused").increment();
+                    continue;
+                }
+                session = open(address);
+            }
+            try {
+                session.receive(datagram);
+            } catch (IOException e) {
+                System.err.println("Dropped invalid datagram from " + address + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private DatagramSession open(SocketAddress address) {
+        pendingSessions.incrementAndGet();
+        DatagramSession session = new DatagramSession(this, address);
+        ClientHandler handler = server.createClientHandler(session);
+        session.setHandler(handler);
+        sessions.put(address, session);
+        return session;
+    }
+
+    private void tick() {
+        for (DatagramSession session : sessions.values()) {
+            session.tick();
+        }
+    }
+
+    void send(ByteBuffer datagram, SocketAddress address) throws IOException {
+        channel.send(datagram, address);
+    }
+
+    /**
+     * Called once per session, when it is validated or closed while still pending
+     */
+    void pendingSessionEnded() {
+        pendingSessions.decrementAndGet();
+    }
+
+    /**
+     * Returns the number of sessions whose clients have not echoed a cookie yet
+     */
+    int getPendingSessions() {
+        return pendingSessions.get();
+    }
+
+    /**
+     * Forgets a closed session, so that a new link from its address starts a new one
+     */
+    void remove(SocketAddress address, DatagramSession session) {
+        sessions.remove(address, session);
+    }
+
+    /**
+     * Stops receiving and closes the channel
+     */
+    void stop() {
+        running = false;
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        for (DatagramSession session : new ArrayList<>(sessions.values())) {
+            session.close();
+        }
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing datagram channel: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.vpnsimulation.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.vpnsimulation.common.util.DatagramLink;
+import com.vpnsimulation.common.util.Message;
+import com.vpnsimulation.common.util.MessageCodec;
+import com.vpnsimulation.common.util.MessageFraming;
+
+/**
+ * UDP transport for one client: a {@link DatagramLink} to its address on the
+ * server's shared channel. Frames are the same as on TCP; the link decides
+ * per message type whether they are resent until they arrive.
+ *
+ * The source address of a datagram can be forged, so a client always has to
+ * echo a cookie before its handshake starts, and until it has, the session
+ * sends at most {@value #AMPLIFICATION_LIMIT} times the bytes it received.
+ * Datagrams over that limit are not sent, and the link resends them once the
+ * client sent more. Without both, a forged HANDSHAKE_INIT would have the
+ * server send its certificate to the victim, many times the init's size.
+ * The link buffers only a few KB for the client until then as well, and the
+ * session counts against the server's limit of pending sessions.
+ */
+class DatagramSession implements SessionTransport {
+
+    static final int AMPLIFICATION_LIMIT = 3;
+
+    private final DatagramServerTransport serverTransport;
+    private final SocketAddress address;
+    private final DatagramLink link;
+    private ClientHandler handler;
+    private volatile MessageCodec codec = MessageCodec.SERIALIZED;
+    // Only used by the receive thread
+    private MessageCodec receiveCodec = MessageCodec.SERIALIZED;
+    private volatile boolean validated;
+    // Cleared once the session stops counting as pending on the server transport
+    private final AtomicBoolean pending = new AtomicBoolean(true);
+    // Guarded by this until validated
+    private long bytesReceived;
+    private long bytesSent;
+
+    DatagramSession(DatagramServerTransport serverTransport, SocketAddress address) {
+        this.serverTransport = serverTransport;
+        this.address = address;
+        this.link = new DatagramLink(this::sendDatagram);
+        link.setRestricted(true);
+    }
+
+    private void sendDatagram(ByteBuffer datagram) throws IOException {
+        if (!validated && !withinAmplificationLimit(datagram.remaining())) {
+            return;
+        }
+        serverTransport.send(datagram, address);
+    }
+
+    private synchronized boolean withinAmplificationLimit(int length) {
+        if (bytesSent + length > AMPLIFICATION_LIMIT * bytesReceived) {
+            return false;
+        }
+        bytesSent += length;
+        return true;
+    }
+
+    void setHandler(ClientHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Takes in a datagram from the client and passes on the messages it completes.
+     * Called on the receive thread.
+     */
+    void receive(ByteBuffer datagram) throws IOException {
+        if (!validated) {
+            synchronized (this) {
+                bytesReceived += datagram.remaining();
+            }
+        }
+        for (ByteBuffer frame : link.receive(datagram)) {
+            if (!handler.isConnected()) {
+                return;
+            }
+            Message message = MessageFraming.decode(frame, receiveCodec);
+            if (message == null) {
+                throw new IOException("Incomplete frame from client");
+            }
+            handler.onMessage(message);
+        }
+    }
+
+    /**
+     * Drives retransmissions; disconnects the client once it stops acknowledging
+     */
+    void tick() {
+        try {
+            link.tick();
+        } catch (IOException e) {
+            System.err.println("Client " + address + " unreachable: " + e.getMessage());
+            handler.disconnect();
+        }
+    }
+
+    @Override
+    public void send(Message message) throws IOException {
+        link.send(codec.encodeFrame(message), DatagramLink.isReliable(message.getType()));
+    }
+
+    @Override
+    public void setCodec(MessageCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public void setReceiveCodec(MessageCodec codec) {
+        this.receiveCodec = codec;
+    }
+
+    @Override
+    public void close() {
+        link.close();
+        endPending();
+        serverTransport.remove(address, this);
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return ((InetSocketAddress) address).getAddress().getHostAddress();
+    }
+
+    @Override
+    public int getQueuedFrames() {
+        return link.getUnacknowledged();
+    }
+
+    @Override
+    public boolean requiresAddressValidation() {
+        return !validated;
+    }
+
+    @Override
+    public void addressValidated() {
+        // Called on the receive thread, like every use of the link's receive side
+        link.setRestricted(false);
+        validated = true;
+        endPending();
+    }
+
+    /**
+     * Stops counting the session as pending, once
+     */
+    private void endPending() {
+        if (pending.compareAndSet(true, false)) {
+            serverTransport.pendingSessionEnded();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.vpnsimulation.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single selector thread that owns a set of NIO sessions. All reads, writes
+ * and message handling for those sessions happen on this thread; other
+ * threads hand work over through {@link #execute(Runnable)}.
+ */
+class EventLoop implements Runnable {
+
+    private static final int SHARED_READ_BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<EventLoop> CURRENT = new ThreadLocal<>();
+
+    private final Selector selector;
+    private final Thread thread;
+    // Lock-free mailbox that other threads, including other event loops, post work to
+    private final Queue<Runnable> tasks;
+    // Set while a selector wakeup is already on its way, so a burst of tasks costs one wakeup
+    private final AtomicBoolean wakeupPending;
+    // Sessions read into this buffer first and only keep their own buffer for partial frames
+    private final ByteBuffer sharedReadBuffer;
+    private volatile boolean running;
+
+    EventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.wakeupPending = new AtomicBoolean();
+        this.sharedReadBuffer = ByteBuffer.allocateDirect(SHARED_READ_BUFFER_SIZE);
+    }
+
+    void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Returns true if the caller is running on this event loop
+     */
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Returns true if the caller is running on any event loop
+     */
+    static boolean isEventLoopThread() {
+        return CURRENT.get() != null;
+    }
+
+    /**
+     * Schedules a task to run on the event loop
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop() && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    Selector getSelector() {
+        return selector;
+    }
+
+    ByteBuffer getSharedReadBuffer() {
+        return sharedReadBuffer;
+    }
+
+    @Override
+    public void run() {
+        CURRENT.set(this);
+        while (running) {
+            try {
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                // Tasks posted from now on need a new wakeup; earlier ones are run below
+                wakeupPending.set(false);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    ((NioSession) key.attachment()).handleReady(key);
+                }
+
+                runTasks();
+            } catch (IOException e) {
+                System.err.println("Event loop error: " + e.getMessage());
+            } catch (RuntimeException e) {
+                System.err.println("Unexpected event loop error: " + e.getMessage());
+            }
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            System.err.println("Error closing selector: " + e.getMessage());
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("Error running event loop task: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops the event loop after its current iteration
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,94 @@
+package com.vpnsimulation.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Stateless cookies that a client has to echo before the server starts any
+ * expensive handshake work.
+ *
+ * A cookie is the time it was issued plus an HMAC over that time and the
+ * client's address, keyed with a secret that only exists in this server
+ * process. Checking one costs a single HMAC and needs no stored state, so
+ * a flood of handshake attempts is answered without database writes or key
+ * generation, and only clients that receive at their address get further.
+ */
+class HandshakeCookies {
+
+    static final long DEFAULT_LIFETIME_MILLIS = 30_000;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int MAC_LENGTH = 16;
+    private static final int COOKIE_LENGTH = Long.BYTES + MAC_LENGTH;
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+    private final long lifetimeMillis;
+
+    HandshakeCookies(long lifetimeMillis) {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        this.key = new SecretKeySpec(secret, MAC_ALGORITHM);
+        this.macs = ThreadLocal.withInitial(this::newMac);
+        this.lifetimeMillis = lifetimeMillis;
+    }
+
+    /**
+     * Returns a cookie for a client address
+     */
+    String issue(String remoteAddress) {
+        long issuedAt = System.currentTimeMillis();
+        ByteBuffer cookie = ByteBuffer.allocate(COOKIE_LENGTH);
+        cookie.putLong(issuedAt).put(mac(issuedAt, remoteAddress));
+        return Base64.getEncoder().encodeToString(cookie.array());
+    }
+
+    /**
+     * Checks that a cookie was issued by this server for the address and has not expired
+     */
+    boolean verify(String cookie, String remoteAddress) {
+        byte[] decoded;
+        try {
+            decoded = Base64.getDecoder().decode(cookie);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        if (decoded.length != COOKIE_LENGTH) {
+            return false;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(decoded);
+        long issuedAt = buffer.getLong();
+        long age = System.currentTimeMillis() - issuedAt;
+        if (age < 0 || age > lifetimeMillis) {
+            return false;
+        }
+        return MessageDigest.isEqual(mac(issuedAt, remoteAddress),
+                Arrays.copyOfRange(decoded, Long.BYTES, COOKIE_LENGTH));
+    }
+
+    private byte[] mac(long issuedAt, String remoteAddress) {
+        Mac mac = macs.get();
+        mac.update(ByteBuffer.allocate(Long.BYTES).putLong(issuedAt).array());
+        mac.update(remoteAddress.getBytes(StandardCharsets.UTF_8));
+        return Arrays.copyOf(mac.doFinal(), MAC_LENGTH);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 is not available", e);
+        }
+    }
+}
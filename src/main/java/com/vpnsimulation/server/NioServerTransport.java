@@ -0,0 +1,102 @@
+package com.vpnsimulation.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Accepts connections on a ServerSocketChannel and spreads them over a fixed
+ * set of event loops, one per available core. The thread count stays the same
+ * no matter how many clients are connected.
+ */
+class NioServerTransport {
+
+    private final VPNServer server;
+    private final int port;
+    private final EventLoop[] eventLoops;
+    private ServerSocketChannel serverChannel;
+    private Thread acceptThread;
+    private volatile boolean running;
+    private int nextLoop;
+
+    NioServerTransport(VPNServer server, int port, int eventLoopCount) {
+        this.server = server;
+        this.port = port;
+        this.eventLoops = new EventLoop[eventLoopCount];
+    }
+
+    /**
+     * Binds the server channel and starts the event loops
+     */
+    void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop("vpn-event-loop-" + i);
+            eventLoops[i].start();
+        }
+
+        running = true;
+        acceptThread = new Thread(this::acceptLoop, "vpn-nio-acceptor");
+        acceptThread.start();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                assign(channel);
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Error accepting client connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands a new channel to the next event loop, which creates the session
+     */
+    private void assign(SocketChannel channel) {
+        EventLoop eventLoop = eventLoops[nextLoop];
+        nextLoop = (nextLoop + 1) % eventLoops.length;
+
+        eventLoop.execute(() -> {
+            try {
+                NioSession session = new NioSession(eventLoop, channel, server.createOutboundQueue());
+                ClientHandler handler = server.createClientHandler(session);
+                session.register(handler);
+            } catch (IOException e) {
+                System.err.println("I/O error handling new client: " + e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    // Ignore
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops accepting connections and shuts down the event loops
+     */
+    void stop() {
+        running = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing server channel: " + e.getMessage());
+        }
+
+        for (EventLoop eventLoop : eventLoops) {
+            if (eventLoop != null) {
+                eventLoop.shutdown();
+            }
+        }
+    }
+}
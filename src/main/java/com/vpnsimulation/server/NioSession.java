@@ -0,0 +1,201 @@
+package com.vpnsimulation.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+import com.vpnsimulation.common.util.Message;
+import com.vpnsimulation.common.util.MessageCodec;
+import com.vpnsimulation.common.util.MessageFraming;
+
+/**
+ * Non-blocking transport for one client, owned by a single event loop.
+ * Idle sessions hold no read buffer; a buffer is only kept while a frame is
+ * partially received.
+ *
+ * Senders on other threads only add to the {@link OutboundQueue}; one flush
+ * task per batch is handed to the event loop, which writes all pending
+ * frames with a single gathering write.
+ */
+class NioSession implements SessionTransport {
+
+    private static final int MIN_PARTIAL_BUFFER_SIZE = 1024;
+    private static final ByteBuffer[] EMPTY_BATCH = new ByteBuffer[0];
+
+    private final EventLoop eventLoop;
+    private final SocketChannel channel;
+    private final String remoteAddress;
+    private final OutboundQueue outboundQueue;
+    // Frames taken from the queue but not completely written yet (event loop only)
+    private final ArrayDeque<ByteBuffer> unwritten;
+    private SelectionKey selectionKey;
+    private ByteBuffer partialFrame;
+    private ClientHandler handler;
+    private volatile MessageCodec codec = MessageCodec.SERIALIZED;
+    // Only used by the thread reading from the client
+    private MessageCodec receiveCodec = MessageCodec.SERIALIZED;
+    private volatile boolean closed;
+
+    NioSession(EventLoop eventLoop, SocketChannel channel, OutboundQueue outboundQueue) throws IOException {
+        this.eventLoop = eventLoop;
+        this.channel = channel;
+        this.remoteAddress = channel.socket().getInetAddress().getHostAddress();
+        this.outboundQueue = outboundQueue;
+        this.unwritten = new ArrayDeque<>();
+    }
+
+    /**
+     * Registers the channel with the event loop selector. Must run on the event loop.
+     */
+    void register(ClientHandler handler) throws IOException {
+        this.handler = handler;
+        outboundQueue.setOverflowListener(handler::onSlowConsumer);
+        this.selectionKey = channel.register(eventLoop.getSelector(), SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * Called by the event loop when the channel is ready
+     */
+    void handleReady(SelectionKey key) {
+        try {
+            if (key.isReadable()) {
+                read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            // Client disconnected
+            handler.disconnect();
+        }
+    }
+
+    private void read() throws IOException {
+        ByteBuffer buffer = partialFrame;
+        if (buffer == null) {
+            buffer = eventLoop.getSharedReadBuffer();
+            buffer.clear();
+        }
+
+        if (channel.read(buffer) < 0) {
+            handler.disconnect();
+            return;
+        }
+
+        buffer.flip();
+        Message message;
+        while (handler.isConnected() && (message = MessageFraming.decode(buffer, receiveCodec)) != null) {
+            handler.onMessage(message);
+        }
+        keepPartialFrame(buffer);
+    }
+
+    /**
+     * Keeps the bytes of an incomplete frame until the rest arrives
+     */
+    private void keepPartialFrame(ByteBuffer buffer) throws IOException {
+        if (!buffer.hasRemaining()) {
+            partialFrame = null;
+            return;
+        }
+
+        int required = Math.max(MessageFraming.peekFrameSize(buffer), buffer.remaining());
+        if (buffer == partialFrame && buffer.capacity() >= required) {
+            buffer.compact();
+            return;
+        }
+
+        ByteBuffer next = ByteBuffer.allocate(Math.max(required, MIN_PARTIAL_BUFFER_SIZE));
+        next.put(buffer);
+        partialFrame = next;
+    }
+
+    @Override
+    public void send(Message message) throws IOException {
+        if (closed) {
+            throw new IOException("Connection closed");
+        }
+
+        ByteBuffer frame = codec.encodeFrame(message);
+        // An event loop thread must never wait for another client's socket
+        if (outboundQueue.offer(frame, OutboundQueue.isDroppable(message), !EventLoop.isEventLoopThread())) {
+            if (eventLoop.inEventLoop()) {
+                flushOrDisconnect();
+            } else {
+                eventLoop.execute(this::flushOrDisconnect);
+            }
+        }
+    }
+
+    private void flushOrDisconnect() {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException | CancelledKeyException e) {
+            handler.disconnect();
+        }
+    }
+
+    /**
+     * Writes everything queued with gathering writes. If the socket cannot
+     * take it all, the drain stays active and continues on OP_WRITE.
+     */
+    private void flush() throws IOException {
+        do {
+            outboundQueue.drainTo(unwritten);
+            if (!unwritten.isEmpty()) {
+                int frameCount = unwritten.size();
+                long bytes = channel.write(unwritten.toArray(EMPTY_BATCH));
+                outboundQueue.recordBatch(frameCount, bytes);
+                int written = 0;
+                while (!unwritten.isEmpty() && !unwritten.peek().hasRemaining()) {
+                    unwritten.poll();
+                    written++;
+                }
+                outboundQueue.release(written);
+            }
+
+            if (!unwritten.isEmpty()) {
+                selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            selectionKey.interestOps(SelectionKey.OP_READ);
+        } while (outboundQueue.finishDrain());
+    }
+
+    @Override
+    public void setCodec(MessageCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public void setReceiveCodec(MessageCodec codec) {
+        this.receiveCodec = codec;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        outboundQueue.close();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing client connection: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public int getQueuedFrames() {
+        return outboundQueue.size();
+    }
+}
@@ -0,0 +1,287 @@
+package com.vpnsimulation.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.vpnsimulation.common.util.Message;
+import com.vpnsimulation.common.util.Metrics;
+
+/**
+ * Encoded frames waiting to be written to one client.
+ *
+ * Any thread may add frames, but only one writer drains the queue at a time:
+ * whoever adds to an idle queue is told to start a drain, and the drain
+ * keeps going until the queue is empty. The writer can then put everything
+ * that piled up into a single write and flush.
+ *
+ * The queue is bounded. A frame counts against the capacity from the moment
+ * it is offered until the writer releases it after the socket took it, so a
+ * client that reads slowly fills its own queue instead of stalling the
+ * senders. What happens to a frame that does not fit is decided by the
+ * {@link VPNServer.SlowConsumerPolicy}. Only frames the sender marked as
+ * droppable, data records, are ever dropped to make room; handshake and
+ * stream control frames are not.
+ */
+class OutboundQueue {
+
+    /**
+     * Notified when the queue starts overflowing
+     */
+    interface OverflowListener {
+        void onOverflow(VPNServer.SlowConsumerPolicy policy, int queuedFrames);
+    }
+
+    /**
+     * A frame with whether it may be dropped to make room for another.
+     * Compared by identity, so removing one never takes an equal copy.
+     */
+    private static final class QueuedFrame {
+        private final ByteBuffer frame;
+        private final boolean droppable;
+
+        private QueuedFrame(ByteBuffer frame, boolean droppable) {
+            this.frame = frame;
+            this.droppable = droppable;
+        }
+    }
+
+    private final Queue<QueuedFrame> frames = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final int capacity;
+    private final VPNServer.SlowConsumerPolicy policy;
+    private final long blockTimeoutNanos;
+    private final Object spaceLock = new Object();
+    private volatile int waitingSenders;
+    // Set from the first overflow until the queue drained to half its capacity
+    private final AtomicBoolean overflowing = new AtomicBoolean();
+    private volatile boolean closed;
+    private volatile OverflowListener overflowListener;
+    private final LongAdder queuedFrames;
+    private final LongAdder overflowFrames;
+    private final LongAdder droppedFrames;
+    private final Metrics.Distribution depthMetric;
+    private final Metrics.Distribution batchFramesMetric;
+    private final Metrics.Distribution batchBytesMetric;
+    private final Metrics.Distribution blockedMicrosMetric;
+
+    OutboundQueue(Metrics metrics, int capacity, VPNServer.SlowConsumerPolicy policy, long blockTimeoutMillis) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+        this.queuedFrames = metrics.counter("outbound.queued.frames");
+        this.overflowFrames = metrics.counter("outbound.overflow.frames");
+        this.droppedFrames = metrics.counter("outbound.dropped.frames");
+        this.depthMetric = metrics.distribution("outbound.queue.depth");
+        this.batchFramesMetric = metrics.distribution("outbound.batch.frames");
+        this.batchBytesMetric = metrics.distribution("outbound.batch.bytes");
+        this.blockedMicrosMetric = metrics.distribution("outbound.blocked.micros");
+    }
+
+    void setOverflowListener(OverflowListener overflowListener) {
+        this.overflowListener = overflowListener;
+    }
+
+    /**
+     * Returns whether a message's frame may be dropped for a slow consumer:
+     * data records, which the sender already accepts to lose, but nothing that
+     * a handshake or a stream's flow control depends on
+     */
+    static boolean isDroppable(Message message) {
+        return message.getType() == Message.MessageType.DATA || message.getType() == Message.MessageType.BATCH;
+    }
+
+    /**
+     * Adds a frame to the queue, applying the slow-consumer policy if it is full
+     * @param droppable Whether DROP_OLDEST may drop the frame to make room
+     * @param mayBlock  Whether the calling thread may wait for space; event loop
+     *                  threads must not, so BLOCK rejects the frame right away
+     * @return true if the queue was idle and the caller must start a drain
+     * @throws IOException If the frame was rejected or the queue is closed
+     */
+    boolean offer(ByteBuffer frame, boolean droppable, boolean mayBlock) throws IOException {
+        if (closed) {
+            throw new IOException("Connection closed");
+        }
+
+        QueuedFrame queued = new QueuedFrame(frame, droppable);
+        if (reserve()) {
+            frames.add(queued);
+        } else {
+            overflow(queued, mayBlock);
+        }
+        queuedFrames.increment();
+        return draining.compareAndSet(false, true);
+    }
+
+    /**
+     * Takes one slot of the capacity, if there is one left
+     */
+    private boolean reserve() {
+        int current;
+        do {
+            current = depth.get();
+            if (current >= capacity) {
+                return false;
+            }
+        } while (!depth.compareAndSet(current, current + 1));
+        depthMetric.record(current + 1);
+        return true;
+    }
+
+    /**
+     * Makes room for a frame offered to a full queue, or rejects it
+     */
+    private void overflow(QueuedFrame frame, boolean mayBlock) throws IOException {
+        overflowFrames.increment();
+        // Of several senders overflowing at once, only the one that sets the flag reports it
+        if (overflowing.compareAndSet(false, true)) {
+            OverflowListener listener = overflowListener;
+            if (listener != null) {
+                listener.onOverflow(policy, depth.get());
+            }
+        }
+
+        switch (policy) {
+            case DROP_OLDEST -> {
+                // The new frame takes the slot of the oldest droppable one. Frames already
+                // handed to the writer can't be taken back; without a droppable frame left,
+                // the new one is rejected.
+                droppedFrames.increment();
+                if (!removeOldestDroppable()) {
+                    throw new IOException("Outbound queue full, frame dropped");
+                }
+                frames.add(frame);
+            }
+            case BLOCK -> {
+                if (!mayBlock || !awaitSpace()) {
+                    droppedFrames.increment();
+                    throw new IOException("Outbound queue full, frame dropped");
+                }
+                frames.add(frame);
+            }
+            case DISCONNECT -> throw new IOException("Outbound queue full, slow consumer disconnected");
+        }
+    }
+
+    private boolean removeOldestDroppable() {
+        Iterator<QueuedFrame> iterator = frames.iterator();
+        while (iterator.hasNext()) {
+            QueuedFrame queued = iterator.next();
+            // Two senders may pick the same frame; only the one that removes it gets its slot
+            if (queued.droppable && frames.remove(queued)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits until the queue is below capacity or the block timeout passes,
+     * and takes a slot
+     * @return true if a slot was taken
+     */
+    private boolean awaitSpace() {
+        long start = System.nanoTime();
+        long deadline = start + blockTimeoutNanos;
+        synchronized (spaceLock) {
+            waitingSenders++;
+            try {
+                while (!closed) {
+                    if (reserve()) {
+                        return true;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(spaceLock, remaining);
+                }
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                waitingSenders--;
+                blockedMicrosMetric.record((System.nanoTime() - start) / 1_000);
+            }
+        }
+    }
+
+    /**
+     * Moves all queued frames to the batch. Only called by the active writer.
+     * The frames keep counting against the capacity until they are released.
+     * @return The number of frames moved
+     */
+    int drainTo(Collection<ByteBuffer> batch) {
+        int count = 0;
+        QueuedFrame queued;
+        while ((queued = frames.poll()) != null) {
+            batch.add(queued.frame);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Frees the capacity of frames that were completely written
+     */
+    void release(int frameCount) {
+        if (closed) {
+            return;
+        }
+        int remaining = depth.addAndGet(-frameCount);
+        if (remaining <= capacity / 2 && overflowing.get()) {
+            overflowing.compareAndSet(true, false);
+        }
+        if (waitingSenders > 0) {
+            synchronized (spaceLock) {
+                spaceLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Ends the current drain
+     * @return true if frames were added meanwhile and the caller must drain again
+     */
+    boolean finishDrain() {
+        draining.set(false);
+        return !frames.isEmpty() && draining.compareAndSet(false, true);
+    }
+
+    /**
+     * Records one write of several frames
+     */
+    void recordBatch(int frameCount, long bytes) {
+        batchFramesMetric.record(frameCount);
+        batchBytesMetric.record(bytes);
+    }
+
+    /**
+     * Returns the number of frames not yet written to the socket
+     */
+    int size() {
+        return depth.get();
+    }
+
+    /**
+     * Drops all queued frames and wakes up blocked senders once the connection is gone
+     */
+    void close() {
+        closed = true;
+        frames.clear();
+        depth.set(0);
+        synchronized (spaceLock) {
+            spaceLock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.vpnsimulation.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Connected sessions, and the routes to established ones.
+ *
+ * Routes are keyed by the client ID a session announced in its handshake.
+ * Clients choose that ID themselves and keep it across reconnects, so it
+ * says nothing about the event loop that serves the destination, and every
+ * lookup goes to the one concurrent map.
+ */
+class SessionRegistry {
+
+    private final Set<ClientHandler> sessions = ConcurrentHashMap.newKeySet();
+    // Established sessions by the client ID they announced, used for routing
+    private final Map<String, ClientHandler> routes = new ConcurrentHashMap<>();
+
+    void add(ClientHandler handler) {
+        sessions.add(handler);
+    }
+
+    void remove(ClientHandler handler) {
+        sessions.remove(handler);
+    }
+
+    /**
+     * Looks up an established session by the client ID it announced
+     */
+    ClientHandler findRoute(String routingAddress) {
+        return routes.get(routingAddress);
+    }
+
+    /**
+     * Makes an established session reachable under the client ID it announced
+     * @return false if another session already uses that ID
+     */
+    boolean addRoute(String routingAddress, ClientHandler handler) {
+        return routes.putIfAbsent(routingAddress, handler) == null;
+    }
+
+    /**
+     * Removes the route of a session, if it still points to that session
+     */
+    void removeRoute(String routingAddress, ClientHandler handler) {
+        routes.remove(routingAddress, handler);
+    }
+
+    /**
+     * Returns the number of registered sessions
+     */
+    int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Returns a snapshot of all registered sessions
+     */
+    List<ClientHandler> getSessions() {
+        return new ArrayList<>(sessions);
+    }
+}
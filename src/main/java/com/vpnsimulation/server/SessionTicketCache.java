@@ -0,0 +1,162 @@
+package com.vpnsimulation.server;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.vpnsimulation.common.encryption.AESEncryption;
+import com.vpnsimulation.common.encryption.SessionResumption;
+
+/**
+ * Resumption state of recently established sessions, looked up by the ticket
+ * a reconnecting client presents.
+ *
+ * A ticket is the ticket id and its expiry time, sealed with a key that only
+ * exists in this server process, so a ticket that was tampered with or comes
+ * from an earlier server run fails to open before any lookup. A ticket is
+ * only redeemed with a valid binder, so one that was observed on the wire
+ * can't be used or burnt by someone who lacks its resumption secret. Tickets
+ * are single-use, the cache is bounded by evicting the oldest entries, and
+ * expired entries are dropped as new tickets are issued.
+ */
+class SessionTicketCache {
+
+    /**
+     * What a ticket refers to
+     */
+    static final class Entry {
+        private final String routingAddress;
+        private final byte[] resumptionSecret;
+        private final long expiresAt;
+
+        private Entry(String routingAddress, byte[] resumptionSecret, long expiresAt) {
+            this.routingAddress = routingAddress;
+            this.resumptionSecret = resumptionSecret;
+            this.expiresAt = expiresAt;
+        }
+
+        String getRoutingAddress() {
+            return routingAddress;
+        }
+
+        byte[] getResumptionSecret() {
+            return resumptionSecret;
+        }
+    }
+
+    private static final int TICKET_PLAINTEXT_LENGTH = Long.BYTES * 2;
+
+    private final SecureRandom random = new SecureRandom();
+    private final AESEncryption ticketSealer = new AESEncryption();
+    // Records only open on the other side, so the server holds both ends of its tickets' "session"
+    private final AESEncryption ticketOpener = new AESEncryption();
+    // Insertion order is expiry order as long as the lifetime does not change
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>();
+    private int capacity;
+    private long lifetimeMillis;
+
+    SessionTicketCache(int capacity, long lifetimeMillis) {
+        this.capacity = capacity;
+        this.lifetimeMillis = lifetimeMillis;
+
+        byte[] sealingKey = new byte[32];
+        random.nextBytes(sealingKey);
+        ticketSealer.initFromSharedSecret(sealingKey, AESEncryption.Role.SERVER);
+        ticketOpener.initFromSharedSecret(sealingKey, AESEncryption.Role.CLIENT);
+        // Tickets are redeemed in any order, and a ticket may be presented more than once
+        ticketOpener.setReplayProtection(false);
+    }
+
+    /**
+     * Stores the resumption secret of a session and returns the ticket for it
+     */
+    String issue(String routingAddress, byte[] resumptionSecret) throws GeneralSecurityException {
+        long now = System.currentTimeMillis();
+        long ticketId;
+        long expiresAt;
+        synchronized (this) {
+            expire(now);
+            do {
+                ticketId = random.nextLong();
+            } while (entries.containsKey(ticketId));
+            expiresAt = now + lifetimeMillis;
+            entries.put(ticketId, new Entry(routingAddress, resumptionSecret, expiresAt));
+            while (entries.size() > capacity) {
+                Iterator<Long> oldest = entries.keySet().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+
+        ByteBuffer plaintext = ByteBuffer.allocate(TICKET_PLAINTEXT_LENGTH);
+        plaintext.putLong(ticketId).putLong(expiresAt);
+        return Base64.getEncoder().encodeToString(ticketSealer.encrypt(plaintext.array()));
+    }
+
+    /**
+     * Takes the entry of a ticket out of the cache, if the binder proves that
+     * the client holds the ticket's resumption secret
+     * @return The entry, or null if the ticket is invalid, expired or already
+     *         used, or the binder does not match
+     */
+    Entry redeem(String ticket, byte[] clientNonce, byte[] binder) {
+        ByteBuffer plaintext;
+        try {
+            plaintext = ByteBuffer.wrap(ticketOpener.decrypt(Base64.getDecoder().decode(ticket)));
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            return null;
+        }
+        if (plaintext.remaining() != TICKET_PLAINTEXT_LENGTH) {
+            return null;
+        }
+
+        long ticketId = plaintext.getLong();
+        long now = System.currentTimeMillis();
+        if (plaintext.getLong() <= now) {
+            return null;
+        }
+
+        synchronized (this) {
+            Entry entry = entries.get(ticketId);
+            if (entry == null || entry.expiresAt <= now) {
+                return null;
+            }
+            try {
+                if (!SessionResumption.verifyBinder(entry.resumptionSecret, ticket, clientNonce, binder)) {
+                    return null;
+                }
+            } catch (GeneralSecurityException e) {
+                return null;
+            }
+            entries.remove(ticketId);
+            return entry;
+        }
+    }
+
+    private void expire(long now) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext() && iterator.next().expiresAt <= now) {
+            iterator.remove();
+        }
+    }
+
+    synchronized void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    synchronized void setLifetimeMillis(long lifetimeMillis) {
+        this.lifetimeMillis = lifetimeMillis;
+    }
+
+    synchronized long getLifetimeMillis() {
+        return lifetimeMillis;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+}
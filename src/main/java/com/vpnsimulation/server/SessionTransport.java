@@ -0,0 +1,61 @@
+package com.vpnsimulation.server;
+
+import java.io.IOException;
+
+import com.vpnsimulation.common.util.Message;
+import com.vpnsimulation.common.util.MessageCodec;
+
+/**
+ * The connection underneath a client session. Implemented once per transport
+ * mode so that ClientHandler does not care how bytes reach the client.
+ */
+interface SessionTransport {
+
+    /**
+     * Sends a message to the client. May be called from any thread.
+     */
+    void send(Message message) throws IOException;
+
+    /**
+     * Switches the codec used for all following frames sent to the client.
+     * Called right after the message that completes the negotiation has been sent.
+     */
+    void setCodec(MessageCodec codec);
+
+    /**
+     * Switches the codec used to decode all following frames from the client.
+     * Called on the thread that delivers messages, as soon as the message that
+     * starts the negotiation arrives, because the client switches the moment
+     * it has the answer and the handshake may still be busy elsewhere.
+     */
+    void setReceiveCodec(MessageCodec codec);
+
+    /**
+     * Closes the underlying connection. Must be safe to call more than once.
+     */
+    void close();
+
+    /**
+     * Returns the IP address of the remote client
+     */
+    String getRemoteAddress();
+
+    /**
+     * Returns the number of frames waiting to be written to the client
+     */
+    int getQueuedFrames();
+
+    /**
+     * Returns true if nothing yet shows that the client receives at its
+     * address, so that it has to echo a cookie before its handshake starts
+     */
+    default boolean requiresAddressValidation() {
+        return false;
+    }
+
+    /**
+     * Called once the client echoed a valid cookie, which proves it receives at its address
+     */
+    default void addressValidated() {
+    }
+}
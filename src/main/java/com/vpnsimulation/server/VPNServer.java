@@ -1,46 +1,172 @@
 package com.vpnsimulation.server;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Path;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.vpnsimulation.common.database.DatabaseManager;
 import com.vpnsimulation.common.encryption.AESEncryption;
-import com.vpnsimulation.common.encryption.DiffieHellmanKeyExchange;
+import com.vpnsimulation.common.encryption.CipherSuite;
+import com.vpnsimulation.common.encryption.KeyExchangeAlgorithm;
 import com.vpnsimulation.common.util.CertificateManager;
-import com.vpnsimulation.common.util.Message;
+import com.vpnsimulation.common.util.ExecutionMode;
+import com.vpnsimulation.common.util.Metrics;
+import com.vpnsimulation.common.util.TimingWheel;
 
 /**
  * The VPN server that handles client connections, encryption, and routing
  */
 public class VPNServer {
     
+    /**
+     * How client connections are served
+     */
+    public enum TransportMode {
+        /** One blocking thread per connected client */
+        BLOCKING,
+        /** Non-blocking channels multiplexed over a fixed set of event loops */
+        NIO,
+        /** One datagram channel for all clients, reliable only for the messages that need it */
+        UDP
+    }
+    
+    /**
+     * What happens when a client reads slower than others send to it and its
+     * outbound queue is full
+     */
+    public enum SlowConsumerPolicy {
+        /** Discard the oldest queued data frame to make room for the new one; control frames are never dropped */
+        DROP_OLDEST,
+        /** Make the sender wait for room, up to a timeout, then drop the new frame */
+        BLOCK,
+        /** Disconnect the slow client */
+        DISCONNECT
+    }
+    
+    public static final int DEFAULT_OUTBOUND_QUEUE_CAPACITY = 1024;
+    public static final long DEFAULT_SLOW_CONSUMER_TIMEOUT_MILLIS = 1000;
+    public static final int DEFAULT_SESSION_TICKET_CAPACITY = 10_000;
+    public static final long DEFAULT_SESSION_TICKET_LIFETIME_MILLIS = 10 * 60 * 1000;
+    public static final int DEFAULT_HANDSHAKE_QUEUE_CAPACITY = 1024;
+    public static final int DEFAULT_COOKIE_THRESHOLD = 64;
+    public static final long DEFAULT_HANDSHAKE_TIMEOUT_MILLIS = 10_000;
+    public static final long DEFAULT_KEEPALIVE_INTERVAL_MILLIS = 15_000;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 45_000;
+    // One turn of the session timer wheel is 51.2 seconds
+    private static final long SESSION_TIMER_TICK_MILLIS = 100;
+    private static final int SESSION_TIMER_WHEEL_SIZE = 512;
+    
     private final int port;
+    private final TransportMode transportMode;
+    private final ExecutionMode executionMode;
     private boolean running;
     private ServerSocket serverSocket;
+    private NioServerTransport nioTransport;
+    private DatagramServerTransport datagramTransport;
     private final ExecutorService executorService;
-    private final Map<String, ClientHandler> connectedClients;
+    private final SessionRegistry sessionRegistry;
     private final DatabaseManager databaseManager;
+    private final DatabaseLogger databaseLogger;
     private final CertificateManager certificateManager;
+    private final Metrics metrics;
+    private final SessionTicketCache sessionTicketCache;
+    private int outboundQueueCapacity = DEFAULT_OUTBOUND_QUEUE_CAPACITY;
+    private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.BLOCK;
+    private long slowConsumerTimeoutMillis = DEFAULT_SLOW_CONSUMER_TIMEOUT_MILLIS;
+    private Path keyStorePath;
+    private char[] keyStorePassword;
+    private int handshakeThreads = Runtime.getRuntime().availableProcessors();
+    private int handshakeQueueCapacity = DEFAULT_HANDSHAKE_QUEUE_CAPACITY;
+    private ThreadPoolExecutor handshakeExecutor;
+    private final Metrics.Distribution handshakeQueueWait;
+    private final Metrics.Distribution handshakeDuration;
+    private final HandshakeCookies handshakeCookies;
+    // Handshakes that were admitted but have not completed yet
+    private final AtomicInteger pendingHandshakes = new AtomicInteger();
+    private int cookieThreshold = DEFAULT_COOKIE_THRESHOLD;
+    // Chosen with setCipherSuite(), or null to measure the suites at startup
+    private CipherSuite cipherSuite;
+    private volatile List<CipherSuite> cipherSuitePreference = availableCipherSuites();
+    private long rekeyBytes = AESEncryption.DEFAULT_REKEY_BYTES;
+    private long rekeyRecords = AESEncryption.DEFAULT_REKEY_RECORDS;
+    private boolean compressionEnabled = true;
+    // Handshake deadlines, keepalives and idle timeouts of all sessions
+    private final TimingWheel sessionTimers;
+    // Sends the pings and evicts the sessions the timers pick, off the wheel's thread
+    private ExecutorService sessionTimeoutExecutor;
+    private volatile long handshakeTimeoutMillis = DEFAULT_HANDSHAKE_TIMEOUT_MILLIS;
+    private volatile long keepaliveIntervalMillis = DEFAULT_KEEPALIVE_INTERVAL_MILLIS;
+    private volatile long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
     
     /**
      * Creates a new VPN server instance
      * @param port The port to listen on
      */
     public VPNServer(int port) {
+        this(port, TransportMode.BLOCKING);
+    }
+    
+    /**
+     * Creates a new VPN server instance
+     * @param port The port to listen on
+     * @param transportMode How client connections are served
+     */
+    public VPNServer(int port, TransportMode transportMode) {
+        this(port, transportMode, ExecutionMode.PLATFORM);
+    }
+    
+    /**
+     * Creates a new VPN server instance
+     * @param port The port to listen on
+     * @param transportMode How client connections are served
+     * @param executionMode Which threads run the blocking per-client readers
+     */
+    public VPNServer(int port, TransportMode transportMode, ExecutionMode executionMode) {
         this.port = port;
-        this.connectedClients = new ConcurrentHashMap<>();
-        this.executorService = Executors.newCachedThreadPool();
+        this.transportMode = transportMode;
+        this.executionMode = executionMode;
+        this.sessionRegistry = new SessionRegistry();
+        this.executorService = executionMode.newUnboundedExecutor();
         this.databaseManager = new DatabaseManager();
         this.certificateManager = new CertificateManager();
+        this.metrics = new Metrics();
+        this.metrics.gauge("sessions.connected", sessionRegistry::size);
+        this.databaseLogger = new DatabaseLogger(databaseManager, metrics, DatabaseLogger.DEFAULT_CAPACITY);
+        this.sessionTicketCache = new SessionTicketCache(DEFAULT_SESSION_TICKET_CAPACITY,
+                DEFAULT_SESSION_TICKET_LIFETIME_MILLIS);
+        this.metrics.gauge("tickets.cached", sessionTicketCache::size);
+        this.metrics.gauge("certificates.cache.hits", certificateManager::getVerifiedCacheHits);
+        this.metrics.gauge("certificates.cache.misses", certificateManager::getVerifiedCacheMisses);
+        this.handshakeQueueWait = metrics.distribution("handshake.queue.micros");
+        this.handshakeDuration = metrics.distribution("handshake.duration.micros");
+        for (KeyExchangeAlgorithm algorithm : KeyExchangeAlgorithm.values()) {
+            String prefix = "kex.pool." + algorithm.name().toLowerCase() + ".";
+            this.metrics.gauge(prefix + "hits", algorithm.getKeyPool()::getHits);
+            this.metrics.gauge(prefix + "misses", algorithm.getKeyPool()::getMisses);
+            this.metrics.gauge(prefix + "size", algorithm.getKeyPool()::size);
+        }
+        this.handshakeCookies = new HandshakeCookies(HandshakeCookies.DEFAULT_LIFETIME_MILLIS);
+        this.metrics.gauge("handshakes.pending", pendingHandshakes::get);
+        this.metrics.gauge("handshake.queue.depth",
+                () -> handshakeExecutor == null ? 0 : handshakeExecutor.getQueue().size());
+        this.metrics.gauge("keys.epoch.sent.max", () -> maxKeyEpoch(true));
+        this.metrics.gauge("keys.epoch.received.max", () -> maxKeyEpoch(false));
+        this.sessionTimers = new TimingWheel("vpn-session-timers", SESSION_TIMER_TICK_MILLIS,
+                SESSION_TIMER_WHEEL_SIZE);
+        this.metrics.gauge("timers.pending", sessionTimers::size);
     }
     
     /**
@@ -50,10 +176,141 @@ public class VPNServer {
         // Initialize database
         databaseManager.initialize();
         
-        // Generate server certificate
-        certificateManager.generateSelfSignedCertificate("VPN Server");
+        if (keyStorePath == null) {
+            // Generate server certificate
+            certificateManager.generateSelfSignedCertificate("VPN Server");
+            System.out.println("VPN Server initialized. Server certificate generated.");
+        } else if (certificateManager.loadOrGenerateCertificate(keyStorePath, keyStorePassword, "VPN Server")) {
+            System.out.println("VPN Server initialized. Server certificate loaded from " + keyStorePath);
+        } else {
+            System.out.println("VPN Server initialized. Server certificate generated and stored in " + keyStorePath);
+        }
         
-        System.out.println("VPN Server initialized. Server certificate generated.");
+        if (cipherSuite == null) {
+            startCipherSuiteProbe();
+        }
+    }
+    
+    /**
+     * Measures the cipher suites on a background thread and prefers the fastest
+     * from then on. The measurement takes a few seconds; sessions established
+     * before it ends use the default order, AES-GCM first.
+     */
+    private void startCipherSuiteProbe() {
+        Thread probe = new Thread(() -> {
+            try {
+                Map<CipherSuite, Double> throughput = CipherSuite.probe();
+                cipherSuitePreference = CipherSuite.rank(throughput);
+                StringBuilder result = new StringBuilder();
+                for (CipherSuite suite : cipherSuitePreference) {
+                    result.append(result.length() == 0 ? "" : ", ")
+                            .append(String.format("%s %.0f MB/s", suite, throughput.get(suite) / 1e6));
+                }
+                System.out.println("Cipher suite preference: " + result);
+            } catch (Exception e) {
+                System.err.println("Error measuring cipher suites, keeping the default order: " + e.getMessage());
+            }
+        }, "vpn-cipher-probe");
+        probe.setDaemon(true);
+        probe.setPriority(Thread.MIN_PRIORITY);
+        probe.start();
+    }
+    
+    private static List<CipherSuite> availableCipherSuites() {
+        List<CipherSuite> suites = new ArrayList<>();
+        for (CipherSuite suite : CipherSuite.values()) {
+            if (suite.isAvailable()) {
+                suites.add(suite);
+            }
+        }
+        return suites;
+    }
+    
+    /**
+     * Makes the server prefer one cipher suite instead of measuring them at
+     * startup. Clients that don't offer it get the next available suite.
+     * Must be called before initialize().
+     * @param cipherSuite The preferred suite, or null to pick the fastest
+     */
+    public void setCipherSuite(CipherSuite cipherSuite) {
+        this.cipherSuite = cipherSuite;
+        List<CipherSuite> preference = availableCipherSuites();
+        if (cipherSuite != null) {
+            preference.remove(cipherSuite);
+            preference.add(0, cipherSuite);
+        }
+        this.cipherSuitePreference = preference;
+    }
+    
+    /**
+     * Returns the cipher suites the server selects from, most preferred first
+     */
+    public List<CipherSuite> getCipherSuitePreference() {
+        return cipherSuitePreference;
+    }
+    
+    /**
+     * Sets after how many bytes or records each session rotates the key of
+     * what the server sends. Affects connections accepted afterwards.
+     */
+    public void setRekeyLimits(long rekeyBytes, long rekeyRecords) {
+        if (rekeyBytes <= 0 || rekeyRecords <= 0) {
+            throw new IllegalArgumentException("Rekey limits must be positive");
+        }
+        this.rekeyBytes = rekeyBytes;
+        this.rekeyRecords = rekeyRecords;
+    }
+    
+    long getRekeyBytes() {
+        return rekeyBytes;
+    }
+    
+    long getRekeyRecords() {
+        return rekeyRecords;
+    }
+    
+    /**
+     * Returns the highest key epoch among the connected sessions
+     * @param sent The epoch of what the server sends, otherwise of what it receives
+     */
+    private long maxKeyEpoch(boolean sent) {
+        long max = 0;
+        for (ClientHandler handler : sessionRegistry.getSessions()) {
+            AESEncryption encryption = handler.getAesEncryption();
+            max = Math.max(max, sent ? encryption.getEncryptEpoch() : encryption.getDecryptEpoch());
+        }
+        return max;
+    }
+    
+    /**
+     * Allows or refuses payload compression for sessions whose client offers
+     * it. Affects connections accepted afterwards.
+     */
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+    
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+    
+    /**
+     * Picks the cipher suite of a new session from the client's offer
+     */
+    CipherSuite selectCipherSuite(String offer) {
+        return CipherSuite.select(offer, cipherSuitePreference);
+    }
+    
+    /**
+     * Keeps the server key pair and certificate in a PKCS12 keystore, so they
+     * are generated only on the first start or after the certificate expired.
+     * Must be called before initialize().
+     * @param keyStorePath The keystore file, or null to generate a new certificate on every start
+     * @param password Protects the keystore and the private key in it
+     */
+    public void setKeyStore(Path keyStorePath, char[] password) {
+        this.keyStorePath = keyStorePath;
+        this.keyStorePassword = password;
     }
     
     /**
@@ -64,10 +321,34 @@ public class VPNServer {
             return;
         }
         
+        handshakeExecutor = createHandshakeExecutor();
+        sessionTimeoutExecutor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "vpn-session-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sessionTimers.start();
+        
+        if (transportMode == TransportMode.NIO) {
+            nioTransport = new NioServerTransport(this, port, Runtime.getRuntime().availableProcessors());
+            nioTransport.start();
+            running = true;
+            System.out.println("VPN Server started on port " + port + " (NIO transport)");
+            return;
+        }
+        
+        if (transportMode == TransportMode.UDP) {
+            datagramTransport = new DatagramServerTransport(this, port);
+            datagramTransport.start();
+            running = true;
+            System.out.println("VPN Server started on port " + port + " (UDP transport)");
+            return;
+        }
+        
         serverSocket = new ServerSocket(port);
         running = true;
         
-        System.out.println("VPN Server started on port " + port);
+        System.out.println("VPN Server started on port " + port + " (" + executionMode + " threads)");
         
         // Accept client connections
         new Thread(() -> {
@@ -85,32 +366,17 @@ public class VPNServer {
     }
     
     /**
-     * Handles a new client connection
+     * Handles a new client connection on the blocking transport
      */
     private void handleNewClient(Socket clientSocket) {
-        String clientId = UUID.randomUUID().toString();
-        String clientIp = clientSocket.getInetAddress().getHostAddress();
-        
-        System.out.println("New client connected: " + clientId + " from " + clientIp);
-        
         try {
-            // Log the connection
-            int connectionId = databaseManager.logConnection(clientId, clientIp);
-            
-            // Create a client handler
-            ClientHandler clientHandler = new ClientHandler(clientId, clientSocket, connectionId);
-            connectedClients.put(clientId, clientHandler);
+            BlockingTransport transport = new BlockingTransport(clientSocket, executorService, createOutboundQueue());
+            ClientHandler clientHandler = createClientHandler(transport);
+            transport.setHandler(clientHandler);
             
-            // Start the client handler
-            executorService.submit(clientHandler);
+            // Start reading from the client
+            executorService.submit(transport);
             
-        } catch (SQLException e) {
-            System.err.println("Database error handling new client: " + e.getMessage());
-            try {
-                clientSocket.close();
-            } catch (IOException ex) {
-                // Ignore
-            }
         } catch (IOException e) {
             System.err.println("I/O error handling new client: " + e.getMessage());
             try {
@@ -121,6 +387,177 @@ public class VPNServer {
         }
     }
     
+    /**
+     * Creates the pool that runs handshakes. It has its own threads and a
+     * bounded admission queue, so a burst of new connections waits there
+     * instead of delaying the data of established sessions.
+     */
+    private ThreadPoolExecutor createHandshakeExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadPoolExecutor(handshakeThreads, handshakeThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(handshakeQueueCapacity), task -> {
+                    Thread thread = new Thread(task, "vpn-handshake-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+    
+    /**
+     * Runs a step of a client handshake on the handshake pool
+     * @return false if the admission queue is full
+     */
+    boolean submitHandshakeTask(Runnable task) {
+        long queuedAt = System.nanoTime();
+        try {
+            handshakeExecutor.execute(() -> {
+                handshakeQueueWait.record((System.nanoTime() - queuedAt) / 1000);
+                task.run();
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            metrics.counter("handshakes.rejected").increment();
+            return false;
+        }
+    }
+    
+    /**
+     * Returns the distribution of handshake durations, from the first handshake
+     * message to the established session, in microseconds
+     */
+    Metrics.Distribution getHandshakeDuration() {
+        return handshakeDuration;
+    }
+    
+    HandshakeCookies getHandshakeCookies() {
+        return handshakeCookies;
+    }
+    
+    /**
+     * Returns true if new clients have to echo a cookie before their handshake
+     * starts. That is the case while many handshakes are incomplete, or while
+     * many handshake steps wait for a thread, as one-round-trip handshakes
+     * complete without the client ever proving that it reads.
+     */
+    boolean isCookieRequired() {
+        int queuedSteps = handshakeExecutor == null ? 0 : handshakeExecutor.getQueue().size();
+        return pendingHandshakes.get() + queuedSteps >= cookieThreshold;
+    }
+    
+    void handshakeStarted() {
+        pendingHandshakes.incrementAndGet();
+    }
+    
+    void handshakeEnded() {
+        pendingHandshakes.decrementAndGet();
+    }
+    
+    /**
+     * Sets from how many incomplete handshakes and queued handshake steps on new
+     * clients first have to answer a cookie challenge. 0 always asks for a
+     * cookie, Integer.MAX_VALUE never.
+     */
+    public void setCookieThreshold(int cookieThreshold) {
+        this.cookieThreshold = cookieThreshold;
+    }
+    
+    /**
+     * Sets how many threads run handshakes. Must be called before start().
+     */
+    public void setHandshakeThreads(int handshakeThreads) {
+        this.handshakeThreads = handshakeThreads;
+    }
+    
+    /**
+     * Sets how many handshake steps may wait for a handshake thread before new
+     * clients are turned away. Must be called before start().
+     */
+    public void setHandshakeQueueCapacity(int handshakeQueueCapacity) {
+        this.handshakeQueueCapacity = handshakeQueueCapacity;
+    }
+    
+    /**
+     * Sets how long a new connection has to complete its handshake before it
+     * is dropped. 0 waits forever. Affects connections accepted afterwards.
+     */
+    public void setHandshakeTimeoutMillis(long handshakeTimeoutMillis) {
+        if (handshakeTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Handshake timeout must not be negative");
+        }
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+    }
+    
+    /**
+     * Sets after how long without hearing from a client the server pings it,
+     * and pings again. 0 sends no pings.
+     */
+    public void setKeepaliveIntervalMillis(long keepaliveIntervalMillis) {
+        if (keepaliveIntervalMillis < 0) {
+            throw new IllegalArgumentException("Keepalive interval must not be negative");
+        }
+        this.keepaliveIntervalMillis = keepaliveIntervalMillis;
+    }
+    
+    /**
+     * Sets after how long without hearing from a client, pings included, its
+     * session is evicted. 0 keeps idle sessions forever.
+     */
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        if (idleTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Idle timeout must not be negative");
+        }
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+    
+    long getHandshakeTimeoutMillis() {
+        return handshakeTimeoutMillis;
+    }
+    
+    long getKeepaliveIntervalMillis() {
+        return keepaliveIntervalMillis;
+    }
+    
+    long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+    
+    TimingWheel getSessionTimers() {
+        return sessionTimers;
+    }
+    
+    /**
+     * Runs what a session timer decided, such as a ping or an eviction, where
+     * it may block without holding up other timers
+     */
+    void runSessionTimeout(Runnable action) {
+        try {
+            sessionTimeoutExecutor.execute(action);
+        } catch (RejectedExecutionException e) {
+            // The server is stopping and disconnects every session anyway
+        }
+    }
+    
+    /**
+     * Creates the bounded outbound queue of a new connection
+     */
+    OutboundQueue createOutboundQueue() {
+        return new OutboundQueue(metrics, outboundQueueCapacity, slowConsumerPolicy, slowConsumerTimeoutMillis);
+    }
+    
+    /**
+     * Creates and registers the handler for a newly accepted connection
+     * @return The handler. The connection is logged once its handshake is admitted.
+     */
+    ClientHandler createClientHandler(SessionTransport transport) {
+        String clientId = UUID.randomUUID().toString();
+        
+        System.out.println("New client connected: " + clientId + " from " + transport.getRemoteAddress());
+        
+        ClientHandler clientHandler = new ClientHandler(this, clientId, transport);
+        sessionRegistry.add(clientHandler);
+        clientHandler.startHandshakeTimer();
+        return clientHandler;
+    }
+    
     /**
      * Stops the server
      */
@@ -132,12 +569,22 @@ public class VPNServer {
         running = false;
         
         // Close all client connections
-        for (ClientHandler handler : connectedClients.values()) {
+        for (ClientHandler handler : sessionRegistry.getSessions()) {
             handler.disconnect();
         }
         
         // Shutdown executor service
         executorService.shutdown();
+        handshakeExecutor.shutdown();
+        sessionTimers.stop();
+        sessionTimeoutExecutor.shutdown();
+        
+        if (nioTransport != null) {
+            nioTransport.stop();
+        }
+        if (datagramTransport != null) {
+            datagramTransport.stop();
+        }
         
         // Close server socket
         try {
@@ -148,7 +595,14 @@ public class VPNServer {
             System.err.println("Error closing server socket: " + e.getMessage());
         }
         
-        // Close database connection
+        // Write the rows still queued, then close the database connection
+        try {
+            if (!databaseLogger.shutdown(5000)) {
+                System.err.println("Database log rows still queued at shutdown were dropped");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         try {
             databaseManager.close();
         } catch (SQLException e) {
@@ -165,6 +619,13 @@ public class VPNServer {
         return databaseManager;
     }
     
+    /**
+     * Returns the logger that writes session log rows off the sessions' threads
+     */
+    DatabaseLogger getDatabaseLogger() {
+        return databaseLogger;
+    }
+    
     /**
      * Get the certificate manager
      */
@@ -172,260 +633,107 @@ public class VPNServer {
         return certificateManager;
     }
     
+    /**
+     * Sets how many frames may wait for each client before the slow-consumer
+     * policy applies. Affects connections accepted afterwards.
+     */
+    public void setOutboundQueueCapacity(int outboundQueueCapacity) {
+        if (outboundQueueCapacity <= 0) {
+            throw new IllegalArgumentException("Outbound queue capacity must be positive");
+        }
+        this.outboundQueueCapacity = outboundQueueCapacity;
+    }
+    
+    /**
+     * Sets what happens when a client's outbound queue is full
+     */
+    public void setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+    }
+    
+    /**
+     * Sets how long a sender waits for room with {@link SlowConsumerPolicy#BLOCK}
+     */
+    public void setSlowConsumerTimeoutMillis(long slowConsumerTimeoutMillis) {
+        this.slowConsumerTimeoutMillis = slowConsumerTimeoutMillis;
+    }
+    
+    public SlowConsumerPolicy getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+    
+    /**
+     * Sets how many session tickets the server remembers for resumption
+     */
+    public void setSessionTicketCapacity(int capacity) {
+        sessionTicketCache.setCapacity(capacity);
+    }
+    
+    /**
+     * Sets how long a session ticket can be used to resume, for tickets issued afterwards
+     */
+    public void setSessionTicketLifetimeMillis(long lifetimeMillis) {
+        sessionTicketCache.setLifetimeMillis(lifetimeMillis);
+    }
+    
+    SessionTicketCache getSessionTicketCache() {
+        return sessionTicketCache;
+    }
+    
+    /**
+     * Get the server metrics
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+    
     /**
      * Returns the number of connected clients
      */
     public int getClientCount() {
-        return connectedClients.size();
+        return sessionRegistry.size();
     }
     
     /**
-     * Client handler class for processing client connections
+     * Returns the transport mode of the server
      */
-    private class ClientHandler implements Runnable {
-        
-        private final String clientId;
-        private final Socket clientSocket;
-        private final int connectionId;
-        private final ObjectInputStream inputStream;
-        private final ObjectOutputStream outputStream;
-        private boolean connected;
-        private final AESEncryption aesEncryption;
-        private final DiffieHellmanKeyExchange keyExchange;
-        
-        public ClientHandler(String clientId, Socket clientSocket, int connectionId) throws IOException {
-            this.clientId = clientId;
-            this.clientSocket = clientSocket;
-            this.connectionId = connectionId;
-            this.outputStream = new ObjectOutputStream(clientSocket.getOutputStream());
-            this.inputStream = new ObjectInputStream(clientSocket.getInputStream());
-            this.connected = true;
-            this.aesEncryption = new AESEncryption();
-            this.keyExchange = new DiffieHellmanKeyExchange();
-        }
-        
-        @Override
-        public void run() {
-            try {
-                // Perform handshake and key exchange
-                performHandshake();
-                
-                // Process messages
-                while (connected) {
-                    try {
-                        Message encryptedMessage = (Message) inputStream.readObject();
-                        
-                        // Decrypt the message content
-                        String decryptedContent = aesEncryption.decrypt(encryptedMessage.getContent());
-                        encryptedMessage.setContent(decryptedContent);
-                        
-                        // Process the message
-                        processMessage(encryptedMessage);
-                        
-                    } catch (IOException e) {
-                        // Client disconnected
-                        disconnect();
-                        break;
-                    } catch (Exception e) {
-                        System.err.println("Error processing message from client " + clientId + ": " + e.getMessage());
-                    }
-                }
-            } catch (Exception e) {
-                System.err.println("Error in client handler: " + e.getMessage());
-            } finally {
-                disconnect();
-            }
-        }
-        
-        /**
-         * Performs the initial handshake with the client
-         */
-        private void performHandshake() throws Exception {
-            try {
-                // Step 1: Receive handshake init from client
-                Message handshakeInit = (Message) inputStream.readObject();
-                if (handshakeInit.getType() != Message.MessageType.HANDSHAKE_INIT) {
-                    throw new Exception("Expected HANDSHAKE_INIT, but received " + handshakeInit.getType());
-                }
-                System.out.println("Received handshake init from client " + clientId);
-                
-                // Step 2: Send handshake response with server certificate
-                String encodedCertificate = certificateManager.getEncodedCertificate();
-                Message handshakeResponse = new Message(
-                        Message.MessageType.HANDSHAKE_RESPONSE,
-                        "server",
-                        encodedCertificate);
-                outputStream.writeObject(handshakeResponse);
-                outputStream.flush();
-                System.out.println("Sent handshake response to client " + clientId);
-                
-                // Step 3: Receive client certificate
-                Message clientCertificate = (Message) inputStream.readObject();
-                if (clientCertificate.getType() != Message.MessageType.CERTIFICATE_EXCHANGE) {
-                    throw new Exception("Expected CERTIFICATE_EXCHANGE, but received " + clientCertificate.getType());
-                }
-                System.out.println("Received client certificate from " + clientId);
-                
-                // Step 4: Initialize Diffie-Hellman key exchange
-                keyExchange.init();
-                String publicKeyEncoded = keyExchange.getPublicKeyEncoded();
-                
-                Message keyExchangeMessage = new Message(
-                        Message.MessageType.KEY_EXCHANGE,
-                        "server",
-                        publicKeyEncoded);
-                outputStream.writeObject(keyExchangeMessage);
-                outputStream.flush();
-                System.out.println("Sent server key exchange to client " + clientId);
-                
-                // Step 5: Receive client's Diffie-Hellman public key
-                Message clientKeyExchange = (Message) inputStream.readObject();
-                if (clientKeyExchange.getType() != Message.MessageType.KEY_EXCHANGE) {
-                    throw new Exception("Expected KEY_EXCHANGE, but received " + clientKeyExchange.getType());
-                }
-                System.out.println("Received client key exchange from " + clientId);
-                
-                // Generate shared secret
-                byte[] sharedSecret = keyExchange.generateSharedSecret(clientKeyExchange.getContent());
-                
-                // Initialize AES encryption with shared secret
-                aesEncryption.initFromSharedSecret(sharedSecret);
-                
-                System.out.println("Handshake completed with client " + clientId);
-                
-            } catch (Exception e) {
-                System.err.println("Handshake failed with client " + clientId + ": " + e.getMessage());
-                throw e;
-            }
-        }
-        
-        /**
-         * Processes an incoming message from the client
-         */
-        private void processMessage(Message message) throws Exception {
-            try {
-                System.out.println("Processing message from " + message.getSender() + 
-                                 " to " + message.getDestinationAddress());
-                
-                switch (message.getType()) {
-                    case DATA -> {
-                        // Check if this is a message to be routed to another client
-                        if (message.getDestinationAddress() != null && !message.getDestinationAddress().isEmpty()) {
-                            // Route the message to another client
-                            routeMessage(message);
-                        } else {
-                            // Message is for the server
-                            System.out.println("Received data message for server: " + message.getContent());
-                        }
-                    }
-                    case DISCONNECT -> {
-                        System.out.println("Client " + clientId + " requested disconnect");
-                        disconnect();
-                    }
-                    default -> {
-                        System.out.println("Received message of type " + message.getType() + 
-                                         " from client " + clientId);
-                    }
-                }
-            } catch (IOException | SQLException e) {
-                System.err.println("Error processing message from client " + clientId + ": " + e.getMessage());
-                throw e;
-            }
-        }
-        
-        /**
-         * Routes a message to its destination
-         */
-        private void routeMessage(Message message) throws IOException, SQLException {
-            String destinationClientId = message.getDestinationAddress();
-            ClientHandler destinationHandler = connectedClients.get(destinationClientId);
-            
-            System.out.println("Attempting to route message from " + message.getSender() + 
-                             " to " + destinationClientId);
-            
-            if (destinationHandler != null) {
-                try {
-                    // Forward the message to the destination client without modifying content
-                    // This preserves the original message content from the sender
-                    Message forwardMessage = new Message(
-                            Message.MessageType.DATA,
-                            message.getSender(), // Keep original sender
-                            message.getContent(), // Keep original content
-                            destinationClientId);
-                    
-                    // Send the message
-                    destinationHandler.outputStream.writeObject(forwardMessage);
-                    destinationHandler.outputStream.flush();
-                    
-                    // Log the successful transfer
-                    System.out.println("Message successfully routed from " + message.getSender() + 
-                                     " to " + destinationClientId);
-                    
-                    // Log the data transfer
-                    databaseManager.logDataTransfer(
-                            connectionId, 
-                            clientSocket.getInetAddress().getHostAddress(), 
-                            destinationHandler.clientSocket.getInetAddress().getHostAddress(), 
-                            message.getContent().length(), 
-                            true,
-                            Message.MessageType.DATA.toString());
-                            
-                } catch (IOException e) {
-                    System.err.println("Error sending message to " + destinationClientId + ": " + e.getMessage());
-                    throw e;
-                }
-            } else {
-                try {
-                    // Send error message back to sender if destination not found
-                    String errorMessage = "Destination client " + destinationClientId + " not found";
-                    String encryptedError = aesEncryption.encrypt(errorMessage);
-                    Message errorResponse = new Message(
-                            Message.MessageType.ERROR,
-                            "server",
-                            encryptedError);
-                    outputStream.writeObject(errorResponse);
-                    outputStream.flush();
-                    
-                    // Log the error
-                    System.err.println(errorMessage);
-                    databaseManager.logSecurityEvent(connectionId, "ROUTING_ERROR", 
-                            errorMessage, "WARNING");
-                } catch (Exception e) {
-                    System.err.println("Error sending error message: " + e.getMessage());
-                }
-            }
-        }
-        
-        /**
-         * Disconnects the client
-         */
-        public void disconnect() {
-            if (!connected) {
-                return;
-            }
-            
-            connected = false;
-            
-            // Log disconnection
-            try {
-                databaseManager.logDisconnection(connectionId);
-            } catch (SQLException e) {
-                System.err.println("Error logging disconnection: " + e.getMessage());
-            }
-            
-            // Close streams and socket
-            try {
-                if (inputStream != null) inputStream.close();
-                if (outputStream != null) outputStream.close();
-                if (clientSocket != null) clientSocket.close();
-            } catch (IOException e) {
-                System.err.println("Error closing client connection: " + e.getMessage());
-            }
-            
-            // Remove from connected clients
-            connectedClients.remove(clientId);
-            
-            System.out.println("Client disconnected: " + clientId);
-        }
+    public TransportMode getTransportMode() {
+        return transportMode;
+    }
+    
+    /**
+     * Returns the execution mode of the server
+     */
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+    
+    /**
+     * Looks up an established session by the client ID it announced
+     */
+    ClientHandler findRoute(String routingAddress) {
+        return sessionRegistry.findRoute(routingAddress);
+    }
+    
+    /**
+     * Makes an established session reachable for routing
+     * @return false if another session already uses the address
+     */
+    boolean addRoute(String routingAddress, ClientHandler handler) {
+        return sessionRegistry.addRoute(routingAddress, handler);
+    }
+    
+    /**
+     * Removes a session from routing, if it is still the one registered
+     */
+    void removeRoute(String routingAddress, ClientHandler handler) {
+        sessionRegistry.removeRoute(routingAddress, handler);
+    }
+    
+    /**
+     * Removes a client from the connected clients
+     */
+    void removeClient(ClientHandler handler) {
+        sessionRegistry.remove(handler);
     }
 }
@@ -1,5 +1,6 @@
 package com.vpnsimulation.server;
 
+import java.nio.file.Path;
 import java.sql.Date;
 import java.time.LocalDate;
 import java.util.List;
@@ -9,6 +10,9 @@ import java.util.TimerTask;
 import com.vpnsimulation.common.database.ConnectionLog;
 import com.vpnsimulation.common.database.DataTransferLog;
 import com.vpnsimulation.common.database.SecurityEventLog;
+import com.vpnsimulation.common.encryption.AESEncryption;
+import com.vpnsimulation.common.encryption.CipherSuite;
+import com.vpnsimulation.common.util.ExecutionMode;
 
 import javafx.application.Application;
 import javafx.application.Platform;
@@ -29,6 +33,7 @@ import javafx.scene.control.Tab;
 import javafx.scene.control.TabPane;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
+import javafx.scene.control.TextArea;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
@@ -40,6 +45,29 @@ import javafx.stage.Stage;
 public class VPNServerApp extends Application {
     
     private static final int SERVER_PORT = 8443;
+    // Select the NIO event-loop transport with -Dvpn.server.transport=NIO
+    private static final String TRANSPORT_PROPERTY = "vpn.server.transport";
+    // Run per-client readers on virtual threads with -Dvpn.execution=VIRTUAL (Java 21+)
+    private static final String EXECUTION_PROPERTY = "vpn.execution";
+    // Handle clients that read too slowly with -Dvpn.server.slowConsumer=DROP_OLDEST|BLOCK|DISCONNECT
+    private static final String SLOW_CONSUMER_PROPERTY = "vpn.server.slowConsumer";
+    // Keystore holding the server certificate; an empty value generates a new one on every start
+    private static final String KEYSTORE_PROPERTY = "vpn.server.keystore";
+    private static final String DEFAULT_KEYSTORE = "vpn-server.p12";
+    private static final String KEYSTORE_PASSWORD_PROPERTY = "vpn.keystore.password";
+    private static final String DEFAULT_KEYSTORE_PASSWORD = "vpn-simulation";
+    // Prefer one cipher suite with -Dvpn.server.cipherSuite=AES_256_GCM|CHACHA20_POLY1305
+    // instead of the fastest one measured at startup
+    private static final String CIPHER_SUITE_PROPERTY = "vpn.server.cipherSuite";
+    // Rotate the key of what each session sends after -Dvpn.rekey.bytes or -Dvpn.rekey.records
+    private static final String REKEY_BYTES_PROPERTY = "vpn.rekey.bytes";
+    private static final String REKEY_RECORDS_PROPERTY = "vpn.rekey.records";
+    // Decline payload compression offered by clients with -Dvpn.server.compression=false
+    private static final String COMPRESSION_PROPERTY = "vpn.server.compression";
+    // Session timeouts in milliseconds, 0 to turn one off
+    private static final String HANDSHAKE_TIMEOUT_PROPERTY = "vpn.server.handshakeTimeoutMillis";
+    private static final String KEEPALIVE_PROPERTY = "vpn.server.keepaliveMillis";
+    private static final String IDLE_TIMEOUT_PROPERTY = "vpn.server.idleTimeoutMillis";
     
     private VPNServer vpnServer;
     private Timer refreshTimer;
@@ -53,6 +81,7 @@ public class VPNServerApp extends Application {
     private DatePicker startDatePicker;
     private DatePicker endDatePicker;
     private LineChart<Number, Number> trafficChart;
+    private TextArea metricsArea;
     private XYChart.Series<Number, Number> dataSeries;
     
     // Data
@@ -64,7 +93,31 @@ public class VPNServerApp extends Application {
     public void start(Stage primaryStage) {
         try {
             // Initialize server
-            vpnServer = new VPNServer(SERVER_PORT);
+            VPNServer.TransportMode transportMode = VPNServer.TransportMode.valueOf(
+                    System.getProperty(TRANSPORT_PROPERTY, VPNServer.TransportMode.BLOCKING.name()));
+            ExecutionMode executionMode = ExecutionMode.valueOf(
+                    System.getProperty(EXECUTION_PROPERTY, ExecutionMode.PLATFORM.name()));
+            vpnServer = new VPNServer(SERVER_PORT, transportMode, executionMode);
+            vpnServer.setSlowConsumerPolicy(VPNServer.SlowConsumerPolicy.valueOf(
+                    System.getProperty(SLOW_CONSUMER_PROPERTY, VPNServer.SlowConsumerPolicy.BLOCK.name())));
+            String keyStore = System.getProperty(KEYSTORE_PROPERTY, DEFAULT_KEYSTORE);
+            if (!keyStore.isEmpty()) {
+                vpnServer.setKeyStore(Path.of(keyStore), System.getProperty(
+                        KEYSTORE_PASSWORD_PROPERTY, DEFAULT_KEYSTORE_PASSWORD).toCharArray());
+            }
+            String cipherSuite = System.getProperty(CIPHER_SUITE_PROPERTY, "");
+            if (!cipherSuite.isEmpty()) {
+                vpnServer.setCipherSuite(CipherSuite.valueOf(cipherSuite));
+            }
+            vpnServer.setRekeyLimits(
+                    Long.getLong(REKEY_BYTES_PROPERTY, AESEncryption.DEFAULT_REKEY_BYTES),
+                    Long.getLong(REKEY_RECORDS_PROPERTY, AESEncryption.DEFAULT_REKEY_RECORDS));
+            vpnServer.setCompressionEnabled(Boolean.parseBoolean(System.getProperty(COMPRESSION_PROPERTY, "true")));
+            vpnServer.setHandshakeTimeoutMillis(
+                    Long.getLong(HANDSHAKE_TIMEOUT_PROPERTY, VPNServer.DEFAULT_HANDSHAKE_TIMEOUT_MILLIS));
+            vpnServer.setKeepaliveIntervalMillis(
+                    Long.getLong(KEEPALIVE_PROPERTY, VPNServer.DEFAULT_KEEPALIVE_INTERVAL_MILLIS));
+            vpnServer.setIdleTimeoutMillis(Long.getLong(IDLE_TIMEOUT_PROPERTY, VPNServer.DEFAULT_IDLE_TIMEOUT_MILLIS));
             vpnServer.initialize();
             
             // Create UI
@@ -148,7 +201,12 @@ public class VPNServerApp extends Application {
         trafficGraphTab.setClosable(false);
         trafficGraphTab.setContent(createTrafficGraphPanel());
         
-        tabPane.getTabs().addAll(connectionsTab, dataTransfersTab, securityEventsTab, trafficGraphTab);
+        // Metrics tab
+        Tab metricsTab = new Tab("Metrics");
+        metricsTab.setClosable(false);
+        metricsTab.setContent(createMetricsPanel());
+        
+        tabPane.getTabs().addAll(connectionsTab, dataTransfersTab, securityEventsTab, trafficGraphTab, metricsTab);
         
         return tabPane;
     }
@@ -331,6 +389,22 @@ public class VPNServerApp extends Application {
         return panel;
     }
     
+    /**
+     * Creates the panel showing the live server metrics
+     */
+    private VBox createMetricsPanel() {
+        VBox panel = new VBox(10);
+        panel.setPadding(new Insets(10));
+        
+        metricsArea = new TextArea();
+        metricsArea.setEditable(false);
+        metricsArea.setPrefHeight(400);
+        
+        panel.getChildren().add(metricsArea);
+        
+        return panel;
+    }
+    
     /**
      * Starts the refresh timer to update the data periodically
      */
@@ -344,6 +418,9 @@ public class VPNServerApp extends Application {
                         // Update client count
                         clientCountLabel.setText("Connected clients: " + vpnServer.getClientCount());
                         
+                        // Update metrics
+                        metricsArea.setText(vpnServer.getMetrics().report());
+                        
                         // Refresh data transfers if a connection is selected
                         ConnectionLog selectedConnection = connectionsTable.getSelectionModel().getSelectedItem();
                         if (selectedConnection != null) {
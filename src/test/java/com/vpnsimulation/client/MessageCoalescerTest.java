@@ -0,0 +1,98 @@
+package com.vpnsimulation.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.vpnsimulation.common.util.RecordBatch;
+
+class MessageCoalescerTest {
+
+    // Room for exactly four 8-byte messages
+    private static final int RECORD_SIZE = 4 * (RecordBatch.LENGTH_PREFIX + 8);
+    private static final long LONG_LINGER_MICROS = TimeUnit.SECONDS.toMicros(10);
+
+    private static byte[] message(int id) {
+        byte[] message = new byte[8];
+        message[0] = (byte) id;
+        return message;
+    }
+
+    @Test
+    void aFilledBatchIsWrittenOffTheSendersThread() throws Exception {
+        CountDownLatch socketBlocked = new CountDownLatch(1);
+        List<String> writers = new CopyOnWriteArrayList<>();
+        MessageCoalescer coalescer = new MessageCoalescer(RECORD_SIZE, LONG_LINGER_MICROS, (destination, messages) -> {
+            writers.add(Thread.currentThread().getName());
+            try {
+                socketBlocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        List<CompletableFuture<Void>> sent = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            sent.add(coalescer.add("bob", message(i)));
+        }
+        // The sender got here while the write is still stuck on the socket
+        assertFalse(sent.get(3).isDone());
+
+        socketBlocked.countDown();
+        CompletableFuture.allOf(sent.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("vpn-coalescer"), writers);
+        coalescer.close();
+    }
+
+    @Test
+    void batchesAreWrittenInTheOrderTheyFilled() throws Exception {
+        List<Integer> written = new CopyOnWriteArrayList<>();
+        MessageCoalescer coalescer = new MessageCoalescer(RECORD_SIZE, LONG_LINGER_MICROS, (destination, messages) -> {
+            for (byte[] message : messages) {
+                written.add((int) message[0]);
+            }
+        });
+
+        CompletableFuture<Void> last = null;
+        for (int i = 0; i < 10; i++) {
+            last = coalescer.add("bob", message(i));
+        }
+        // Two full batches went to the coalescer's thread; the caller writes the rest
+        coalescer.flush("bob");
+        last.get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), written);
+        coalescer.close();
+    }
+
+    @Test
+    void aBatchThatDoesNotFillGoesOutAfterTheLingerTime() throws Exception {
+        List<String> destinations = new CopyOnWriteArrayList<>();
+        MessageCoalescer coalescer = new MessageCoalescer(RECORD_SIZE, 1_000,
+                (destination, messages) -> destinations.add(destination));
+
+        coalescer.add("bob", message(1)).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("bob"), destinations);
+        coalescer.close();
+    }
+
+    @Test
+    void closingFailsWhatStillWaits() {
+        MessageCoalescer coalescer = new MessageCoalescer(RECORD_SIZE, LONG_LINGER_MICROS, (destination, messages) -> {
+        });
+        CompletableFuture<Void> waiting = coalescer.add("bob", message(1));
+        coalescer.close();
+
+        assertTrue(waiting.isCompletedExceptionally());
+        assertTrue(coalescer.add("bob", message(2)).isCompletedExceptionally());
+    }
+}
@@ -0,0 +1,100 @@
+package com.vpnsimulation.common.encryption;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import org.junit.jupiter.api.Test;
+
+import com.vpnsimulation.common.util.Message;
+import com.vpnsimulation.common.util.PayloadCompressor;
+
+class AESEncryptionTest {
+
+    private static final byte[] SECRET = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private static AESEncryption endpoint(AESEncryption.Role role) {
+        AESEncryption encryption = new AESEncryption();
+        encryption.initFromSharedSecret(SECRET, role);
+        return encryption;
+    }
+
+    @Test
+    void opensRecordsOfThePeerInBothDirections() throws GeneralSecurityException {
+        AESEncryption client = endpoint(AESEncryption.Role.CLIENT);
+        AESEncryption server = endpoint(AESEncryption.Role.SERVER);
+        byte[] plaintext = "hello".getBytes(StandardCharsets.UTF_8);
+
+        assertArrayEquals(plaintext, server.decrypt(client.encrypt(plaintext)));
+        assertArrayEquals(plaintext, client.decrypt(server.encrypt(plaintext)));
+    }
+
+    @Test
+    void rejectsReflectedRecords() throws GeneralSecurityException {
+        AESEncryption client = endpoint(AESEncryption.Role.CLIENT);
+        byte[] record = client.encrypt("hello".getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(GeneralSecurityException.class, () -> client.decrypt(record));
+    }
+
+    @Test
+    void rejectsRecordsWithTheSenderByteRewritten() throws GeneralSecurityException {
+        AESEncryption client = endpoint(AESEncryption.Role.CLIENT);
+        AESEncryption otherClient = endpoint(AESEncryption.Role.CLIENT);
+        byte[] record = client.encrypt("hello".getBytes(StandardCharsets.UTF_8));
+        record[0] = 'S';
+
+        // The nonce claims the server, but the record is sealed under the client's key
+        assertThrows(GeneralSecurityException.class, () -> otherClient.decrypt(record));
+    }
+
+    @Test
+    void rejectsReplayedRecords() throws GeneralSecurityException {
+        AESEncryption client = endpoint(AESEncryption.Role.CLIENT);
+        AESEncryption server = endpoint(AESEncryption.Role.SERVER);
+        byte[] record = client.encrypt(new byte[8]);
+        server.decrypt(record);
+
+        assertThrows(ReplayedRecordException.class, () -> server.decrypt(record));
+    }
+
+    @Test
+    void recordsOnlyOpenWithTheHeaderTheyWereSealedWith() throws GeneralSecurityException {
+        AESEncryption client = endpoint(AESEncryption.Role.CLIENT);
+        AESEncryption server = endpoint(AESEncryption.Role.SERVER);
+        Message message = new Message(Message.MessageType.DATA, "alice", null, "bob");
+        message.setAttribute(PayloadCompressor.LENGTH_ATTRIBUTE, "100");
+        byte[] record = client.encrypt(new byte[10], message.getAssociatedData());
+
+        message.setAttribute(PayloadCompressor.LENGTH_ATTRIBUTE, "101");
+        assertThrows(GeneralSecurityException.class, () -> server.decrypt(record.clone(), message.getAssociatedData()));
+        message.setAttribute(PayloadCompressor.LENGTH_ATTRIBUTE, "100");
+        message.setDestinationAddress("mallory");
+        assertThrows(GeneralSecurityException.class, () -> server.decrypt(record.clone(), message.getAssociatedData()));
+        assertThrows(GeneralSecurityException.class, () -> server.decrypt(record.clone()));
+
+        message.setDestinationAddress("bob");
+        assertArrayEquals(new byte[10], server.decrypt(record, message.getAssociatedData()));
+    }
+
+    @Test
+    void reencryptRebindsTheRecordToTheForwardedHeader() throws GeneralSecurityException {
+        AESEncryption alice = endpoint(AESEncryption.Role.CLIENT);
+        AESEncryption serverFromAlice = endpoint(AESEncryption.Role.SERVER);
+        AESEncryption bob = new AESEncryption();
+        AESEncryption serverToBob = new AESEncryption();
+        byte[] bobSecret = "fedcba9876543210fedcba9876543210".getBytes(StandardCharsets.US_ASCII);
+        bob.initFromSharedSecret(bobSecret, AESEncryption.Role.CLIENT);
+        serverToBob.initFromSharedSecret(bobSecret, AESEncryption.Role.SERVER);
+
+        Message incoming = new Message(Message.MessageType.DATA, "alice", null, "bob");
+        Message forwarded = new Message(Message.MessageType.DATA, "alice-route", null, "bob");
+        byte[] plaintext = "hello".getBytes(StandardCharsets.UTF_8);
+        byte[] record = alice.encrypt(plaintext, incoming.getAssociatedData());
+
+        serverFromAlice.reencrypt(record, incoming.getAssociatedData(), serverToBob, forwarded.getAssociatedData());
+        assertArrayEquals(plaintext, bob.decrypt(record, forwarded.getAssociatedData()));
+    }
+}
@@ -0,0 +1,94 @@
+package com.vpnsimulation.common.encryption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ReplayWindowTest {
+
+    private static boolean accept(ReplayWindow window, long sequence) {
+        if (!window.check(sequence)) {
+            return false;
+        }
+        window.update(sequence);
+        return true;
+    }
+
+    @Test
+    void acceptsEachSequenceNumberOnce() {
+        ReplayWindow window = new ReplayWindow();
+        assertTrue(accept(window, 0));
+        assertFalse(accept(window, 0));
+        assertTrue(accept(window, 1));
+        assertFalse(accept(window, 1));
+        assertFalse(window.check(-1));
+    }
+
+    @Test
+    void acceptsReorderedRecordsInsideTheWindow() {
+        ReplayWindow window = new ReplayWindow();
+        assertTrue(accept(window, 100));
+        assertTrue(accept(window, 90));
+        assertTrue(accept(window, 99));
+        assertFalse(accept(window, 90));
+        assertTrue(accept(window, 0));
+    }
+
+    @Test
+    void windowEdgeIsExact() {
+        ReplayWindow window = new ReplayWindow();
+        long highest = 10_000;
+        assertTrue(accept(window, highest));
+
+        assertTrue(window.check(highest - ReplayWindow.SIZE + 1));
+        assertFalse(window.check(highest - ReplayWindow.SIZE));
+        assertTrue(accept(window, highest - ReplayWindow.SIZE + 1));
+        assertFalse(accept(window, highest - ReplayWindow.SIZE + 1));
+    }
+
+    @Test
+    void checkDoesNotMoveTheWindow() {
+        ReplayWindow window = new ReplayWindow();
+        assertTrue(accept(window, 5));
+        // A forged record far ahead that fails to authenticate is never updated
+        assertTrue(window.check(1_000_000));
+        assertTrue(accept(window, 4));
+    }
+
+    @Test
+    void largeJumpsForgetBitsOfTheWordsTheyReuse() {
+        ReplayWindow window = new ReplayWindow();
+        for (long sequence = 0; sequence < 64; sequence++) {
+            assertTrue(accept(window, sequence));
+        }
+        // Shares its bitmap word with 0..63, which are all marked as seen
+        long aliased = 16 * 64;
+        assertTrue(accept(window, aliased + 63));
+        assertTrue(accept(window, aliased));
+        assertFalse(accept(window, aliased));
+        assertFalse(window.check(63));
+    }
+
+    @Test
+    void stepsAcrossWordBoundaries() {
+        ReplayWindow window = new ReplayWindow();
+        for (long sequence = 0; sequence < 5_000; sequence += 3) {
+            assertTrue(accept(window, sequence));
+            assertFalse(window.check(sequence));
+        }
+        for (long sequence = 5_000 - ReplayWindow.SIZE + 2; sequence < 5_000; sequence++) {
+            assertEquals(sequence % 3 != 0, window.check(sequence), "sequence " + sequence);
+        }
+    }
+
+    @Test
+    void resetForgetsEverything() {
+        ReplayWindow window = new ReplayWindow();
+        assertTrue(accept(window, 1_000));
+        window.reset();
+        assertTrue(accept(window, 0));
+        assertTrue(accept(window, 1_000));
+    }
+}
@@ -0,0 +1,110 @@
+package com.vpnsimulation.common.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class BinaryMessageCodecTest {
+
+    private static Message sample() {
+        Message message = new Message(Message.MessageType.DATA, "sender", "content é中", "destination");
+        message.setAttribute("key", "value");
+        message.setPayload(new byte[] { 1, 2, 3 });
+        return message;
+    }
+
+    private static byte[] encode(Message message) throws IOException {
+        ByteBuffer frame = BinaryMessageCodec.encodeFrame(message);
+        assertEquals(frame.remaining() - MessageFraming.LENGTH_PREFIX_SIZE, frame.getInt(),
+                "the length prefix must match the body");
+        byte[] body = new byte[frame.remaining()];
+        frame.get(body);
+        return body;
+    }
+
+    @Test
+    void roundTripsAllFields() throws IOException {
+        Message message = sample();
+        Message decoded = BinaryMessageCodec.decode(ByteBuffer.wrap(encode(message)));
+
+        assertEquals(message.getType(), decoded.getType());
+        assertEquals(message.getSender(), decoded.getSender());
+        assertEquals(message.getDestinationAddress(), decoded.getDestinationAddress());
+        assertEquals(message.getContent(), decoded.getContent());
+        assertEquals(message.getTimestamp(), decoded.getTimestamp());
+        assertEquals("value", decoded.getAttribute("key"));
+        assertArrayEquals(message.getPayload(), decoded.getPayload());
+    }
+
+    @Test
+    void unpairedSurrogatesKeepFramesInStep() throws IOException {
+        // Java strings may hold half of a surrogate pair, e.g. a truncated emoji
+        Message message = new Message(Message.MessageType.DATA, "\uDC00sender", "hi\uD83D", "destination");
+        message.setAttribute("key\uD83D", "\uD83Dvalue");
+        Message next = new Message(Message.MessageType.PING, "server", null);
+
+        ByteBuffer frames = ByteBuffer.allocate(1024);
+        frames.put(MessageCodec.BINARY.encodeFrame(message));
+        frames.put(MessageCodec.BINARY.encodeFrame(next));
+        frames.flip();
+        encode(message);
+
+        // UTF-8 encoding writes each unpaired surrogate as '?'
+        Message decoded = MessageFraming.decode(frames, MessageCodec.BINARY);
+        assertEquals("?sender", decoded.getSender());
+        assertEquals("hi?", decoded.getContent());
+        assertEquals("?value", decoded.getAttribute("key?"));
+        assertEquals(Message.MessageType.PING, MessageFraming.decode(frames, MessageCodec.BINARY).getType());
+        assertEquals(0, frames.remaining());
+    }
+
+    @Test
+    void rejectsEveryTruncation() throws IOException {
+        byte[] encoded = encode(sample());
+        for (int length = 0; length < encoded.length; length++) {
+            ByteBuffer truncated = ByteBuffer.wrap(Arrays.copyOf(encoded, length));
+            assertThrows(IOException.class, () -> BinaryMessageCodec.decode(truncated), "length " + length);
+        }
+    }
+
+    @Test
+    void rejectsUnknownVersionAndType() throws IOException {
+        byte[] badVersion = encode(sample());
+        badVersion[0] = (byte) (BinaryMessageCodec.VERSION + 1);
+        assertThrows(IOException.class, () -> BinaryMessageCodec.decode(ByteBuffer.wrap(badVersion)));
+
+        byte[] badType = encode(sample());
+        badType[1] = (byte) Message.MessageType.values().length;
+        assertThrows(IOException.class, () -> BinaryMessageCodec.decode(ByteBuffer.wrap(badType)));
+    }
+
+    @Test
+    void rejectsNegativeAndOversizedLengths() throws IOException {
+        Message message = new Message(Message.MessageType.DATA, null, null);
+        message.setPayload(new byte[16]);
+        byte[] encoded = encode(message);
+        // The payload length follows the header: version, type, flags and timestamp
+        int lengthOffset = 3 + Long.BYTES;
+
+        ByteBuffer.wrap(encoded).putInt(lengthOffset, -1);
+        assertThrows(IOException.class, () -> BinaryMessageCodec.decode(ByteBuffer.wrap(encoded)));
+
+        ByteBuffer.wrap(encoded).putInt(lengthOffset, Integer.MAX_VALUE);
+        assertThrows(IOException.class, () -> BinaryMessageCodec.decode(ByteBuffer.wrap(encoded)));
+    }
+
+    @Test
+    void rejectsAttributeCountBeyondInput() throws IOException {
+        Message message = new Message(Message.MessageType.DATA, null, null);
+        message.setAttribute("key", "value");
+        byte[] encoded = encode(message);
+        ByteBuffer.wrap(encoded).putShort(3 + Long.BYTES, (short) 0xFFFF);
+        assertThrows(IOException.class, () -> BinaryMessageCodec.decode(ByteBuffer.wrap(encoded)));
+    }
+}
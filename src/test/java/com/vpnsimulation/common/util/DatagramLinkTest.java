@@ -0,0 +1,232 @@
+package com.vpnsimulation.common.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class DatagramLinkTest {
+
+    private final List<ByteBuffer> sent = new ArrayList<>();
+    private final List<ByteBuffer> acks = new ArrayList<>();
+    private final DatagramLink sender = new DatagramLink(datagram -> sent.add(copy(datagram)));
+    private final DatagramLink receiver = new DatagramLink(datagram -> acks.add(copy(datagram)));
+
+    private static ByteBuffer copy(ByteBuffer datagram) {
+        ByteBuffer copy = ByteBuffer.allocate(datagram.remaining());
+        copy.put(datagram);
+        return copy.flip();
+    }
+
+    private static byte[] frame(int length, int seed) {
+        byte[] frame = new byte[length];
+        for (int i = 0; i < length; i++) {
+            frame[i] = (byte) (seed + i);
+        }
+        return frame;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private List<byte[]> deliver(List<ByteBuffer> datagrams) throws IOException {
+        List<byte[]> frames = new ArrayList<>();
+        for (ByteBuffer datagram : datagrams) {
+            for (ByteBuffer frame : receiver.receive(datagram.duplicate())) {
+                frames.add(bytes(frame));
+            }
+        }
+        return frames;
+    }
+
+    private void returnAcks() throws IOException {
+        List<ByteBuffer> pending = new ArrayList<>(acks);
+        acks.clear();
+        for (ByteBuffer ack : pending) {
+            sender.receive(ack);
+        }
+    }
+
+    @Test
+    void deliversReliableFramesInOrderWhateverOrderTheirFragmentsArriveIn() throws IOException {
+        byte[] first = frame(3 * DatagramLink.MAX_FRAGMENT_SIZE + 10, 1);
+        byte[] second = frame(20, 2);
+        sender.send(ByteBuffer.wrap(first), true);
+        sender.send(ByteBuffer.wrap(second), true);
+        assertEquals(5, sent.size());
+
+        List<ByteBuffer> reversed = new ArrayList<>(sent);
+        Collections.reverse(reversed);
+        List<byte[]> frames = deliver(reversed);
+
+        assertEquals(2, frames.size());
+        assertArrayEquals(first, frames.get(0));
+        assertArrayEquals(second, frames.get(1));
+        assertEquals(0, deliver(sent).size());
+        assertEquals(5, receiver.getDuplicates());
+
+        returnAcks();
+        assertEquals(0, sender.getUnacknowledged());
+    }
+
+    @Test
+    void resendsAFragmentOnceThreeLaterOnesWereAcknowledged() throws IOException {
+        // A receiver can only acknowledge once the link's first fragment arrived
+        sender.send(ByteBuffer.wrap(frame(10, 9)), true);
+        deliver(sent);
+        returnAcks();
+        sent.clear();
+
+        for (int i = 0; i < 5; i++) {
+            sender.send(ByteBuffer.wrap(frame(10, i)), true);
+        }
+        List<ByteBuffer> firstRound = new ArrayList<>(sent);
+        sent.clear();
+
+        assertTrue(deliver(firstRound.subList(1, 5)).isEmpty());
+        returnAcks();
+        assertEquals(1, sent.size());
+        assertEquals(1, sender.getRetransmissions());
+
+        List<byte[]> frames = deliver(sent);
+        assertEquals(5, frames.size());
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(frame(10, i), frames.get(i));
+        }
+        returnAcks();
+        assertEquals(0, sender.getUnacknowledged());
+    }
+
+    @Test
+    void resendsALostFragmentWhenTheRetransmissionTimeoutPasses() throws Exception {
+        byte[] lost = frame(100, 7);
+        sender.send(ByteBuffer.wrap(lost), true);
+        sent.clear();
+
+        sender.tick();
+        assertTrue(sent.isEmpty());
+        Thread.sleep(250);
+        sender.tick();
+
+        assertEquals(1, sender.getRetransmissions());
+        List<byte[]> frames = deliver(sent);
+        assertEquals(1, frames.size());
+        assertArrayEquals(lost, frames.get(0));
+    }
+
+    @Test
+    void unreliableFramesReassembleOutOfOrderAndAreLostWithAFragment() throws IOException {
+        byte[] reordered = frame(2 * DatagramLink.MAX_FRAGMENT_SIZE + 1, 3);
+        sender.send(ByteBuffer.wrap(reordered), false);
+        List<ByteBuffer> datagrams = new ArrayList<>(sent);
+        Collections.reverse(datagrams);
+        List<byte[]> frames = deliver(datagrams);
+        assertEquals(1, frames.size());
+        assertArrayEquals(reordered, frames.get(0));
+
+        sent.clear();
+        sender.send(ByteBuffer.wrap(frame(2 * DatagramLink.MAX_FRAGMENT_SIZE, 4)), false);
+        assertTrue(deliver(sent.subList(1, 2)).isEmpty());
+        // Nothing is resent, and the reliable path does not wait for it
+        sender.tick();
+        assertEquals(2, sent.size());
+        assertEquals(0, sender.getUnacknowledged());
+    }
+
+    @Test
+    void dropsTheOldestPartialFrameOnceTooManyWait() throws IOException {
+        for (int i = 0; i < 65; i++) {
+            sender.send(ByteBuffer.wrap(frame(2 * DatagramLink.MAX_FRAGMENT_SIZE, i)), false);
+        }
+        List<ByteBuffer> firstFragments = new ArrayList<>();
+        for (int i = 0; i < sent.size(); i += 2) {
+            firstFragments.add(sent.get(i));
+        }
+        deliver(firstFragments);
+
+        assertEquals(1, receiver.getFramesLost());
+    }
+
+    @Test
+    void rejectsFragmentCountsNoFrameNeeds() {
+        ByteBuffer datagram = ByteBuffer.allocate(9 + 10);
+        datagram.put((byte) 2).putInt(1).putShort((short) 0).putShort((short) 0xFFFF).position(datagram.limit());
+
+        assertThrows(IOException.class, () -> receiver.receive(datagram.flip()));
+    }
+
+    @Test
+    void onlyTheFirstFragmentOpensALink() throws IOException {
+        sender.send(ByteBuffer.wrap(frame(10, 1)), true);
+        sender.send(ByteBuffer.wrap(frame(10, 2)), true);
+
+        assertTrue(DatagramLink.opensLink(sent.get(0).duplicate()));
+        assertFalse(DatagramLink.opensLink(sent.get(1).duplicate()));
+    }
+
+    @Test
+    void keepsOnlyAFewFragmentsThatArriveBeforeThePeersFirstOne() throws IOException {
+        for (int i = 0; i < 8; i++) {
+            sender.send(ByteBuffer.wrap(frame(10, i)), true);
+        }
+
+        assertTrue(deliver(sent.subList(1, 8)).isEmpty());
+        // Without the first fragment there is nothing to acknowledge against
+        assertTrue(acks.isEmpty());
+        List<byte[]> frames = deliver(sent.subList(0, 1));
+        assertEquals(5, frames.size());
+        assertArrayEquals(frame(10, 4), frames.get(4));
+    }
+
+    @Test
+    void ignoresAnAckForFragmentsThatWereNeverSent() throws IOException {
+        sender.send(ByteBuffer.wrap(frame(10, 1)), true);
+        deliver(sent);
+        ByteBuffer ack = acks.get(0);
+        // Claims ten more fragments than were sent
+        ack.putInt(1, ack.getInt(1) + 10);
+
+        sender.receive(ack);
+        assertEquals(1, sender.getInvalidAcks());
+        assertEquals(1, sender.getUnacknowledged());
+
+        ack.putInt(1, ack.getInt(1) - 10);
+        sender.receive(ack.rewind());
+        assertEquals(0, sender.getUnacknowledged());
+    }
+
+    @Test
+    void aRestrictedLinkBuffersOnlySmallReliableFrames() throws IOException {
+        receiver.setRestricted(true);
+        byte[] small = frame(3000, 1);
+        byte[] large = frame(4 * DatagramLink.MAX_FRAGMENT_SIZE, 2);
+        sender.send(ByteBuffer.wrap(small), true);
+        sender.send(ByteBuffer.wrap(large), true);
+        sender.send(ByteBuffer.wrap(frame(10, 3)), false);
+
+        List<byte[]> frames = deliver(sent);
+        assertEquals(1, frames.size());
+        assertArrayEquals(small, frames.get(0));
+        assertEquals(2, receiver.getFramesLost());
+
+        // Fragments far ahead of the next expected one are not kept
+        sent.clear();
+        for (int i = 0; i < 8; i++) {
+            sender.send(ByteBuffer.wrap(frame(10, i)), true);
+        }
+        assertTrue(deliver(sent.subList(1, 8)).isEmpty());
+        assertEquals(4, receiver.getDuplicates());
+    }
+}
@@ -0,0 +1,62 @@
+package com.vpnsimulation.common.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import org.junit.jupiter.api.Test;
+
+class PayloadCompressorTest {
+
+    private static final byte[] TEXT = "the quick brown fox jumps over the lazy dog ".repeat(40)
+            .getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    void roundTripsACompressiblePayload() throws DataFormatException {
+        PayloadCompressor compressor = new PayloadCompressor();
+        byte[] compressed = compressor.compress(TEXT);
+
+        assertNotNull(compressed);
+        assertArrayEquals(TEXT, new PayloadCompressor().decompress(compressed, TEXT.length));
+    }
+
+    @Test
+    void sendsShortAndIncompressiblePayloadsAsTheyAre() {
+        PayloadCompressor compressor = new PayloadCompressor();
+        assertNull(compressor.compress(new byte[PayloadCompressor.DEFAULT_THRESHOLD - 1]));
+
+        byte[] random = new byte[4096];
+        new Random(1).nextBytes(random);
+        assertNull(compressor.compress(random));
+        // Backs off after an incompressible payload, then tries again
+        assertNull(compressor.compress(TEXT));
+        assertNotNull(compressor.compress(TEXT));
+    }
+
+    @Test
+    void rejectsAWrongOrInvalidLength() {
+        byte[] compressed = new PayloadCompressor().compress(TEXT);
+        PayloadCompressor receiver = new PayloadCompressor();
+
+        assertThrows(DataFormatException.class, () -> receiver.decompress(compressed, TEXT.length - 1));
+        assertThrows(DataFormatException.class, () -> receiver.decompress(compressed, TEXT.length + 1));
+        assertThrows(DataFormatException.class, () -> receiver.decompress(compressed, -1));
+        assertThrows(DataFormatException.class,
+                () -> receiver.decompress(compressed, MessageFraming.MAX_FRAME_SIZE + 1));
+        assertThrows(DataFormatException.class, () -> receiver.decompress(new byte[] { 1, 2, 3 }, 10));
+    }
+
+    @Test
+    void readsTheLengthAttribute() {
+        Message message = new Message(Message.MessageType.DATA, "a", null, "b");
+        assertEquals(-1, PayloadCompressor.inflatedLength(message));
+        message.setAttribute(PayloadCompressor.LENGTH_ATTRIBUTE, "1234");
+        assertEquals(1234, PayloadCompressor.inflatedLength(message));
+    }
+}
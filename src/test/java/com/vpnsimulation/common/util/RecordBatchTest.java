@@ -0,0 +1,63 @@
+package com.vpnsimulation.common.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class RecordBatchTest {
+
+    @Test
+    void unpacksWhatWasPacked() throws IOException {
+        List<byte[]> messages = List.of(
+                "hello".getBytes(StandardCharsets.UTF_8),
+                new byte[0],
+                new byte[0xFFFF],
+                "bye".getBytes(StandardCharsets.UTF_8));
+
+        byte[] record = RecordBatch.pack(messages);
+        assertEquals(4 * RecordBatch.LENGTH_PREFIX + 5 + 0xFFFF + 3, record.length);
+
+        List<byte[]> unpacked = RecordBatch.unpack(record);
+        assertEquals(messages.size(), unpacked.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertArrayEquals(messages.get(i), unpacked.get(i));
+        }
+    }
+
+    @Test
+    void anEmptyRecordHoldsNoMessages() throws IOException {
+        assertTrue(RecordBatch.unpack(RecordBatch.pack(List.of())).isEmpty());
+    }
+
+    @Test
+    void rejectsEveryTruncation() {
+        byte[] record = RecordBatch.pack(List.of(
+                "first".getBytes(StandardCharsets.UTF_8),
+                "second".getBytes(StandardCharsets.UTF_8)));
+        // Cutting exactly between the two messages leaves a valid record
+        int boundary = RecordBatch.LENGTH_PREFIX + 5;
+
+        for (int length = 1; length < record.length; length++) {
+            if (length == boundary) {
+                continue;
+            }
+            byte[] truncated = Arrays.copyOf(record, length);
+            assertThrows(IOException.class, () -> RecordBatch.unpack(truncated), "length " + length);
+        }
+    }
+
+    @Test
+    void rejectsALengthPastTheEndOfTheRecord() {
+        byte[] record = {(byte) 0xFF, (byte) 0xFF, 1, 2, 3};
+
+        assertThrows(IOException.class, () -> RecordBatch.unpack(record));
+    }
+}
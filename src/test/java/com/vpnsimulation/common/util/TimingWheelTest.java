@@ -0,0 +1,122 @@
+package com.vpnsimulation.common.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TimingWheelTest {
+
+    private static final long TICK_MILLIS = 10;
+    private static final int WHEEL_SIZE = 4;
+
+    private final TimingWheel wheel = new TimingWheel("test-wheel", TICK_MILLIS, WHEEL_SIZE);
+
+    @AfterEach
+    void stopWheel() {
+        wheel.stop();
+    }
+
+    @Test
+    void rejectsWheelSizesThatAreNotPowersOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel("test-wheel", TICK_MILLIS, 6));
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel("test-wheel", TICK_MILLIS, 0));
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel("test-wheel", 0, WHEEL_SIZE));
+    }
+
+    @Test
+    void firesDeadlinesSeveralTurnsAheadNoEarlierThanDue() throws InterruptedException {
+        wheel.start();
+        // 10 ticks on a wheel of 4 buckets: the timeout waits two full turns
+        long delayMillis = 10 * TICK_MILLIS;
+        CountDownLatch fired = new CountDownLatch(1);
+        AtomicLong firedAt = new AtomicLong();
+        long scheduledAt = System.nanoTime();
+        wheel.schedule(() -> {
+            firedAt.set(System.nanoTime());
+            fired.countDown();
+        }, delayMillis);
+
+        // Its bucket comes round twice before the deadline without running it
+        Thread.sleep(delayMillis / 2);
+        assertEquals(1, fired.getCount());
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertTrue(firedAt.get() - scheduledAt >= TimeUnit.MILLISECONDS.toNanos(delayMillis));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void timeoutsSharingABucketFireInTheirOwnTurn() throws InterruptedException {
+        wheel.start();
+        CountDownLatch near = new CountDownLatch(1);
+        CountDownLatch far = new CountDownLatch(1);
+        // Exactly one turn apart, so they hash to the same bucket
+        wheel.schedule(near::countDown, 2 * TICK_MILLIS);
+        wheel.schedule(far::countDown, (2 + WHEEL_SIZE) * TICK_MILLIS);
+
+        assertTrue(near.await(5, TimeUnit.SECONDS));
+        assertEquals(1, far.getCount());
+        assertEquals(1, wheel.size());
+        assertTrue(far.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void cancelledTimeoutsNeverRun() throws InterruptedException {
+        wheel.start();
+        AtomicBoolean ran = new AtomicBoolean();
+        CountDownLatch later = new CountDownLatch(1);
+        TimingWheel.Timeout cancelled = wheel.schedule(() -> ran.set(true), 3 * TICK_MILLIS);
+        // In the same bucket as the cancelled one, a turn later
+        wheel.schedule(later::countDown, (3 + WHEEL_SIZE) * TICK_MILLIS);
+        assertEquals(2, wheel.size());
+
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        assertEquals(1, wheel.size());
+
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+    }
+
+    @Test
+    void cancellingAfterTheTaskRanFails() throws InterruptedException {
+        wheel.start();
+        CountDownLatch fired = new CountDownLatch(1);
+        TimingWheel.Timeout timeout = wheel.schedule(fired::countDown, TICK_MILLIS);
+
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertFalse(timeout.cancel());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void aFailingTaskDoesNotStopTheWheel() throws InterruptedException {
+        wheel.start();
+        CountDownLatch fired = new CountDownLatch(1);
+        wheel.schedule(() -> {
+            throw new IllegalStateException("expected by the test");
+        }, TICK_MILLIS);
+        wheel.schedule(fired::countDown, 3 * TICK_MILLIS);
+
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void stoppedWheelsRunNothing() throws InterruptedException {
+        wheel.start();
+        AtomicBoolean ran = new AtomicBoolean();
+        wheel.schedule(() -> ran.set(true), 2 * TICK_MILLIS);
+        wheel.stop();
+
+        Thread.sleep(10 * TICK_MILLIS);
+        assertFalse(ran.get());
+    }
+}
@@ -0,0 +1,104 @@
+package com.vpnsimulation.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.vpnsimulation.common.database.DatabaseManager;
+import com.vpnsimulation.common.util.Metrics;
+
+class DatabaseLoggerTest {
+
+    /**
+     * A database whose writes hang until the test lets them through
+     */
+    private static class StalledDatabase extends DatabaseManager {
+        final CountDownLatch released = new CountDownLatch(1);
+        final List<String> rows = new CopyOnWriteArrayList<>();
+
+        private void await() {
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void logDataTransfer(int connectionId, String sourceIp, String destinationIp,
+                                    int dataSize, boolean isEncrypted, String packetType) {
+            await();
+            rows.add("transfer " + connectionId + " " + dataSize);
+        }
+
+        @Override
+        public void logDisconnection(int connectionId) {
+            await();
+            rows.add("disconnection " + connectionId);
+        }
+    }
+
+    @Test
+    void aLoopThreadKeepsServingSessionsWhileTheDatabaseStalls() throws Exception {
+        StalledDatabase database = new StalledDatabase();
+        DatabaseLogger logger = new DatabaseLogger(database, new Metrics(), DatabaseLogger.DEFAULT_CAPACITY);
+        int sessions = 50;
+        int recordsPerSession = 20;
+        CountDownLatch served = new CountDownLatch(sessions * recordsPerSession);
+
+        // Stands in for an event loop forwarding records of many sessions
+        Thread loop = new Thread(() -> {
+            for (int record = 0; record < recordsPerSession; record++) {
+                for (int session = 0; session < sessions; session++) {
+                    logger.logDataTransfer(session, "10.0.0.1", "10.0.0.2", record, true, "DATA");
+                    served.countDown();
+                }
+            }
+        });
+        loop.start();
+
+        assertTrue(served.await(5, TimeUnit.SECONDS), "the loop waited for the database");
+        assertTrue(database.rows.isEmpty());
+
+        database.released.countDown();
+        assertTrue(logger.shutdown(5000));
+        assertEquals(sessions * recordsPerSession, database.rows.size());
+    }
+
+    @Test
+    void writesRowsInTheOrderTheyWereQueued() throws Exception {
+        StalledDatabase database = new StalledDatabase();
+        DatabaseLogger logger = new DatabaseLogger(database, new Metrics(), DatabaseLogger.DEFAULT_CAPACITY);
+        database.released.countDown();
+
+        logger.logDataTransfer(1, "10.0.0.1", "10.0.0.2", 10, true, "DATA");
+        logger.logDataTransfer(1, "10.0.0.1", "10.0.0.2", 20, true, "DATA");
+        logger.logDisconnection(1);
+        assertTrue(logger.shutdown(5000));
+
+        assertEquals(List.of("transfer 1 10", "transfer 1 20", "disconnection 1"), database.rows);
+    }
+
+    @Test
+    void dropsAndCountsRowsInsteadOfWaitingWhenTheQueueIsFull() throws Exception {
+        StalledDatabase database = new StalledDatabase();
+        Metrics metrics = new Metrics();
+        DatabaseLogger logger = new DatabaseLogger(database, metrics, 4);
+
+        for (int i = 0; i < 10; i++) {
+            logger.logDisconnection(i);
+        }
+        // One row is being written, four wait
+        assertEquals(5, metrics.getCount("database.rows.dropped"));
+
+        database.released.countDown();
+        assertTrue(logger.shutdown(5000));
+        assertEquals(5, database.rows.size());
+    }
+}
@@ -0,0 +1,63 @@
+package com.vpnsimulation.server;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+import org.junit.jupiter.api.Test;
+
+class HandshakeCookiesTest {
+
+    private static final String ADDRESS = "/192.0.2.1:40000";
+
+    @Test
+    void acceptsACookieAtTheAddressItWasIssuedFor() {
+        HandshakeCookies cookies = new HandshakeCookies(HandshakeCookies.DEFAULT_LIFETIME_MILLIS);
+        String cookie = cookies.issue(ADDRESS);
+
+        assertTrue(cookies.verify(cookie, ADDRESS));
+        // Stateless: the same cookie verifies again until it expires
+        assertTrue(cookies.verify(cookie, ADDRESS));
+    }
+
+    @Test
+    void rejectsACookieFromAnotherAddressOrServer() {
+        HandshakeCookies cookies = new HandshakeCookies(HandshakeCookies.DEFAULT_LIFETIME_MILLIS);
+        String cookie = cookies.issue(ADDRESS);
+
+        assertFalse(cookies.verify(cookie, "/192.0.2.2:40000"));
+        assertFalse(cookies.verify(cookie, "/192.0.2.1:40001"));
+        assertFalse(new HandshakeCookies(HandshakeCookies.DEFAULT_LIFETIME_MILLIS).verify(cookie, ADDRESS));
+    }
+
+    @Test
+    void rejectsExpiredCookies() throws InterruptedException {
+        HandshakeCookies cookies = new HandshakeCookies(20);
+        String cookie = cookies.issue(ADDRESS);
+        Thread.sleep(50);
+
+        assertFalse(cookies.verify(cookie, ADDRESS));
+    }
+
+    @Test
+    void rejectsACookieWhoseIssueTimeWasMovedForward() throws InterruptedException {
+        HandshakeCookies cookies = new HandshakeCookies(20);
+        byte[] cookie = Base64.getDecoder().decode(cookies.issue(ADDRESS));
+        Thread.sleep(50);
+        ByteBuffer.wrap(cookie).putLong(0, System.currentTimeMillis());
+
+        assertFalse(cookies.verify(Base64.getEncoder().encodeToString(cookie), ADDRESS));
+    }
+
+    @Test
+    void rejectsMalformedCookies() {
+        HandshakeCookies cookies = new HandshakeCookies(HandshakeCookies.DEFAULT_LIFETIME_MILLIS);
+        String cookie = cookies.issue(ADDRESS);
+
+        assertFalse(cookies.verify("not base64!", ADDRESS));
+        assertFalse(cookies.verify("", ADDRESS));
+        assertFalse(cookies.verify(cookie.substring(0, cookie.length() - 4), ADDRESS));
+    }
+}
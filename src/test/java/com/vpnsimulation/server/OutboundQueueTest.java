@@ -0,0 +1,135 @@
+package com.vpnsimulation.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.vpnsimulation.common.util.Metrics;
+
+class OutboundQueueTest {
+
+    private static final int CAPACITY = 64;
+
+    private static OutboundQueue queue(VPNServer.SlowConsumerPolicy policy) {
+        return new OutboundQueue(new Metrics(), CAPACITY, policy, 0);
+    }
+
+    private static ByteBuffer frame(int id) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, id);
+    }
+
+    @Test
+    void concurrentSendersNeverExceedTheCapacity() throws InterruptedException {
+        OutboundQueue queue = queue(VPNServer.SlowConsumerPolicy.BLOCK);
+        AtomicInteger accepted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> senders = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread sender = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < 1000; i++) {
+                        try {
+                            queue.offer(frame(i), true, false);
+                            accepted.incrementAndGet();
+                        } catch (IOException e) {
+                            // Full, as expected once the capacity is taken
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            sender.start();
+            senders.add(sender);
+        }
+        start.countDown();
+        for (Thread sender : senders) {
+            sender.join();
+        }
+
+        assertEquals(CAPACITY, accepted.get());
+        assertEquals(CAPACITY, queue.size());
+    }
+
+    @Test
+    void dropOldestOnlyDropsDroppableFrames() throws IOException {
+        OutboundQueue queue = queue(VPNServer.SlowConsumerPolicy.DROP_OLDEST);
+        for (int i = 0; i < CAPACITY; i++) {
+            // Every other frame is a control frame
+            queue.offer(frame(i), i % 2 == 1, false);
+        }
+        for (int i = CAPACITY; i < CAPACITY + CAPACITY / 2; i++) {
+            queue.offer(frame(i), false, false);
+        }
+        // Only control frames are left, so nothing more fits
+        assertThrows(IOException.class, () -> queue.offer(frame(-1), true, false));
+        assertThrows(IOException.class, () -> queue.offer(frame(-1), false, false));
+
+        List<ByteBuffer> batch = new ArrayList<>();
+        assertEquals(CAPACITY, queue.drainTo(batch));
+        for (int i = 0; i < batch.size(); i++) {
+            int id = batch.get(i).getInt(0);
+            assertEquals(i < CAPACITY / 2 ? i * 2 : CAPACITY + i - CAPACITY / 2, id);
+        }
+    }
+
+    @Test
+    void concurrentOverflowsAreReportedOnce() throws InterruptedException, IOException {
+        for (VPNServer.SlowConsumerPolicy policy : List.of(VPNServer.SlowConsumerPolicy.DROP_OLDEST,
+                VPNServer.SlowConsumerPolicy.BLOCK)) {
+            OutboundQueue queue = queue(policy);
+            AtomicInteger reports = new AtomicInteger();
+            queue.setOverflowListener((reportedPolicy, queuedFrames) -> reports.incrementAndGet());
+            for (int i = 0; i < CAPACITY; i++) {
+                queue.offer(frame(i), true, false);
+            }
+
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> senders = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                Thread sender = new Thread(() -> {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 100; i++) {
+                            try {
+                                queue.offer(frame(i), true, false);
+                            } catch (IOException e) {
+                                // Rejected under BLOCK without waiting
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                sender.start();
+                senders.add(sender);
+            }
+            start.countDown();
+            for (Thread sender : senders) {
+                sender.join();
+            }
+            assertEquals(1, reports.get(), policy.toString());
+
+            // Once drained to half, the next overflow is a new event
+            queue.drainTo(new ArrayList<>());
+            queue.release(CAPACITY / 2);
+            for (int i = 0; i <= CAPACITY / 2; i++) {
+                try {
+                    queue.offer(frame(i), true, false);
+                } catch (IOException e) {
+                    // The last one overflows under BLOCK
+                }
+            }
+            assertEquals(2, reports.get(), policy.toString());
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.vpnsimulation.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.security.GeneralSecurityException;
+
+import org.junit.jupiter.api.Test;
+
+import com.vpnsimulation.common.encryption.SessionResumption;
+
+class SessionTicketCacheTest {
+
+    private final byte[] secret = SessionResumption.newNonce();
+    private final byte[] clientNonce = SessionResumption.newNonce();
+
+    @Test
+    void redeemsOnceWithAValidBinder() throws GeneralSecurityException {
+        SessionTicketCache cache = new SessionTicketCache(16, 60_000);
+        String ticket = cache.issue("alice", secret);
+        byte[] binder = SessionResumption.computeBinder(secret, ticket, clientNonce);
+
+        SessionTicketCache.Entry entry = cache.redeem(ticket, clientNonce, binder);
+        assertNotNull(entry);
+        assertEquals("alice", entry.getRoutingAddress());
+        assertNull(cache.redeem(ticket, clientNonce, binder));
+    }
+
+    @Test
+    void aWrongBinderNeitherRedeemsNorBurnsTheTicket() throws GeneralSecurityException {
+        SessionTicketCache cache = new SessionTicketCache(16, 60_000);
+        String ticket = cache.issue("alice", secret);
+
+        byte[] guessed = SessionResumption.computeBinder(SessionResumption.newNonce(), ticket, clientNonce);
+        assertNull(cache.redeem(ticket, clientNonce, guessed));
+        // Bound to the nonce: a binder for another nonce does not transfer
+        byte[] otherNonce = SessionResumption.computeBinder(secret, ticket, SessionResumption.newNonce());
+        assertNull(cache.redeem(ticket, clientNonce, otherNonce));
+
+        assertNotNull(cache.redeem(ticket, clientNonce, SessionResumption.computeBinder(secret, ticket, clientNonce)));
+    }
+
+    @Test
+    void rejectsExpiredAndTamperedTickets() throws Exception {
+        SessionTicketCache cache = new SessionTicketCache(16, 1);
+        String ticket = cache.issue("alice", secret);
+        Thread.sleep(5);
+        assertNull(cache.redeem(ticket, clientNonce, SessionResumption.computeBinder(secret, ticket, clientNonce)));
+
+        cache.setLifetimeMillis(60_000);
+        String fresh = cache.issue("alice", secret);
+        char[] chars = fresh.toCharArray();
+        chars[20] = chars[20] == 'A' ? 'B' : 'A';
+        String tampered = new String(chars);
+        assertNull(cache.redeem(tampered, clientNonce, SessionResumption.computeBinder(secret, tampered, clientNonce)));
+    }
+}